@@ -0,0 +1,116 @@
+package be.stijnhooft.portal.social;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.task.TaskExecutorBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.*;
+
+/**
+ * Thread pools used to talk to other modules concurrently, and to make thumbnails.
+ * Each pool is bounded and reports its usage to Micrometer.
+ */
+@Configuration
+public class ExecutorConfiguration {
+
+    /**
+     * Spring Boot only provides this executor when the application does not define an executor itself.
+     * Spring MVC needs it to write streaming responses.
+     */
+    @Lazy
+    @Bean(name = {"applicationTaskExecutor", "taskExecutor"})
+    public ThreadPoolTaskExecutor applicationTaskExecutor(TaskExecutorBuilder builder) {
+        return builder.build();
+    }
+
+    /**
+     * When the queue is full, a request is rejected instead of sent by the calling thread:
+     * the caller would not be released by the timeout of the request, so the timeout would not hold exactly when the module is busiest.
+     * A rejected request fails like any other, according to {@link RecurringTasksProperties#getFailurePolicy()}.
+     */
+    @Bean
+    public ExecutorService recurringTasksExecutor(RecurringTasksProperties properties, MeterRegistry meterRegistry) {
+        var executor = new ThreadPoolExecutor(properties.getConcurrency(), properties.getConcurrency(),
+                60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(properties.getQueueCapacity()),
+                new CustomizableThreadFactory("recurring-tasks-"),
+                new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return ExecutorServiceMetrics.monitor(meterRegistry, executor, "recurring-tasks");
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "social.thumbnails", name = "backend", havingValue = "REMOTE", matchIfMissing = true)
+    public ExecutorService imageExecutor(ThumbnailProperties properties, MeterRegistry meterRegistry) {
+        var executor = new ThreadPoolExecutor(properties.getDeleteConcurrency(), properties.getDeleteConcurrency(),
+                60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(100),
+                new CustomizableThreadFactory("image-"),
+                callerRunsUnlessShutdown());
+        executor.allowCoreThreadTimeOut(true);
+        return ExecutorServiceMetrics.monitor(meterRegistry, executor, "image");
+    }
+
+    /**
+     * Making thumbnails is CPU bound: more threads than processors would only make every thumbnail slower.
+     * Callers wait for their thumbnails anyway, so the queue is not bounded.
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "social.thumbnails", name = "backend", havingValue = "LOCAL")
+    public ExecutorService thumbnailExecutor(ThumbnailProperties properties, MeterRegistry meterRegistry) {
+        var executor = new ThreadPoolExecutor(properties.getThreads(), properties.getThreads(),
+                60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new CustomizableThreadFactory("thumbnails-"));
+        executor.allowCoreThreadTimeOut(true);
+        return ExecutorServiceMetrics.monitor(meterRegistry, executor, "thumbnails");
+    }
+
+    /**
+     * Reads the thumbnails of the contact sheet. The sheet is drawn by one thread at a time, which waits for its thumbnails,
+     * so the queue is bounded by the number of persons.
+     */
+    @Bean
+    public ExecutorService contactSheetExecutor(ThumbnailProperties properties, MeterRegistry meterRegistry) {
+        var executor = new ThreadPoolExecutor(properties.getContactSheetConcurrency(), properties.getContactSheetConcurrency(),
+                60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new CustomizableThreadFactory("contact-sheet-"));
+        executor.allowCoreThreadTimeOut(true);
+        return ExecutorServiceMetrics.monitor(meterRegistry, executor, "contact-sheet");
+    }
+
+    /**
+     * An import has at most social.import.concurrency rows queued or being created, so the queue is bounded by the imports themselves.
+     */
+    @Bean
+    public ExecutorService importExecutor(ImportProperties properties, MeterRegistry meterRegistry) {
+        var executor = new ThreadPoolExecutor(properties.getConcurrency(), properties.getConcurrency(),
+                60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new CustomizableThreadFactory("import-"));
+        executor.allowCoreThreadTimeOut(true);
+        return ExecutorServiceMetrics.monitor(meterRegistry, executor, "import");
+    }
+
+    /**
+     * When the queue is full, let the calling thread do the work itself, which slows down new submissions.
+     * Unlike {@link ThreadPoolExecutor.CallerRunsPolicy}, tasks submitted after shutdown are rejected instead of silently dropped,
+     * so that nobody waits forever on their result.
+     */
+    private RejectedExecutionHandler callerRunsUnlessShutdown() {
+        return (task, executor) -> {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Executor has been shut down");
+            }
+            task.run();
+        };
+    }
+
+}
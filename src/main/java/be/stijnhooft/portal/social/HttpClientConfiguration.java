@@ -0,0 +1,102 @@
+package be.stijnhooft.portal.social;
+
+import be.stijnhooft.portal.social.services.RemoteThumbnailBackend;
+import be.stijnhooft.portal.social.services.RecurringTasksService;
+import be.stijnhooft.portal.social.services.ServiceInstanceResolver;
+import io.netty.channel.ChannelOption;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The http clients used to talk to other modules: a blocking one and a non-blocking one.
+ * Connections are pooled and kept alive, and every step of a request has a timeout,
+ * so that a module that hangs cannot tie up our threads indefinitely.
+ */
+@Configuration
+public class HttpClientConfiguration {
+
+    @Bean(destroyMethod = "close")
+    public PoolingHttpClientConnectionManager httpClientConnectionManager(HttpClientProperties properties) {
+        var connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setDefaultMaxPerRoute(properties.getMaxConnectionsPerRoute());
+        connectionManager.setMaxTotal(properties.getMaxConnectionsTotal());
+        return connectionManager;
+    }
+
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient httpClient(PoolingHttpClientConnectionManager connectionManager, HttpClientProperties properties) {
+        var requestConfig = RequestConfig.custom()
+                .setConnectTimeout((int) properties.getConnectTimeout().toMillis())
+                .setSocketTimeout((int) properties.getReadTimeout().toMillis())
+                .setConnectionRequestTimeout((int) properties.getConnectionRequestTimeout().toMillis())
+                .build();
+
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy((response, context) -> {
+                    long keepAliveAnnouncedByServer = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                    return keepAliveAnnouncedByServer > 0 ? keepAliveAnnouncedByServer : properties.getKeepAlive().toMillis();
+                })
+                .evictExpiredConnections()
+                .evictIdleConnections(properties.getIdleEviction().toMillis(), TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    @Bean
+    public RestTemplate restTemplate(CloseableHttpClient httpClient, ServiceInstanceResolver serviceInstanceResolver) {
+        var requestFactory = new HttpComponentsClientHttpRequestFactory(httpClient);
+        requestFactory.setBufferRequestBody(false); // stream uploads instead of holding them in memory
+        return new RestTemplate(new ServiceInstanceInterceptor(serviceInstanceResolver).intercept(requestFactory));
+    }
+
+    /**
+     * Connections of the non-blocking client. Requests that wait for a connection are only limited in time, not in number.
+     * Publishes its usage as reactor.netty.connection.provider.* gauges.
+     */
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider webClientConnectionProvider(HttpClientProperties properties) {
+        return ConnectionProvider.builder("other-modules")
+                .maxConnections(properties.getMaxConnectionsPerRoute())
+                .pendingAcquireMaxCount(-1)
+                .pendingAcquireTimeout(properties.getConnectionRequestTimeout())
+                .maxIdleTime(properties.getIdleEviction())
+                .metrics(true)
+                .build();
+    }
+
+    @Bean
+    public WebClient webClient(WebClient.Builder builder, ConnectionProvider webClientConnectionProvider, HttpClientProperties properties, ServiceInstanceResolver serviceInstanceResolver) {
+        var httpClient = HttpClient.create(webClientConnectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) properties.getConnectTimeout().toMillis())
+                .responseTimeout(properties.getReadTimeout());
+        return builder
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .filter(new ServiceInstanceInterceptor(serviceInstanceResolver))
+                .build();
+    }
+
+    /**
+     * The resolver is injected lazily: it needs the meter registry, which in turn needs this binder.
+     */
+    @Bean
+    public HttpClientPoolMetrics httpClientPoolMetrics(PoolingHttpClientConnectionManager connectionManager, @Lazy ServiceInstanceResolver serviceInstanceResolver) {
+        return new HttpClientPoolMetrics(connectionManager, serviceInstanceResolver, List.of(RemoteThumbnailBackend.SERVICE_ID, RecurringTasksService.SERVICE_ID));
+    }
+
+}
@@ -0,0 +1,63 @@
+package be.stijnhooft.portal.social;
+
+import be.stijnhooft.portal.social.services.ServiceInstanceResolver;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.NonNull;
+import org.apache.http.HttpHost;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.springframework.cloud.client.ServiceInstance;
+
+import java.util.Collection;
+import java.util.function.ToIntFunction;
+
+/**
+ * Publishes the usage of the http connection pool, per other module.
+ * The pool keeps its statistics per host, so the statistics of all known instances of a module are added up.
+ */
+public class HttpClientPoolMetrics implements MeterBinder {
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final ServiceInstanceResolver serviceInstanceResolver;
+    private final Collection<String> serviceIds;
+
+    public HttpClientPoolMetrics(@NonNull PoolingHttpClientConnectionManager connectionManager, @NonNull ServiceInstanceResolver serviceInstanceResolver, @NonNull Collection<String> serviceIds) {
+        this.connectionManager = connectionManager;
+        this.serviceInstanceResolver = serviceInstanceResolver;
+        this.serviceIds = serviceIds;
+    }
+
+    @Override
+    public void bindTo(@NonNull MeterRegistry registry) {
+        for (String serviceId : serviceIds) {
+            gauge(registry, "http.client.pool.leased", "Connections that are in use", serviceId, PoolStats::getLeased);
+            gauge(registry, "http.client.pool.pending", "Requests that are waiting for a connection", serviceId, PoolStats::getPending);
+            gauge(registry, "http.client.pool.available", "Idle connections that can be reused", serviceId, PoolStats::getAvailable);
+        }
+    }
+
+    private void gauge(MeterRegistry registry, String name, String description, String serviceId, ToIntFunction<PoolStats> statistic) {
+        Gauge.builder(name, () -> sum(serviceId, statistic))
+                .description(description)
+                .tag("service", serviceId)
+                .register(registry);
+    }
+
+    private int sum(String serviceId, ToIntFunction<PoolStats> statistic) {
+        return serviceInstanceResolver.getInstances(serviceId)
+                .stream()
+                .map(this::toRoute)
+                .map(connectionManager::getStats)
+                .mapToInt(statistic)
+                .sum();
+    }
+
+    private HttpRoute toRoute(ServiceInstance instance) {
+        var scheme = instance.isSecure() ? "https" : "http";
+        return new HttpRoute(new HttpHost(instance.getHost(), instance.getPort(), scheme), null, instance.isSecure());
+    }
+
+}
@@ -0,0 +1,62 @@
+package be.stijnhooft.portal.social;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Settings for the http client that is used to talk to other modules.
+ */
+@Data
+@ConfigurationProperties(prefix = "social.http-client")
+public class HttpClientProperties {
+
+    /**
+     * Maximum number of open connections to one instance of another module.
+     */
+    private int maxConnectionsPerRoute = 20;
+
+    /**
+     * Maximum number of open connections, to all other modules together.
+     */
+    private int maxConnectionsTotal = 100;
+
+    /**
+     * How long it may take to set up a connection.
+     */
+    private Duration connectTimeout = Duration.ofSeconds(2);
+
+    /**
+     * How long we wait for data from the other module, once connected.
+     */
+    private Duration readTimeout = Duration.ofSeconds(10);
+
+    /**
+     * How long we wait for a free connection of the pool.
+     */
+    private Duration connectionRequestTimeout = Duration.ofSeconds(1);
+
+    /**
+     * How long a connection is kept open for reuse, when the other module does not say how long it may be kept.
+     */
+    private Duration keepAlive = Duration.ofSeconds(30);
+
+    /**
+     * Connections that have not been used for this long are closed.
+     */
+    private Duration idleEviction = Duration.ofSeconds(60);
+
+    /**
+     * Which client the person endpoints use to read and delete persons.
+     */
+    private Implementation implementation = Implementation.BLOCKING;
+
+    public enum Implementation {
+        /** A thread of the web server waits while other modules handle the request. **/
+        BLOCKING,
+        /** No thread waits for other modules, so that a slow module does not use up the threads of the web server. **/
+        REACTIVE
+    }
+
+}
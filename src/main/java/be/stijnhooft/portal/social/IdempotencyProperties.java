@@ -0,0 +1,37 @@
+package be.stijnhooft.portal.social;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Settings for requests that are sent with an Idempotency-Key header.
+ * The interval at which expired requests are removed is social.idempotency.cleanup-interval.
+ */
+@Data
+@ConfigurationProperties(prefix = "social.idempotency")
+public class IdempotencyProperties {
+
+    /**
+     * How long a response is kept at least, to be returned when the request is sent again.
+     */
+    private Duration retention = Duration.ofHours(24);
+
+    /**
+     * How long a request may take. When it has not completed by then, for example because the application stopped,
+     * the request can be sent again with the same key.
+     */
+    private Duration lockDuration = Duration.ofMinutes(5);
+
+    /**
+     * Maximum number of responses that are kept in memory, in front of the database.
+     */
+    private int cacheSize = 1000;
+
+    /**
+     * How long a response is kept in memory.
+     */
+    private Duration cacheExpiry = Duration.ofMinutes(10);
+
+}
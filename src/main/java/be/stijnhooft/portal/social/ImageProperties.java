@@ -0,0 +1,25 @@
+package be.stijnhooft.portal.social;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Settings for the images that are uploaded, before they are passed on to make thumbnails.
+ */
+@Data
+@ConfigurationProperties(prefix = "social.images")
+public class ImageProperties {
+
+    /**
+     * Larger images are refused, before they are read.
+     */
+    private DataSize maxUploadSize = DataSize.ofMegabytes(20);
+
+    /**
+     * Images that are wider or higher are scaled down to this size, before they are passed on.
+     * Has to be at least the size of the largest thumbnail profile.
+     */
+    private int maxDimension = 2048;
+
+}
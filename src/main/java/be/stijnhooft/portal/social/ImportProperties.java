@@ -0,0 +1,19 @@
+package be.stijnhooft.portal.social;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings for importing a lot of persons at once, with api/person/import.
+ */
+@Data
+@ConfigurationProperties(prefix = "social.import")
+public class ImportProperties {
+
+    /**
+     * Maximum number of persons of which the thumbnails and recurring task are being created at the same time, over all imports.
+     * Also the number of persons that one import reads ahead.
+     */
+    private int concurrency = 4;
+
+}
@@ -0,0 +1,45 @@
+package be.stijnhooft.portal.social;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Settings for the outbox: the calls to other modules that are made in the background, and retried when they fail.
+ * The interval at which the due calls are picked up is social.outbox.poll-interval.
+ */
+@Data
+@ConfigurationProperties(prefix = "social.outbox")
+public class OutboxProperties {
+
+    /**
+     * Maximum number of due calls that are picked up at once.
+     */
+    private int batchSize = 20;
+
+    /**
+     * How long to wait before trying again after the first failure. Doubles after every next failure, up to {@link #maxRetryDelay}.
+     */
+    private Duration retryDelay = Duration.ofSeconds(10);
+
+    private Duration maxRetryDelay = Duration.ofHours(1);
+
+    /**
+     * Number of times a call is tried, before it's given up on and kept aside to be looked into.
+     */
+    private int maxAttempts = 20;
+
+    /**
+     * How long an executor may take to make a call.
+     * When it takes longer, for example because the application stopped, another executor takes over.
+     */
+    private Duration claimDuration = Duration.ofMinutes(5);
+
+    /**
+     * How long a create or update of a person may take. When it has not completed by then, for example because the application stopped,
+     * what it has done in other modules is undone.
+     */
+    private Duration sagaTimeout = Duration.ofMinutes(5);
+
+}
@@ -0,0 +1,19 @@
+package be.stijnhooft.portal.social;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Settings for writing a lot of persons to the database at once.
+ */
+@Data
+@ConfigurationProperties(prefix = "social.persistence")
+public class PersistenceProperties {
+
+    /**
+     * Maximum number of inserts or updates that are sent to the database in one JDBC batch.
+     * The persons of a batch are flushed together, so this also limits how many persons are kept in memory by Hibernate.
+     */
+    private int batchSize = 50;
+
+}
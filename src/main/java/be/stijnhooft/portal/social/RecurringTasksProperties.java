@@ -0,0 +1,49 @@
+package be.stijnhooft.portal.social;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Settings for the communication with the recurring tasks module.
+ */
+@Data
+@ConfigurationProperties(prefix = "social.recurring-tasks")
+public class RecurringTasksProperties {
+
+    /**
+     * Maximum number of recurring task ids that are asked for in one request.
+     * Keeps the request url within the limits of the recurring tasks module.
+     */
+    private int batchSize = 100;
+
+    /**
+     * Maximum number of requests that are sent to the recurring tasks module at the same time.
+     */
+    private int concurrency = 4;
+
+    /**
+     * Maximum number of requests that wait for one of the concurrent slots.
+     * When the queue is full, the request fails right away, according to the {@link #failurePolicy}.
+     */
+    private int queueCapacity = 100;
+
+    /**
+     * How long a single request may take, counted from the moment it's sent.
+     */
+    private Duration timeout = Duration.ofSeconds(10);
+
+    /**
+     * What to do when one of the concurrent requests fails.
+     */
+    private FailurePolicy failurePolicy = FailurePolicy.FAIL_FAST;
+
+    public enum FailurePolicy {
+        /** Cancel the other requests and let the whole operation fail. **/
+        FAIL_FAST,
+        /** Carry on with the recurring tasks that could be retrieved. **/
+        PARTIAL_RESULTS
+    }
+
+}
@@ -0,0 +1,26 @@
+package be.stijnhooft.portal.social;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Settings for choosing an instance of another module.
+ * The interval at which the known instances are refreshed is social.service-discovery.refresh-interval.
+ */
+@Data
+@ConfigurationProperties(prefix = "social.service-discovery")
+public class ServiceDiscoveryProperties {
+
+    /**
+     * Number of failed requests in a row after which an instance is no longer chosen.
+     */
+    private int failureThreshold = 3;
+
+    /**
+     * How long an instance is no longer chosen, once it reached the failure threshold.
+     */
+    private Duration ejectionDuration = Duration.ofSeconds(30);
+
+}
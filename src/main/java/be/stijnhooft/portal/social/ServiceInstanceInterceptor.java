@@ -0,0 +1,113 @@
+package be.stijnhooft.portal.social;
+
+import be.stijnhooft.portal.social.services.ServiceInstanceResolver;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+
+/**
+ * Tells the {@link ServiceInstanceResolver} how long each request took and whether the instance handled it.
+ * Works for both the blocking RestTemplate and the non-blocking WebClient.
+ * A server error or an I/O error counts as a failure. A client error, like 404, does not:
+ * the instance is healthy, it's the request that is wrong.
+ */
+public class ServiceInstanceInterceptor implements ExchangeFilterFunction {
+
+    private final ServiceInstanceResolver serviceInstanceResolver;
+
+    public ServiceInstanceInterceptor(ServiceInstanceResolver serviceInstanceResolver) {
+        this.serviceInstanceResolver = serviceInstanceResolver;
+    }
+
+    /**
+     * For the RestTemplate. This wraps the request factory, instead of being a ClientHttpRequestInterceptor,
+     * because the RestTemplate buffers the whole request body in memory as soon as it has an interceptor.
+     * That would defeat streaming uploads.
+     */
+    public ClientHttpRequestFactory intercept(ClientHttpRequestFactory requestFactory) {
+        return (uri, httpMethod) -> new RecordingClientHttpRequest(requestFactory.createRequest(uri, httpMethod));
+    }
+
+    @Override
+    public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return next.exchange(request)
+                    .doOnNext(response -> serviceInstanceResolver.record(request.url(), System.nanoTime() - start, !response.statusCode().is5xxServerError()))
+                    .doOnError(e -> serviceInstanceResolver.record(request.url(), System.nanoTime() - start, false));
+        });
+    }
+
+    private class RecordingClientHttpRequest implements ClientHttpRequest, StreamingHttpOutputMessage {
+
+        private final ClientHttpRequest request;
+
+        RecordingClientHttpRequest(ClientHttpRequest request) {
+            this.request = request;
+        }
+
+        @Override
+        public ClientHttpResponse execute() throws IOException {
+            long start = System.nanoTime();
+            try {
+                var response = request.execute();
+                serviceInstanceResolver.record(request.getURI(), System.nanoTime() - start, !response.getStatusCode().is5xxServerError());
+                return response;
+            } catch (IOException | RuntimeException e) {
+                serviceInstanceResolver.record(request.getURI(), System.nanoTime() - start, false);
+                throw e;
+            }
+        }
+
+        @Override
+        public void setBody(Body body) {
+            if (request instanceof StreamingHttpOutputMessage) {
+                ((StreamingHttpOutputMessage) request).setBody(body);
+            } else {
+                try {
+                    body.writeTo(request.getBody());
+                } catch (IOException e) {
+                    throw new IllegalStateException("Could not write request body", e);
+                }
+            }
+        }
+
+        @Override
+        public OutputStream getBody() throws IOException {
+            return request.getBody();
+        }
+
+        @Override
+        public HttpMethod getMethod() {
+            return request.getMethod();
+        }
+
+        @Override
+        public String getMethodValue() {
+            return request.getMethodValue();
+        }
+
+        @Override
+        public URI getURI() {
+            return request.getURI();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return request.getHeaders();
+        }
+    }
+
+}
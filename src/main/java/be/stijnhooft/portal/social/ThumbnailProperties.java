@@ -0,0 +1,165 @@
+package be.stijnhooft.portal.social;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Settings for making the thumbnails of a person.
+ * The interval at which the pending thumbnails are picked up is social.thumbnails.poll-interval.
+ */
+@Data
+@ConfigurationProperties(prefix = "social.thumbnails")
+public class ThumbnailProperties {
+
+    /**
+     * Whether creating a person waits for its thumbnails.
+     */
+    private Mode mode = Mode.SYNCHRONOUS;
+
+    /**
+     * Who makes and stores the thumbnails.
+     */
+    private Backend backend = Backend.REMOTE;
+
+    /**
+     * Number of threads that make thumbnails, when the backend is LOCAL.
+     * Making thumbnails keeps a processor busy, so by default there's one thread per processor.
+     */
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Directory in which thumbnails are stored, when the backend is LOCAL.
+     */
+    private Path directory = Path.of("images");
+
+    /**
+     * Directory in which the thumbnails that are served by api/person/{id}/thumbnail/{label} are cached.
+     */
+    private Path cacheDirectory = Path.of("thumbnail-cache");
+
+    /**
+     * Maximum total size of the cached thumbnails. When it's exceeded, the least recently used thumbnails are removed.
+     */
+    private DataSize cacheSize = DataSize.ofMegabytes(200);
+
+    /**
+     * Maximum number of images that are deleted from the image module at the same time.
+     */
+    private int deleteConcurrency = 4;
+
+    /**
+     * Whether the image module can delete multiple images in one request: a POST to api/remove/ with a JSON array of names.
+     * When such a request fails, the images are deleted one by one.
+     */
+    private boolean remoteBatchDelete = false;
+
+    /**
+     * Maximum number of pending thumbnails that are picked up at once.
+     */
+    private int batchSize = 10;
+
+    /**
+     * Number of times making thumbnails is tried, before giving up.
+     */
+    private int maxAttempts = 5;
+
+    /**
+     * How long to wait before trying again after the first failure. Doubles after every next failure.
+     */
+    private Duration retryDelay = Duration.ofSeconds(30);
+
+    /**
+     * How long a worker may take to make the thumbnails.
+     * When it takes longer, for example because the application stopped, another worker takes over.
+     */
+    private Duration claimDuration = Duration.ofMinutes(5);
+
+    /**
+     * Maximum number of persons without a placeholder that are given one at once.
+     * The interval at which this happens is social.thumbnails.placeholder-backfill-interval.
+     */
+    private int placeholderBatchSize = 100;
+
+    /**
+     * Width and height of a thumbnail in the contact sheet, served at api/person/contact-sheet.
+     */
+    private int contactSheetTileSize = 64;
+
+    /**
+     * Number of persons next to each other in the contact sheet. Every person takes two tiles: color and sepia.
+     */
+    private int contactSheetColumns = 8;
+
+    /**
+     * Maximum number of thumbnails that are read at the same time to draw the contact sheet.
+     */
+    private int contactSheetConcurrency = 4;
+
+    /**
+     * The thumbnails that are made of every image. Clients pick the smallest one that fits.
+     * The profiles "thumbnail" and "sepia" are required: they are the color and sepia thumbnail of a person.
+     */
+    private List<Profile> profiles = new ArrayList<>(List.of(
+            new Profile("thumbnail", 300),
+            new Profile("sepia", 300, Filter.SEPIA),
+            new Profile("thumbnail-small", 64),
+            new Profile("sepia-small", 64, Filter.SEPIA),
+            new Profile("thumbnail-large", 600),
+            new Profile("sepia-large", 600, Filter.SEPIA)));
+
+    @Data
+    public static class Profile {
+
+        /**
+         * Lower case letters, digits and dashes.
+         */
+        private String name;
+
+        /**
+         * Width and height of the thumbnail, in pixels.
+         */
+        private int size;
+
+        /**
+         * Whether the image is cropped to a square. Otherwise, it's resized to fit within size x size.
+         */
+        private boolean crop = true;
+
+        private List<Filter> filters = new ArrayList<>();
+
+        public Profile() {
+        }
+
+        public Profile(String name, int size, Filter... filters) {
+            this.name = name;
+            this.size = size;
+            this.filters = new ArrayList<>(List.of(filters));
+        }
+
+    }
+
+    public enum Filter {
+        SEPIA
+    }
+
+    public enum Backend {
+        /** The image module makes and stores the thumbnails. **/
+        REMOTE,
+        /** This module makes the thumbnails itself and stores them in {@link #directory}. **/
+        LOCAL
+    }
+
+    public enum Mode {
+        /** Creating a person waits until its thumbnails are made. **/
+        SYNCHRONOUS,
+        /** The person is created right away and its thumbnails are made in the background. **/
+        ASYNCHRONOUS
+    }
+
+}
@@ -0,0 +1,37 @@
+package be.stijnhooft.portal.social.controllers;
+
+import be.stijnhooft.portal.social.services.BlobStore;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Serves the thumbnails, when this module makes them itself (social.thumbnails.backend=LOCAL).
+ * Otherwise, they are served by the image module.
+ */
+@RestController
+@RequestMapping("/api/image")
+@ConditionalOnProperty(prefix = "social.thumbnails", name = "backend", havingValue = "LOCAL")
+public class ImageController {
+
+    private final BlobStore blobStore;
+
+    public ImageController(BlobStore blobStore) {
+        this.blobStore = blobStore;
+    }
+
+    @GetMapping("/{name}")
+    public ResponseEntity<Resource> findByName(@PathVariable("name") String name) {
+        return blobStore.get(name)
+                .map(image -> ResponseEntity.ok()
+                        .contentType(MediaType.IMAGE_JPEG)
+                        .body(image))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+}
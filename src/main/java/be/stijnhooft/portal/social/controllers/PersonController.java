@@ -1,48 +1,281 @@
 package be.stijnhooft.portal.social.controllers;
 
+import be.stijnhooft.portal.social.HttpClientProperties;
 import be.stijnhooft.portal.social.dtos.ContactDto;
+import be.stijnhooft.portal.social.dtos.ContactSheetDto;
 import be.stijnhooft.portal.social.dtos.PersonDto;
+import be.stijnhooft.portal.social.dtos.PersonImportResultDto;
+import be.stijnhooft.portal.social.dtos.PersonPageDto;
 import be.stijnhooft.portal.social.dtos.Source;
+import be.stijnhooft.portal.social.dtos.ThumbnailDto;
+import be.stijnhooft.portal.social.services.ContactSheetService;
+import be.stijnhooft.portal.social.services.IdempotencyService;
+import be.stijnhooft.portal.social.services.MultipartImageResource;
+import be.stijnhooft.portal.social.services.PersonImportService;
 import be.stijnhooft.portal.social.services.PersonService;
+import be.stijnhooft.portal.social.services.ReactivePersonService;
+import be.stijnhooft.portal.social.services.ThumbnailCache;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Value;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.MediaTypeFactory;
 import org.springframework.http.ResponseEntity;
 import org.springframework.util.ObjectUtils;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import reactor.core.publisher.Mono;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
-import java.util.Optional;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
+import static be.stijnhooft.portal.social.HttpClientProperties.Implementation.REACTIVE;
+
+/**
+ * Reading and deleting persons compose the calls to other modules either blocking or non-blocking,
+ * depending on social.http-client.implementation.
+ * When non-blocking, the servlet thread is released while the other modules are working.
+ */
 @RestController
 @RequestMapping("/api/person")
 public class PersonController {
 
+    /**
+     * Clients that retry a create or a contact send the same value in this header, so that the request is not done twice.
+     */
+    public static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
+    private static final int STREAMING_PAGE_SIZE = 50;
+    private static final String IMMUTABLE = CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().getHeaderValue() + ", immutable";
+
     private final PersonService personService;
+    private final ReactivePersonService reactivePersonService;
+    private final HttpClientProperties httpClientProperties;
+    private final ObjectMapper objectMapper;
+    private final ThumbnailCache thumbnailCache;
+    private final ContactSheetService contactSheetService;
+    private final PersonImportService personImportService;
+    private final IdempotencyService idempotencyService;
 
-    public PersonController(PersonService personService) {
+    public PersonController(PersonService personService, ReactivePersonService reactivePersonService, HttpClientProperties httpClientProperties, ObjectMapper objectMapper, ThumbnailCache thumbnailCache, ContactSheetService contactSheetService, PersonImportService personImportService, IdempotencyService idempotencyService) {
         this.personService = personService;
+        this.reactivePersonService = reactivePersonService;
+        this.httpClientProperties = httpClientProperties;
+        this.objectMapper = objectMapper;
+        this.thumbnailCache = thumbnailCache;
+        this.contactSheetService = contactSheetService;
+        this.personImportService = personImportService;
+        this.idempotencyService = idempotencyService;
     }
 
     @RequestMapping("/")
-    public List<PersonDto> findAll() {
-        return personService.findAll();
+    public Mono<List<PersonDto>> findAll() {
+        if (isReactive()) {
+            return reactivePersonService.findAll();
+        } else {
+            return Mono.fromCallable(personService::findAll);
+        }
+    }
+
+    /**
+     * Streams all persons as newline delimited JSON.
+     * Persons are retrieved page by page and written as soon as their page is ready,
+     * so the memory usage does not grow with the number of persons.
+     */
+    @GetMapping(value = "/", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamAll() {
+        StreamingResponseBody body = outputStream -> {
+            Long after = null;
+            do {
+                var page = personService.findPage(after, STREAMING_PAGE_SIZE);
+                for (PersonDto person : page.getPersons()) {
+                    outputStream.write(objectMapper.writeValueAsBytes(person));
+                    outputStream.write('\n');
+                }
+                outputStream.flush();
+                after = page.getNextCursor();
+            } while (after != null);
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(body);
+    }
+
+    @GetMapping("/page")
+    public PersonPageDto findPage(@RequestParam(value = "after", required = false) Long after,
+                                  @RequestParam(value = "size", defaultValue = "50") int size) {
+        return personService.findPage(after, size);
     }
 
-    @SuppressWarnings("OptionalIsPresent")
     @RequestMapping("/{id}")
-    public ResponseEntity<PersonDto> findById(@PathVariable("id") Long id) {
-        Optional<PersonDto> person = personService.findById(id);
-        if (person.isPresent()) {
-            return ResponseEntity.ok(person.get());
+    public Mono<ResponseEntity<PersonDto>> findById(@PathVariable("id") Long id) {
+        Mono<PersonDto> person;
+        if (isReactive()) {
+            person = reactivePersonService.findById(id);
         } else {
+            person = Mono.fromCallable(() -> personService.findById(id).orElse(null));
+        }
+        return person.map(ResponseEntity::ok)
+                .defaultIfEmpty(ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Finds the thumbnail that fits best at the size it's shown at, so that clients don't download more pixels than they show.
+     *
+     * @param size the size at which the thumbnail is shown, in pixels
+     * @param sepia whether the sepia or the color thumbnail is wanted
+     */
+    @GetMapping("/{id}/thumbnail")
+    public ResponseEntity<ThumbnailDto> findThumbnail(@PathVariable("id") Long id,
+                                                      @RequestParam("size") int size,
+                                                      @RequestParam(value = "sepia", defaultValue = "false") boolean sepia) {
+        return ResponseEntity.of(personService.findThumbnail(id, size, sepia));
+    }
+
+    /**
+     * Serves a thumbnail of a person from the file in the {@link ThumbnailCache}. Spring opens and closes the file while writing the response,
+     * and answers range requests. The thumbnail has just become the most recently used one in the cache, so it's not removed meanwhile.
+     * The thumbnail keeps the format of the uploaded image, so the content type follows from its name.
+     *
+     * A thumbnail never changes under the same name, so its name is a strong ETag.
+     * When the name in the URL is the current one, the response is cached forever.
+     * Otherwise, the thumbnail behind this URL changes with the image of the person, so clients have to revalidate,
+     * which is answered with a 304 without touching the thumbnail.
+     *
+     * @param profile name of the thumbnail profile, like "thumbnail" or "sepia-small"
+     * @param name the name of the thumbnail, as in {@link PersonDto}. Optional.
+     */
+    @GetMapping("/{id}/thumbnail/{profile}")
+    public ResponseEntity<Resource> findThumbnail(@PathVariable("id") Long id,
+                                                  @PathVariable("profile") String profile,
+                                                  @RequestParam(value = "name", required = false) String name,
+                                                  WebRequest webRequest) {
+        var thumbnailName = personService.findThumbnailName(id, profile).orElse(null);
+        if (thumbnailName == null || (name != null && !name.equals(thumbnailName))) {
             return ResponseEntity.notFound().build();
         }
+
+        var eTag = "\"" + thumbnailName + "\"";
+        var cacheControl = Objects.equals(name, thumbnailName) ? IMMUTABLE : CacheControl.noCache().getHeaderValue();
+        if (webRequest.checkNotModified(eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(eTag)
+                    .header(HttpHeaders.CACHE_CONTROL, cacheControl)
+                    .build();
+        }
+
+        return thumbnailCache.find(thumbnailName)
+                .map(thumbnail -> ResponseEntity.ok()
+                        .contentType(MediaTypeFactory.getMediaType(thumbnailName).orElse(MediaType.APPLICATION_OCTET_STREAM))
+                        .eTag(eTag)
+                        .header(HttpHeaders.CACHE_CONTROL, cacheControl)
+                        .<Resource>body(new FileSystemResource(thumbnail)))
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Where the thumbnails of every person are in the contact sheet, see {@link #findContactSheetImage(String, WebRequest)}.
+     */
+    @GetMapping("/contact-sheet")
+    public ResponseEntity<ContactSheetDto> findContactSheet(WebRequest webRequest) {
+        var description = contactSheetService.get().getDescription();
+        var eTag = "\"" + description.getVersion() + "\"";
+        if (webRequest.checkNotModified(eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(eTag)
+                    .cacheControl(CacheControl.noCache())
+                    .build();
+        }
+        return ResponseEntity.ok()
+                .eTag(eTag)
+                .cacheControl(CacheControl.noCache())
+                .body(description);
+    }
+
+    /**
+     * One image with the color and sepia thumbnail of every person, so that the overview can be shown with a single image request.
+     * Like a thumbnail, it's cached forever when the version in the URL is the current one.
+     *
+     * @param version the version, as in {@link ContactSheetDto}. Optional.
+     */
+    @GetMapping("/contact-sheet/image")
+    public ResponseEntity<byte[]> findContactSheetImage(@RequestParam(value = "version", required = false) String version,
+                                                        WebRequest webRequest) {
+        var contactSheet = contactSheetService.get();
+        var currentVersion = contactSheet.getDescription().getVersion();
+        var eTag = "\"" + currentVersion + "\"";
+        var cacheControl = currentVersion.equals(version) ? IMMUTABLE : CacheControl.noCache().getHeaderValue();
+        if (webRequest.checkNotModified(eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(eTag)
+                    .header(HttpHeaders.CACHE_CONTROL, cacheControl)
+                    .build();
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.IMAGE_JPEG)
+                .eTag(eTag)
+                .header(HttpHeaders.CACHE_CONTROL, cacheControl)
+                .body(contactSheet.getImage());
     }
 
+    /**
+     * @param idempotencyKey when a request with the same key has been done already, its response is returned instead. Optional.
+     */
     @PostMapping("/")
-    public ResponseEntity<PersonDto> create(@RequestBody PersonDto person) {
+    public ResponseEntity<PersonDto> create(@RequestBody PersonDto person, @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
         if (ObjectUtils.isEmpty(person.getNewImageContent())) {
             return ResponseEntity.badRequest().build();
         }
-        return ResponseEntity.ok(personService.create(person));
+        return ResponseEntity.ok(idempotencyService.execute(idempotencyKey, "create person", person, PersonDto.class,
+                () -> personService.create(person)));
+    }
+
+    /**
+     * Creates a person with an uploaded image, instead of a base64 encoded image inside the JSON.
+     * The image is streamed to the image module.
+     *
+     * @param person the person, as a JSON part
+     * @param image the image, as a file part
+     * @param idempotencyKey when a request with the same key has been done already, its response is returned instead. Optional.
+     */
+    @PostMapping(value = "/", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<PersonDto> create(@RequestPart("person") PersonDto person, @RequestPart("image") MultipartFile image,
+                                            @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey) throws IOException {
+        if (image.isEmpty()) {
+            return ResponseEntity.badRequest().build();
+        }
+        Object request = idempotencyKey == null ? person : new PersonWithImage(person, hash(image));
+        return ResponseEntity.ok(idempotencyService.execute(idempotencyKey, "create person with image", request, PersonDto.class,
+                () -> personService.create(person, new MultipartImageResource(image))));
+    }
+
+    /**
+     * Creates a lot of persons at once, like onboarding a new user with all of their contacts.
+     * The persons are like the ones of {@link #create(PersonDto, String)}, as a JSON array or as newline delimited JSON.
+     * They are read from the request while the earlier ones are being created, so the whole import is never in memory.
+     *
+     * @return what happened with every person, in the order of the import
+     */
+    @PostMapping(value = "/import", consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE})
+    public List<PersonImportResultDto> importAll(InputStream body) throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            if (parser.nextToken() == JsonToken.START_ARRAY) {
+                parser.clearCurrentToken(); // read the elements of the array, one by one
+            }
+            return personImportService.importAll(objectMapper.readerFor(PersonDto.class).readValues(parser));
+        }
     }
 
     @PutMapping("/{id}/")
@@ -53,19 +286,67 @@ public class PersonController {
         return personService.update(person);
     }
 
+    /**
+     * Updates a person. When an image is uploaded, it replaces the current image and is streamed to the image module.
+     *
+     * @param person the person, as a JSON part
+     * @param image the new image, as a file part. Optional.
+     */
+    @PutMapping(value = "/{id}/", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public PersonDto update(@RequestPart("person") PersonDto person, @RequestPart(value = "image", required = false) MultipartFile image, @PathVariable("id") Long id) {
+        if (!id.equals(person.getId())) {
+            throw new IllegalArgumentException("Updating the id is not allowed");
+        }
+        if (image == null || image.isEmpty()) {
+            return personService.update(person);
+        }
+        return personService.update(person, new MultipartImageResource(image));
+    }
+
     @DeleteMapping("/{id}/")
-    public ResponseEntity<Void> delete(@PathVariable("id") Long id) {
-        var deleteStatus = personService.delete(id);
-        return switch (deleteStatus) {
+    public Mono<ResponseEntity<Void>> delete(@PathVariable("id") Long id) {
+        var deleteStatus = isReactive() ? reactivePersonService.delete(id) : Mono.fromCallable(() -> personService.delete(id));
+        return deleteStatus.map(status -> switch (status) {
             case DELETED -> ResponseEntity.ok().build();
             case DOES_NOT_EXIST -> ResponseEntity.notFound().build();
-        };
+        });
     }
 
+    /**
+     * @param idempotencyKey when a request with the same key has been done already, the contact is not added again,
+     *                       and the person as it was after that request is returned. Optional.
+     */
     @PostMapping("/{id}/contact/")
-    public ResponseEntity<PersonDto> addContact(@RequestBody ContactDto contact, @PathVariable("id") Long personId) {
-        personService.addContact(contact, personId, Source.USER);
-        return findById(personId);
+    public Mono<ResponseEntity<PersonDto>> addContact(@RequestBody ContactDto contact, @PathVariable("id") Long personId,
+                                                      @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
+        if (idempotencyKey == null) {
+            personService.addContact(contact, personId, Source.USER);
+            return findById(personId);
+        }
+        return Mono.fromCallable(() -> idempotencyService.execute(idempotencyKey, "add contact to person " + personId, contact, PersonDto.class, () -> {
+                    personService.addContact(contact, personId, Source.USER);
+                    return personService.findById(personId).orElseThrow();
+                }))
+                .map(ResponseEntity::ok);
+    }
+
+    private static String hash(MultipartFile image) throws IOException {
+        try (InputStream inputStream = image.getInputStream()) {
+            return DigestUtils.sha256Hex(inputStream);
+        }
+    }
+
+    private boolean isReactive() {
+        return httpClientProperties.getImplementation() == REACTIVE;
+    }
+
+    /**
+     * What a create with an uploaded image is recognized by: the image is part of the request, but only its hash is fingerprinted.
+     */
+    @Value
+    static class PersonWithImage {
+        PersonDto person;
+        String imageHash;
     }
 
 }
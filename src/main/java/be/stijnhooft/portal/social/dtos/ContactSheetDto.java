@@ -0,0 +1,56 @@
+package be.stijnhooft.portal.social.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * Where the thumbnails of every person are in the contact sheet: one image with all thumbnails,
+ * so that the overview can be shown with a single image request.
+ */
+@Data
+@Builder
+public class ContactSheetDto {
+
+    /**
+     * Changes whenever the image changes. Pass it when retrieving the image, so that the image is cached.
+     */
+    private String version;
+
+    /**
+     * Width and height of every thumbnail in the image, in pixels.
+     */
+    private int tileSize;
+
+    private int width;
+
+    private int height;
+
+    /**
+     * Where the thumbnails are in the image, by person id.
+     */
+    private Map<Long, Tiles> tiles;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Tiles {
+
+        /**
+         * Top left corner of the color thumbnail.
+         */
+        private int colorX;
+        private int colorY;
+
+        /**
+         * Top left corner of the sepia thumbnail.
+         */
+        private int sepiaX;
+        private int sepiaY;
+
+    }
+
+}
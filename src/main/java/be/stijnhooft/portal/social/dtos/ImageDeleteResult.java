@@ -0,0 +1,13 @@
+package be.stijnhooft.portal.social.dtos;
+
+/**
+ * What happened when deleting one image.
+ */
+public enum ImageDeleteResult {
+    DELETED,
+    DOES_NOT_EXIST,
+    /** The image is used elsewhere as well, and has been kept. **/
+    STILL_IN_USE,
+    /** The image could not be deleted. Trying again might help. **/
+    FAILED
+}
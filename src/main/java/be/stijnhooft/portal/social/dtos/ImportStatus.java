@@ -0,0 +1,11 @@
+package be.stijnhooft.portal.social.dtos;
+
+public enum ImportStatus {
+    CREATED,
+    /** A person with that name exists already, or comes earlier in the same import. **/
+    ALREADY_EXISTS,
+    /** The row could not be read, or misses its name or image. **/
+    INVALID,
+    /** Another module or the database failed. What has been done for the row is undone. **/
+    FAILED
+}
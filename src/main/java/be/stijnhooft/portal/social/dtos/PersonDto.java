@@ -5,6 +5,7 @@ import lombok.Data;
 
 import javax.validation.constraints.NotNull;
 import java.time.LocalDate;
+import java.util.Map;
 
 @Data
 @Builder
@@ -24,6 +25,22 @@ public class PersonDto {
 
     private String sepiaThumbnail;
 
+    /**
+     * Thumbnails in other sizes, by thumbnail profile name.
+     * Use api/person/{id}/thumbnail to find the smallest one that fits.
+     */
+    private Map<String, String> thumbnailVariants;
+
+    /**
+     * BlurHash of the image, to paint while the thumbnail is loading. See https://blurha.sh for decoders.
+     */
+    private String placeholder;
+
+    /**
+     * Whether the thumbnails are available yet.
+     */
+    private ThumbnailStatus thumbnailStatus;
+
     @NotNull
     private Integer minNumberOfDaysBetweenContacts;
 
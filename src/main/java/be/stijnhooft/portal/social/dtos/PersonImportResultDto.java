@@ -0,0 +1,32 @@
+package be.stijnhooft.portal.social.dtos;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * What happened with one row of an import.
+ */
+@Data
+@Builder
+public class PersonImportResultDto {
+
+    /**
+     * Position of the row in the import, starting at 0.
+     */
+    private int index;
+
+    private String name;
+
+    private ImportStatus status;
+
+    /**
+     * Id of the created person. Only filled in when the person has been created.
+     */
+    private Long id;
+
+    /**
+     * Why the person has not been created.
+     */
+    private String message;
+
+}
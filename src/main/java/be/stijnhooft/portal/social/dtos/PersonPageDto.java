@@ -0,0 +1,20 @@
+package be.stijnhooft.portal.social.dtos;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@Builder
+public class PersonPageDto {
+
+    private List<PersonDto> persons;
+
+    /**
+     * Pass this value as "after" to retrieve the next page.
+     * When null, there are no more pages.
+     */
+    private Long nextCursor;
+
+}
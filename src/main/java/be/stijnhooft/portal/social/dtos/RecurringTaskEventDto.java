@@ -0,0 +1,27 @@
+package be.stijnhooft.portal.social.dtos;
+
+import lombok.*;
+
+/**
+ * Published by the recurring tasks module whenever a recurring task changes.
+ */
+@EqualsAndHashCode
+@ToString
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class RecurringTaskEventDto {
+
+    @Getter
+    @NonNull
+    private RecurringTaskEventType type;
+
+    /**
+     * The state of the recurring task after the change.
+     * For a deleted recurring task, only the id is relevant.
+     */
+    @Getter
+    @NonNull
+    private RecurringTaskDto recurringTask;
+
+}
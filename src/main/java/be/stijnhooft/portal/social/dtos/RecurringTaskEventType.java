@@ -0,0 +1,8 @@
+package be.stijnhooft.portal.social.dtos;
+
+/** What happened to a recurring task in the recurring tasks module? **/
+public enum RecurringTaskEventType {
+    CREATED,
+    UPDATED,
+    DELETED
+}
@@ -0,0 +1,25 @@
+package be.stijnhooft.portal.social.dtos;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class ThumbnailDto {
+
+    /**
+     * Name of the thumbnail profile that made the thumbnail.
+     */
+    private String profile;
+
+    /**
+     * Width and height of the thumbnail, in pixels.
+     */
+    private int size;
+
+    /**
+     * Name of the image.
+     */
+    private String name;
+
+}
@@ -0,0 +1,15 @@
+package be.stijnhooft.portal.social.dtos;
+
+/**
+ * Whether the thumbnails of a person are available.
+ */
+public enum ThumbnailStatus {
+
+    /** The thumbnails are available. **/
+    READY,
+    /** The thumbnails are being made. Until then, the person has no thumbnails. **/
+    PENDING,
+    /** The thumbnails could not be made, even after retrying. The person has no thumbnails. **/
+    FAILED
+
+}
@@ -0,0 +1,30 @@
+package be.stijnhooft.portal.social.listeners;
+
+import be.stijnhooft.portal.social.dtos.RecurringTaskEventDto;
+import be.stijnhooft.portal.social.services.RecurringTaskProjectionService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.function.Consumer;
+
+/**
+ * Receives the events that the recurring tasks module publishes when a recurring task changes,
+ * and keeps the local projection of recurring tasks up to date.
+ */
+@Component
+@Slf4j
+public class RecurringTaskEventListener implements Consumer<RecurringTaskEventDto> {
+
+    private final RecurringTaskProjectionService recurringTaskProjectionService;
+
+    public RecurringTaskEventListener(RecurringTaskProjectionService recurringTaskProjectionService) {
+        this.recurringTaskProjectionService = recurringTaskProjectionService;
+    }
+
+    @Override
+    public void accept(RecurringTaskEventDto event) {
+        log.info("Received recurring task event {}", event);
+        recurringTaskProjectionService.apply(event);
+    }
+
+}
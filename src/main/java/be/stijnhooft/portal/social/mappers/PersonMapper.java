@@ -16,6 +16,9 @@ public class PersonMapper {
                 .name(person.getName())
                 .colorThumbnail(person.getColorThumbnail())
                 .sepiaThumbnail(person.getSepiaThumbnail())
+                .thumbnailVariants(person.getThumbnailVariants())
+                .placeholder(person.getPlaceholder())
+                .thumbnailStatus(person.getThumbnailStatus())
                 .minNumberOfDaysBetweenContacts(recurringTask.getMinNumberOfDaysBetweenExecutions())
                 .maxNumberOfDaysBetweenContacts(recurringTask.getMaxNumberOfDaysBetweenExecutions())
                 .lastContact(recurringTask.getLastExecution())
@@ -23,6 +26,23 @@ public class PersonMapper {
                 .build();
     }
 
+    /**
+     * Maps a person without the information of its recurring task,
+     * for when the recurring task could not be retrieved.
+     */
+    public PersonDto mapToDto(@NonNull Person person) {
+        return PersonDto.builder()
+                .id(person.getId())
+                .name(person.getName())
+                .colorThumbnail(person.getColorThumbnail())
+                .sepiaThumbnail(person.getSepiaThumbnail())
+                .thumbnailVariants(person.getThumbnailVariants())
+                .placeholder(person.getPlaceholder())
+                .thumbnailStatus(person.getThumbnailStatus())
+                .latestUpdates(person.getLatestUpdates())
+                .build();
+    }
+
     public Person mapToModel(@NonNull PersonDto personDto, long recurringTaskId, String colorThumbnailName, String sepiaThumbnailName) {
         return Person.builder()
                 .id(personDto.getId())
@@ -0,0 +1,31 @@
+package be.stijnhooft.portal.social.mappers;
+
+import be.stijnhooft.portal.social.dtos.RecurringTaskDto;
+import be.stijnhooft.portal.social.model.RecurringTaskProjection;
+import lombok.NonNull;
+import org.springframework.stereotype.Component;
+
+@Component
+public class RecurringTaskProjectionMapper {
+
+    public RecurringTaskDto mapToDto(@NonNull RecurringTaskProjection projection) {
+        return RecurringTaskDto.builder()
+                .id(projection.getId())
+                .name(projection.getName())
+                .minNumberOfDaysBetweenExecutions(projection.getMinNumberOfDaysBetweenExecutions())
+                .maxNumberOfDaysBetweenExecutions(projection.getMaxNumberOfDaysBetweenExecutions())
+                .lastExecution(projection.getLastExecution())
+                .build();
+    }
+
+    public RecurringTaskProjection mapToModel(@NonNull RecurringTaskDto recurringTask) {
+        return RecurringTaskProjection.builder()
+                .id(recurringTask.getId())
+                .name(recurringTask.getName())
+                .minNumberOfDaysBetweenExecutions(recurringTask.getMinNumberOfDaysBetweenExecutions())
+                .maxNumberOfDaysBetweenExecutions(recurringTask.getMaxNumberOfDaysBetweenExecutions())
+                .lastExecution(recurringTask.getLastExecution())
+                .build();
+    }
+
+}
@@ -0,0 +1,49 @@
+package be.stijnhooft.portal.social.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.time.Instant;
+
+/**
+ * A request that has been sent with an Idempotency-Key header, and its response.
+ * When a client sends the request again with the same key, for example after a timeout, the response is returned again
+ * instead of doing the request again.
+ */
+@Data
+@Builder(toBuilder = true)
+@Entity
+@Table(name = "idempotent_request")
+@NoArgsConstructor
+@AllArgsConstructor
+public class IdempotentRequest {
+
+    public static final int MAX_KEY_LENGTH = 255;
+    public static final int MAX_RESPONSE_LENGTH = 10000;
+
+    @Id
+    @Column(name = "idempotency_key", length = MAX_KEY_LENGTH)
+    private String key;
+
+    /**
+     * SHA-256 of what is requested, hex encoded. The same key cannot be used for another request.
+     */
+    @Column(name = "fingerprint", length = 64)
+    private String fingerprint;
+
+    /**
+     * The response as JSON, or null while the request is being done.
+     */
+    @Column(name = "response", length = MAX_RESPONSE_LENGTH)
+    private String response;
+
+    /**
+     * When the request started to be done.
+     */
+    @Column(name = "created_at")
+    private Instant createdAt;
+
+}
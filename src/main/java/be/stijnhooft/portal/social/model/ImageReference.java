@@ -0,0 +1,62 @@
+package be.stijnhooft.portal.social.model;
+
+import be.stijnhooft.portal.social.dtos.ImageLabel;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Thumbnails that have been made of an image, and how many persons use them.
+ * When the same image is uploaded again, the thumbnails are reused instead of made again.
+ */
+@Data
+@Builder(toBuilder = true)
+@Entity
+@Table(name = "image_reference")
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImageReference {
+
+    /**
+     * SHA-256 of the image, hex encoded.
+     */
+    @Id
+    @Column(name = "content_hash")
+    private String contentHash;
+
+    @Column(name = "color_thumbnail")
+    private String colorThumbnail;
+
+    @Column(name = "sepia_thumbnail")
+    private String sepiaThumbnail;
+
+    /**
+     * The thumbnails of the other thumbnail profiles, by profile name.
+     */
+    @Builder.Default
+    @Convert(converter = ThumbnailVariantsConverter.class)
+    @Column(name = "thumbnail_variants")
+    private Map<String, String> thumbnailVariants = new HashMap<>();
+
+    /**
+     * Number of times the thumbnails are in use. When it reaches 0, the thumbnails are deleted.
+     */
+    @Column(name = "reference_count")
+    private int referenceCount;
+
+    /**
+     * @return the names of the thumbnails of all profiles, by profile name
+     */
+    public Map<String, String> getThumbnails() {
+        Map<String, String> thumbnails = new HashMap<>(thumbnailVariants);
+        thumbnails.put(ImageLabel.COLOR_THUMBNAIL.getValue(), colorThumbnail);
+        thumbnails.put(ImageLabel.SEPIA_THUMBNAIL.getValue(), sepiaThumbnail);
+        return thumbnails;
+    }
+
+}
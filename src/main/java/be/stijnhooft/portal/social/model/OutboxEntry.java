@@ -0,0 +1,90 @@
+package be.stijnhooft.portal.social.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.time.Instant;
+
+/**
+ * A call to another module that still has to be made, as part of a saga: a create or update of a person,
+ * that involves this module, the image module and the recurring tasks module.
+ * Stored in the database, so that the call is not lost when it fails or when the application stops.
+ */
+@Data
+@SequenceGenerator(name = "outboxEntryIdSequenceGenerator",
+        sequenceName = "outbox_entry_id_sequence",
+        initialValue = 0,
+        allocationSize = 50)
+@Builder(toBuilder = true)
+@Entity
+@Table(name = "outbox_entry")
+@NoArgsConstructor
+@AllArgsConstructor
+public class OutboxEntry {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE,
+            generator = "outboxEntryIdSequenceGenerator")
+    private Long id;
+
+    /**
+     * The saga that registered this entry.
+     */
+    @Column(name = "saga_id")
+    private String sagaId;
+
+    @Enumerated(EnumType.STRING)
+    private Type type;
+
+    /**
+     * What the call needs, as JSON.
+     */
+    private String payload;
+
+    /**
+     * Number of times the call has failed.
+     */
+    private int attempts;
+
+    /**
+     * When the call may be made (again), or null when it has been given up on.
+     * While an executor is busy with the entry, this is pushed forward, so that no other executor picks it up.
+     */
+    @Column(name = "next_attempt_at")
+    private Instant nextAttemptAt;
+
+    /**
+     * When an executor first picked up the entry, or null when it has not been picked up yet.
+     * From then on, the call may have been made, so the saga cannot complete anymore.
+     */
+    @Column(name = "claimed_at")
+    private Instant claimedAt;
+
+    @Column(name = "last_error")
+    private String lastError;
+
+    /**
+     * When the call has been given up on, after failing too many times. The entry is kept, so that it can be looked into.
+     */
+    @Column(name = "dead_lettered_at")
+    private Instant deadLetteredAt;
+
+    public enum Type {
+        /**
+         * Deletes images, by name. The payload is a list of names.
+         */
+        DELETE_IMAGES,
+        /**
+         * Deletes a recurring task, and forgets about it. The payload is its id.
+         */
+        DELETE_RECURRING_TASK,
+        /**
+         * Puts back a recurring task as it was. The payload is the recurring task.
+         */
+        RESTORE_RECURRING_TASK
+    }
+
+}
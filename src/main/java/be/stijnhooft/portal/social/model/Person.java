@@ -1,5 +1,7 @@
 package be.stijnhooft.portal.social.model;
 
+import be.stijnhooft.portal.social.dtos.ImageLabel;
+import be.stijnhooft.portal.social.dtos.ThumbnailStatus;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -7,18 +9,24 @@ import lombok.NoArgsConstructor;
 
 import javax.persistence.*;
 import javax.validation.constraints.NotNull;
+import java.util.*;
 
 @Data
 @SequenceGenerator(name = "personIdSequenceGenerator",
         sequenceName = "person_id_sequence",
         initialValue = 0,
-        allocationSize = 50)
+        allocationSize = Person.ID_ALLOCATION_SIZE)
 @Builder(toBuilder = true)
 @Entity
 @NoArgsConstructor
 @AllArgsConstructor
 public class Person {
 
+    /**
+     * Number of ids that are taken from the sequence at once. Saving up to this many persons together takes one trip to the sequence.
+     */
+    public static final int ID_ALLOCATION_SIZE = 50;
+
     @Id
     @GeneratedValue(strategy = GenerationType.SEQUENCE,
             generator = "personIdSequenceGenerator")
@@ -27,18 +35,69 @@ public class Person {
     @NotNull
     private String name;
 
-    @NotNull
+    /**
+     * Empty as long as the thumbnails are not {@link ThumbnailStatus#READY}.
+     */
     @Column(name = "color_thumbnail")
     private String colorThumbnail;
 
-    @NotNull
+    /**
+     * Empty as long as the thumbnails are not {@link ThumbnailStatus#READY}.
+     */
     @Column(name = "sepia_thumbnail")
     private String sepiaThumbnail;
 
+    /**
+     * The thumbnails of the other thumbnail profiles, like smaller and larger sizes, by profile name.
+     * Empty as long as the thumbnails are not {@link ThumbnailStatus#READY}.
+     */
+    @Builder.Default
+    @Convert(converter = ThumbnailVariantsConverter.class)
+    @Column(name = "thumbnail_variants")
+    private Map<String, String> thumbnailVariants = new HashMap<>();
+
+    /**
+     * BlurHash of the image, painted by clients while the thumbnail is loading.
+     * Empty as long as the thumbnails are not {@link ThumbnailStatus#READY}, or when it could not be made.
+     */
+    @Column(name = "placeholder")
+    private String placeholder;
+
+    @NotNull
+    @Builder.Default
+    @Enumerated(EnumType.STRING)
+    @Column(name = "thumbnail_status")
+    private ThumbnailStatus thumbnailStatus = ThumbnailStatus.READY;
+
     @Column(name = "recurring_task_id")
     private Long recurringTaskId;
 
     @Column(name = "latest_updates")
     private String latestUpdates;
 
+    /**
+     * Fills in the thumbnails of all profiles.
+     * @param thumbnails the names of the thumbnails, by profile name
+     */
+    public void setThumbnails(Map<String, String> thumbnails) {
+        Map<String, String> variants = new HashMap<>(thumbnails);
+        colorThumbnail = variants.remove(ImageLabel.COLOR_THUMBNAIL.getValue());
+        sepiaThumbnail = variants.remove(ImageLabel.SEPIA_THUMBNAIL.getValue());
+        thumbnailVariants = variants;
+    }
+
+    /**
+     * @return the names of the thumbnails of all profiles, by profile name
+     */
+    public Map<String, String> getThumbnails() {
+        Map<String, String> thumbnails = new HashMap<>(thumbnailVariants);
+        if (colorThumbnail != null) {
+            thumbnails.put(ImageLabel.COLOR_THUMBNAIL.getValue(), colorThumbnail);
+        }
+        if (sepiaThumbnail != null) {
+            thumbnails.put(ImageLabel.SEPIA_THUMBNAIL.getValue(), sepiaThumbnail);
+        }
+        return thumbnails;
+    }
+
 }
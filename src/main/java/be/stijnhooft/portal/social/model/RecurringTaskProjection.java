@@ -0,0 +1,44 @@
+package be.stijnhooft.portal.social.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.time.LocalDate;
+
+/**
+ * Local copy of a recurring task of the recurring tasks module.
+ * Kept up to date by the events that the recurring tasks module publishes,
+ * so that reading a person does not require a call to the recurring tasks module.
+ */
+@Data
+@Builder(toBuilder = true)
+@Entity
+@Table(name = "recurring_task_projection")
+@NoArgsConstructor
+@AllArgsConstructor
+public class RecurringTaskProjection {
+
+    /**
+     * Id of the recurring task in the recurring tasks module.
+     */
+    @Id
+    private Long id;
+
+    private String name;
+
+    @Column(name = "min_number_of_days_between_executions")
+    private int minNumberOfDaysBetweenExecutions;
+
+    @Column(name = "max_number_of_days_between_executions")
+    private int maxNumberOfDaysBetweenExecutions;
+
+    @Column(name = "last_execution")
+    private LocalDate lastExecution;
+
+}
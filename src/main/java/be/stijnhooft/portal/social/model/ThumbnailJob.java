@@ -0,0 +1,57 @@
+package be.stijnhooft.portal.social.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+import javax.persistence.*;
+import java.time.Instant;
+
+/**
+ * Thumbnails that still have to be made for a person.
+ * Stored in the database, so that the work is not lost when the application stops.
+ */
+@Data
+@SequenceGenerator(name = "thumbnailJobIdSequenceGenerator",
+        sequenceName = "thumbnail_job_id_sequence",
+        initialValue = 0,
+        allocationSize = 50)
+@Builder(toBuilder = true)
+@Entity
+@Table(name = "thumbnail_job")
+@NoArgsConstructor
+@AllArgsConstructor
+public class ThumbnailJob {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE,
+            generator = "thumbnailJobIdSequenceGenerator")
+    private Long id;
+
+    @Column(name = "person_id")
+    private Long personId;
+
+    /**
+     * The original image.
+     */
+    @ToString.Exclude
+    private byte[] image;
+
+    /**
+     * Number of times making the thumbnails has failed.
+     */
+    private int attempts;
+
+    /**
+     * When the job may be picked up (again).
+     * While a worker is busy with the job, this is pushed forward, so that no other worker picks it up.
+     */
+    @Column(name = "next_attempt_at")
+    private Instant nextAttemptAt;
+
+    @Column(name = "last_error")
+    private String lastError;
+
+}
@@ -0,0 +1,42 @@
+package be.stijnhooft.portal.social.model;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Stores thumbnail names by profile name in one column, as profile=name pairs separated by semicolons.
+ * Profile names and thumbnail names never contain those characters.
+ * No thumbnails are stored as null.
+ */
+@Converter
+public class ThumbnailVariantsConverter implements AttributeConverter<Map<String, String>, String> {
+
+    @Override
+    public String convertToDatabaseColumn(Map<String, String> thumbnails) {
+        if (thumbnails == null || thumbnails.isEmpty()) {
+            return null;
+        }
+        return new TreeMap<>(thumbnails).entrySet()
+                .stream()
+                .map(thumbnail -> thumbnail.getKey() + "=" + thumbnail.getValue())
+                .collect(Collectors.joining(";"));
+    }
+
+    @Override
+    public Map<String, String> convertToEntityAttribute(String column) {
+        Map<String, String> thumbnails = new HashMap<>();
+        if (column == null || column.isEmpty()) {
+            return thumbnails;
+        }
+        for (String pair : column.split(";")) {
+            var separator = pair.indexOf('=');
+            thumbnails.put(pair.substring(0, separator), pair.substring(separator + 1));
+        }
+        return thumbnails;
+    }
+
+}
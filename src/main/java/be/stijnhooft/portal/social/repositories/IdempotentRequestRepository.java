@@ -0,0 +1,52 @@
+package be.stijnhooft.portal.social.repositories;
+
+import be.stijnhooft.portal.social.model.IdempotentRequest;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+
+/**
+ * A key is reserved with a single insert, so that only one of the concurrent requests with the same key gets to do the request.
+ */
+public interface IdempotentRequestRepository extends JpaRepository<IdempotentRequest, String> {
+
+    /**
+     * Fails with a DataIntegrityViolationException when the key is already reserved.
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "insert into idempotent_request (idempotency_key, fingerprint, created_at) values (:key, :fingerprint, :now)", nativeQuery = true)
+    void reserve(@Param("key") String key, @Param("fingerprint") String fingerprint, @Param("now") Instant now);
+
+    /**
+     * Takes over a key of a request that has not completed since staleBefore, for example because the application stopped.
+     * @return 1 when the key has been taken over, 0 otherwise
+     */
+    @Transactional
+    @Modifying
+    @Query("update IdempotentRequest r set r.createdAt = :now where r.key = :key and r.fingerprint = :fingerprint and r.response is null and r.createdAt < :staleBefore")
+    int takeOver(@Param("key") String key, @Param("fingerprint") String fingerprint, @Param("now") Instant now, @Param("staleBefore") Instant staleBefore);
+
+    @Transactional
+    @Modifying
+    @Query("update IdempotentRequest r set r.response = :response where r.key = :key")
+    int complete(@Param("key") String key, @Param("response") String response);
+
+    /**
+     * Frees the key of a request that failed, so that it can be tried again.
+     */
+    @Transactional
+    @Modifying
+    @Query("delete from IdempotentRequest r where r.key = :key and r.response is null")
+    int release(@Param("key") String key);
+
+    @Transactional
+    @Modifying
+    @Query("delete from IdempotentRequest r where r.createdAt < :before")
+    int deleteCreatedBefore(@Param("before") Instant before);
+
+}
@@ -0,0 +1,52 @@
+package be.stijnhooft.portal.social.repositories;
+
+import be.stijnhooft.portal.social.model.ImageReference;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Reference counts are changed with single update statements, so that concurrent uploads and deletes
+ * don't need to lock anything.
+ */
+public interface ImageReferenceRepository extends JpaRepository<ImageReference, String> {
+
+    @Query("select r from ImageReference r where r.colorThumbnail in :names or r.sepiaThumbnail in :names")
+    List<ImageReference> findByThumbnailIn(@Param("names") Collection<String> names);
+
+    /**
+     * Fails with a DataIntegrityViolationException when the image is already known.
+     * @param thumbnailVariants as stored by {@link be.stijnhooft.portal.social.model.ThumbnailVariantsConverter}
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "insert into image_reference (content_hash, color_thumbnail, sepia_thumbnail, thumbnail_variants, reference_count) values (:contentHash, :colorThumbnail, :sepiaThumbnail, :thumbnailVariants, 1)", nativeQuery = true)
+    void insert(@Param("contentHash") String contentHash, @Param("colorThumbnail") String colorThumbnail, @Param("sepiaThumbnail") String sepiaThumbnail, @Param("thumbnailVariants") String thumbnailVariants);
+
+    /**
+     * @return 1 when the image is known, 0 otherwise
+     */
+    @Transactional
+    @Modifying
+    @Query("update ImageReference r set r.referenceCount = r.referenceCount + 1 where r.contentHash = :contentHash")
+    int increment(@Param("contentHash") String contentHash);
+
+    @Transactional
+    @Modifying
+    @Query("update ImageReference r set r.referenceCount = r.referenceCount - 1 where r.contentHash = :contentHash and r.referenceCount > 0")
+    int decrement(@Param("contentHash") String contentHash);
+
+    /**
+     * @return 1 when the image was not used anymore and has been forgotten, 0 when it's still used
+     */
+    @Transactional
+    @Modifying
+    @Query("delete from ImageReference r where r.contentHash = :contentHash and r.referenceCount <= 0")
+    int deleteIfUnreferenced(@Param("contentHash") String contentHash);
+
+}
@@ -0,0 +1,101 @@
+package be.stijnhooft.portal.social.repositories;
+
+import be.stijnhooft.portal.social.model.OutboxEntry;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+public interface OutboxEntryRepository extends JpaRepository<OutboxEntry, Long> {
+
+    @Query("select e.id from OutboxEntry e where e.nextAttemptAt <= :now order by e.nextAttemptAt")
+    List<Long> findDueIds(@Param("now") Instant now, Pageable pageable);
+
+    /**
+     * Claims a due entry by pushing its next attempt forward. When another executor has claimed it first, nothing happens.
+     * The first claim is recorded, so that the saga of the entry is not completed while its steps are being undone.
+     * @return 1 when claimed, 0 otherwise
+     */
+    @Transactional
+    @Modifying
+    @Query("update OutboxEntry e set e.nextAttemptAt = :claimedUntil, e.claimedAt = coalesce(e.claimedAt, :now) where e.id = :id and e.nextAttemptAt <= :now")
+    int claim(@Param("id") long id, @Param("now") Instant now, @Param("claimedUntil") Instant claimedUntil);
+
+    /**
+     * @param payload what is left to do
+     */
+    @Transactional
+    @Modifying
+    @Query("update OutboxEntry e set e.payload = :payload, e.attempts = :attempts, e.nextAttemptAt = :nextAttemptAt, e.lastError = :lastError where e.id = :id")
+    void reschedule(@Param("id") long id, @Param("payload") String payload, @Param("attempts") int attempts, @Param("nextAttemptAt") Instant nextAttemptAt, @Param("lastError") String lastError);
+
+    /**
+     * @param payload what is left to do
+     */
+    @Transactional
+    @Modifying
+    @Query("update OutboxEntry e set e.payload = :payload where e.id = :id")
+    void updatePayload(@Param("id") long id, @Param("payload") String payload);
+
+    /**
+     * Gives up on an entry. It's not picked up anymore, but kept so that it can be looked into.
+     */
+    @Transactional
+    @Modifying
+    @Query("update OutboxEntry e set e.attempts = :attempts, e.nextAttemptAt = null, e.deadLetteredAt = :now, e.lastError = :lastError where e.id = :id")
+    void deadLetter(@Param("id") long id, @Param("attempts") int attempts, @Param("now") Instant now, @Param("lastError") String lastError);
+
+    /**
+     * Counts the entries that still have to be done, including the ones that are not due yet, by type.
+     */
+    @Query("select e.type as type, count(e) as count from OutboxEntry e where e.nextAttemptAt is not null group by e.type")
+    List<TypeCount> countPendingByType();
+
+    @Query("select e.type as type, count(e) as count from OutboxEntry e where e.deadLetteredAt is not null group by e.type")
+    List<TypeCount> countDeadLetteredByType();
+
+    /**
+     * Makes the entries of a saga due right away.
+     */
+    @Transactional
+    @Modifying
+    @Query("update OutboxEntry e set e.nextAttemptAt = :now where e.sagaId = :sagaId and e.nextAttemptAt is not null")
+    void trigger(@Param("sagaId") String sagaId, @Param("now") Instant now);
+
+    /**
+     * Drops the entries of a saga that no executor has claimed yet. A claimed entry may have been (partly) done, so it's kept.
+     * @return the number of dropped entries
+     */
+    @Transactional
+    @Modifying
+    @Query("delete from OutboxEntry e where e.sagaId = :sagaId and e.claimedAt is null")
+    int deleteBySagaId(@Param("sagaId") String sagaId);
+
+    /**
+     * Like {@link #deleteBySagaId(String)}, for multiple sagas.
+     */
+    @Transactional
+    @Modifying
+    @Query("delete from OutboxEntry e where e.sagaId in :sagaIds and e.claimedAt is null")
+    int deleteBySagaIdIn(@Param("sagaIds") Collection<String> sagaIds);
+
+    @Transactional
+    @Modifying
+    @Query("delete from OutboxEntry e where e.id = :id")
+    void deleteIfExists(@Param("id") long id);
+
+    interface TypeCount {
+
+        OutboxEntry.Type getType();
+
+        long getCount();
+
+    }
+
+}
@@ -1,12 +1,44 @@
 package be.stijnhooft.portal.social.repositories;
 
 import be.stijnhooft.portal.social.model.Person;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 public interface PersonRepository extends JpaRepository<Person, Long> {
 
     Optional<Person> findByName(String name);
 
+    @Query("select p.name from Person p where p.name in :names")
+    List<String> findExistingNames(@Param("names") Collection<String> names);
+
+    /**
+     * Keyset pagination: returns the persons that come after the given id, ordered by id.
+     * Unlike an offset, this stays fast no matter how far in the list we are.
+     */
+    List<Person> findByIdGreaterThanOrderByIdAsc(long id, Pageable pageable);
+
+    /**
+     * Keyset pagination over the persons that have a color thumbnail, but no placeholder.
+     */
+    @Query("select p from Person p where p.id > :id and p.placeholder is null and p.colorThumbnail is not null order by p.id")
+    List<Person> findWithoutPlaceholder(@Param("id") long id, Pageable pageable);
+
+    /**
+     * Only sets the placeholder when the person still has the color thumbnail it was made of,
+     * so that a person who got another image meanwhile does not end up with the placeholder of the old one.
+     * @return 1 when the placeholder has been set, 0 otherwise
+     */
+    @Transactional
+    @Modifying
+    @Query("update Person p set p.placeholder = :placeholder where p.id = :id and p.colorThumbnail = :colorThumbnail")
+    int updatePlaceholder(@Param("id") long id, @Param("colorThumbnail") String colorThumbnail, @Param("placeholder") String placeholder);
+
 }
@@ -0,0 +1,17 @@
+package be.stijnhooft.portal.social.repositories;
+
+import be.stijnhooft.portal.social.model.RecurringTaskProjection;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+public interface RecurringTaskProjectionRepository extends JpaRepository<RecurringTaskProjection, Long> {
+
+    @Transactional
+    @Modifying
+    @Query("delete from RecurringTaskProjection p where p.id = :id")
+    void deleteIfExists(@Param("id") long id);
+
+}
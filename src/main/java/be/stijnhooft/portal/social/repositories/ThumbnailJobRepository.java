@@ -0,0 +1,41 @@
+package be.stijnhooft.portal.social.repositories;
+
+import be.stijnhooft.portal.social.model.ThumbnailJob;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+
+public interface ThumbnailJobRepository extends JpaRepository<ThumbnailJob, Long> {
+
+    /**
+     * Only the ids, so that the images are not loaded before a job is claimed.
+     */
+    @Query("select j.id from ThumbnailJob j where j.nextAttemptAt <= :now order by j.nextAttemptAt")
+    List<Long> findDueIds(@Param("now") Instant now, Pageable pageable);
+
+    /**
+     * Claims a due job by pushing its next attempt forward. When another worker has claimed it first, nothing happens.
+     * @return 1 when claimed, 0 otherwise
+     */
+    @Transactional
+    @Modifying
+    @Query("update ThumbnailJob j set j.nextAttemptAt = :claimedUntil where j.id = :id and j.nextAttemptAt <= :now")
+    int claim(@Param("id") long id, @Param("now") Instant now, @Param("claimedUntil") Instant claimedUntil);
+
+    @Transactional
+    @Modifying
+    @Query("update ThumbnailJob j set j.attempts = :attempts, j.nextAttemptAt = :nextAttemptAt, j.lastError = :lastError where j.id = :id")
+    void reschedule(@Param("id") long id, @Param("attempts") int attempts, @Param("nextAttemptAt") Instant nextAttemptAt, @Param("lastError") String lastError);
+
+    @Transactional
+    @Modifying
+    @Query("delete from ThumbnailJob j where j.id = :id")
+    void deleteIfExists(@Param("id") long id);
+
+}
@@ -0,0 +1,113 @@
+package be.stijnhooft.portal.social.services;
+
+import lombok.NonNull;
+import org.springframework.core.io.AbstractResource;
+
+import java.io.InputStream;
+import java.util.Base64;
+
+/**
+ * An image that is given as base64, optionally as a data url ("data:image/jpeg;base64,...").
+ *
+ * The image is decoded while it's being read, so the decoded image is never completely in memory.
+ * Neither is a copy of the base64 text: it's read straight from the given string.
+ */
+public class Base64ImageResource extends AbstractResource {
+
+    private final String content;
+    private final int start;
+    private final int end;
+
+    /**
+     * @throws IllegalArgumentException when the content is not valid base64
+     */
+    public Base64ImageResource(@NonNull String content) {
+        this.content = content;
+        this.start = content.indexOf(',') + 1;
+        this.end = content.length();
+        validate();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return Base64.getDecoder().wrap(new Latin1InputStream());
+    }
+
+    /**
+     * Calculated from the length of the base64 text, without decoding it.
+     */
+    @Override
+    public long contentLength() {
+        long length = end - start;
+        return length * 3 / 4 - padding();
+    }
+
+    @Override
+    public boolean isReadable() {
+        return true;
+    }
+
+    @Override
+    public String getDescription() {
+        return "base64 encoded image of " + contentLength() + " bytes";
+    }
+
+    /**
+     * Checks the content before anything is sent, so that invalid content does not result in a request that breaks off halfway.
+     */
+    private void validate() {
+        int length = end - start;
+        int padding = padding();
+        if (length % 4 == 1 || (padding > 0 && length % 4 != 0)) {
+            throw new IllegalArgumentException("Image is not valid base64: unexpected length " + length);
+        }
+        for (int i = start; i < end - padding; i++) {
+            char c = content.charAt(i);
+            if (!(c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c == '+' || c == '/')) {
+                throw new IllegalArgumentException("Image is not valid base64: illegal character at position " + (i - start));
+            }
+        }
+    }
+
+    private int padding() {
+        int padding = 0;
+        for (int i = end - 1; i >= start && i >= end - 2 && content.charAt(i) == '='; i--) {
+            padding++;
+        }
+        return padding;
+    }
+
+    /**
+     * Reads the base64 text as bytes. Base64 only consists of ASCII characters, so every character is one byte.
+     */
+    private class Latin1InputStream extends InputStream {
+
+        private int position = start;
+
+        @Override
+        public int read() {
+            return position < end ? content.charAt(position++) : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (position >= end) {
+                return -1;
+            }
+            int count = Math.min(length, end - position);
+            for (int i = 0; i < count; i++) {
+                buffer[offset + i] = (byte) content.charAt(position++);
+            }
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return end - position;
+        }
+    }
+
+}
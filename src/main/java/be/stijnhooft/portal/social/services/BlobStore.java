@@ -0,0 +1,25 @@
+package be.stijnhooft.portal.social.services;
+
+import lombok.NonNull;
+import org.springframework.core.io.Resource;
+
+import java.util.Optional;
+
+/**
+ * Stores the thumbnails that are made by {@link LocalThumbnailBackend}.
+ */
+public interface BlobStore {
+
+    void put(@NonNull String name, @NonNull byte[] content);
+
+    /**
+     * @return the blob, or empty when there's no blob with that name
+     */
+    Optional<Resource> get(@NonNull String name);
+
+    /**
+     * @return false when there's no blob with that name
+     */
+    boolean delete(@NonNull String name);
+
+}
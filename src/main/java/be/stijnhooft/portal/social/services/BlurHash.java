@@ -0,0 +1,117 @@
+package be.stijnhooft.portal.social.services;
+
+import lombok.NonNull;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Encodes an image as a BlurHash: a string of a few dozen characters from which clients paint a blurred version of the image.
+ * See https://github.com/woltapp/blurhash for the algorithm and for decoders.
+ */
+final class BlurHash {
+
+    private static final String CHARACTERS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz#$%*+,-.:;=?@[]^_{|}~";
+
+    private BlurHash() {
+    }
+
+    /**
+     * Every pixel is visited for every component, so pass a small image, like 32x32.
+     *
+     * @param componentsX number of horizontal components, from 1 to 9
+     * @param componentsY number of vertical components, from 1 to 9
+     */
+    static String encode(@NonNull BufferedImage image, int componentsX, int componentsY) {
+        if (componentsX < 1 || componentsX > 9 || componentsY < 1 || componentsY > 9) {
+            throw new IllegalArgumentException("BlurHash supports 1 to 9 components in each direction");
+        }
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+
+        double[][] factors = new double[componentsX * componentsY][];
+        for (int j = 0; j < componentsY; j++) {
+            for (int i = 0; i < componentsX; i++) {
+                factors[j * componentsX + i] = factor(pixels, width, height, i, j);
+            }
+        }
+
+        var hash = new StringBuilder();
+        encode83(hash, (componentsX - 1) + (componentsY - 1) * 9, 1);
+
+        double maximumValue;
+        if (factors.length > 1) {
+            double actualMaximumValue = 0;
+            for (int i = 1; i < factors.length; i++) {
+                for (double value : factors[i]) {
+                    actualMaximumValue = Math.max(actualMaximumValue, Math.abs(value));
+                }
+            }
+            int quantisedMaximumValue = (int) Math.max(0, Math.min(82, Math.floor(actualMaximumValue * 166 - 0.5)));
+            maximumValue = (quantisedMaximumValue + 1) / 166.0;
+            encode83(hash, quantisedMaximumValue, 1);
+        } else {
+            maximumValue = 1;
+            encode83(hash, 0, 1);
+        }
+
+        encode83(hash, encodeDc(factors[0]), 4);
+        for (int i = 1; i < factors.length; i++) {
+            encode83(hash, encodeAc(factors[i], maximumValue), 2);
+        }
+        return hash.toString();
+    }
+
+    private static double[] factor(int[] pixels, int width, int height, int i, int j) {
+        double normalisation = (i == 0 && j == 0) ? 1 : 2;
+        double red = 0;
+        double green = 0;
+        double blue = 0;
+        for (int y = 0; y < height; y++) {
+            double basisY = Math.cos(Math.PI * j * y / height);
+            for (int x = 0; x < width; x++) {
+                double basis = normalisation * Math.cos(Math.PI * i * x / width) * basisY;
+                int pixel = pixels[y * width + x];
+                red += basis * srgbToLinear((pixel >> 16) & 0xff);
+                green += basis * srgbToLinear((pixel >> 8) & 0xff);
+                blue += basis * srgbToLinear(pixel & 0xff);
+            }
+        }
+        double scale = 1.0 / (width * height);
+        return new double[] {red * scale, green * scale, blue * scale};
+    }
+
+    private static int encodeDc(double[] value) {
+        return (linearToSrgb(value[0]) << 16) + (linearToSrgb(value[1]) << 8) + linearToSrgb(value[2]);
+    }
+
+    private static int encodeAc(double[] value, double maximumValue) {
+        int red = quantise(value[0] / maximumValue);
+        int green = quantise(value[1] / maximumValue);
+        int blue = quantise(value[2] / maximumValue);
+        return red * 19 * 19 + green * 19 + blue;
+    }
+
+    private static int quantise(double value) {
+        return (int) Math.max(0, Math.min(18, Math.floor(Math.signum(value) * Math.sqrt(Math.abs(value)) * 9 + 9.5)));
+    }
+
+    private static double srgbToLinear(int value) {
+        double v = value / 255.0;
+        return v <= 0.04045 ? v / 12.92 : Math.pow((v + 0.055) / 1.055, 2.4);
+    }
+
+    private static int linearToSrgb(double value) {
+        double v = Math.max(0, Math.min(1, value));
+        return v <= 0.0031308 ? (int) (v * 12.92 * 255 + 0.5) : (int) ((1.055 * Math.pow(v, 1 / 2.4) - 0.055) * 255 + 0.5);
+    }
+
+    private static void encode83(StringBuilder hash, int value, int length) {
+        for (int i = 1; i <= length; i++) {
+            int digit = (int) (value / Math.pow(83, length - i)) % 83;
+            hash.append(CHARACTERS.charAt(digit));
+        }
+    }
+
+}
@@ -0,0 +1,375 @@
+package be.stijnhooft.portal.social.services;
+
+import be.stijnhooft.portal.social.ThumbnailProperties;
+import be.stijnhooft.portal.social.dtos.ContactSheetDto;
+import be.stijnhooft.portal.social.model.Person;
+import be.stijnhooft.portal.social.repositories.PersonRepository;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the contact sheet: one image with the color and sepia thumbnail of every person, and where they are in it.
+ *
+ * Every person keeps its place in the sheet, so when the thumbnails of a person change, only the tiles of that person
+ * are drawn again. The tiles are drawn from the smallest thumbnails that fit, which are read concurrently on the contact sheet executor.
+ * The image is encoded once per version.
+ *
+ * The sheet is brought up to date by one thread at a time: the first request after a change, or the refresh.
+ * That request waits for the changed tiles to be drawn. Meanwhile, the other requests are served the sheet that has been encoded last,
+ * so they don't wait for the thumbnails to be read, except for the very first sheet.
+ *
+ * The changes that this instance makes are applied when the sheet is retrieved next, see {@link ThumbnailsChangedEvent}.
+ * The changes that other instances make are picked up by comparing the sheet with the database,
+ * every social.thumbnails.contact-sheet-refresh-interval. Nothing is done until the sheet is retrieved for the first time.
+ */
+@Service
+@Slf4j
+public class ContactSheetService {
+
+    private static final Color BACKGROUND = Color.WHITE;
+    private static final int VERSION_LENGTH = 16;
+
+    private final PersonRepository personRepository;
+    private final ThumbnailBackend thumbnailBackend;
+    private final ThumbnailProfiles thumbnailProfiles;
+    private final ExecutorService executor;
+    private final int tileSize;
+    private final int columns;
+
+    /**
+     * Persons of which the thumbnails changed since the sheet has been brought up to date.
+     */
+    private final Set<Long> changedPersonIds = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The sheet as it has been encoded last, or null when it has not been retrieved yet.
+     */
+    private volatile ContactSheet contactSheet;
+
+    /**
+     * Held while the sheet is brought up to date. The fields below are guarded by it.
+     */
+    private final ReentrantLock updating = new ReentrantLock();
+    private BufferedImage canvas;
+    private final Map<Long, Slot> slots = new HashMap<>();
+    private final TreeSet<Integer> freeSlots = new TreeSet<>();
+    private int slotCount;
+
+    /**
+     * Whether something has been drawn since the sheet has been encoded last.
+     */
+    private boolean changed;
+
+    public ContactSheetService(PersonRepository personRepository, ThumbnailBackend thumbnailBackend, ThumbnailProfiles thumbnailProfiles, ThumbnailProperties thumbnailProperties, @Qualifier("contactSheetExecutor") ExecutorService executor) {
+        this.personRepository = personRepository;
+        this.thumbnailBackend = thumbnailBackend;
+        this.thumbnailProfiles = thumbnailProfiles;
+        this.executor = executor;
+        this.tileSize = thumbnailProperties.getContactSheetTileSize();
+        this.columns = thumbnailProperties.getContactSheetColumns();
+    }
+
+    /**
+     * Brings the sheet up to date, when needed. When another thread is doing that already, the sheet as it has been encoded last is returned.
+     */
+    public ContactSheet get() {
+        var current = contactSheet;
+        if (current != null) {
+            if (changedPersonIds.isEmpty() || !updating.tryLock()) {
+                return current;
+            }
+        } else {
+            updating.lock();
+        }
+
+        try {
+            if (contactSheet == null) {
+                changedPersonIds.clear();
+                compareWithDatabase();
+            } else {
+                applyChanges();
+            }
+            return encodeWhenChanged();
+        } finally {
+            updating.unlock();
+        }
+    }
+
+    @EventListener
+    public void onThumbnailsChanged(ThumbnailsChangedEvent event) {
+        changedPersonIds.add(event.getPersonId());
+    }
+
+    @Scheduled(initialDelayString = "${social.thumbnails.contact-sheet-refresh-interval:PT5M}", fixedDelayString = "${social.thumbnails.contact-sheet-refresh-interval:PT5M}")
+    public void refresh() {
+        updating.lock();
+        try {
+            if (contactSheet != null) {
+                changedPersonIds.clear();
+                compareWithDatabase();
+                encodeWhenChanged();
+            }
+        } finally {
+            updating.unlock();
+        }
+    }
+
+    private void applyChanges() {
+        List<Person> changedPersons = new ArrayList<>();
+        for (Long personId : List.copyOf(changedPersonIds)) {
+            changedPersonIds.remove(personId);
+            personRepository.findById(personId)
+                    .filter(person -> person.getColorThumbnail() != null)
+                    .ifPresentOrElse(changedPersons::add, () -> remove(personId));
+        }
+        draw(changedPersons);
+    }
+
+    private ContactSheet encodeWhenChanged() {
+        if (changed || contactSheet == null) {
+            contactSheet = encode();
+            changed = false;
+        }
+        return contactSheet;
+    }
+
+    private void compareWithDatabase() {
+        var persons = personRepository.findAll().stream()
+                .filter(person -> person.getColorThumbnail() != null)
+                .collect(Collectors.toMap(Person::getId, Function.identity()));
+
+        for (Long personId : List.copyOf(slots.keySet())) {
+            if (!persons.containsKey(personId)) {
+                remove(personId);
+            }
+        }
+        draw(persons.values().stream()
+                .sorted(Comparator.comparing(Person::getId))
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Draws the tiles of the persons of which the thumbnails are not the ones in the sheet.
+     * The thumbnails of all those persons are read at the same time, before anything is drawn.
+     * When a tile cannot be drawn, it is tried again the next time the sheet is compared with the database.
+     */
+    private void draw(List<Person> persons) {
+        List<Person> outdated = new ArrayList<>();
+        List<CompletableFuture<Tile>> colorTiles = new ArrayList<>();
+        List<CompletableFuture<Tile>> sepiaTiles = new ArrayList<>();
+        for (Person person : persons) {
+            var slot = slots.get(person.getId());
+            if (slot == null || !Objects.equals(slot.colorThumbnail, person.getColorThumbnail()) || !Objects.equals(slot.sepiaThumbnail, person.getSepiaThumbnail())) {
+                var thumbnails = person.getThumbnails();
+                outdated.add(person);
+                colorTiles.add(CompletableFuture.supplyAsync(() -> readTile(thumbnails, false), executor));
+                sepiaTiles.add(CompletableFuture.supplyAsync(() -> readTile(thumbnails, true), executor));
+            }
+        }
+
+        for (int i = 0; i < outdated.size(); i++) {
+            var person = outdated.get(i);
+            var slot = slots.get(person.getId());
+            if (slot == null) {
+                slot = new Slot(allocate());
+                slots.put(person.getId(), slot);
+            }
+
+            boolean colorDrawn = drawTile(colorTiles.get(i).join(), x(slot.index), y(slot.index));
+            boolean sepiaDrawn = drawTile(sepiaTiles.get(i).join(), x(slot.index) + tileSize, y(slot.index));
+            slot.colorThumbnail = colorDrawn && sepiaDrawn ? person.getColorThumbnail() : null;
+            slot.sepiaThumbnail = colorDrawn && sepiaDrawn ? person.getSepiaThumbnail() : null;
+            changed = true;
+        }
+    }
+
+    /**
+     * Reads and resizes the smallest thumbnail that fits in a tile. Does not throw.
+     */
+    private Tile readTile(Map<String, String> thumbnails, boolean sepia) {
+        var profile = thumbnailProfiles.findSmallestThatFits(thumbnails, tileSize, sepia);
+        if (profile.isEmpty()) {
+            return Tile.EMPTY;
+        }
+
+        var thumbnailName = thumbnails.get(profile.get().getName());
+        try {
+            var content = new ByteArrayOutputStream(16 * 1024);
+            if (!thumbnailBackend.read(thumbnailName, content)) {
+                log.warn("Could not add thumbnail {} to the contact sheet, it does not exist", thumbnailName);
+                return Tile.FAILED;
+            }
+            var thumbnail = ImageIO.read(new ByteArrayInputStream(content.toByteArray()));
+            if (thumbnail == null) {
+                log.warn("Could not add thumbnail {} to the contact sheet, it has an unsupported format", thumbnailName);
+                return Tile.FAILED;
+            }
+            return new Tile(LocalThumbnailBackend.resize(thumbnail, tileSize, true), true);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not add thumbnail {} to the contact sheet", thumbnailName, e);
+            return Tile.FAILED;
+        }
+    }
+
+    /**
+     * @return whether the tile has been read
+     */
+    private boolean drawTile(Tile tile, int x, int y) {
+        var graphics = canvas.createGraphics();
+        try {
+            graphics.setColor(BACKGROUND);
+            graphics.fillRect(x, y, tileSize, tileSize);
+            if (tile.image != null) {
+                graphics.drawImage(tile.image, x, y, null);
+            }
+            return tile.read;
+        } finally {
+            graphics.dispose();
+        }
+    }
+
+    private void remove(long personId) {
+        var slot = slots.remove(personId);
+        if (slot == null) {
+            return;
+        }
+
+        var graphics = canvas.createGraphics();
+        try {
+            graphics.setColor(BACKGROUND);
+            graphics.fillRect(x(slot.index), y(slot.index), 2 * tileSize, tileSize);
+        } finally {
+            graphics.dispose();
+        }
+        freeSlots.add(slot.index);
+        changed = true;
+    }
+
+    /**
+     * Reuses the slot of a person that has been removed, or adds a slot at the end. Grows the canvas when needed.
+     */
+    private int allocate() {
+        var freeSlot = freeSlots.pollFirst();
+        int index = freeSlot != null ? freeSlot : slotCount++;
+
+        int height = y(index) + tileSize;
+        if (canvas == null || canvas.getHeight() < height) {
+            var grown = new BufferedImage(columns * 2 * tileSize, Math.max(height, canvas == null ? 0 : 2 * canvas.getHeight()), BufferedImage.TYPE_INT_RGB);
+            var graphics = grown.createGraphics();
+            try {
+                graphics.setColor(BACKGROUND);
+                graphics.fillRect(0, 0, grown.getWidth(), grown.getHeight());
+                if (canvas != null) {
+                    graphics.drawImage(canvas, 0, 0, null);
+                }
+            } finally {
+                graphics.dispose();
+            }
+            canvas = grown;
+        }
+        return index;
+    }
+
+    private ContactSheet encode() {
+        int width = columns * 2 * tileSize;
+        int height = Math.max(1, (slotCount + columns - 1) / columns) * tileSize;
+
+        var content = new ByteArrayOutputStream();
+        try {
+            var image = canvas == null ? new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB) : canvas.getSubimage(0, 0, width, height);
+            ImageIO.write(image, "jpg", content);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not encode the contact sheet", e);
+        }
+
+        var sortedSlots = new TreeMap<>(slots);
+        var tiles = new LinkedHashMap<Long, ContactSheetDto.Tiles>();
+        var version = new StringBuilder().append(tileSize).append('x').append(columns);
+        sortedSlots.forEach((personId, slot) -> {
+            tiles.put(personId, new ContactSheetDto.Tiles(x(slot.index), y(slot.index), x(slot.index) + tileSize, y(slot.index)));
+            version.append(';').append(personId).append('@').append(slot.index).append('=').append(slot.colorThumbnail).append(',').append(slot.sepiaThumbnail);
+        });
+
+        var description = ContactSheetDto.builder()
+                .version(DigestUtils.sha256Hex(version.toString()).substring(0, VERSION_LENGTH))
+                .tileSize(tileSize)
+                .width(width)
+                .height(height)
+                .tiles(tiles)
+                .build();
+        return new ContactSheet(description, content.toByteArray());
+    }
+
+    private int x(int index) {
+        return (index % columns) * 2 * tileSize;
+    }
+
+    private int y(int index) {
+        return (index / columns) * tileSize;
+    }
+
+    private static class Slot {
+
+        private final int index;
+
+        /**
+         * The thumbnails that are drawn in this slot, or null when they could not be drawn.
+         */
+        private String colorThumbnail;
+        private String sepiaThumbnail;
+
+        private Slot(int index) {
+            this.index = index;
+        }
+
+    }
+
+    /**
+     * A thumbnail, resized to a tile.
+     */
+    @Value
+    private static class Tile {
+
+        /** The person has no thumbnail that fits, the tile stays empty. **/
+        static final Tile EMPTY = new Tile(null, true);
+        /** The thumbnail could not be read, the tile stays empty for now. **/
+        static final Tile FAILED = new Tile(null, false);
+
+        BufferedImage image;
+        boolean read;
+
+    }
+
+    @Value
+    public static class ContactSheet {
+
+        ContactSheetDto description;
+
+        /**
+         * JPEG
+         */
+        byte[] image;
+
+    }
+
+}
@@ -0,0 +1,83 @@
+package be.stijnhooft.portal.social.services;
+
+import be.stijnhooft.portal.social.ThumbnailProperties;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * Stores every blob as a file in {@link ThumbnailProperties#getDirectory()}.
+ */
+@Component
+@ConditionalOnProperty(prefix = "social.thumbnails", name = "backend", havingValue = "LOCAL")
+@Slf4j
+public class FileSystemBlobStore implements BlobStore {
+
+    /**
+     * Names can never point outside the directory.
+     */
+    private static final Pattern VALID_NAME = Pattern.compile("[A-Za-z0-9_-][A-Za-z0-9._-]*");
+
+    private final Path directory;
+
+    public FileSystemBlobStore(ThumbnailProperties thumbnailProperties) {
+        this.directory = thumbnailProperties.getDirectory().toAbsolutePath().normalize();
+    }
+
+    /**
+     * The blob is written to a temporary file first, so that nobody reads a half written blob.
+     */
+    @Override
+    public void put(@NonNull String name, @NonNull byte[] content) {
+        var path = resolve(name);
+        try {
+            Files.createDirectories(directory);
+            var temporaryFile = Files.createTempFile(directory, ".", ".tmp");
+            try {
+                Files.write(temporaryFile, content);
+                Files.move(temporaryFile, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temporaryFile);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not store blob " + name, e);
+        }
+    }
+
+    @Override
+    public Optional<Resource> get(@NonNull String name) {
+        if (!VALID_NAME.matcher(name).matches()) {
+            return Optional.empty();
+        }
+        var path = resolve(name);
+        return Files.isRegularFile(path) ? Optional.of(new FileSystemResource(path)) : Optional.empty();
+    }
+
+    @Override
+    public boolean delete(@NonNull String name) {
+        try {
+            return Files.deleteIfExists(resolve(name));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not delete blob " + name, e);
+        }
+    }
+
+    private Path resolve(String name) {
+        if (!VALID_NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException("Invalid blob name: " + name);
+        }
+        return directory.resolve(name);
+    }
+
+}
@@ -0,0 +1,13 @@
+package be.stijnhooft.portal.social.services;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.CONFLICT)
+public class IdempotencyKeyInUseException extends IllegalStateException {
+
+    public IdempotencyKeyInUseException(String key) {
+        super("A request with idempotency key " + key + " is being done, try again later");
+    }
+
+}
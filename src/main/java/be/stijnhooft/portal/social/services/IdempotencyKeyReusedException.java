@@ -0,0 +1,13 @@
+package be.stijnhooft.portal.social.services;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.UNPROCESSABLE_ENTITY)
+public class IdempotencyKeyReusedException extends IllegalArgumentException {
+
+    public IdempotencyKeyReusedException(String key) {
+        super("Idempotency key " + key + " has been used for another request");
+    }
+
+}
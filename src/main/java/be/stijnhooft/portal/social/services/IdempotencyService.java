@@ -0,0 +1,207 @@
+package be.stijnhooft.portal.social.services;
+
+import be.stijnhooft.portal.social.IdempotencyProperties;
+import be.stijnhooft.portal.social.model.IdempotentRequest;
+import be.stijnhooft.portal.social.repositories.IdempotentRequestRepository;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.time.Clock;
+import java.util.function.Supplier;
+
+/**
+ * Makes requests that are sent with an Idempotency-Key header safe to send again, for example when the client timed out.
+ * The response of the first request is stored, and returned for every next request with the same key, without doing the request again.
+ *
+ * Only one request with the same key is done at a time: the key is reserved in the database before the request is done,
+ * so concurrent requests with that key are refused, also when they arrive at another instance of this module.
+ * A request that fails frees its key, so that it can be tried again.
+ *
+ * Responses are kept in the database for {@link IdempotencyProperties#getRetention()}. The most recent ones are kept in memory too,
+ * so that a retry does not have to go to the database. The usage of the memory cache is published as cache_gets etc., with cache=idempotency.
+ */
+@Service
+@Slf4j
+public class IdempotencyService {
+
+    private final IdempotentRequestRepository idempotentRequestRepository;
+    private final ObjectMapper objectMapper;
+    private final IdempotencyProperties idempotencyProperties;
+    private final Clock clock;
+
+    /**
+     * Completed requests, by key. A completed request never changes, so it can be kept in memory without asking the database.
+     */
+    private final Cache<String, IdempotentRequest> completedRequests;
+
+    @Autowired
+    public IdempotencyService(IdempotentRequestRepository idempotentRequestRepository, ObjectMapper objectMapper, IdempotencyProperties idempotencyProperties, MeterRegistry meterRegistry) {
+        this(idempotentRequestRepository, objectMapper, idempotencyProperties, meterRegistry, Clock.systemUTC());
+    }
+
+    IdempotencyService(IdempotentRequestRepository idempotentRequestRepository, ObjectMapper objectMapper, IdempotencyProperties idempotencyProperties, MeterRegistry meterRegistry, Clock clock) {
+        this.idempotentRequestRepository = idempotentRequestRepository;
+        this.objectMapper = objectMapper;
+        this.idempotencyProperties = idempotencyProperties;
+        this.clock = clock;
+        this.completedRequests = CaffeineCacheMetrics.monitor(meterRegistry, Caffeine.newBuilder()
+                .maximumSize(idempotencyProperties.getCacheSize())
+                .expireAfterWrite(idempotencyProperties.getCacheExpiry())
+                .recordStats()
+                .build(), "idempotency");
+    }
+
+    /**
+     * Does the request, or returns the response of the earlier request with the same key.
+     *
+     * @param key          the Idempotency-Key header. When null, the request is done without further ado.
+     * @param operation    what is requested, like "create person". Together with the request, it has to be the same every time the key is used.
+     * @param request      the body of the request
+     * @param responseType the type of the response, to read the stored response
+     * @param action       does the request
+     * @throws IdempotencyKeyInUseException  when a request with the same key is being done
+     * @throws IdempotencyKeyReusedException when the key has been used for another request
+     */
+    public <T> T execute(String key, @NonNull String operation, @NonNull Object request, @NonNull Class<T> responseType, @NonNull Supplier<T> action) {
+        if (key == null) {
+            return action.get();
+        }
+        if (key.isEmpty() || key.length() > IdempotentRequest.MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("An idempotency key has 1 to " + IdempotentRequest.MAX_KEY_LENGTH + " characters");
+        }
+
+        var fingerprint = fingerprint(operation, request);
+        var completedRequest = completedRequests.getIfPresent(key);
+        if (completedRequest != null) {
+            return replay(completedRequest, fingerprint, responseType);
+        }
+
+        if (!reserve(key, fingerprint)) {
+            var earlierRequest = idempotentRequestRepository.findById(key)
+                    .orElseThrow(() -> new IdempotencyKeyInUseException(key)); // freed meanwhile
+            if (earlierRequest.getResponse() != null) {
+                completedRequests.put(key, earlierRequest);
+                return replay(earlierRequest, fingerprint, responseType);
+            } else if (!earlierRequest.getFingerprint().equals(fingerprint)) {
+                throw new IdempotencyKeyReusedException(key);
+            } else if (!takeOver(key, fingerprint)) {
+                throw new IdempotencyKeyInUseException(key);
+            }
+        }
+
+        T response;
+        try {
+            response = action.get();
+        } catch (RuntimeException e) {
+            release(key);
+            throw e;
+        }
+        complete(key, fingerprint, response);
+        return response;
+    }
+
+    /**
+     * Removes the requests that are older than {@link IdempotencyProperties#getRetention()}.
+     */
+    @Scheduled(fixedDelayString = "${social.idempotency.cleanup-interval:PT1H}")
+    public void deleteExpired() {
+        int deleted = idempotentRequestRepository.deleteCreatedBefore(clock.instant().minus(idempotencyProperties.getRetention()));
+        if (deleted > 0) {
+            log.info("Removed {} expired idempotent requests", deleted);
+        }
+    }
+
+    private boolean reserve(String key, String fingerprint) {
+        try {
+            idempotentRequestRepository.reserve(key, fingerprint, clock.instant());
+            return true;
+        } catch (DataIntegrityViolationException e) {
+            return false;
+        }
+    }
+
+    private boolean takeOver(String key, String fingerprint) {
+        var now = clock.instant();
+        var takenOver = idempotentRequestRepository.takeOver(key, fingerprint, now, now.minus(idempotencyProperties.getLockDuration())) == 1;
+        if (takenOver) {
+            log.warn("Request with idempotency key {} did not complete in {}, doing it again", key, idempotencyProperties.getLockDuration());
+        }
+        return takenOver;
+    }
+
+    /**
+     * When the response cannot be stored, the key is freed. A retry does the request again then, like without a key.
+     */
+    private void complete(String key, String fingerprint, Object response) {
+        try {
+            var json = objectMapper.writeValueAsString(response);
+            if (json.length() > IdempotentRequest.MAX_RESPONSE_LENGTH) {
+                throw new IllegalArgumentException("The response is " + json.length() + " characters, only " + IdempotentRequest.MAX_RESPONSE_LENGTH + " can be stored");
+            }
+            idempotentRequestRepository.complete(key, json);
+            completedRequests.put(key, IdempotentRequest.builder()
+                    .key(key)
+                    .fingerprint(fingerprint)
+                    .response(json)
+                    .build());
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not store the response of the request with idempotency key {}", key, e);
+            release(key);
+        }
+    }
+
+    private void release(String key) {
+        try {
+            idempotentRequestRepository.release(key);
+        } catch (RuntimeException e) {
+            log.error("Could not free idempotency key {}, it's freed after {}", key, idempotencyProperties.getLockDuration(), e);
+        }
+    }
+
+    private <T> T replay(IdempotentRequest earlierRequest, String fingerprint, Class<T> responseType) {
+        if (!earlierRequest.getFingerprint().equals(fingerprint)) {
+            throw new IdempotencyKeyReusedException(earlierRequest.getKey());
+        }
+        log.info("Returning the response of the earlier request with idempotency key {}", earlierRequest.getKey());
+        try {
+            return objectMapper.readValue(earlierRequest.getResponse(), responseType);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read the response of the request with idempotency key " + earlierRequest.getKey(), e);
+        }
+    }
+
+    /**
+     * The request is written straight into the digest, so that a large request, like one with an image, is not copied in memory.
+     */
+    private String fingerprint(String operation, Object request) {
+        var digest = DigestUtils.getSha256Digest();
+        try (var outputStream = new DigestOutputStream(OutputStream.nullOutputStream(), digest)) {
+            outputStream.write(operation.getBytes(StandardCharsets.UTF_8));
+            outputStream.write('\n');
+            objectMapper.writer()
+                    .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                    .writeValue(outputStream, request);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not fingerprint " + operation, e);
+        }
+        return Hex.encodeHexString(digest.digest());
+    }
+
+}
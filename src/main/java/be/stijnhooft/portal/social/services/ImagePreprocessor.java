@@ -0,0 +1,164 @@
+package be.stijnhooft.portal.social.services;
+
+import be.stijnhooft.portal.social.ImageProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Prepares an uploaded image before it's passed on to make thumbnails.
+ *
+ * Camera originals are far larger than the largest thumbnail, so an image that is wider or higher than
+ * {@link ImageProperties#getMaxDimension()} is scaled down first: that is less to send to the image module,
+ * and less to decode there. Only the header of the image is read to find out. Large images are decoded with subsampling,
+ * at no more than the max dimension, so that their full resolution is never in memory.
+ *
+ * Publishes how many bytes have been received and how many have been passed on, as social.images.received and social.images.forwarded.
+ */
+@Component
+@Slf4j
+public class ImagePreprocessor {
+
+    private static final String FORMAT = "jpg";
+
+    private final long maxUploadSize;
+    private final int maxDimension;
+    private final Counter received;
+    private final Counter forwarded;
+    private final Counter rejected;
+    private final Counter downscaled;
+
+    public ImagePreprocessor(ImageProperties imageProperties, MeterRegistry meterRegistry) {
+        this.maxUploadSize = imageProperties.getMaxUploadSize().toBytes();
+        this.maxDimension = imageProperties.getMaxDimension();
+        this.received = Counter.builder("social.images.received")
+                .description("Size of the uploaded images")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.forwarded = Counter.builder("social.images.forwarded")
+                .description("Size of the images that are passed on to make thumbnails")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("social.images.rejected")
+                .description("Uploaded images that were too large")
+                .register(meterRegistry);
+        this.downscaled = Counter.builder("social.images.downscaled")
+                .description("Uploaded images that were scaled down")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Refuses an image that is larger than {@link ImageProperties#getMaxUploadSize()}, without reading it.
+     *
+     * @throws ImageTooLargeException when the image is too large
+     */
+    public void verifySize(@NonNull Resource image) {
+        long size = contentLength(image);
+        if (size > maxUploadSize) {
+            rejected.increment();
+            throw new ImageTooLargeException(size, maxUploadSize);
+        }
+    }
+
+    /**
+     * An image that is small enough, that cannot be read twice or that is not understood, is passed on as it is.
+     *
+     * @return the image, or a scaled down JPEG of it
+     * @throws ImageTooLargeException when the image is too large
+     */
+    public Resource prepare(@NonNull Resource image) {
+        verifySize(image);
+        long size = contentLength(image);
+        if (size > 0) {
+            received.increment(size);
+        }
+
+        var prepared = image.isOpen() ? image : downscale(image);
+        long preparedSize = contentLength(prepared);
+        if (preparedSize > 0) {
+            forwarded.increment(preparedSize);
+        }
+        return prepared;
+    }
+
+    private Resource downscale(Resource image) {
+        try {
+            var decoded = decode(image);
+            if (decoded == null) {
+                return image;
+            }
+
+            var content = new ByteArrayOutputStream();
+            ImageIO.write(LocalThumbnailBackend.resize(decoded, maxDimension, false), FORMAT, content);
+            downscaled.increment();
+            log.info("Scaled down image of {} bytes, decoded at {}x{} pixels, to {} bytes", contentLength(image), decoded.getWidth(), decoded.getHeight(), content.size());
+            return new ByteArrayResource(content.toByteArray(), "scaled down " + image.getDescription());
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not scale down {}, passing it on as it is", image.getDescription(), e);
+            return image;
+        }
+    }
+
+    /**
+     * Decodes only every n-th pixel of an image that is wider or higher than {@link ImageProperties#getMaxDimension()},
+     * with n rounded up, so that the decoded image is never larger than that. It can be up to half as large,
+     * which is still more than the largest thumbnail: it's scaled up a little to the max dimension afterwards.
+     *
+     * @return the decoded image, or null when the image is small enough or its format is not understood
+     */
+    BufferedImage decode(Resource image) throws IOException {
+        try (InputStream inputStream = image.getInputStream();
+             ImageInputStream imageInputStream = ImageIO.createImageInputStream(inputStream)) {
+            var readers = ImageIO.getImageReaders(imageInputStream);
+            if (!readers.hasNext()) {
+                return null;
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(imageInputStream, true, true);
+                int largestSide = Math.max(reader.getWidth(0), reader.getHeight(0));
+                if (largestSide <= maxDimension) {
+                    return null;
+                }
+
+                int subsampling = (largestSide + maxDimension - 1) / maxDimension;
+                var readParam = reader.getDefaultReadParam();
+                readParam.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, readParam);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Also known of most images that can be read only once, like an upload, so those are refused and counted too.
+     *
+     * @return the size, or -1 when it's not known without reading the image
+     */
+    private static long contentLength(Resource image) {
+        if (image instanceof InputStreamResource) {
+            return -1; // would read the stream to count its bytes
+        }
+        try {
+            return image.contentLength();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+}
@@ -1,113 +1,219 @@
 package be.stijnhooft.portal.social.services;
 
 
-import be.stijnhooft.portal.model.image.ImageDto;
+import be.stijnhooft.portal.social.dtos.ImageDeleteResult;
 import be.stijnhooft.portal.social.dtos.ImageLabel;
+import be.stijnhooft.portal.social.model.ImageReference;
+import be.stijnhooft.portal.social.model.ThumbnailVariantsConverter;
+import be.stijnhooft.portal.social.repositories.ImageReferenceRepository;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.cloud.client.ServiceInstance;
-import org.springframework.cloud.client.discovery.DiscoveryClient;
-import org.springframework.core.ParameterizedTypeReference;
-import org.springframework.core.io.ByteArrayResource;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.ResponseEntity;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.core.io.Resource;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
-import org.springframework.util.LinkedMultiValueMap;
-import org.springframework.util.MultiValueMap;
-import org.springframework.web.client.HttpClientErrorException;
-import org.springframework.web.client.RestTemplate;
 
+import java.io.IOException;
+import java.io.InputStream;
+import javax.transaction.Transactional;
+import java.io.UncheckedIOException;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 
 /**
- * Service responsible for all communication with the recurring tasks module.
+ * Service responsible for the images of persons.
+ * The thumbnails are made and stored by the configured {@link ThumbnailBackend},
+ * after the {@link ImagePreprocessor} has refused images that are too large and scaled down the ones that are larger than needed.
+ *
+ * When the same image is uploaded more than once, for the same person or for different persons,
+ * the thumbnails are made only once. The {@link ImageReference} index keeps track of how many times
+ * the thumbnails are used, and they are only deleted when nobody uses them anymore.
  */
 @Service
 @Slf4j
 public class ImageService {
 
-    public static final String SERVICE_ID = "image";
-    public static final String API_CONTEXT_ROOT = "api/";
-    private final DiscoveryClient discoveryClient;
-    private final RestTemplate restTemplate;
+    private static final ThumbnailVariantsConverter THUMBNAIL_VARIANTS_CONVERTER = new ThumbnailVariantsConverter();
 
-    public ImageService(DiscoveryClient discoveryClient, RestTemplate restTemplate) {
-        this.discoveryClient = discoveryClient;
-        this.restTemplate = restTemplate;
+    private final ThumbnailBackend thumbnailBackend;
+    private final ImageReferenceRepository imageReferenceRepository;
+    private final ImagePreprocessor imagePreprocessor;
+
+    public ImageService(ThumbnailBackend thumbnailBackend, ImageReferenceRepository imageReferenceRepository, ImagePreprocessor imagePreprocessor) {
+        this.thumbnailBackend = thumbnailBackend;
+        this.imageReferenceRepository = imageReferenceRepository;
+        this.imagePreprocessor = imagePreprocessor;
     }
 
-    public void delete(@NonNull Collection<String> imageNames) {
-        imageNames.forEach(this::delete);
+    /**
+     * Refuses an image that is too large, without reading it. Creating thumbnails does this too,
+     * this is for images that are kept to make thumbnails of later on.
+     *
+     * @throws ImageTooLargeException when the image is too large
+     */
+    public void verifySize(@NonNull Resource image) {
+        imagePreprocessor.verifySize(image);
     }
 
-    public void delete(@NonNull String... imageNames) {
-        delete(Arrays.asList(imageNames));
+    /**
+     * Images without a name, like the thumbnails of a person whose thumbnails are not ready, are skipped.
+     * Thumbnails that are still used elsewhere are kept.
+     * Does not throw when an image cannot be deleted.
+     * @return what happened, by image name
+     */
+    public Map<String, ImageDeleteResult> delete(@NonNull Collection<String> imageNames) {
+        return deleteAll(List.of(imageNames));
     }
 
-    public void delete(@NonNull String imageName) {
-        try {
-            var url = findPortalImageUrl() + API_CONTEXT_ROOT + "remove/" + imageName;
-            log.info("Deleting image at " + url);
-            restTemplate.delete(url);
-        } catch (HttpClientErrorException.NotFound ex)   {
-            log.warn("Image microservice returns 404 when deleting image {}. Image might already have been deleted.", imageName);
+    /**
+     * Deletes the images of several persons at once. Every collection gives up one use of its images,
+     * and the images that are not used anymore are deleted with one call to the {@link ThumbnailBackend}.
+     * Does not throw when an image cannot be deleted.
+     * @param imageNamesPerPerson the images of every person
+     * @return what happened, by image name
+     */
+    public Map<String, ImageDeleteResult> deleteAll(@NonNull Collection<? extends Collection<String>> imageNamesPerPerson) {
+        Set<String> unused = new LinkedHashSet<>();
+        Map<String, ImageDeleteResult> results = new HashMap<>();
+        for (Collection<String> imageNames : imageNamesPerPerson) {
+            unused.addAll(release(imageNames));
+            imageNames.stream()
+                    .filter(Objects::nonNull)
+                    .forEach(imageName -> results.put(imageName, ImageDeleteResult.STILL_IN_USE));
         }
+        if (!unused.isEmpty()) {
+            results.putAll(thumbnailBackend.delete(new ArrayList<>(unused)));
+        }
+        return results;
     }
 
-    public HashMap<ImageLabel, String> createThumbnails(@NonNull String imageContent) {
-        ByteArrayResource image = new ByteArrayResource(decodeBase64Image(imageContent)) {
-            @Override
-            public String getFilename() {
-                return UUID.randomUUID().toString();
-            }
-        };
-        String transformationDefinitions = String.format("[{ \"label\": \"%s\", \"transformations\": [{ \"name\": \"resize\", \"width\": \"300\", \"height\": \"300\", \"crop\": true}] }, { \"label\": \"%s\", \"transformations\": [{ \"name\": \"resize\", \"width\": \"300\", \"height\": \"300\", \"crop\": true}, {\"name\": \"sepia\"}] }]", ImageLabel.COLOR_THUMBNAIL.getValue(), ImageLabel.SEPIA_THUMBNAIL.getValue());
+    public Map<String, ImageDeleteResult> delete(@NonNull String... imageNames) {
+        return delete(Arrays.asList(imageNames));
+    }
 
-        MultiValueMap<String, Object> requestBody = new LinkedMultiValueMap<>();
-        requestBody.add("image", image);
-        requestBody.add("transformationDefinitions", transformationDefinitions);
+    public Map<String, ImageDeleteResult> delete(@NonNull String imageName) {
+        return delete(List.of(imageName));
+    }
 
-        var url = findPortalImageUrl() + API_CONTEXT_ROOT + "transform/";
-        log.info("Creating thumbnail at " + url);
+    /**
+     * Gives up one use of the images, like {@link #delete(Collection)} does, but leaves deleting the images that are not used anymore to the caller.
+     * The caller records which images that are, in the same transaction, so that a use is given up only once,
+     * also when deleting the images fails and is tried again.
+     * @param recordUnused is given the images that are not used anymore
+     * @return the images that are not used anymore, to delete with {@link #deleteUnused(Collection)}
+     */
+    @Transactional
+    public List<String> release(@NonNull Collection<String> imageNames, @NonNull Consumer<List<String>> recordUnused) {
+        var unused = release(imageNames);
+        recordUnused.accept(unused);
+        return unused;
+    }
 
-        ResponseEntity<List<ImageDto>> response = restTemplate.exchange(url, HttpMethod.POST, new HttpEntity<>(requestBody), new ParameterizedTypeReference<>() {
-        });
+    /**
+     * Deletes images of which the last use has been given up with {@link #release(Collection, Consumer)}, with one call to the {@link ThumbnailBackend}.
+     * Does not throw when an image cannot be deleted.
+     * @return what happened, by image name
+     */
+    public Map<String, ImageDeleteResult> deleteUnused(@NonNull Collection<String> imageNames) {
+        return thumbnailBackend.delete(new ArrayList<>(imageNames));
+    }
+
+    /**
+     * Gives up one use of the images. The thumbnails of one image are used together,
+     * so releasing the thumbnails of all profiles counts as giving up one use.
+     * @return the images that are not used anymore, and should be deleted
+     */
+    private List<String> release(@NonNull Collection<String> imageNames) {
+        var names = imageNames.stream()
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        if (names.isEmpty()) {
+            return List.of();
+        }
 
-        HashMap<ImageLabel, String> result = new HashMap<>();
-        result.put(ImageLabel.COLOR_THUMBNAIL, parseImageUrlFromResponse(response, ImageLabel.COLOR_THUMBNAIL));
-        result.put(ImageLabel.SEPIA_THUMBNAIL, parseImageUrlFromResponse(response, ImageLabel.SEPIA_THUMBNAIL));
-        return result;
+        List<String> unused = new ArrayList<>(names);
+        for (ImageReference reference : imageReferenceRepository.findByThumbnailIn(names)) {
+            var thumbnails = reference.getThumbnails().values();
+            unused.removeAll(thumbnails);
+
+            imageReferenceRepository.decrement(reference.getContentHash());
+            if (imageReferenceRepository.deleteIfUnreferenced(reference.getContentHash()) > 0) {
+                unused.addAll(thumbnails);
+            }
+        }
+        return unused; // images that have been made before the index existed are not in it, and are deleted right away
     }
 
-    private String parseImageUrlFromResponse(ResponseEntity<List<ImageDto>> response, ImageLabel imageLabel) {
-        return Optional.ofNullable(response.getBody()) // avoiding a NullPointerException. If body is null, orElseThrow will be triggered.
-                .stream()
-                .flatMap(Collection::stream) // transform Stream<List<ImageDto>> to Stream<ImageDto>
-                .filter(imageDto -> imageDto.getLabel().equals(imageLabel.getValue()))
-                .findFirst()
-                .map(ImageDto::getName)
-                .orElseThrow(() -> new IllegalArgumentException(String.format("Could not find thumbnail in response of image: %s", response.getBody())));
+    /**
+     * @param imageContent the image as a base64 data url. It's decoded while it's being read.
+     * @return the names of the created thumbnails, by profile name
+     */
+    public HashMap<String, String> createThumbnails(@NonNull String imageContent) {
+        return createThumbnails(new Base64ImageResource(imageContent));
+    }
+
+    /**
+     * Reuses the thumbnails of an identical image, when there is one.
+     * To find out, the image is read twice: once to calculate its hash, and once to make the thumbnails.
+     * An image that can only be read once is not deduplicated.
+     * The hash is calculated of the prepared image, which is the same every time the same image is prepared.
+     *
+     * @throws ImageTooLargeException when the image is too large
+     */
+    public HashMap<String, String> createThumbnails(@NonNull Resource image) {
+        var imageContent = imagePreprocessor.prepare(image);
+        if (imageContent.isOpen()) {
+            return thumbnailBackend.createThumbnails(imageContent);
+        }
+
+        var contentHash = hash(imageContent);
+        var existing = findAndReference(contentHash);
+        if (existing.isPresent()) {
+            log.info("Image has been uploaded before, reusing its thumbnails");
+            return existing.get();
+        }
+
+        var thumbnails = thumbnailBackend.createThumbnails(imageContent);
+        try {
+            Map<String, String> variants = new HashMap<>(thumbnails);
+            var colorThumbnail = variants.remove(ImageLabel.COLOR_THUMBNAIL.getValue());
+            var sepiaThumbnail = variants.remove(ImageLabel.SEPIA_THUMBNAIL.getValue());
+            imageReferenceRepository.insert(contentHash, colorThumbnail, sepiaThumbnail, THUMBNAIL_VARIANTS_CONVERTER.convertToDatabaseColumn(variants));
+            return thumbnails;
+        } catch (DataIntegrityViolationException e) {
+            // the same image has been uploaded at the same time, use the thumbnails that have been registered first
+            var registered = findAndReference(contentHash);
+            if (registered.isEmpty()) {
+                throw e;
+            }
+            thumbnailBackend.delete(thumbnails.values());
+            return registered.get();
+        }
     }
 
-    public void rollbackCreateImages(Collection<String> images) {
-        log.warn("Creating or updating person failed. Reverting creation of images " + images);
-        delete(images);
+    static List<String> failed(@NonNull Map<String, ImageDeleteResult> results) {
+        return results.entrySet()
+                .stream()
+                .filter(result -> result.getValue() == ImageDeleteResult.FAILED)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
     }
 
-    private byte[] decodeBase64Image(@NonNull String imageContent) {
-        var beginIndex = imageContent.indexOf(",");
-        var data = imageContent.substring(beginIndex + 1);
-        return Base64.getDecoder().decode(data);
+    private Optional<HashMap<String, String>> findAndReference(String contentHash) {
+        if (imageReferenceRepository.increment(contentHash) == 0) {
+            return Optional.empty();
+        }
+        return imageReferenceRepository.findById(contentHash)
+                .map(reference -> new HashMap<>(reference.getThumbnails()));
     }
 
-    private String findPortalImageUrl() {
-        List<ServiceInstance> portalImageInstances = discoveryClient.getInstances(SERVICE_ID);
-        if (portalImageInstances != null && !portalImageInstances.isEmpty()) {
-            return portalImageInstances.get(0).getUri().toString() + "/";
-        } else {
-            throw new IllegalStateException("No instance of portal-image registered with Eureka");
+    private String hash(Resource image) {
+        try (InputStream inputStream = image.getInputStream()) {
+            return DigestUtils.sha256Hex(inputStream);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + image.getDescription(), e);
         }
     }
 
@@ -0,0 +1,13 @@
+package be.stijnhooft.portal.social.services;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.PAYLOAD_TOO_LARGE)
+public class ImageTooLargeException extends IllegalArgumentException {
+
+    public ImageTooLargeException(long size, long maxSize) {
+        super("The image is " + size + " bytes, only images up to " + maxSize + " bytes are allowed");
+    }
+
+}
@@ -0,0 +1,197 @@
+package be.stijnhooft.portal.social.services;
+
+import be.stijnhooft.portal.social.dtos.ImageDeleteResult;
+import be.stijnhooft.portal.social.ThumbnailProperties.Filter;
+import be.stijnhooft.portal.social.ThumbnailProperties.Profile;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Makes the thumbnails in this module, without a round trip to the image module, and stores them in a {@link BlobStore}.
+ *
+ * The image is decoded once, and resized once for every size of the {@link ThumbnailProfiles}.
+ * Then the thumbnails of all profiles are filtered and encoded in parallel.
+ * All of this happens on the thumbnail executor, which has no more threads than there are processors,
+ * so a burst of uploads queues up instead of starving the rest of the application.
+ */
+@Component
+@ConditionalOnProperty(prefix = "social.thumbnails", name = "backend", havingValue = "LOCAL")
+@Slf4j
+public class LocalThumbnailBackend implements ThumbnailBackend {
+
+    private static final String FORMAT = "jpg";
+
+    private final BlobStore blobStore;
+    private final ThumbnailProfiles profiles;
+    private final ExecutorService executor;
+
+    public LocalThumbnailBackend(BlobStore blobStore, ThumbnailProfiles profiles, @Qualifier("thumbnailExecutor") ExecutorService executor) {
+        this.blobStore = blobStore;
+        this.profiles = profiles;
+        this.executor = executor;
+    }
+
+    @Override
+    public HashMap<String, String> createThumbnails(@NonNull Resource image) {
+        var decoded = CompletableFuture.supplyAsync(() -> decode(image), executor);
+
+        Map<List<Object>, CompletableFuture<BufferedImage>> resizedBySizeAndCrop = new HashMap<>();
+        Map<String, CompletableFuture<String>> thumbnails = new LinkedHashMap<>();
+        for (Profile profile : profiles.getProfiles()) {
+            var resized = resizedBySizeAndCrop.computeIfAbsent(List.of(profile.getSize(), profile.isCrop()),
+                    sizeAndCrop -> decoded.thenApplyAsync(original -> resize(original, profile.getSize(), profile.isCrop()), executor));
+            thumbnails.put(profile.getName(), resized.thenApplyAsync(thumbnail -> store(filter(thumbnail, profile), profile), executor));
+        }
+
+        try {
+            CompletableFuture.allOf(thumbnails.values().toArray(CompletableFuture[]::new)).join();
+        } catch (CompletionException e) {
+            // don't leave part of the thumbnails behind
+            thumbnails.values().forEach(thumbnail -> thumbnail.thenAccept(name -> delete(List.of(name))));
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+
+        HashMap<String, String> result = new HashMap<>();
+        thumbnails.forEach((profile, thumbnail) -> result.put(profile, thumbnail.join()));
+        return result;
+    }
+
+    @Override
+    public boolean read(@NonNull String imageName, @NonNull OutputStream target) {
+        var image = blobStore.get(imageName);
+        if (image.isEmpty()) {
+            return false;
+        }
+        try (InputStream inputStream = image.get().getInputStream()) {
+            inputStream.transferTo(target);
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read image " + imageName, e);
+        }
+    }
+
+    @Override
+    public Map<String, ImageDeleteResult> delete(@NonNull Collection<String> imageNames) {
+        Map<String, ImageDeleteResult> results = new HashMap<>();
+        for (String imageName : imageNames) {
+            log.info("Deleting image {}", imageName);
+            try {
+                results.put(imageName, blobStore.delete(imageName) ? ImageDeleteResult.DELETED : ImageDeleteResult.DOES_NOT_EXIST);
+            } catch (RuntimeException e) {
+                log.warn("Could not delete image {}", imageName, e);
+                results.put(imageName, ImageDeleteResult.FAILED);
+            }
+        }
+        return results;
+    }
+
+    private BufferedImage decode(Resource image) {
+        try (InputStream inputStream = image.getInputStream()) {
+            var decoded = ImageIO.read(inputStream);
+            if (decoded == null) {
+                throw new IllegalArgumentException("Image has an unsupported format: " + image.getDescription());
+            }
+            return decoded;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + image.getDescription(), e);
+        }
+    }
+
+    /**
+     * Scales the image to fit within size x size. When cropped, the largest centered square is cut out first, so that it fills size x size.
+     * Large images are halved step by step, because scaling down a lot in one step gives a grainy result.
+     */
+    static BufferedImage resize(BufferedImage image, int size, boolean crop) {
+        var current = image;
+        if (crop) {
+            int side = Math.min(image.getWidth(), image.getHeight());
+            current = image.getSubimage((image.getWidth() - side) / 2, (image.getHeight() - side) / 2, side, side);
+        }
+
+        double scale = Math.min((double) size / current.getWidth(), (double) size / current.getHeight());
+        int targetWidth = Math.max(1, (int) Math.round(current.getWidth() * scale));
+        int targetHeight = Math.max(1, (int) Math.round(current.getHeight() * scale));
+
+        int width = current.getWidth();
+        int height = current.getHeight();
+        do {
+            width = Math.max(targetWidth, width / 2);
+            height = Math.max(targetHeight, height / 2);
+            current = scale(current, width, height);
+        } while (width > targetWidth || height > targetHeight);
+        return current;
+    }
+
+    private static BufferedImage scale(BufferedImage image, int width, int height) {
+        var scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB); // no alpha, JPEG does not support it
+        var graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(image, 0, 0, width, height, Color.WHITE, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    private static BufferedImage filter(BufferedImage image, Profile profile) {
+        var filtered = image;
+        for (Filter filter : profile.getFilters()) {
+            switch (filter) {
+                case SEPIA -> filtered = sepia(filtered);
+            }
+        }
+        return filtered;
+    }
+
+    static BufferedImage sepia(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        for (int i = 0; i < pixels.length; i++) {
+            int red = (pixels[i] >> 16) & 0xff;
+            int green = (pixels[i] >> 8) & 0xff;
+            int blue = pixels[i] & 0xff;
+            int sepiaRed = Math.min(255, (int) (0.393 * red + 0.769 * green + 0.189 * blue));
+            int sepiaGreen = Math.min(255, (int) (0.349 * red + 0.686 * green + 0.168 * blue));
+            int sepiaBlue = Math.min(255, (int) (0.272 * red + 0.534 * green + 0.131 * blue));
+            pixels[i] = (sepiaRed << 16) | (sepiaGreen << 8) | sepiaBlue;
+        }
+
+        var result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        result.setRGB(0, 0, width, height, pixels, 0, width);
+        return result;
+    }
+
+    private String store(BufferedImage image, Profile profile) {
+        var name = UUID.randomUUID() + "-" + profile.getName() + "." + FORMAT;
+        var content = new ByteArrayOutputStream(32 * 1024);
+        try {
+            ImageIO.write(image, FORMAT, content);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not encode " + name, e);
+        }
+        blobStore.put(name, content.toByteArray());
+        return name;
+    }
+
+}
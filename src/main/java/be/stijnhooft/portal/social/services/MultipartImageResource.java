@@ -0,0 +1,48 @@
+package be.stijnhooft.portal.social.services;
+
+import lombok.NonNull;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An uploaded image. Unlike {@link MultipartFile#getResource()}, it can be read more than once:
+ * every read opens the upload again, where the servlet container has stored it.
+ * That lets the image be scaled down and deduplicated, like an image that is given as base64.
+ */
+public class MultipartImageResource extends AbstractResource {
+
+    private final MultipartFile file;
+
+    public MultipartImageResource(@NonNull MultipartFile file) {
+        this.file = file;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return file.getInputStream();
+    }
+
+    @Override
+    public long contentLength() {
+        return file.getSize();
+    }
+
+    @Override
+    public boolean exists() {
+        return true;
+    }
+
+    @Override
+    public String getFilename() {
+        return file.getOriginalFilename();
+    }
+
+    @Override
+    public String getDescription() {
+        return "uploaded image " + file.getOriginalFilename() + " of " + file.getSize() + " bytes";
+    }
+
+}
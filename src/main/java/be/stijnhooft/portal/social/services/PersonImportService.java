@@ -0,0 +1,343 @@
+package be.stijnhooft.portal.social.services;
+
+import be.stijnhooft.portal.social.ImportProperties;
+import be.stijnhooft.portal.social.ThumbnailProperties;
+import be.stijnhooft.portal.social.dtos.ImportStatus;
+import be.stijnhooft.portal.social.dtos.PersonDto;
+import be.stijnhooft.portal.social.dtos.PersonImportResultDto;
+import be.stijnhooft.portal.social.dtos.ThumbnailStatus;
+import be.stijnhooft.portal.social.mappers.RecurringTaskDtoMapper;
+import be.stijnhooft.portal.social.model.OutboxEntry;
+import be.stijnhooft.portal.social.model.Person;
+import be.stijnhooft.portal.social.repositories.PersonRepository;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+
+import static org.apache.commons.lang.StringUtils.isEmpty;
+
+/**
+ * Creates a lot of persons at once, like {@link PersonService#create(PersonDto)} does for one person.
+ *
+ * The rows are read one by one, while the earlier rows are being created. For every row,
+ * the thumbnails and recurring task are created on the import executor. At most {@link ImportProperties#getConcurrency()} rows
+ * of an import are being created at the same time: the next row is only read when one of them is done,
+ * so only the images of those rows are in memory, apart from the images that wait to be made into thumbnails in ASYNCHRONOUS mode.
+ * Every {@link Person#ID_ALLOCATION_SIZE} rows that have been created, are saved in one transaction.
+ * Whether a person with the same name exists already is checked for all of them at once, right before saving,
+ * so a row with an existing name is only found out about then, and undone.
+ *
+ * Every person is a {@link Saga} of its own: when it cannot be created, what has been done for it is undone,
+ * and the other persons are created nonetheless.
+ */
+@Service
+@Slf4j
+public class PersonImportService {
+
+    private static final int BATCH_SIZE = Person.ID_ALLOCATION_SIZE;
+
+    private final PersonRepository personRepository;
+    private final ImageService imageService;
+    private final RecurringTasksService recurringTasksService;
+    private final RecurringTaskDtoMapper recurringTaskDtoMapper;
+    private final PlaceholderService placeholderService;
+    private final SavePersonHelper savePersonHelper;
+    private final SagaExecutor sagaExecutor;
+    private final ThumbnailProperties thumbnailProperties;
+    private final ImportProperties importProperties;
+    private final ApplicationEventPublisher applicationEventPublisher;
+    private final ExecutorService executor;
+
+    public PersonImportService(PersonRepository personRepository, ImageService imageService, RecurringTasksService recurringTasksService, RecurringTaskDtoMapper recurringTaskDtoMapper, PlaceholderService placeholderService, SavePersonHelper savePersonHelper, SagaExecutor sagaExecutor, ThumbnailProperties thumbnailProperties, ImportProperties importProperties, ApplicationEventPublisher applicationEventPublisher, @Qualifier("importExecutor") ExecutorService executor) {
+        this.personRepository = personRepository;
+        this.imageService = imageService;
+        this.recurringTasksService = recurringTasksService;
+        this.recurringTaskDtoMapper = recurringTaskDtoMapper;
+        this.placeholderService = placeholderService;
+        this.savePersonHelper = savePersonHelper;
+        this.sagaExecutor = sagaExecutor;
+        this.thumbnailProperties = thumbnailProperties;
+        this.importProperties = importProperties;
+        this.applicationEventPublisher = applicationEventPublisher;
+        this.executor = executor;
+    }
+
+    /**
+     * When a row cannot be read, the rows after it are not read either, because where the next row starts is not known.
+     * The rows before it are created.
+     *
+     * @param personDtos the persons to create, each with an image in {@link PersonDto#getNewImageContent()}
+     * @return what happened with every row, in the order of the rows
+     */
+    public List<PersonImportResultDto> importAll(@NonNull Iterator<PersonDto> personDtos) {
+        var concurrency = Math.max(1, importProperties.getConcurrency());
+        var rowsInFlight = new Semaphore(concurrency);
+        var createdRows = new ConcurrentLinkedQueue<Row>();
+        var namesInImport = new HashSet<String>();
+
+        List<Row> rows = new ArrayList<>();
+        Row unreadable = null;
+        while (true) {
+            rowsInFlight.acquireUninterruptibly();
+            Row row;
+            try {
+                if (!personDtos.hasNext()) {
+                    rowsInFlight.release();
+                    break;
+                }
+                row = new Row(rows.size(), personDtos.next());
+            } catch (RuntimeException e) {
+                rowsInFlight.release();
+                unreadable = new Row(rows.size(), PersonDto.builder().build());
+                unreadable.skip(ImportStatus.INVALID, "Could not read the row, the rest of the import is skipped: " + e.getMessage());
+                break;
+            }
+            rows.add(row);
+
+            if (!verify(row, namesInImport)) {
+                rowsInFlight.release();
+            } else {
+                try {
+                    CompletableFuture.runAsync(() -> {
+                        try {
+                            prepare(row);
+                            if (row.status == null) {
+                                createdRows.add(row);
+                            }
+                        } finally {
+                            rowsInFlight.release();
+                        }
+                    }, executor);
+                } catch (RejectedExecutionException e) {
+                    rowsInFlight.release();
+                    row.skip(ImportStatus.FAILED, "The import is being stopped");
+                }
+            }
+
+            if (createdRows.size() >= BATCH_SIZE) {
+                save(poll(createdRows));
+            }
+        }
+
+        // wait for the rows that are still being created
+        rowsInFlight.acquireUninterruptibly(concurrency);
+        rowsInFlight.release(concurrency);
+        while (!createdRows.isEmpty()) {
+            save(poll(createdRows));
+        }
+
+        if (unreadable != null) {
+            rows.add(unreadable);
+        }
+        return log(rows.stream()
+                .map(Row::toResult)
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * @param namesInImport the names of the rows before this one that are being created
+     * @return whether the row can be created
+     */
+    private boolean verify(Row row, Set<String> namesInImport) {
+        var personDto = row.personDto;
+        if (isEmpty(personDto.getName())) {
+            row.skip(ImportStatus.INVALID, "Name is missing");
+        } else if (isEmpty(personDto.getNewImageContent())) {
+            row.skip(ImportStatus.INVALID, "Image is missing");
+        } else if (!namesInImport.add(personDto.getName())) {
+            row.skip(ImportStatus.ALREADY_EXISTS, "Person with name " + personDto.getName() + " comes earlier in the import");
+        }
+        return row.status == null;
+    }
+
+    /**
+     * Makes the calls to other modules for one row, the same way as {@link PersonService} does.
+     */
+    private void prepare(Row row) {
+        var personDto = row.personDto;
+        row.personDto = null; // so that the image can be garbage collected once it has been passed on
+        try {
+            Map<String, String> thumbnails = null;
+            if (thumbnailProperties.getMode() == ThumbnailProperties.Mode.ASYNCHRONOUS) {
+                var image = new Base64ImageResource(personDto.getNewImageContent());
+                imageService.verifySize(image);
+                row.image = readImage(image);
+            } else {
+                thumbnails = imageService.createThumbnails(personDto.getNewImageContent());
+                sagaExecutor.registerCompensation(row.saga, OutboxEntry.Type.DELETE_IMAGES, thumbnails.values());
+            }
+
+            var createdRecurringTask = recurringTasksService.create(recurringTaskDtoMapper.map(personDto));
+            sagaExecutor.registerCompensation(row.saga, OutboxEntry.Type.DELETE_RECURRING_TASK, createdRecurringTask.getId());
+
+            var person = Person.builder()
+                    .name(personDto.getName())
+                    .recurringTaskId(createdRecurringTask.getId())
+                    .build();
+            if (thumbnails != null) {
+                person.setThumbnails(thumbnails);
+                person.setPlaceholder(placeholderService.createPlaceholder(thumbnails));
+            } else {
+                person.setThumbnailStatus(ThumbnailStatus.PENDING);
+            }
+            row.person = person;
+        } catch (ImageTooLargeException e) {
+            fail(row, ImportStatus.INVALID, e);
+        } catch (RuntimeException e) {
+            fail(row, ImportStatus.FAILED, e);
+        }
+    }
+
+    /**
+     * Saves the rows in one transaction. When that fails, for example because one of the sagas has timed out,
+     * the rows are saved one by one, so that only the row that is at fault fails.
+     * Rows of which a person with the same name exists already are undone instead, which is checked with one query for all rows.
+     */
+    private void save(List<Row> rows) {
+        rows = withoutExistingNames(rows);
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        try {
+            created(rows, savePersonHelper.saveAllAndCommit(newPersons(rows)));
+        } catch (RuntimeException batchFailure) {
+            log.warn("Could not save a batch of {} imported persons at once, saving them one by one", rows.size(), batchFailure);
+            for (Row row : rows) {
+                row.person.setId(null); // given by the transaction that failed
+                try {
+                    created(List.of(row), savePersonHelper.saveAllAndCommit(newPersons(List.of(row))));
+                } catch (RuntimeException e) {
+                    fail(row, ImportStatus.FAILED, e);
+                }
+            }
+        }
+    }
+
+    private List<Row> withoutExistingNames(List<Row> rows) {
+        if (rows.isEmpty()) {
+            return rows;
+        }
+
+        var existingNames = new HashSet<>(personRepository.findExistingNames(rows.stream()
+                .map(row -> row.name)
+                .collect(Collectors.toList())));
+        List<Row> newRows = new ArrayList<>(rows.size());
+        for (Row row : rows) {
+            if (existingNames.contains(row.name)) {
+                row.skip(ImportStatus.ALREADY_EXISTS, "Person with name " + row.name + " already exists");
+                sagaExecutor.compensate(row.saga);
+            } else {
+                newRows.add(row);
+            }
+        }
+        return newRows;
+    }
+
+    private void created(List<Row> rows, List<Person> savedPersons) {
+        for (int i = 0; i < rows.size(); i++) {
+            var row = rows.get(i);
+            var savedPerson = savedPersons.get(i);
+            row.status = ImportStatus.CREATED;
+            row.id = savedPerson.getId();
+            if (row.image == null) {
+                applicationEventPublisher.publishEvent(new ThumbnailsChangedEvent(savedPerson.getId()));
+            }
+        }
+    }
+
+    private void fail(Row row, ImportStatus status, RuntimeException e) {
+        log.warn("Could not import person {} at row {}", row.name, row.index, e);
+        row.skip(status, e.getMessage());
+        sagaExecutor.compensate(row.saga);
+    }
+
+    private static List<Row> poll(Queue<Row> createdRows) {
+        List<Row> rows = new ArrayList<>(BATCH_SIZE);
+        Row row;
+        while (rows.size() < BATCH_SIZE && (row = createdRows.poll()) != null) {
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private static List<SavePersonHelper.NewPerson> newPersons(List<Row> rows) {
+        return rows.stream()
+                .map(row -> new SavePersonHelper.NewPerson(row.person, row.image, row.saga))
+                .collect(Collectors.toList());
+    }
+
+    private static byte[] readImage(Base64ImageResource image) {
+        try (InputStream inputStream = image.getInputStream()) {
+            return inputStream.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read the image", e);
+        }
+    }
+
+    private static List<PersonImportResultDto> log(List<PersonImportResultDto> results) {
+        var created = results.stream()
+                .filter(result -> result.getStatus() == ImportStatus.CREATED)
+                .count();
+        log.info("Imported {} of {} persons", created, results.size());
+        return results;
+    }
+
+    /**
+     * How far a row of the import got.
+     */
+    private static class Row {
+        private final int index;
+        private final String name;
+        private final Saga saga = new Saga();
+        /** the row as it has been read, until the other modules have been called **/
+        private PersonDto personDto;
+        private Person person;
+        private byte[] image;
+        private ImportStatus status;
+        private Long id;
+        private String message;
+
+        private Row(int index, PersonDto personDto) {
+            this.index = index;
+            this.name = personDto.getName();
+            this.personDto = personDto;
+        }
+
+        private void skip(ImportStatus status, String message) {
+            this.status = status;
+            this.message = message;
+            this.personDto = null;
+        }
+
+        private PersonImportResultDto toResult() {
+            return PersonImportResultDto.builder()
+                    .index(index)
+                    .name(name)
+                    .status(status)
+                    .id(id)
+                    .message(message)
+                    .build();
+        }
+    }
+
+}
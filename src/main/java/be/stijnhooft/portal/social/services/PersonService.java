@@ -1,49 +1,96 @@
 package be.stijnhooft.portal.social.services;
 
+import be.stijnhooft.portal.social.RecurringTasksProperties;
+import be.stijnhooft.portal.social.ThumbnailProperties;
 import be.stijnhooft.portal.social.dtos.*;
 import be.stijnhooft.portal.social.mappers.PersonMapper;
 import be.stijnhooft.portal.social.mappers.RecurringTaskDtoMapper;
+import be.stijnhooft.portal.social.model.OutboxEntry;
 import be.stijnhooft.portal.social.model.Person;
 import be.stijnhooft.portal.social.repositories.PersonRepository;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.io.Resource;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 
-import javax.transaction.Transactional;
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import static org.apache.commons.lang.StringUtils.isNotEmpty;
 
+/**
+ * Coordinates the persons in this module's database with the images and recurring tasks of the other modules.
+ *
+ * This service is deliberately not transactional: calls to other modules can be slow and should not keep
+ * a database connection checked out. Reads use the short, read-only transactions of the repositories,
+ * writes go through {@link SavePersonHelper}.
+ *
+ * A create or update is a {@link Saga}: every call to another module registers how it's undone, before the next step is taken.
+ * When a step fails, the {@link SagaExecutor} undoes the previous steps in the background.
+ */
 @Service
-@Transactional
 @Slf4j
 public class PersonService {
 
+    public static final int MAX_PAGE_SIZE = 500;
+
     private final RecurringTasksService recurringTasksService;
+    private final RecurringTaskProjectionService recurringTaskProjectionService;
     private final ImageService imageService;
     private final PersonRepository personRepository;
     private final PersonMapper personMapper;
     private final RecurringTaskDtoMapper recurringTaskDtoMapper;
     private final SavePersonHelper savePersonHelper;
+    private final RecurringTasksProperties recurringTasksProperties;
+    private final ThumbnailProperties thumbnailProperties;
+    private final ThumbnailProfiles thumbnailProfiles;
+    private final PlaceholderService placeholderService;
+    private final ApplicationEventPublisher applicationEventPublisher;
+    private final SagaExecutor sagaExecutor;
 
-    public PersonService(RecurringTasksService recurringTasksService, ImageService imageService, PersonRepository personRepository, PersonMapper personMapper, RecurringTaskDtoMapper recurringTaskDtoMapper, SavePersonHelper savePersonHelper) {
+    public PersonService(RecurringTasksService recurringTasksService, RecurringTaskProjectionService recurringTaskProjectionService, ImageService imageService, PersonRepository personRepository, PersonMapper personMapper, RecurringTaskDtoMapper recurringTaskDtoMapper, SavePersonHelper savePersonHelper, RecurringTasksProperties recurringTasksProperties, ThumbnailProperties thumbnailProperties, ThumbnailProfiles thumbnailProfiles, PlaceholderService placeholderService, ApplicationEventPublisher applicationEventPublisher, SagaExecutor sagaExecutor) {
         this.recurringTasksService = recurringTasksService;
+        this.recurringTaskProjectionService = recurringTaskProjectionService;
         this.imageService = imageService;
         this.personRepository = personRepository;
         this.personMapper = personMapper;
         this.recurringTaskDtoMapper = recurringTaskDtoMapper;
         this.savePersonHelper = savePersonHelper;
+        this.recurringTasksProperties = recurringTasksProperties;
+        this.thumbnailProperties = thumbnailProperties;
+        this.thumbnailProfiles = thumbnailProfiles;
+        this.placeholderService = placeholderService;
+        this.applicationEventPublisher = applicationEventPublisher;
+        this.sagaExecutor = sagaExecutor;
     }
 
     public List<PersonDto> findAll() {
-        return personRepository.findAll()
-                .stream()
-                .map(this::enrichAndMap)
-                .collect(Collectors.toList());
+        return enrichAndMap(personRepository.findAll());
+    }
+
+    /**
+     * Retrieves a page of persons, ordered by id.
+     *
+     * @param after id of the last person of the previous page, or null to retrieve the first page
+     * @param size  maximum number of persons on the page, capped at {@link #MAX_PAGE_SIZE}
+     */
+    public PersonPageDto findPage(Long after, int size) {
+        var pageSize = Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+        var persons = personRepository.findByIdGreaterThanOrderByIdAsc(after == null ? Long.MIN_VALUE : after, PageRequest.of(0, pageSize));
+
+        var nextCursor = persons.size() == pageSize ? persons.get(persons.size() - 1).getId() : null;
+        return PersonPageDto.builder()
+                .persons(enrichAndMap(persons))
+                .nextCursor(nextCursor)
+                .build();
     }
 
     public Optional<PersonDto> findById(long id) {
@@ -51,7 +98,55 @@ public class PersonService {
                 .map(this::enrichAndMap);
     }
 
+    /**
+     * Finds the smallest thumbnail of a person that is at least as large as the size it's shown at.
+     * When all thumbnails are smaller, the largest one is returned.
+     *
+     * @param size the size at which the thumbnail is shown, in pixels
+     * @param sepia whether the sepia or the color thumbnail is wanted
+     * @return empty when the person does not exist, or has no thumbnails yet
+     */
+    public Optional<ThumbnailDto> findThumbnail(long id, int size, boolean sepia) {
+        return personRepository.findById(id)
+                .map(Person::getThumbnails)
+                .flatMap(thumbnails -> thumbnailProfiles.findSmallestThatFits(thumbnails, size, sepia)
+                        .map(profile -> ThumbnailDto.builder()
+                                .profile(profile.getName())
+                                .size(profile.getSize())
+                                .name(thumbnails.get(profile.getName()))
+                                .build()));
+    }
+
+    /**
+     * @param profile name of the thumbnail profile, like "thumbnail" or "sepia-small"
+     * @return the name of the thumbnail, or empty when the person does not exist or has no such thumbnail (yet)
+     */
+    public Optional<String> findThumbnailName(long id, @NonNull String profile) {
+        return personRepository.findById(id)
+                .map(person -> person.getThumbnails().get(profile));
+    }
+
+    /**
+     * Creates a person with the image in {@link PersonDto#getNewImageContent()}.
+     */
     public PersonDto create(@NonNull PersonDto personDto) {
+        return create(personDto,
+                () -> imageService.createThumbnails(personDto.getNewImageContent()),
+                () -> new Base64ImageResource(personDto.getNewImageContent()));
+    }
+
+    /**
+     * Creates a person with an uploaded image, which is streamed to the image module.
+     */
+    public PersonDto create(@NonNull PersonDto personDto, @NonNull Resource image) {
+        return create(personDto, () -> imageService.createThumbnails(image), () -> image);
+    }
+
+    /**
+     * @param createThumbnails creates the thumbnails right away
+     * @param image the image, for when the thumbnails are made later on
+     */
+    private PersonDto create(@NonNull PersonDto personDto, @NonNull Supplier<? extends Map<String, String>> createThumbnails, @NonNull Supplier<Resource> image) {
         // verify person doesn't exist yet
         if (personRepository
                 .findByName(personDto.getName())
@@ -59,35 +154,84 @@ public class PersonService {
             throw new IllegalArgumentException("Person with name " + personDto.getName() + " already exists");
         }
 
-        Map<ImageLabel, String> images = createThumbnails(personDto);
+        if (thumbnailProperties.getMode() == ThumbnailProperties.Mode.ASYNCHRONOUS) {
+            return createWithPendingThumbnails(personDto, image.get());
+        }
 
-        // create recurring task
-        RecurringTaskDto createdRecurringTask;
+        var saga = new Saga();
         try {
-            createdRecurringTask = createRecurringTask(personDto);
+            Map<String, String> images = createThumbnails.get();
+            sagaExecutor.registerCompensation(saga, OutboxEntry.Type.DELETE_IMAGES, images.values());
+
+            // create recurring task
+            var createdRecurringTask = createRecurringTask(personDto);
+            sagaExecutor.registerCompensation(saga, OutboxEntry.Type.DELETE_RECURRING_TASK, createdRecurringTask.getId());
+
+            // persist in database
+            var person = createPerson(personDto, images, createdRecurringTask.getId(), saga);
+            applicationEventPublisher.publishEvent(new ThumbnailsChangedEvent(person.getId()));
+            return enrichAndMap(person, createdRecurringTask);
         } catch (RuntimeException e) {
-            imageService.rollbackCreateImages(images.values());
+            sagaExecutor.compensate(saga);
             throw e;
         }
+    }
 
-        // persist in database
+    /**
+     * Creates a person without waiting for the image module.
+     * The image is queued in the database, and the {@link ThumbnailWorker} fills in the thumbnails later on.
+     */
+    private PersonDto createWithPendingThumbnails(@NonNull PersonDto personDto, @NonNull Resource image) {
+        // read the image first, so that an unreadable or too large image does not leave a recurring task behind
+        imageService.verifySize(image);
+        byte[] imageContent = readImage(image);
+
+        var saga = new Saga();
         try {
-            var person = createPerson(personDto, images, createdRecurringTask.getId());
+            // create recurring task
+            var createdRecurringTask = createRecurringTask(personDto);
+            sagaExecutor.registerCompensation(saga, OutboxEntry.Type.DELETE_RECURRING_TASK, createdRecurringTask.getId());
+
+            // persist in database, together with the queued image
+            var person = Person.builder()
+                    .name(personDto.getName())
+                    .recurringTaskId(createdRecurringTask.getId())
+                    .thumbnailStatus(ThumbnailStatus.PENDING)
+                    .build();
+            person = savePersonHelper.saveAndFlushAndCommit(person, imageContent, saga);
             return enrichAndMap(person, createdRecurringTask);
         } catch (RuntimeException e) {
-            imageService.rollbackCreateImages(images.values());
-            recurringTasksService.rollbackCreateRecurringTask(createdRecurringTask.getId());
+            sagaExecutor.compensate(saga);
             throw e;
         }
     }
 
+    /**
+     * Updates a person. When {@link PersonDto#getNewImageContent()} is filled in, the image is replaced.
+     */
     public PersonDto update(@NonNull PersonDto updatedPersonDto) {
+        var newImageContent = updatedPersonDto.getNewImageContent();
+        Supplier<Map<String, String>> createThumbnails = isNotEmpty(newImageContent) ? () -> imageService.createThumbnails(newImageContent) : null;
+        return update(updatedPersonDto, createThumbnails);
+    }
+
+    /**
+     * Updates a person and replaces the image with an uploaded one, which is streamed to the image module.
+     */
+    public PersonDto update(@NonNull PersonDto updatedPersonDto, @NonNull Resource newImage) {
+        return update(updatedPersonDto, () -> imageService.createThumbnails(newImage));
+    }
+
+    /**
+     * @param createThumbnails creates the thumbnails of the new image, or null when the image stays the same
+     */
+    private PersonDto update(@NonNull PersonDto updatedPersonDto, Supplier<? extends Map<String, String>> createThumbnails) {
         // get originals
         var originalPerson = personRepository
                 .findById(updatedPersonDto.getId())
                 .orElseThrow(() -> new RuntimeException("Person with id " + updatedPersonDto.getId() + " does not exist."));
         var originalRecurringTaskDto = recurringTasksService
-                .findById(originalPerson.getRecurringTaskId())
+                .findCurrentById(originalPerson.getRecurringTaskId()) // not cached, it's what is restored when the update fails
                 .orElseThrow();
 
         // calculate the updated entities
@@ -100,56 +244,65 @@ public class PersonService {
                 .id(originalPerson.getRecurringTaskId())
                 .build();
 
-        // keeping information about how far we got, in case something goes wrong
-        HashMap<ImageLabel, String> newImages = null;
-        boolean recurringTaskUpdated = false;
+        // keeping track of how far we got, in case something goes wrong
+        var saga = new Saga();
+        Map<String, String> newImages = null;
 
         try {
-            // creating a new image now, when everything goes right we'll remove the old image
-            if (isNotEmpty(updatedPersonDto.getNewImageContent())) {
-                newImages = imageService.createThumbnails(updatedPersonDto.getNewImageContent());
-                updatedPerson.setColorThumbnail(newImages.get(ImageLabel.COLOR_THUMBNAIL));
-                updatedPerson.setSepiaThumbnail(newImages.get(ImageLabel.SEPIA_THUMBNAIL));
+            // creating a new image now, when everything goes right the old image is removed
+            if (createThumbnails != null) {
+                newImages = createThumbnails.get();
+                sagaExecutor.registerCompensation(saga, OutboxEntry.Type.DELETE_IMAGES, newImages.values());
+                if (!originalPerson.getThumbnails().isEmpty()) {
+                    sagaExecutor.followUp(saga, OutboxEntry.Type.DELETE_IMAGES, originalPerson.getThumbnails().values());
+                }
+                updatedPerson.setThumbnails(newImages);
+                updatedPerson.setPlaceholder(placeholderService.createPlaceholder(newImages));
+                updatedPerson.setThumbnailStatus(ThumbnailStatus.READY);
+            } else {
+                updatedPerson.setThumbnailVariants(originalPerson.getThumbnailVariants());
+                updatedPerson.setPlaceholder(originalPerson.getPlaceholder());
+                updatedPerson.setThumbnailStatus(originalPerson.getThumbnailStatus());
             }
 
             // update recurring task
             if (!originalRecurringTaskDto.equals(updatedRecurringTask)) {
+                sagaExecutor.registerCompensation(saga, OutboxEntry.Type.RESTORE_RECURRING_TASK, originalRecurringTaskDto);
                 recurringTasksService.update(updatedRecurringTask);
-                recurringTaskUpdated = true;
+                recurringTaskProjectionService.evict(updatedRecurringTask.getId());
             }
 
-            // update person
+            // update person, and when everything has gone right, clean up
             if (!originalPerson.equals(updatedPerson)) {
-                savePersonHelper.saveAndFlushAndCommit(updatedPerson);
+                savePersonHelper.saveAndFlushAndCommit(updatedPerson, saga);
+            } else {
+                savePersonHelper.completeSaga(saga);
             }
         } catch (RuntimeException e) {  // something went wrong, let's revert
-            if (newImages != null) {
-                imageService.rollbackCreateImages(newImages.values());
-            }
-            if (recurringTaskUpdated) {
-                recurringTasksService.rollbackUpdateRecurringTask(originalRecurringTaskDto);
-            }
+            sagaExecutor.compensate(saga);
             throw e;
         }
 
-        // when everything has gone right, clean up
-        try {
-            if (newImages != null) {
-                imageService.delete(originalPerson.getColorThumbnail(), originalPerson.getSepiaThumbnail());
-            }
-        } catch (RuntimeException e) {
-            log.warn("Something went wrong cleaning up old image after update", e);
+        if (newImages != null) {
+            applicationEventPublisher.publishEvent(new ThumbnailsChangedEvent(updatedPerson.getId()));
         }
 
         return enrichAndMap(updatedPerson, updatedRecurringTask);
     }
 
+    /**
+     * Deletes the person right away. Its recurring task and thumbnails are deleted in the background, by the {@link SagaExecutor}.
+     */
     public DeleteResult delete(long id) {
         return personRepository.findById(id)
                 .map(person -> {
-                    personRepository.deleteById(id);
-                    recurringTasksService.deleteById(person.getRecurringTaskId());
-                    imageService.delete(person.getColorThumbnail(), person.getSepiaThumbnail());
+                    var saga = new Saga();
+                    sagaExecutor.followUp(saga, OutboxEntry.Type.DELETE_RECURRING_TASK, person.getRecurringTaskId());
+                    if (!person.getThumbnails().isEmpty()) {
+                        sagaExecutor.followUp(saga, OutboxEntry.Type.DELETE_IMAGES, person.getThumbnails().values());
+                    }
+                    savePersonHelper.deleteAndCommit(id, saga);
+                    applicationEventPublisher.publishEvent(new ThumbnailsChangedEvent(id));
                     return DeleteResult.DELETED;
                 }).orElseGet(() -> DeleteResult.DOES_NOT_EXIST);
     }
@@ -165,15 +318,44 @@ public class PersonService {
                     .source(source)
                     .build();
             recurringTasksService.addExecution(execution, person.getRecurringTaskId());
+            recurringTaskProjectionService.evict(person.getRecurringTaskId());
         }
+
+        savePersonHelper.saveAndFlushAndCommit(person);
     }
 
     private PersonDto enrichAndMap(@NonNull Person person) {
-        return recurringTasksService.findById(person.getRecurringTaskId())
+        return recurringTaskProjectionService.findById(person.getRecurringTaskId())
                 .map(recurringTask -> this.enrichAndMap(person, recurringTask))
                 .orElseThrow(() -> new RuntimeException("Recurring task with id " + person.getRecurringTaskId() + " not found!"));
     }
 
+    private List<PersonDto> enrichAndMap(@NonNull List<Person> persons) {
+        var recurringTaskIds = persons.stream()
+                .map(Person::getRecurringTaskId)
+                .collect(Collectors.toList());
+        var recurringTasks = recurringTaskProjectionService.findByIds(recurringTaskIds);
+
+        return persons.stream()
+                .map(person -> enrichAndMap(person, recurringTasks))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Depending on the failure policy, a person whose recurring task is missing is left without contact information or results in an error.
+     */
+    PersonDto enrichAndMap(@NonNull Person person, @NonNull Map<Long, RecurringTaskDto> recurringTasks) {
+        var recurringTask = recurringTasks.get(person.getRecurringTaskId());
+        if (recurringTask != null) {
+            return enrichAndMap(person, recurringTask);
+        } else if (recurringTasksProperties.getFailurePolicy() == RecurringTasksProperties.FailurePolicy.PARTIAL_RESULTS) {
+            log.warn("Recurring task with id {} not found, returning person {} without contact information", person.getRecurringTaskId(), person.getId());
+            return personMapper.mapToDto(person);
+        } else {
+            throw new RuntimeException("Recurring task with id " + person.getRecurringTaskId() + " not found!");
+        }
+    }
+
     private PersonDto enrichAndMap(@NonNull Person person, @NonNull RecurringTaskDto recurringTask) {
         return personMapper.mapToDto(person, recurringTask);
     }
@@ -184,19 +366,22 @@ public class PersonService {
         return recurringTasksService.create(recurringTaskDto);
     }
 
-    private HashMap<ImageLabel, String> createThumbnails(@NonNull PersonDto personDto) {
-        var imageContent = personDto.getNewImageContent();
-        return imageService.createThumbnails(imageContent);
-    }
-
-    private Person createPerson(@NonNull PersonDto personDto, @NonNull Map<ImageLabel, String> thumbnails, long recurringTaskId) {
+    private Person createPerson(@NonNull PersonDto personDto, @NonNull Map<String, String> thumbnails, long recurringTaskId, @NonNull Saga saga) {
         var person = Person.builder()
                 .name(personDto.getName())
-                .colorThumbnail(thumbnails.get(ImageLabel.COLOR_THUMBNAIL))
-                .sepiaThumbnail(thumbnails.get(ImageLabel.SEPIA_THUMBNAIL))
                 .recurringTaskId(recurringTaskId)
+                .placeholder(placeholderService.createPlaceholder(thumbnails))
                 .build();
-        return savePersonHelper.saveAndFlushAndCommit(person);
+        person.setThumbnails(thumbnails);
+        return savePersonHelper.saveAndFlushAndCommit(person, saga);
+    }
+
+    private byte[] readImage(@NonNull Resource image) {
+        try (InputStream inputStream = image.getInputStream()) {
+            return inputStream.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read the image", e);
+        }
     }
 
 }
@@ -0,0 +1,53 @@
+package be.stijnhooft.portal.social.services;
+
+import be.stijnhooft.portal.social.ThumbnailProperties;
+import be.stijnhooft.portal.social.model.Person;
+import be.stijnhooft.portal.social.repositories.PersonRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Gives a placeholder to the persons that have thumbnails but no placeholder,
+ * like the persons that were created before placeholders existed.
+ *
+ * Works through them in batches of {@link ThumbnailProperties#getPlaceholderBatchSize()}, ordered by id.
+ * A person whose placeholder cannot be made is skipped, and tried again the next time.
+ */
+@Component
+@Slf4j
+public class PlaceholderBackfill {
+
+    private final PersonRepository personRepository;
+    private final PlaceholderService placeholderService;
+    private final ThumbnailProperties thumbnailProperties;
+
+    public PlaceholderBackfill(PersonRepository personRepository, PlaceholderService placeholderService, ThumbnailProperties thumbnailProperties) {
+        this.personRepository = personRepository;
+        this.placeholderService = placeholderService;
+        this.thumbnailProperties = thumbnailProperties;
+    }
+
+    @Scheduled(initialDelayString = "${social.thumbnails.placeholder-backfill-interval:PT10M}", fixedDelayString = "${social.thumbnails.placeholder-backfill-interval:PT10M}")
+    public void backfill() {
+        long lastId = 0;
+        int updated = 0;
+        var batch = personRepository.findWithoutPlaceholder(lastId, PageRequest.of(0, thumbnailProperties.getPlaceholderBatchSize()));
+        while (!batch.isEmpty()) {
+            for (Person person : batch) {
+                var placeholder = placeholderService.createPlaceholder(person.getThumbnails());
+                if (placeholder != null) {
+                    updated += personRepository.updatePlaceholder(person.getId(), person.getColorThumbnail(), placeholder);
+                }
+            }
+            lastId = batch.get(batch.size() - 1).getId();
+            batch = personRepository.findWithoutPlaceholder(lastId, PageRequest.of(0, thumbnailProperties.getPlaceholderBatchSize()));
+        }
+
+        if (updated > 0) {
+            log.info("Made the placeholder of {} persons", updated);
+        }
+    }
+
+}
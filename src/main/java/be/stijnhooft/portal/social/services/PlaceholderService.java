@@ -0,0 +1,70 @@
+package be.stijnhooft.portal.social.services;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Makes the placeholder of an image: a BlurHash that clients paint while the thumbnail is loading,
+ * or instead of loading the thumbnail at all.
+ *
+ * The placeholder is made of the smallest color thumbnail, so that the original image is never decoded for it.
+ */
+@Service
+@Slf4j
+public class PlaceholderService {
+
+    /**
+     * The thumbnail is scaled down to this size before it's encoded. More detail does not end up in the placeholder anyway.
+     */
+    static final int SIZE = 32;
+    private static final int COMPONENTS_X = 4;
+    private static final int COMPONENTS_Y = 3;
+
+    private final ThumbnailBackend thumbnailBackend;
+    private final ThumbnailProfiles thumbnailProfiles;
+
+    public PlaceholderService(ThumbnailBackend thumbnailBackend, ThumbnailProfiles thumbnailProfiles) {
+        this.thumbnailBackend = thumbnailBackend;
+        this.thumbnailProfiles = thumbnailProfiles;
+    }
+
+    /**
+     * A placeholder is nice to have, so this never throws.
+     *
+     * @param thumbnails the thumbnails of the image, by profile name
+     * @return the placeholder, or null when it could not be made
+     */
+    public String createPlaceholder(@NonNull Map<String, String> thumbnails) {
+        var profile = thumbnailProfiles.findSmallestThatFits(thumbnails, SIZE, false);
+        if (profile.isEmpty()) {
+            return null;
+        }
+
+        var thumbnailName = thumbnails.get(profile.get().getName());
+        try {
+            var content = new ByteArrayOutputStream(8 * 1024);
+            if (!thumbnailBackend.read(thumbnailName, content)) {
+                log.warn("Could not make a placeholder, thumbnail {} does not exist", thumbnailName);
+                return null;
+            }
+
+            var thumbnail = ImageIO.read(new ByteArrayInputStream(content.toByteArray()));
+            if (thumbnail == null) {
+                log.warn("Could not make a placeholder, thumbnail {} has an unsupported format", thumbnailName);
+                return null;
+            }
+            return BlurHash.encode(LocalThumbnailBackend.resize(thumbnail, SIZE, false), COMPONENTS_X, COMPONENTS_Y);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not make a placeholder of thumbnail {}", thumbnailName, e);
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+package be.stijnhooft.portal.social.services;
+
+import be.stijnhooft.portal.social.dtos.DeleteResult;
+import be.stijnhooft.portal.social.dtos.PersonDto;
+import be.stijnhooft.portal.social.dtos.RecurringTaskDto;
+import be.stijnhooft.portal.social.model.Person;
+import be.stijnhooft.portal.social.repositories.PersonRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
+
+/**
+ * Non-blocking variant of the read and delete operations of {@link PersonService}.
+ *
+ * The other modules are called with a non-blocking client. The database is still accessed with JPA,
+ * which blocks, so that is done on the bounded elastic scheduler instead of on the thread of the request.
+ */
+@Service
+@Slf4j
+public class ReactivePersonService {
+
+    private final PersonService personService;
+    private final PersonRepository personRepository;
+    private final RecurringTaskProjectionService recurringTaskProjectionService;
+    private final ReactiveRecurringTasksService reactiveRecurringTasksService;
+
+    public ReactivePersonService(PersonService personService, PersonRepository personRepository, RecurringTaskProjectionService recurringTaskProjectionService, ReactiveRecurringTasksService reactiveRecurringTasksService) {
+        this.personService = personService;
+        this.personRepository = personRepository;
+        this.recurringTaskProjectionService = recurringTaskProjectionService;
+        this.reactiveRecurringTasksService = reactiveRecurringTasksService;
+    }
+
+    public Mono<List<PersonDto>> findAll() {
+        return blocking(personRepository::findAll)
+                .flatMap(persons -> findRecurringTasks(persons)
+                        .map(recurringTasks -> persons.stream()
+                                .map(person -> personService.enrichAndMap(person, recurringTasks))
+                                .collect(Collectors.toList())));
+    }
+
+    /**
+     * @return the person, or nothing when the person does not exist
+     */
+    public Mono<PersonDto> findById(long id) {
+        return blocking(() -> personRepository.findById(id).orElse(null))
+                .flatMap(person -> findRecurringTasks(List.of(person))
+                        .map(recurringTasks -> personService.enrichAndMap(person, recurringTasks)));
+    }
+
+    /**
+     * Deletes the person. Its recurring task and thumbnails are deleted in the background, see {@link PersonService#delete(long)}.
+     */
+    public Mono<DeleteResult> delete(long id) {
+        return blocking(() -> personService.delete(id));
+    }
+
+    private Mono<Map<Long, RecurringTaskDto>> findRecurringTasks(List<Person> persons) {
+        var recurringTaskIds = persons.stream()
+                .map(Person::getRecurringTaskId)
+                .collect(Collectors.toSet());
+
+        return blocking(() -> recurringTaskProjectionService.findKnownByIds(recurringTaskIds))
+                .flatMap(knownRecurringTasks -> {
+                    var missingIds = recurringTaskIds.stream()
+                            .filter(recurringTaskId -> !knownRecurringTasks.containsKey(recurringTaskId))
+                            .collect(Collectors.toList());
+                    if (missingIds.isEmpty()) {
+                        return Mono.just(knownRecurringTasks);
+                    }
+
+                    log.info("{} recurring tasks are not known locally, retrieving them from the recurring tasks module", missingIds.size());
+                    return reactiveRecurringTasksService.findByIds(missingIds)
+                            .flatMap(missingRecurringTasks -> blocking(() -> {
+                                recurringTaskProjectionService.saveAll(missingRecurringTasks.values());
+                                Map<Long, RecurringTaskDto> result = new HashMap<>(knownRecurringTasks);
+                                result.putAll(missingRecurringTasks);
+                                return result;
+                            }));
+                });
+    }
+
+    private <T> Mono<T> blocking(Callable<T> callable) {
+        return Mono.fromCallable(callable)
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+}
@@ -0,0 +1,76 @@
+package be.stijnhooft.portal.social.services;
+
+import be.stijnhooft.portal.social.RecurringTasksProperties;
+import be.stijnhooft.portal.social.dtos.RecurringTaskDto;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static be.stijnhooft.portal.social.RecurringTasksProperties.FailurePolicy.PARTIAL_RESULTS;
+import static be.stijnhooft.portal.social.services.RecurringTasksService.API_CONTEXT_ROOT;
+import static be.stijnhooft.portal.social.services.RecurringTasksService.SERVICE_ID;
+
+/**
+ * Non-blocking variant of {@link RecurringTasksService}.
+ * No thread waits while the recurring tasks module is working on a request.
+ */
+@Service
+@Slf4j
+public class ReactiveRecurringTasksService {
+
+    private final WebClient webClient;
+    private final ServiceInstanceResolver serviceInstanceResolver;
+    private final RecurringTasksProperties properties;
+
+    public ReactiveRecurringTasksService(WebClient webClient, ServiceInstanceResolver serviceInstanceResolver, RecurringTasksProperties properties) {
+        this.webClient = webClient;
+        this.serviceInstanceResolver = serviceInstanceResolver;
+        this.properties = properties;
+    }
+
+    /**
+     * Retrieves multiple recurring tasks at once, in chunks, like {@link RecurringTasksService#findByIds(Collection)}.
+     * At most {@link RecurringTasksProperties#getConcurrency()} chunks are requested at the same time.
+     *
+     * @return the found recurring tasks, by id. Recurring tasks that do not exist are absent from the map.
+     */
+    public Mono<Map<Long, RecurringTaskDto>> findByIds(@NonNull Collection<Long> recurringTaskIds) {
+        return Flux.fromIterable(new LinkedHashSet<>(recurringTaskIds))
+                .buffer(Math.max(1, properties.getBatchSize()))
+                .flatMap(this::findChunk, Math.max(1, properties.getConcurrency()))
+                .collectMap(RecurringTaskDto::getId);
+    }
+
+    private Flux<RecurringTaskDto> findChunk(List<Long> recurringTaskIds) {
+        return Flux.defer(() -> {
+                    var ids = recurringTaskIds.stream()
+                            .map(String::valueOf)
+                            .collect(Collectors.joining(","));
+                    var url = findRecurringTasksUri() + API_CONTEXT_ROOT + "?ids=" + ids;
+                    log.info("Retrieving {} recurring tasks at {}", recurringTaskIds.size(), url);
+                    return webClient.get()
+                            .uri(url)
+                            .retrieve()
+                            .bodyToFlux(RecurringTaskDto.class);
+                })
+                .timeout(properties.getTimeout())
+                .onErrorResume(e -> properties.getFailurePolicy() == PARTIAL_RESULTS, e -> {
+                    log.warn("Could not retrieve recurring tasks {}, continuing without them", recurringTaskIds, e);
+                    return Flux.empty();
+                });
+    }
+
+    private String findRecurringTasksUri() {
+        return serviceInstanceResolver.choose(SERVICE_ID).getUri().toString() + "/";
+    }
+
+}
@@ -0,0 +1,105 @@
+package be.stijnhooft.portal.social.services;
+
+import be.stijnhooft.portal.social.dtos.RecurringTaskDto;
+import be.stijnhooft.portal.social.dtos.RecurringTaskEventDto;
+import be.stijnhooft.portal.social.mappers.RecurringTaskProjectionMapper;
+import be.stijnhooft.portal.social.repositories.RecurringTaskProjectionRepository;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Serves recurring tasks from a local projection, which is kept up to date by the events of the recurring tasks module.
+ * Only when a recurring task is not known locally, it is retrieved from the recurring tasks module (and remembered).
+ *
+ * Not transactional on purpose: no database connection should be held while waiting for the recurring tasks module.
+ */
+@Service
+@Slf4j
+public class RecurringTaskProjectionService {
+
+    private final RecurringTaskProjectionRepository recurringTaskProjectionRepository;
+    private final RecurringTaskProjectionMapper recurringTaskProjectionMapper;
+    private final RecurringTasksService recurringTasksService;
+
+    public RecurringTaskProjectionService(RecurringTaskProjectionRepository recurringTaskProjectionRepository, RecurringTaskProjectionMapper recurringTaskProjectionMapper, RecurringTasksService recurringTasksService) {
+        this.recurringTaskProjectionRepository = recurringTaskProjectionRepository;
+        this.recurringTaskProjectionMapper = recurringTaskProjectionMapper;
+        this.recurringTasksService = recurringTasksService;
+    }
+
+    public Optional<RecurringTaskDto> findById(long recurringTaskId) {
+        var projection = recurringTaskProjectionRepository.findById(recurringTaskId)
+                .map(recurringTaskProjectionMapper::mapToDto);
+        if (projection.isPresent()) {
+            return projection;
+        }
+
+        var recurringTask = recurringTasksService.findById(recurringTaskId);
+        recurringTask.ifPresent(this::save);
+        return recurringTask;
+    }
+
+    /**
+     * @return the found recurring tasks, by id. Recurring tasks that do not exist are absent from the map.
+     */
+    public Map<Long, RecurringTaskDto> findByIds(@NonNull Collection<Long> recurringTaskIds) {
+        var result = findKnownByIds(recurringTaskIds);
+
+        var missingIds = recurringTaskIds.stream()
+                .filter(recurringTaskId -> !result.containsKey(recurringTaskId))
+                .distinct()
+                .collect(Collectors.toList());
+        if (!missingIds.isEmpty()) {
+            log.info("{} recurring tasks are not known locally, retrieving them from the recurring tasks module", missingIds.size());
+            var missingRecurringTasks = recurringTasksService.findByIds(missingIds);
+            saveAll(missingRecurringTasks.values());
+            result.putAll(missingRecurringTasks);
+        }
+
+        return result;
+    }
+
+    /**
+     * Only looks in the local projection, never asks the recurring tasks module.
+     * @return the locally known recurring tasks, by id
+     */
+    public Map<Long, RecurringTaskDto> findKnownByIds(@NonNull Collection<Long> recurringTaskIds) {
+        return recurringTaskProjectionRepository.findAllById(new HashSet<>(recurringTaskIds))
+                .stream()
+                .map(recurringTaskProjectionMapper::mapToDto)
+                .collect(Collectors.toMap(RecurringTaskDto::getId, recurringTask -> recurringTask));
+    }
+
+    public void save(@NonNull RecurringTaskDto recurringTask) {
+        recurringTaskProjectionRepository.save(recurringTaskProjectionMapper.mapToModel(recurringTask));
+    }
+
+    public void saveAll(@NonNull Collection<RecurringTaskDto> recurringTasks) {
+        recurringTaskProjectionRepository.saveAll(recurringTasks.stream()
+                .map(recurringTaskProjectionMapper::mapToModel)
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Forget the local copy of a recurring task, for example because this module has just changed it.
+     * The next time it's needed, it will be retrieved from the recurring tasks module.
+     */
+    public void evict(long recurringTaskId) {
+        recurringTaskProjectionRepository.deleteIfExists(recurringTaskId);
+    }
+
+    public void apply(@NonNull RecurringTaskEventDto event) {
+        var recurringTask = event.getRecurringTask();
+        log.debug("Applying {} of recurring task {} to the local projection", event.getType(), recurringTask.getId());
+
+        switch (event.getType()) {
+            case CREATED, UPDATED -> save(recurringTask);
+            case DELETED -> evict(recurringTask.getId());
+        }
+    }
+
+}
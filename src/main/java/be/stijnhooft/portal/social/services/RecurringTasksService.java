@@ -1,17 +1,27 @@
 package be.stijnhooft.portal.social.services;
 
+import be.stijnhooft.portal.social.RecurringTasksProperties;
 import be.stijnhooft.portal.social.dtos.ExecutionDto;
 import be.stijnhooft.portal.social.dtos.RecurringTaskDto;
+import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.cloud.client.ServiceInstance;
-import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpMethod;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.CachePut;
+import org.springframework.cache.annotation.Cacheable;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import static be.stijnhooft.portal.social.RecurringTasksProperties.FailurePolicy.FAIL_FAST;
 
 /**
  * Service responsible for all communication with the recurring tasks module.
@@ -22,15 +32,38 @@ public class RecurringTasksService {
 
     public static final String API_CONTEXT_ROOT = "api/recurring-task/";
     public static final String SERVICE_ID = "social-recurring-tasks";
+    public static final String CACHE_NAME = "recurring-tasks";
     private final RestTemplate restTemplate;
-    private final DiscoveryClient discoveryClient;
+    private final ServiceInstanceResolver serviceInstanceResolver;
+    private final RecurringTasksProperties properties;
+    private final ExecutorService executor;
 
-    public RecurringTasksService(RestTemplate restTemplate, DiscoveryClient discoveryClient) {
+    public RecurringTasksService(RestTemplate restTemplate, ServiceInstanceResolver serviceInstanceResolver, RecurringTasksProperties properties, @Qualifier("recurringTasksExecutor") ExecutorService executor) {
         this.restTemplate = restTemplate;
-        this.discoveryClient = discoveryClient;
+        this.serviceInstanceResolver = serviceInstanceResolver;
+        this.properties = properties;
+        this.executor = executor;
     }
 
+    /**
+     * Cached. The cache entry is evicted when this module changes the recurring task,
+     * and expires according to spring.cache.caffeine.spec for changes made by others.
+     */
+    @Cacheable(cacheNames = CACHE_NAME, key = "#recurringTaskId", unless = "#result == null")
     public Optional<RecurringTaskDto> findById(long recurringTaskId) {
+        return retrieve(recurringTaskId);
+    }
+
+    /**
+     * Like {@link #findById(long)}, but always asks the recurring tasks module, and refreshes the cache with the answer.
+     * Use this before changing a recurring task, when a cached copy that has been changed by others meanwhile would be overwritten.
+     */
+    @CachePut(cacheNames = CACHE_NAME, key = "#recurringTaskId", unless = "#result == null")
+    public Optional<RecurringTaskDto> findCurrentById(long recurringTaskId) {
+        return retrieve(recurringTaskId);
+    }
+
+    private Optional<RecurringTaskDto> retrieve(long recurringTaskId) {
         try {
             var url = findRecurringTasksUri() + API_CONTEXT_ROOT + recurringTaskId;
             log.info("Retrieving recurring task at " + url);
@@ -45,6 +78,49 @@ public class RecurringTasksService {
         }
     }
 
+    /**
+     * Retrieves multiple recurring tasks at once. The ids are sent in chunks of
+     * {@link RecurringTasksProperties#getBatchSize()}, so that listing a lot of persons
+     * does not result in one request per person. The chunks are requested concurrently.
+     *
+     * When a chunk fails, the {@link RecurringTasksProperties#getFailurePolicy() failure policy} decides
+     * whether the whole retrieval fails, or whether the recurring tasks of that chunk are left out.
+     *
+     * @param recurringTaskIds ids of the recurring tasks to retrieve
+     * @return the found recurring tasks, by id. Recurring tasks that do not exist are absent from the map.
+     */
+    public Map<Long, RecurringTaskDto> findByIds(@NonNull Collection<Long> recurringTaskIds) {
+        var chunks = chunk(recurringTaskIds);
+        var calls = chunks.stream()
+                .map(this::findChunkAsync)
+                .collect(Collectors.toList());
+
+        var firstFailure = new AtomicReference<Throwable>();
+        if (properties.getFailurePolicy() == FAIL_FAST) {
+            calls.forEach(call -> call.whenComplete((recurringTasks, e) -> {
+                if (e != null && firstFailure.compareAndSet(null, e)) {
+                    calls.forEach(otherCall -> otherCall.cancel(false));
+                }
+            }));
+        }
+
+        Map<Long, RecurringTaskDto> result = new HashMap<>();
+        for (int i = 0; i < calls.size(); i++) {
+            try {
+                calls.get(i).join().forEach(recurringTask -> result.put(recurringTask.getId(), recurringTask));
+            } catch (CompletionException | CancellationException e) {
+                if (properties.getFailurePolicy() == FAIL_FAST) {
+                    var cause = Optional.ofNullable(firstFailure.get()).orElse(e);
+                    throw new RuntimeException("Could not retrieve recurring tasks " + chunks.get(i), cause);
+                } else {
+                    log.warn("Could not retrieve recurring tasks {}, continuing without them", chunks.get(i), e);
+                }
+            }
+        }
+        return result;
+    }
+
+    @CacheEvict(cacheNames = CACHE_NAME, key = "#id")
     public void deleteById(long id) {
         restTemplate.delete(findRecurringTasksUri() + API_CONTEXT_ROOT + id + "/");
     }
@@ -63,6 +139,7 @@ public class RecurringTasksService {
         return result.getBody();
     }
 
+    @CacheEvict(cacheNames = CACHE_NAME, key = "#recurringTaskDto.id")
     public void update(RecurringTaskDto recurringTaskDto) {
         var url = findRecurringTasksUri() + API_CONTEXT_ROOT + recurringTaskDto.getId() + "/";
         log.info("Updating recurring task at " + url);
@@ -70,6 +147,7 @@ public class RecurringTasksService {
         restTemplate.put(url, recurringTaskDto);
     }
 
+    @CacheEvict(cacheNames = CACHE_NAME, key = "#recurringTaskId")
     public void addExecution(ExecutionDto execution, long recurringTaskId) {
         var url = findRecurringTasksUri() + API_CONTEXT_ROOT + recurringTaskId + "/execution/";
         log.info("Adding execution for recurring task at " + url);
@@ -81,22 +159,72 @@ public class RecurringTasksService {
      * Use this method to rollback a creation of a user, when other actions (like persisting the person's image) go wrong
      * @param recurringTaskId id of the recurring task that should be rolled back
      */
+    @CacheEvict(cacheNames = CACHE_NAME, key = "#recurringTaskId")
     public void rollbackCreateRecurringTask(long recurringTaskId) {
         log.warn("Creating person failed. Reverting creation of recurring task " + recurringTaskId);
         deleteById(recurringTaskId);
     }
 
+    @CacheEvict(cacheNames = CACHE_NAME, key = "#originalRecurringTaskDto.id")
     public void rollbackUpdateRecurringTask(RecurringTaskDto originalRecurringTaskDto) {
         log.warn("Updating person failed. Reverting update of recurring task " + originalRecurringTaskDto.getId());
         update(originalRecurringTaskDto);
     }
 
-    private String findRecurringTasksUri() {
-        List<ServiceInstance> portalImageInstances = discoveryClient.getInstances(SERVICE_ID);
-        if (portalImageInstances != null && !portalImageInstances.isEmpty()) {
-            return portalImageInstances.get(0).getUri().toString() + "/";
-        } else {
-            throw new IllegalStateException("No instance of portal-recurring-tasks with name SOCIAL-RECURRING-TASKS registered with Eureka");
+    private List<List<Long>> chunk(Collection<Long> recurringTaskIds) {
+        var distinctIds = new ArrayList<>(new LinkedHashSet<>(recurringTaskIds));
+        var batchSize = Math.max(1, properties.getBatchSize());
+
+        List<List<Long>> chunks = new ArrayList<>();
+        for (int from = 0; from < distinctIds.size(); from += batchSize) {
+            chunks.add(distinctIds.subList(from, Math.min(from + batchSize, distinctIds.size())));
+        }
+        return chunks;
+    }
+
+    /**
+     * Sends the request on the recurring tasks executor.
+     * The timeout starts when the request is sent, not when it's queued.
+     * When the queue of the executor is full, the request is not sent and the returned call fails right away.
+     */
+    private CompletableFuture<List<RecurringTaskDto>> findChunkAsync(List<Long> recurringTaskIds) {
+        var call = new CompletableFuture<List<RecurringTaskDto>>();
+        try {
+            executor.execute(() -> {
+                if (call.isDone()) { // cancelled while waiting in the queue
+                    return;
+                }
+                call.orTimeout(properties.getTimeout().toMillis(), TimeUnit.MILLISECONDS);
+                try {
+                    call.complete(findChunk(recurringTaskIds));
+                } catch (RuntimeException e) {
+                    call.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            call.completeExceptionally(e);
         }
+        return call;
+    }
+
+    private List<RecurringTaskDto> findChunk(List<Long> recurringTaskIds) {
+        var ids = recurringTaskIds.stream()
+                .map(String::valueOf)
+                .collect(Collectors.joining(","));
+        var url = findRecurringTasksUri() + API_CONTEXT_ROOT + "?ids=" + ids;
+        log.info("Retrieving {} recurring tasks at {}", recurringTaskIds.size(), url);
+
+        try {
+            var response = restTemplate.exchange(url, HttpMethod.GET, null, new ParameterizedTypeReference<List<RecurringTaskDto>>() {
+            });
+            return Optional.ofNullable(response.getBody())
+                    .orElse(List.of());
+        } catch (HttpClientErrorException e) {
+            throw new RuntimeException("Recurring tasks microservice responded with " + e.getStatusText(), e);
+        }
+    }
+
+    private String findRecurringTasksUri() {
+        return serviceInstanceResolver.choose(SERVICE_ID).getUri().toString() + "/";
     }
 }
@@ -0,0 +1,189 @@
+package be.stijnhooft.portal.social.services;
+
+import be.stijnhooft.portal.model.image.ImageDto;
+import be.stijnhooft.portal.social.ThumbnailProperties;
+import be.stijnhooft.portal.social.dtos.ImageDeleteResult;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
+
+/**
+ * Lets the image module make the thumbnails, and store them.
+ */
+@Component
+@ConditionalOnProperty(prefix = "social.thumbnails", name = "backend", havingValue = "REMOTE", matchIfMissing = true)
+@Slf4j
+public class RemoteThumbnailBackend implements ThumbnailBackend {
+
+    public static final String SERVICE_ID = "image";
+    public static final String API_CONTEXT_ROOT = "api/";
+    private final ServiceInstanceResolver serviceInstanceResolver;
+    private final RestTemplate restTemplate;
+    private final ThumbnailProperties properties;
+    private final ThumbnailProfiles profiles;
+    private final ExecutorService executor;
+
+    public RemoteThumbnailBackend(ServiceInstanceResolver serviceInstanceResolver, RestTemplate restTemplate, ThumbnailProperties properties, ThumbnailProfiles profiles, @Qualifier("imageExecutor") ExecutorService executor) {
+        this.serviceInstanceResolver = serviceInstanceResolver;
+        this.restTemplate = restTemplate;
+        this.properties = properties;
+        this.profiles = profiles;
+        this.executor = executor;
+    }
+
+    /**
+     * When the image module supports it, all images are deleted in one request.
+     * Otherwise, or when that request fails, the images are deleted one by one, with {@link ThumbnailProperties#getDeleteConcurrency()} requests at the same time.
+     */
+    @Override
+    public Map<String, ImageDeleteResult> delete(@NonNull Collection<String> imageNames) {
+        var distinctImageNames = new ArrayList<>(new LinkedHashSet<>(imageNames));
+        if (properties.isRemoteBatchDelete() && distinctImageNames.size() > 1) {
+            try {
+                return deleteBatch(distinctImageNames);
+            } catch (RuntimeException e) {
+                log.warn("Could not delete images {} in one request, deleting them one by one", distinctImageNames, e);
+            }
+        }
+
+        Map<String, CompletableFuture<ImageDeleteResult>> calls = new LinkedHashMap<>();
+        distinctImageNames.forEach(imageName -> calls.put(imageName, CompletableFuture.supplyAsync(() -> deleteOne(imageName), executor)));
+
+        Map<String, ImageDeleteResult> results = new LinkedHashMap<>();
+        calls.forEach((imageName, call) -> {
+            try {
+                results.put(imageName, call.join());
+            } catch (CompletionException e) {
+                log.warn("Could not delete image {}", imageName, e.getCause());
+                results.put(imageName, ImageDeleteResult.FAILED);
+            }
+        });
+        return results;
+    }
+
+    /**
+     * The image is streamed from the image module, and never completely in memory.
+     */
+    @Override
+    public boolean read(@NonNull String imageName, @NonNull OutputStream target) {
+        var url = findPortalImageUrl() + API_CONTEXT_ROOT + "image/" + imageName;
+        try {
+            restTemplate.execute(url, HttpMethod.GET, null, response -> response.getBody().transferTo(target));
+            return true;
+        } catch (HttpClientErrorException.NotFound e) {
+            return false;
+        }
+    }
+
+    private Map<String, ImageDeleteResult> deleteBatch(List<String> imageNames) {
+        var url = findPortalImageUrl() + API_CONTEXT_ROOT + "remove/";
+        log.info("Deleting {} images at {}", imageNames.size(), url);
+        restTemplate.postForEntity(url, imageNames, Void.class);
+        return imageNames.stream()
+                .collect(Collectors.toMap(imageName -> imageName, imageName -> ImageDeleteResult.DELETED, (a, b) -> a, LinkedHashMap::new));
+    }
+
+    private ImageDeleteResult deleteOne(String imageName) {
+        try {
+            var url = findPortalImageUrl() + API_CONTEXT_ROOT + "remove/" + imageName;
+            log.info("Deleting image at " + url);
+            restTemplate.delete(url);
+            return ImageDeleteResult.DELETED;
+        } catch (HttpClientErrorException.NotFound ex)   {
+            log.warn("Image microservice returns 404 when deleting image {}. Image might already have been deleted.", imageName);
+            return ImageDeleteResult.DOES_NOT_EXIST;
+        }
+    }
+
+    /**
+     * The image is streamed to the image module, so it's never completely in memory
+     * unless the resource itself is in memory.
+     */
+    @Override
+    public HashMap<String, String> createThumbnails(@NonNull Resource imageContent) {
+        var image = new AnonymousResource(imageContent);
+
+        MultiValueMap<String, Object> requestBody = new LinkedMultiValueMap<>();
+        requestBody.add("image", image);
+        requestBody.add("transformationDefinitions", profiles.getTransformationDefinitions());
+
+        var url = findPortalImageUrl() + API_CONTEXT_ROOT + "transform/";
+        log.info("Creating thumbnail at " + url);
+
+        ResponseEntity<List<ImageDto>> response = restTemplate.exchange(url, HttpMethod.POST, new HttpEntity<>(requestBody), new ParameterizedTypeReference<>() {
+        });
+
+        HashMap<String, String> result = new HashMap<>();
+        profiles.getProfiles().forEach(profile -> result.put(profile.getName(), parseImageUrlFromResponse(response, profile.getName())));
+        return result;
+    }
+
+    private String parseImageUrlFromResponse(ResponseEntity<List<ImageDto>> response, String label) {
+        return Optional.ofNullable(response.getBody()) // avoiding a NullPointerException. If body is null, orElseThrow will be triggered.
+                .stream()
+                .flatMap(Collection::stream) // transform Stream<List<ImageDto>> to Stream<ImageDto>
+                .filter(imageDto -> imageDto.getLabel().equals(label))
+                .findFirst()
+                .map(ImageDto::getName)
+                .orElseThrow(() -> new IllegalArgumentException(String.format("Could not find thumbnail in response of image: %s", response.getBody())));
+    }
+
+    /**
+     * Sends the image under a random name, instead of the name the user gave it.
+     */
+    private static class AnonymousResource extends AbstractResource {
+
+        private final Resource resource;
+        private final String filename = UUID.randomUUID().toString();
+
+        AnonymousResource(Resource resource) {
+            this.resource = resource;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return resource.getInputStream();
+        }
+
+        @Override
+        public long contentLength() throws IOException {
+            return resource.contentLength();
+        }
+
+        @Override
+        public String getFilename() {
+            return filename;
+        }
+
+        @Override
+        public String getDescription() {
+            return "image " + filename + " [" + resource.getDescription() + "]";
+        }
+    }
+
+    private String findPortalImageUrl() {
+        return serviceInstanceResolver.choose(SERVICE_ID).getUri().toString() + "/";
+    }
+
+}
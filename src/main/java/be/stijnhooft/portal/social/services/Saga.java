@@ -0,0 +1,36 @@
+package be.stijnhooft.portal.social.services;
+
+import be.stijnhooft.portal.social.model.OutboxEntry;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A create or update of a person, which involves this module, the image module and the recurring tasks module.
+ *
+ * Before the next step is taken, every step in another module registers how it's undone, see {@link SagaExecutor#registerCompensation}.
+ * When the person is saved, the saga completes in the same transaction: its compensations are dropped, and its follow-ups are queued.
+ * When something fails, or when the saga does not complete in time, the {@link SagaExecutor} undoes the steps in the background.
+ */
+@Getter
+public class Saga {
+
+    private final String id = UUID.randomUUID().toString();
+
+    /**
+     * Number of compensations that have been registered.
+     */
+    private int compensations;
+
+    /**
+     * Calls that have to be made when the saga completes, like deleting images that are not used anymore.
+     */
+    private final List<OutboxEntry> followUps = new ArrayList<>();
+
+    void compensationRegistered() {
+        compensations++;
+    }
+
+}
@@ -0,0 +1,293 @@
+package be.stijnhooft.portal.social.services;
+
+import be.stijnhooft.portal.social.OutboxProperties;
+import be.stijnhooft.portal.social.dtos.ImageDeleteResult;
+import be.stijnhooft.portal.social.dtos.RecurringTaskDto;
+import be.stijnhooft.portal.social.model.OutboxEntry;
+import be.stijnhooft.portal.social.repositories.OutboxEntryRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.apache.commons.lang.StringUtils.abbreviate;
+
+/**
+ * Makes the calls to other modules that are in the outbox: the compensations of {@link Saga}s that failed or did not complete in time,
+ * and the follow-ups of sagas that completed, like cleaning up after a person has been deleted.
+ *
+ * Works like the {@link ThumbnailWorker}: a due entry is claimed before it's worked on, so that multiple instances of this module
+ * can share the work. The images of all claimed entries are deleted with one call.
+ * When a call fails, it's retried later, with an increasing delay. After {@link OutboxProperties#getMaxAttempts()}, it's given up on.
+ *
+ * Publishes the number of entries that still have to be done as social.outbox.backlog,
+ * and the number of entries that have been given up on as social.outbox.dead.letters, by type.
+ */
+@Component
+@Slf4j
+public class SagaExecutor {
+
+    private static final int MAX_ERROR_LENGTH = 1000;
+    private static final TypeReference<List<String>> IMAGE_NAMES = new TypeReference<>() {
+    };
+
+    private final OutboxEntryRepository outboxEntryRepository;
+    private final ImageService imageService;
+    private final RecurringTasksService recurringTasksService;
+    private final RecurringTaskProjectionService recurringTaskProjectionService;
+    private final ObjectMapper objectMapper;
+    private final OutboxProperties outboxProperties;
+    private final Clock clock;
+
+    private final Map<OutboxEntry.Type, AtomicLong> backlog = new EnumMap<>(OutboxEntry.Type.class);
+    private final Map<OutboxEntry.Type, AtomicLong> deadLetters = new EnumMap<>(OutboxEntry.Type.class);
+
+    @Autowired
+    public SagaExecutor(OutboxEntryRepository outboxEntryRepository, ImageService imageService, RecurringTasksService recurringTasksService, RecurringTaskProjectionService recurringTaskProjectionService, ObjectMapper objectMapper, OutboxProperties outboxProperties, MeterRegistry meterRegistry) {
+        this(outboxEntryRepository, imageService, recurringTasksService, recurringTaskProjectionService, objectMapper, outboxProperties, meterRegistry, Clock.systemUTC());
+    }
+
+    SagaExecutor(OutboxEntryRepository outboxEntryRepository, ImageService imageService, RecurringTasksService recurringTasksService, RecurringTaskProjectionService recurringTaskProjectionService, ObjectMapper objectMapper, OutboxProperties outboxProperties, MeterRegistry meterRegistry, Clock clock) {
+        this.outboxEntryRepository = outboxEntryRepository;
+        this.imageService = imageService;
+        this.recurringTasksService = recurringTasksService;
+        this.recurringTaskProjectionService = recurringTaskProjectionService;
+        this.objectMapper = objectMapper;
+        this.outboxProperties = outboxProperties;
+        this.clock = clock;
+
+        for (OutboxEntry.Type type : OutboxEntry.Type.values()) {
+            backlog.put(type, gauge(meterRegistry, "social.outbox.backlog", "Calls to other modules that still have to be made", type));
+            deadLetters.put(type, gauge(meterRegistry, "social.outbox.dead.letters", "Calls to other modules that have been given up on", type));
+        }
+    }
+
+    /**
+     * Registers how a step of the saga is undone. It's undone when the saga fails, or when it has not completed after {@link OutboxProperties#getSagaTimeout()}.
+     */
+    public void registerCompensation(@NonNull Saga saga, @NonNull OutboxEntry.Type type, @NonNull Object payload) {
+        outboxEntryRepository.save(entry(saga, type, payload));
+        saga.compensationRegistered();
+    }
+
+    /**
+     * Adds a call that is made when the saga completes.
+     */
+    public void followUp(@NonNull Saga saga, @NonNull OutboxEntry.Type type, @NonNull Object payload) {
+        var entry = entry(saga, type, payload);
+        entry.setNextAttemptAt(clock.instant());
+        saga.getFollowUps().add(entry);
+    }
+
+    /**
+     * Undoes the steps of a failed saga, in the background.
+     * Does not throw, so that the caller gets to see why the saga failed. When this fails, the steps are undone when the saga times out.
+     */
+    public void compensate(@NonNull Saga saga) {
+        if (saga.getCompensations() == 0) {
+            return;
+        }
+        try {
+            outboxEntryRepository.trigger(saga.getId(), clock.instant());
+        } catch (RuntimeException e) {
+            log.error("Could not start undoing saga {}, it will be undone after {}", saga.getId(), outboxProperties.getSagaTimeout(), e);
+        }
+    }
+
+    /**
+     * Makes the calls that are due.
+     */
+    @Scheduled(fixedDelayString = "${social.outbox.poll-interval:PT5S}")
+    public void processDueEntries() {
+        var now = clock.instant();
+        var claimedEntryIds = outboxEntryRepository.findDueIds(now, PageRequest.of(0, outboxProperties.getBatchSize()))
+                .stream()
+                .filter(entryId -> outboxEntryRepository.claim(entryId, now, now.plus(outboxProperties.getClaimDuration())) == 1)
+                .collect(Collectors.toList());
+        if (!claimedEntryIds.isEmpty()) {
+            process(outboxEntryRepository.findAllById(claimedEntryIds));
+        }
+        updateBacklog();
+    }
+
+    void process(@NonNull List<OutboxEntry> entries) {
+        var imageDeletions = entries.stream()
+                .filter(entry -> entry.getType() == OutboxEntry.Type.DELETE_IMAGES)
+                .collect(Collectors.toList());
+        if (!imageDeletions.isEmpty()) {
+            deleteImages(imageDeletions);
+        }
+
+        entries.stream()
+                .filter(entry -> entry.getType() != OutboxEntry.Type.DELETE_IMAGES)
+                .forEach(this::process);
+    }
+
+    private void process(OutboxEntry entry) {
+        try {
+            execute(entry);
+        } catch (RuntimeException e) {
+            retryLater(entry, entry.getPayload(), e);
+            return;
+        }
+        outboxEntryRepository.deleteIfExists(entry.getId());
+    }
+
+    private void execute(OutboxEntry entry) {
+        switch (entry.getType()) {
+            case DELETE_RECURRING_TASK -> {
+                long recurringTaskId = read(entry, new TypeReference<Long>() {
+                });
+                try {
+                    recurringTasksService.deleteById(recurringTaskId);
+                } catch (HttpClientErrorException.NotFound e) {
+                    log.info("Recurring task {} has been deleted already", recurringTaskId);
+                }
+                recurringTaskProjectionService.evict(recurringTaskId);
+            }
+            case RESTORE_RECURRING_TASK -> {
+                var recurringTask = read(entry, new TypeReference<RecurringTaskDto>() {
+                });
+                recurringTasksService.rollbackUpdateRecurringTask(recurringTask);
+                recurringTaskProjectionService.evict(recurringTask.getId());
+            }
+            default -> throw new IllegalArgumentException("Unsupported outbox entry type " + entry.getType());
+        }
+    }
+
+    /**
+     * Deletes the images of the entries with one call. An entry of which some images could not be deleted, is retried for those images only.
+     *
+     * An entry gives up its use of the images first. In the same transaction, its payload is narrowed down to the images that are not used anymore.
+     * When the call fails, the entry is retried with those images, which are not in the index anymore, so no use is given up twice:
+     * thumbnails that are shared with another person are never deleted by a retry.
+     */
+    private void deleteImages(List<OutboxEntry> entries) {
+        Map<OutboxEntry, List<String>> unusedImagesPerEntry = new LinkedHashMap<>();
+        for (OutboxEntry entry : entries) {
+            try {
+                var unused = imageService.release(read(entry, IMAGE_NAMES),
+                        unusedImages -> outboxEntryRepository.updatePayload(entry.getId(), write(unusedImages)));
+                if (unused.isEmpty()) {
+                    outboxEntryRepository.deleteIfExists(entry.getId());
+                } else {
+                    unusedImagesPerEntry.put(entry, unused);
+                }
+            } catch (RuntimeException e) {
+                retryLater(entry, entry.getPayload(), e);
+            }
+        }
+        if (unusedImagesPerEntry.isEmpty()) {
+            return;
+        }
+
+        Map<String, ImageDeleteResult> results;
+        try {
+            results = imageService.deleteUnused(unusedImagesPerEntry.values()
+                    .stream()
+                    .flatMap(List::stream)
+                    .distinct()
+                    .collect(Collectors.toList()));
+        } catch (RuntimeException e) {
+            unusedImagesPerEntry.forEach((entry, unused) -> retryLater(entry, write(unused), e));
+            return;
+        }
+
+        unusedImagesPerEntry.forEach((entry, unused) -> {
+            var failed = unused.stream()
+                    .filter(imageName -> results.get(imageName) == ImageDeleteResult.FAILED)
+                    .collect(Collectors.toList());
+            if (failed.isEmpty()) {
+                outboxEntryRepository.deleteIfExists(entry.getId());
+            } else {
+                retryLater(entry, write(failed), new IllegalStateException("Could not delete images " + failed));
+            }
+        });
+    }
+
+    /**
+     * @param payload what is left to do
+     */
+    private void retryLater(OutboxEntry entry, String payload, RuntimeException e) {
+        int attempts = entry.getAttempts() + 1;
+        var error = abbreviate(String.valueOf(e.getMessage()), MAX_ERROR_LENGTH);
+        if (attempts >= outboxProperties.getMaxAttempts()) {
+            log.error("{} of saga {} failed {} times, giving up on outbox entry {} with payload {}", entry.getType(), entry.getSagaId(), attempts, entry.getId(), payload, e);
+            outboxEntryRepository.deadLetter(entry.getId(), attempts, clock.instant(), error);
+            return;
+        }
+
+        var delay = outboxProperties.getRetryDelay().multipliedBy(1L << Math.min(attempts - 1, 20));
+        if (delay.compareTo(outboxProperties.getMaxRetryDelay()) > 0) {
+            delay = outboxProperties.getMaxRetryDelay();
+        }
+        log.warn("{} of saga {} failed {} times, trying again in {}", entry.getType(), entry.getSagaId(), attempts, delay, e);
+        outboxEntryRepository.reschedule(entry.getId(), payload, attempts, clock.instant().plus(delay), error);
+    }
+
+    private void updateBacklog() {
+        try {
+            update(backlog, outboxEntryRepository.countPendingByType());
+            update(deadLetters, outboxEntryRepository.countDeadLetteredByType());
+        } catch (RuntimeException e) {
+            log.warn("Could not count the outbox entries", e);
+        }
+    }
+
+    private static void update(Map<OutboxEntry.Type, AtomicLong> gauges, List<OutboxEntryRepository.TypeCount> counts) {
+        gauges.values().forEach(gauge -> gauge.set(0));
+        counts.forEach(count -> gauges.get(count.getType()).set(count.getCount()));
+    }
+
+    private static AtomicLong gauge(MeterRegistry meterRegistry, String name, String description, OutboxEntry.Type type) {
+        var value = new AtomicLong();
+        Gauge.builder(name, value, AtomicLong::get)
+                .description(description)
+                .tag("type", type.name())
+                .register(meterRegistry);
+        return value;
+    }
+
+    private OutboxEntry entry(Saga saga, OutboxEntry.Type type, Object payload) {
+        return OutboxEntry.builder()
+                .sagaId(saga.getId())
+                .type(type)
+                .payload(write(payload))
+                .nextAttemptAt(clock.instant().plus(outboxProperties.getSagaTimeout()))
+                .build();
+    }
+
+    private String write(Object payload) {
+        try {
+            return objectMapper.writeValueAsString(payload);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Could not write " + payload + " as JSON", e);
+        }
+    }
+
+    private <T> T read(OutboxEntry entry, TypeReference<T> type) {
+        try {
+            return objectMapper.readValue(entry.getPayload(), type);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not read payload of outbox entry " + entry.getId(), e);
+        }
+    }
+
+}
@@ -1,12 +1,25 @@
 package be.stijnhooft.portal.social.services;
 
+import be.stijnhooft.portal.social.PersistenceProperties;
+import be.stijnhooft.portal.social.dtos.ThumbnailStatus;
 import be.stijnhooft.portal.social.model.Person;
+import be.stijnhooft.portal.social.model.ThumbnailJob;
+import be.stijnhooft.portal.social.repositories.OutboxEntryRepository;
 import be.stijnhooft.portal.social.repositories.PersonRepository;
+import be.stijnhooft.portal.social.repositories.ThumbnailJobRepository;
 import lombok.NonNull;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
 import org.springframework.stereotype.Service;
 
+import javax.persistence.EntityManager;
 import javax.transaction.Transactional;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 @Service
 @Transactional
@@ -14,9 +27,17 @@ import javax.transaction.Transactional;
 public class SavePersonHelper {
 
     private final PersonRepository personRepository;
+    private final ThumbnailJobRepository thumbnailJobRepository;
+    private final OutboxEntryRepository outboxEntryRepository;
+    private final PersistenceProperties persistenceProperties;
+    private final EntityManager entityManager;
 
-    public SavePersonHelper(PersonRepository personRepository) {
+    public SavePersonHelper(PersonRepository personRepository, ThumbnailJobRepository thumbnailJobRepository, OutboxEntryRepository outboxEntryRepository, PersistenceProperties persistenceProperties, EntityManager entityManager) {
         this.personRepository = personRepository;
+        this.thumbnailJobRepository = thumbnailJobRepository;
+        this.outboxEntryRepository = outboxEntryRepository;
+        this.persistenceProperties = persistenceProperties;
+        this.entityManager = entityManager;
     }
 
     @Transactional(value = Transactional.TxType.REQUIRES_NEW)
@@ -24,4 +45,163 @@ public class SavePersonHelper {
         return personRepository.saveAndFlush(person);
     }
 
+    /**
+     * Saves the person and completes the saga, in one transaction.
+     * @throws IllegalStateException when the saga has timed out, and is being undone
+     */
+    @Transactional(value = Transactional.TxType.REQUIRES_NEW)
+    public Person saveAndFlushAndCommit(@NonNull Person person, @NonNull Saga saga) {
+        var savedPerson = personRepository.saveAndFlush(person);
+        complete(saga);
+        return savedPerson;
+    }
+
+    /**
+     * Saves the person, queues the making of its thumbnails and completes the saga, in one transaction.
+     * @throws IllegalStateException when the saga has timed out, and is being undone
+     */
+    @Transactional(value = Transactional.TxType.REQUIRES_NEW)
+    public Person saveAndFlushAndCommit(@NonNull Person person, @NonNull byte[] image, @NonNull Saga saga) {
+        var savedPerson = personRepository.saveAndFlush(person);
+        thumbnailJobRepository.save(ThumbnailJob.builder()
+                .personId(savedPerson.getId())
+                .image(image)
+                .nextAttemptAt(Instant.now())
+                .build());
+        complete(saga);
+        return savedPerson;
+    }
+
+    /**
+     * Saves the persons, queues the making of the thumbnails of those that have an image, and completes their sagas, in one transaction.
+     *
+     * The persons are flushed {@link PersistenceProperties#getBatchSize()} at a time, each flush being one JDBC batch of inserts.
+     * Their ids are taken from the sequence {@link Person#ID_ALLOCATION_SIZE} at a time, and the sagas are completed with one delete,
+     * so the number of statements does not grow with every person.
+     * @throws IllegalStateException when one of the sagas has timed out, and is being undone. None of the persons is saved then.
+     */
+    @Transactional(value = Transactional.TxType.REQUIRES_NEW)
+    public List<Person> saveAllAndCommit(@NonNull List<NewPerson> newPersons) {
+        int batchSize = persistenceProperties.getBatchSize();
+        entityManager.unwrap(Session.class).setJdbcBatchSize(batchSize);
+
+        List<Person> savedPersons = new ArrayList<>(newPersons.size());
+        List<ThumbnailJob> thumbnailJobs = new ArrayList<>();
+        for (int start = 0; start < newPersons.size(); start += batchSize) {
+            var batch = newPersons.subList(start, Math.min(start + batchSize, newPersons.size()));
+            for (NewPerson newPerson : batch) {
+                var savedPerson = personRepository.save(newPerson.getPerson());
+                savedPersons.add(savedPerson);
+                if (newPerson.getImage() != null) {
+                    thumbnailJobs.add(ThumbnailJob.builder()
+                            .personId(savedPerson.getId())
+                            .image(newPerson.getImage())
+                            .nextAttemptAt(Instant.now())
+                            .build());
+                }
+            }
+            thumbnailJobRepository.saveAll(thumbnailJobs);
+            thumbnailJobs.clear();
+
+            // written persons and images do not have to stay in memory until the end of the transaction
+            entityManager.flush();
+            entityManager.clear();
+        }
+
+        completeAll(newPersons.stream()
+                .map(NewPerson::getSaga)
+                .collect(Collectors.toList()));
+        return savedPersons;
+    }
+
+    /**
+     * Deletes the person and completes the saga, in one transaction.
+     */
+    @Transactional(value = Transactional.TxType.REQUIRES_NEW)
+    public void deleteAndCommit(long id, @NonNull Saga saga) {
+        personRepository.deleteById(id);
+        complete(saga);
+    }
+
+    /**
+     * Completes a saga that did not change the person.
+     * @throws IllegalStateException when the saga has timed out, and is being undone
+     */
+    @Transactional(value = Transactional.TxType.REQUIRES_NEW)
+    public void completeSaga(@NonNull Saga saga) {
+        complete(saga);
+    }
+
+    /**
+     * Fills in the thumbnails of a person and removes the job that made them.
+     * @param placeholder the placeholder of the image, or null when it could not be made
+     * @return false when the person is not waiting for these thumbnails anymore, because it has been deleted or has been given another image
+     */
+    @Transactional(value = Transactional.TxType.REQUIRES_NEW)
+    public boolean completeThumbnailJob(@NonNull ThumbnailJob job, @NonNull Map<String, String> thumbnails, String placeholder) {
+        thumbnailJobRepository.deleteIfExists(job.getId());
+        return personRepository.findById(job.getPersonId())
+                .filter(person -> person.getThumbnailStatus() == ThumbnailStatus.PENDING)
+                .map(person -> {
+                    person.setThumbnails(thumbnails);
+                    person.setPlaceholder(placeholder);
+                    person.setThumbnailStatus(ThumbnailStatus.READY);
+                    return true;
+                }).orElse(false);
+    }
+
+    /**
+     * Gives up on making the thumbnails of a person.
+     */
+    @Transactional(value = Transactional.TxType.REQUIRES_NEW)
+    public void failThumbnailJob(@NonNull ThumbnailJob job) {
+        thumbnailJobRepository.deleteIfExists(job.getId());
+        personRepository.findById(job.getPersonId())
+                .filter(person -> person.getThumbnailStatus() == ThumbnailStatus.PENDING)
+                .ifPresent(person -> person.setThumbnailStatus(ThumbnailStatus.FAILED));
+    }
+
+    /**
+     * Drops the compensations of the saga and queues its follow-ups.
+     * When compensations are missing or have been claimed by the {@link SagaExecutor}, the saga has timed out
+     * and its steps are being undone, so it cannot complete anymore.
+     */
+    private void complete(Saga saga) {
+        int dropped = outboxEntryRepository.deleteBySagaId(saga.getId());
+        if (dropped < saga.getCompensations()) {
+            throw new IllegalStateException("Saga " + saga.getId() + " has timed out, and is being undone");
+        }
+        outboxEntryRepository.saveAll(saga.getFollowUps());
+    }
+
+    /**
+     * Like {@link #complete(Saga)}, with one delete for all sagas.
+     * Every saga has at most as many entries as compensations, so the sagas only miss entries when fewer are deleted than there are compensations.
+     */
+    private void completeAll(List<Saga> sagas) {
+        int compensations = sagas.stream()
+                .mapToInt(Saga::getCompensations)
+                .sum();
+        int dropped = outboxEntryRepository.deleteBySagaIdIn(sagas.stream()
+                .map(Saga::getId)
+                .collect(Collectors.toList()));
+        if (dropped < compensations) {
+            throw new IllegalStateException("One of " + sagas.size() + " sagas has timed out, and is being undone");
+        }
+        outboxEntryRepository.saveAll(sagas.stream()
+                .flatMap(saga -> saga.getFollowUps().stream())
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * A person that is created by a saga.
+     */
+    @Value
+    public static class NewPerson {
+        @NonNull Person person;
+        /** the image of which the thumbnails still have to be made, or null when the person has its thumbnails **/
+        byte[] image;
+        @NonNull Saga saga;
+    }
+
 }
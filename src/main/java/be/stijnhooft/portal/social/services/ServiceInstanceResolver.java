@@ -0,0 +1,184 @@
+package be.stijnhooft.portal.social.services;
+
+import be.stijnhooft.portal.social.ServiceDiscoveryProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Chooses an instance of another module to send a request to.
+ *
+ * The instances are remembered, so that the service registry is not consulted for every request,
+ * and refreshed in the background. Requests are spread over the instances in turn.
+ * An instance that keeps failing is left out for a while.
+ */
+@Component
+@Slf4j
+public class ServiceInstanceResolver {
+
+    private final DiscoveryClient discoveryClient;
+    private final ServiceDiscoveryProperties properties;
+    private final MeterRegistry meterRegistry;
+    private final Clock clock;
+
+    private final Map<String, List<ServiceInstance>> instancesByServiceId = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> nextIndexByServiceId = new ConcurrentHashMap<>();
+    private final Map<URI, InstanceHealth> healthByInstance = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ServiceInstanceResolver(DiscoveryClient discoveryClient, ServiceDiscoveryProperties properties, MeterRegistry meterRegistry) {
+        this(discoveryClient, properties, meterRegistry, Clock.systemUTC());
+    }
+
+    ServiceInstanceResolver(DiscoveryClient discoveryClient, ServiceDiscoveryProperties properties, MeterRegistry meterRegistry, Clock clock) {
+        this.discoveryClient = discoveryClient;
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+        this.clock = clock;
+    }
+
+    /**
+     * @return the next instance in turn, skipping instances that are ejected.
+     * When all instances are ejected, they are tried anyway.
+     * @throws IllegalStateException when no instance of the service is registered
+     */
+    public ServiceInstance choose(@NonNull String serviceId) {
+        var instances = getInstances(serviceId);
+        if (instances.isEmpty()) {
+            throw new IllegalStateException("No instance of " + serviceId + " registered with Eureka");
+        }
+
+        var now = clock.instant();
+        var available = instances.stream()
+                .filter(instance -> !isEjected(instance, now))
+                .collect(Collectors.toList());
+        if (available.isEmpty()) {
+            log.warn("All instances of {} are ejected, trying them anyway", serviceId);
+            available = instances;
+        }
+
+        var index = nextIndexByServiceId.computeIfAbsent(serviceId, id -> new AtomicInteger())
+                .getAndIncrement();
+        return available.get(Math.floorMod(index, available.size()));
+    }
+
+    /**
+     * @return the known instances of the service. Only when none are known, the service registry is consulted.
+     */
+    public List<ServiceInstance> getInstances(@NonNull String serviceId) {
+        var instances = instancesByServiceId.get(serviceId);
+        if (instances == null || instances.isEmpty()) {
+            instances = lookUp(serviceId);
+        }
+        return instances;
+    }
+
+    /**
+     * Records the outcome of a request sent to one of the known instances.
+     * Requests to unknown hosts are ignored.
+     */
+    public void record(@NonNull URI requestUri, long durationInNanos, boolean success) {
+        findInstance(requestUri).ifPresent(entry -> {
+            var serviceId = entry.getKey();
+            var instance = entry.getValue();
+
+            Timer.builder("http.client.instance.requests")
+                    .description("Requests sent to an instance of another module")
+                    .tag("service", serviceId)
+                    .tag("instance", instance.getUri().getAuthority())
+                    .tag("outcome", success ? "SUCCESS" : "FAILURE")
+                    .register(meterRegistry)
+                    .record(durationInNanos, TimeUnit.NANOSECONDS);
+
+            var health = healthByInstance.computeIfAbsent(instance.getUri(), uri -> new InstanceHealth());
+            if (success) {
+                health.succeeded();
+            } else if (health.failed(clock.instant())) {
+                log.warn("Instance {} of {} failed {} times in a row, not using it for {}",
+                        instance.getUri(), serviceId, properties.getFailureThreshold(), properties.getEjectionDuration());
+            }
+        });
+    }
+
+    @Scheduled(fixedDelayString = "${social.service-discovery.refresh-interval:PT30S}")
+    public void refresh() {
+        instancesByServiceId.keySet().forEach(this::lookUp);
+
+        var knownInstances = instancesByServiceId.values()
+                .stream()
+                .flatMap(List::stream)
+                .map(ServiceInstance::getUri)
+                .collect(Collectors.toSet());
+        healthByInstance.keySet().retainAll(knownInstances);
+    }
+
+    private List<ServiceInstance> lookUp(String serviceId) {
+        var instances = discoveryClient.getInstances(serviceId);
+        instances = instances == null ? List.of() : List.copyOf(instances);
+        instancesByServiceId.put(serviceId, instances);
+        return instances;
+    }
+
+    private Optional<Map.Entry<String, ServiceInstance>> findInstance(URI requestUri) {
+        for (var entry : instancesByServiceId.entrySet()) {
+            for (var instance : entry.getValue()) {
+                var instanceUri = instance.getUri();
+                if (instanceUri.getHost().equalsIgnoreCase(requestUri.getHost()) && instanceUri.getPort() == requestUri.getPort()) {
+                    return Optional.of(Map.entry(entry.getKey(), instance));
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    private boolean isEjected(ServiceInstance instance, Instant now) {
+        var health = healthByInstance.get(instance.getUri());
+        return health != null && health.isEjected(now);
+    }
+
+    private class InstanceHealth {
+
+        private int consecutiveFailures;
+        private Instant ejectedUntil = Instant.MIN;
+
+        synchronized void succeeded() {
+            consecutiveFailures = 0;
+            ejectedUntil = Instant.MIN;
+        }
+
+        /**
+         * @return whether the instance got ejected by this failure
+         */
+        synchronized boolean failed(Instant now) {
+            consecutiveFailures++;
+            if (consecutiveFailures >= properties.getFailureThreshold()) {
+                consecutiveFailures = 0;
+                ejectedUntil = now.plus(properties.getEjectionDuration());
+                return true;
+            }
+            return false;
+        }
+
+        synchronized boolean isEjected(Instant now) {
+            return now.isBefore(ejectedUntil);
+        }
+    }
+
+}
@@ -0,0 +1,35 @@
+package be.stijnhooft.portal.social.services;
+
+import be.stijnhooft.portal.social.dtos.ImageDeleteResult;
+import lombok.NonNull;
+import org.springframework.core.io.Resource;
+
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Makes the thumbnails of an image, one for every profile in {@link ThumbnailProfiles}.
+ * Which implementation is used depends on social.thumbnails.backend.
+ */
+public interface ThumbnailBackend {
+
+    /**
+     * @return the names of the created thumbnails, by profile name
+     */
+    HashMap<String, String> createThumbnails(@NonNull Resource image);
+
+    /**
+     * Writes the content of an image.
+     * @return false when there's no image with that name
+     */
+    boolean read(@NonNull String imageName, @NonNull OutputStream target);
+
+    /**
+     * Deletes multiple images at once. Does not throw when an image cannot be deleted, but reports it as {@link ImageDeleteResult#FAILED}.
+     * @return what happened, by image name
+     */
+    Map<String, ImageDeleteResult> delete(@NonNull Collection<String> imageNames);
+
+}
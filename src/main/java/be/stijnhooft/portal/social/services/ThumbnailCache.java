@@ -0,0 +1,172 @@
+package be.stijnhooft.portal.social.services;
+
+import be.stijnhooft.portal.social.ThumbnailProperties;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Keeps the thumbnails that have been served on disk, so that they are retrieved from the {@link ThumbnailBackend} only once.
+ * A thumbnail never changes under the same name, so a cached thumbnail never has to be refreshed.
+ *
+ * When {@link ThumbnailProperties#getCacheSize()} is exceeded, the least recently used thumbnails are removed.
+ * What is in the cache is remembered in memory, and rebuilt from the directory at startup.
+ */
+@Component
+@Slf4j
+public class ThumbnailCache {
+
+    /**
+     * Names can never point outside the directory, and never start with a dot like the temporary files.
+     */
+    private static final Pattern VALID_NAME = Pattern.compile("[A-Za-z0-9_-][A-Za-z0-9._-]*");
+
+    private final ThumbnailBackend thumbnailBackend;
+    private final Path directory;
+    private final long maxSize;
+
+    /**
+     * Size of every cached thumbnail, by name, from least to most recently used. Guarded by this.
+     */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+
+    public ThumbnailCache(ThumbnailBackend thumbnailBackend, ThumbnailProperties thumbnailProperties) {
+        this.thumbnailBackend = thumbnailBackend;
+        this.directory = thumbnailProperties.getCacheDirectory().toAbsolutePath().normalize();
+        this.maxSize = thumbnailProperties.getCacheSize().toBytes();
+        load();
+    }
+
+    /**
+     * Finds a thumbnail, retrieving it from the {@link ThumbnailBackend} when it's not cached yet.
+     * The thumbnail becomes the most recently used one, so it's the last one to be removed when the cache is full,
+     * and can be read right after.
+     *
+     * @return the cached file, or empty when there's no thumbnail with that name
+     */
+    public Optional<Path> find(@NonNull String name) {
+        if (!VALID_NAME.matcher(name).matches()) {
+            return Optional.empty();
+        }
+
+        var cached = findCached(name);
+        if (cached.isPresent()) {
+            return cached;
+        }
+
+        // retrieved outside of the lock, so that a slow backend does not hold up the thumbnails that are cached
+        return retrieve(name);
+    }
+
+    private synchronized Optional<Path> findCached(String name) {
+        if (entries.get(name) == null) { // get, unlike containsKey, marks the thumbnail as the most recently used one
+            return Optional.empty();
+        }
+        var path = directory.resolve(name);
+        if (!Files.exists(path)) {
+            log.warn("Cached thumbnail {} has disappeared, retrieving it again", name);
+            size -= entries.remove(name);
+            return Optional.empty();
+        }
+        return Optional.of(path);
+    }
+
+    private Optional<Path> retrieve(String name) {
+        try {
+            Files.createDirectories(directory);
+            var temporaryFile = Files.createTempFile(directory, ".", ".tmp");
+            try {
+                boolean exists;
+                try (OutputStream outputStream = Files.newOutputStream(temporaryFile)) {
+                    exists = thumbnailBackend.read(name, outputStream);
+                }
+                if (!exists) {
+                    return Optional.empty();
+                }
+                return Optional.of(add(name, temporaryFile));
+            } finally {
+                Files.deleteIfExists(temporaryFile);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not cache thumbnail " + name, e);
+        }
+    }
+
+    private synchronized Path add(String name, Path temporaryFile) throws IOException {
+        var path = directory.resolve(name);
+        Files.move(temporaryFile, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        var fileSize = Files.size(path);
+
+        var previousSize = entries.put(name, fileSize);
+        size += fileSize - (previousSize == null ? 0 : previousSize);
+        evict(name);
+        return path;
+    }
+
+    /**
+     * Removes the least recently used thumbnails, but never the one that has just been added.
+     */
+    private void evict(String justAdded) {
+        var iterator = entries.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            var entry = iterator.next();
+            if (entry.getKey().equals(justAdded)) {
+                continue;
+            }
+            try {
+                Files.deleteIfExists(directory.resolve(entry.getKey()));
+            } catch (IOException e) {
+                log.warn("Could not remove thumbnail {} from the cache", entry.getKey(), e);
+            }
+            size -= entry.getValue();
+            iterator.remove();
+        }
+    }
+
+    private synchronized void load() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> cached = new ArrayList<>();
+            for (Path file : files.collect(Collectors.toList())) {
+                if (VALID_NAME.matcher(file.getFileName().toString()).matches()) {
+                    cached.add(file);
+                } else {
+                    Files.deleteIfExists(file); // left behind by a retrieval that was interrupted
+                }
+            }
+            cached.sort(Comparator.comparing(ThumbnailCache::lastModified));
+            for (Path file : cached) {
+                entries.put(file.getFileName().toString(), Files.size(file));
+                size += Files.size(file);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read the thumbnail cache in " + directory, e);
+        }
+        log.info("Thumbnail cache contains {} thumbnails, {} bytes", entries.size(), size);
+        evict(null);
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}
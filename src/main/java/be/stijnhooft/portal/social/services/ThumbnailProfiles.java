@@ -0,0 +1,108 @@
+package be.stijnhooft.portal.social.services;
+
+import be.stijnhooft.portal.social.ThumbnailProperties;
+import be.stijnhooft.portal.social.ThumbnailProperties.Filter;
+import be.stijnhooft.portal.social.ThumbnailProperties.Profile;
+import be.stijnhooft.portal.social.dtos.ImageLabel;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.NonNull;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * The configured thumbnail profiles: which thumbnails are made of every image.
+ * The profiles are checked, and the transformation definitions for the image module are serialised, once at startup.
+ */
+@Component
+public class ThumbnailProfiles {
+
+    private static final Pattern VALID_NAME = Pattern.compile("[a-z0-9-]+");
+
+    private final List<Profile> profiles;
+    private final String transformationDefinitions;
+
+    public ThumbnailProfiles(ThumbnailProperties properties, ObjectMapper objectMapper) {
+        this.profiles = List.copyOf(properties.getProfiles());
+        validate(profiles);
+        this.transformationDefinitions = serialise(profiles, objectMapper);
+    }
+
+    public List<Profile> getProfiles() {
+        return profiles;
+    }
+
+    /**
+     * @return the profiles as transformation definitions of the image module, in JSON
+     */
+    public String getTransformationDefinitions() {
+        return transformationDefinitions;
+    }
+
+    /**
+     * @param thumbnails the available thumbnails, by profile name
+     * @param size the size at which the thumbnail is shown, in pixels
+     * @param sepia whether the sepia or the color thumbnail is wanted
+     * @return the smallest available profile that is at least as large as the requested size.
+     * When they are all smaller, the largest one.
+     */
+    public Optional<Profile> findSmallestThatFits(@NonNull Map<String, String> thumbnails, int size, boolean sepia) {
+        var candidates = profiles.stream()
+                .filter(profile -> thumbnails.get(profile.getName()) != null)
+                .filter(profile -> profile.getFilters().contains(Filter.SEPIA) == sepia)
+                .collect(Collectors.toList());
+        return candidates.stream()
+                .filter(profile -> profile.getSize() >= size)
+                .min(Comparator.comparingInt(Profile::getSize))
+                .or(() -> candidates.stream().max(Comparator.comparingInt(Profile::getSize)));
+    }
+
+    private static void validate(List<Profile> profiles) {
+        Set<String> names = new HashSet<>();
+        for (Profile profile : profiles) {
+            if (profile.getName() == null || !VALID_NAME.matcher(profile.getName()).matches()) {
+                throw new IllegalStateException("Thumbnail profile name " + profile.getName() + " may only contain lower case letters, digits and dashes");
+            }
+            if (!names.add(profile.getName())) {
+                throw new IllegalStateException("Thumbnail profile " + profile.getName() + " is configured more than once");
+            }
+            if (profile.getSize() <= 0) {
+                throw new IllegalStateException("Thumbnail profile " + profile.getName() + " has no size");
+            }
+        }
+        for (ImageLabel required : List.of(ImageLabel.COLOR_THUMBNAIL, ImageLabel.SEPIA_THUMBNAIL)) {
+            if (!names.contains(required.getValue())) {
+                throw new IllegalStateException("Thumbnail profile " + required.getValue() + " is required");
+            }
+        }
+    }
+
+    private static String serialise(List<Profile> profiles, ObjectMapper objectMapper) {
+        List<Map<String, Object>> definitions = new ArrayList<>();
+        for (Profile profile : profiles) {
+            List<Map<String, Object>> transformations = new ArrayList<>();
+            Map<String, Object> resize = new LinkedHashMap<>();
+            resize.put("name", "resize");
+            resize.put("width", String.valueOf(profile.getSize()));
+            resize.put("height", String.valueOf(profile.getSize()));
+            resize.put("crop", profile.isCrop());
+            transformations.add(resize);
+            profile.getFilters().forEach(filter -> transformations.add(Map.of("name", filter.name().toLowerCase(Locale.ROOT))));
+
+            Map<String, Object> definition = new LinkedHashMap<>();
+            definition.put("label", profile.getName());
+            definition.put("transformations", transformations);
+            definitions.add(definition);
+        }
+
+        try {
+            return objectMapper.writeValueAsString(definitions);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not serialise the thumbnail profiles", e);
+        }
+    }
+
+}
@@ -0,0 +1,115 @@
+package be.stijnhooft.portal.social.services;
+
+import be.stijnhooft.portal.social.ThumbnailProperties;
+import be.stijnhooft.portal.social.dtos.ThumbnailStatus;
+import be.stijnhooft.portal.social.model.ThumbnailJob;
+import be.stijnhooft.portal.social.repositories.PersonRepository;
+import be.stijnhooft.portal.social.repositories.ThumbnailJobRepository;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.util.Map;
+
+import static org.apache.commons.lang.StringUtils.abbreviate;
+
+/**
+ * Makes the thumbnails of persons that have been created with {@link ThumbnailProperties.Mode#ASYNCHRONOUS} thumbnails.
+ *
+ * The jobs are stored in the database, so they survive a restart. A job is claimed before it's worked on,
+ * so that multiple instances of this module can share the work. When making the thumbnails fails,
+ * the job is retried later, with an increasing delay, until {@link ThumbnailProperties#getMaxAttempts()} is reached.
+ *
+ * Like {@link PersonService}, not transactional: no database connection is held while waiting for the image module.
+ */
+@Component
+@Slf4j
+public class ThumbnailWorker {
+
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    private final ThumbnailJobRepository thumbnailJobRepository;
+    private final PersonRepository personRepository;
+    private final ImageService imageService;
+    private final SavePersonHelper savePersonHelper;
+    private final PlaceholderService placeholderService;
+    private final ApplicationEventPublisher applicationEventPublisher;
+    private final ThumbnailProperties thumbnailProperties;
+    private final Clock clock;
+
+    @Autowired
+    public ThumbnailWorker(ThumbnailJobRepository thumbnailJobRepository, PersonRepository personRepository, ImageService imageService, SavePersonHelper savePersonHelper, PlaceholderService placeholderService, ApplicationEventPublisher applicationEventPublisher, ThumbnailProperties thumbnailProperties) {
+        this(thumbnailJobRepository, personRepository, imageService, savePersonHelper, placeholderService, applicationEventPublisher, thumbnailProperties, Clock.systemUTC());
+    }
+
+    ThumbnailWorker(ThumbnailJobRepository thumbnailJobRepository, PersonRepository personRepository, ImageService imageService, SavePersonHelper savePersonHelper, PlaceholderService placeholderService, ApplicationEventPublisher applicationEventPublisher, ThumbnailProperties thumbnailProperties, Clock clock) {
+        this.thumbnailJobRepository = thumbnailJobRepository;
+        this.personRepository = personRepository;
+        this.imageService = imageService;
+        this.savePersonHelper = savePersonHelper;
+        this.placeholderService = placeholderService;
+        this.applicationEventPublisher = applicationEventPublisher;
+        this.thumbnailProperties = thumbnailProperties;
+        this.clock = clock;
+    }
+
+    /**
+     * Works on the jobs that are due, one after another.
+     */
+    @Scheduled(fixedDelayString = "${social.thumbnails.poll-interval:PT5S}")
+    public void processDueJobs() {
+        var now = clock.instant();
+        var dueJobIds = thumbnailJobRepository.findDueIds(now, PageRequest.of(0, thumbnailProperties.getBatchSize()));
+        for (Long jobId : dueJobIds) {
+            if (thumbnailJobRepository.claim(jobId, now, now.plus(thumbnailProperties.getClaimDuration())) == 1) {
+                thumbnailJobRepository.findById(jobId)
+                        .ifPresent(this::process);
+            }
+        }
+    }
+
+    void process(@NonNull ThumbnailJob job) {
+        var waitingForThumbnails = personRepository.findById(job.getPersonId())
+                .map(person -> person.getThumbnailStatus() == ThumbnailStatus.PENDING)
+                .orElse(false);
+        if (!waitingForThumbnails) {
+            log.info("Person {} is not waiting for thumbnails anymore, dropping thumbnail job {}", job.getPersonId(), job.getId());
+            thumbnailJobRepository.deleteIfExists(job.getId());
+            return;
+        }
+
+        Map<String, String> thumbnails;
+        try {
+            thumbnails = imageService.createThumbnails(new ByteArrayResource(job.getImage()));
+        } catch (RuntimeException e) {
+            retryLaterOrGiveUp(job, e);
+            return;
+        }
+
+        if (!savePersonHelper.completeThumbnailJob(job, thumbnails, placeholderService.createPlaceholder(thumbnails))) {
+            log.info("Person {} has been deleted or got another image while making its thumbnails, removing them", job.getPersonId());
+            imageService.delete(thumbnails.values());
+            return;
+        }
+        applicationEventPublisher.publishEvent(new ThumbnailsChangedEvent(job.getPersonId()));
+    }
+
+    private void retryLaterOrGiveUp(@NonNull ThumbnailJob job, @NonNull RuntimeException e) {
+        int attempts = job.getAttempts() + 1;
+        if (attempts >= thumbnailProperties.getMaxAttempts()) {
+            log.error("Making the thumbnails of person {} failed {} times, giving up", job.getPersonId(), attempts, e);
+            savePersonHelper.failThumbnailJob(job);
+        } else {
+            var delay = thumbnailProperties.getRetryDelay().multipliedBy(1L << Math.min(attempts - 1, 20));
+            log.warn("Making the thumbnails of person {} failed, trying again in {}", job.getPersonId(), delay, e);
+            thumbnailJobRepository.reschedule(job.getId(), attempts, clock.instant().plus(delay), abbreviate(String.valueOf(e.getMessage()), MAX_ERROR_LENGTH));
+        }
+    }
+
+}
@@ -0,0 +1,13 @@
+package be.stijnhooft.portal.social.services;
+
+import lombok.Value;
+
+/**
+ * Published when a person got other thumbnails, or has been deleted.
+ */
+@Value
+public class ThumbnailsChangedEvent {
+
+    long personId;
+
+}
@@ -0,0 +1,99 @@
+package be.stijnhooft.portal.social;
+
+import be.stijnhooft.portal.social.services.ServiceInstanceResolver;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpHost;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class HttpClientPoolMetricsTest {
+
+    @Mock
+    private DiscoveryClient discoveryClient;
+
+    private PoolingHttpClientConnectionManager connectionManager;
+    private SimpleMeterRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        connectionManager = new PoolingHttpClientConnectionManager();
+        registry = new SimpleMeterRegistry();
+        var serviceInstanceResolver = new ServiceInstanceResolver(discoveryClient, new ServiceDiscoveryProperties(), registry);
+        new HttpClientPoolMetrics(connectionManager, serviceInstanceResolver, List.of("image", "social-recurring-tasks"))
+                .bindTo(registry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        connectionManager.close();
+    }
+
+    @Test
+    void leasedConnectionsAreCountedPerService() throws Exception {
+        // arrange
+        when(discoveryClient.getInstances("image")).thenReturn(List.of(
+                new DefaultServiceInstance("image-1", "image", "image-host-1", 2003, false),
+                new DefaultServiceInstance("image-2", "image", "image-host-2", 2003, false)));
+        when(discoveryClient.getInstances("social-recurring-tasks")).thenReturn(List.of(
+                new DefaultServiceInstance("recurring-tasks-1", "social-recurring-tasks", "recurring-tasks-host", 2011, true)));
+
+        lease("image-host-1", 2003, "http");
+        lease("image-host-2", 2003, "http");
+        lease("recurring-tasks-host", 2011, "https");
+        lease("unknown-host", 80, "http");
+
+        // act
+        double leasedForImage = gauge("http.client.pool.leased", "image");
+        double leasedForRecurringTasks = gauge("http.client.pool.leased", "social-recurring-tasks");
+        double availableForImage = gauge("http.client.pool.available", "image");
+        double pendingForImage = gauge("http.client.pool.pending", "image");
+
+        // assert
+        assertEquals(2, leasedForImage);
+        assertEquals(1, leasedForRecurringTasks);
+        assertEquals(0, availableForImage);
+        assertEquals(0, pendingForImage);
+    }
+
+    @Test
+    void releasedConnectionsAreNoLongerLeased() throws Exception {
+        // arrange
+        when(discoveryClient.getInstances("image")).thenReturn(List.of(
+                new DefaultServiceInstance("image-1", "image", "image-host-1", 2003, false)));
+
+        var connection = lease("image-host-1", 2003, "http");
+        connectionManager.releaseConnection(connection, "state", 1, TimeUnit.MINUTES);
+
+        // act
+        double leased = gauge("http.client.pool.leased", "image");
+
+        // assert
+        assertEquals(0, leased);
+    }
+
+    private HttpClientConnection lease(String host, int port, String scheme) throws Exception {
+        var route = new HttpRoute(new HttpHost(host, port, scheme), null, scheme.equals("https"));
+        return connectionManager.requestConnection(route, null).get(1, TimeUnit.SECONDS);
+    }
+
+    private double gauge(String name, String service) {
+        return registry.get(name).tag("service", service).gauge().value();
+    }
+
+}
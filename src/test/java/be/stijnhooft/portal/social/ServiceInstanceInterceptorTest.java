@@ -0,0 +1,106 @@
+package be.stijnhooft.portal.social;
+
+import be.stijnhooft.portal.social.services.ServiceInstanceResolver;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class ServiceInstanceInterceptorTest {
+
+    @Mock
+    private ServiceInstanceResolver serviceInstanceResolver;
+
+    private HttpServer server;
+    private final AtomicReference<String> receivedBody = new AtomicReference<>();
+    private RestTemplate restTemplate;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/upload", exchange -> {
+            receivedBody.set(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.createContext("/fail", exchange -> {
+            exchange.sendResponseHeaders(500, -1);
+            exchange.close();
+        });
+        server.start();
+
+        var requestFactory = new HttpComponentsClientHttpRequestFactory();
+        requestFactory.setBufferRequestBody(false);
+        restTemplate = new RestTemplate(new ServiceInstanceInterceptor(serviceInstanceResolver).intercept(requestFactory));
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void streamsMultipartUploadAndRecordsSuccess() {
+        // arrange
+        var image = new AbstractResource() {
+            @Override
+            public InputStream getInputStream() {
+                return new ByteArrayInputStream("image-bytes".getBytes(StandardCharsets.UTF_8));
+            }
+
+            @Override
+            public String getFilename() {
+                return "image.jpg";
+            }
+
+            @Override
+            public String getDescription() {
+                return "test image";
+            }
+        };
+        var body = new LinkedMultiValueMap<String, Object>();
+        body.add("image", image);
+        var url = URI.create("http://localhost:" + server.getAddress().getPort() + "/upload");
+
+        // act
+        restTemplate.postForEntity(url, body, Void.class);
+
+        // assert
+        assertTrue(receivedBody.get().contains("image-bytes"));
+        verify(serviceInstanceResolver).record(eq(url), anyLong(), eq(true));
+    }
+
+    @Test
+    void recordsServerErrorAsFailure() {
+        // arrange
+        var url = URI.create("http://localhost:" + server.getAddress().getPort() + "/fail");
+
+        // act
+        assertThrows(HttpServerErrorException.class, () -> restTemplate.getForEntity(url, Void.class));
+
+        // assert
+        verify(serviceInstanceResolver).record(eq(url), anyLong(), eq(false));
+    }
+
+}
@@ -0,0 +1,76 @@
+package be.stijnhooft.portal.social.benchmark;
+
+import be.stijnhooft.portal.social.dtos.RecurringTaskDto;
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
+/**
+ * Helpers shared by the benchmarks.
+ */
+final class Benchmarks {
+
+    private Benchmarks() {
+    }
+
+    /**
+     * Benchmarks run without a Spring context, so logging falls back to debug level.
+     * Logging every request would distort the measurements.
+     */
+    static void quietLogging() {
+        ((Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+    }
+
+    /**
+     * Answers like the recurring tasks module: one recurring task by id, or multiple with ?ids=1,2,3.
+     */
+    static byte[] recurringTasks(HttpExchange exchange, ObjectMapper objectMapper) throws IOException {
+        var query = exchange.getRequestURI().getQuery();
+        if (query != null && query.startsWith("ids=")) {
+            var recurringTasks = Arrays.stream(query.substring("ids=".length()).split(","))
+                    .map(Long::valueOf)
+                    .map(Benchmarks::recurringTask)
+                    .collect(Collectors.toList());
+            return objectMapper.writeValueAsBytes(recurringTasks);
+        } else {
+            var path = exchange.getRequestURI().getPath();
+            var id = Long.valueOf(path.substring(path.lastIndexOf('/') + 1));
+            return objectMapper.writeValueAsBytes(recurringTask(id));
+        }
+    }
+
+    /**
+     * Reads one part of a multipart/form-data request, like the image module does.
+     */
+    static byte[] multipartPart(HttpExchange exchange, String name) throws IOException {
+        var contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        var boundary = ("\r\n--" + contentType.substring(contentType.indexOf("boundary=") + "boundary=".length())).getBytes(StandardCharsets.ISO_8859_1);
+        var body = exchange.getRequestBody().readAllBytes();
+
+        int header = indexOf(body, ("name=\"" + name + "\"").getBytes(StandardCharsets.ISO_8859_1), 0);
+        int start = indexOf(body, "\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1), header) + 4;
+        int end = indexOf(body, boundary, start);
+        return Arrays.copyOfRange(body, start, end);
+    }
+
+    private static int indexOf(byte[] bytes, byte[] sought, int from) {
+        for (int i = from; i <= bytes.length - sought.length; i++) {
+            if (Arrays.equals(bytes, i, i + sought.length, sought, 0, sought.length)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Not found in request: " + new String(sought, StandardCharsets.ISO_8859_1));
+    }
+
+    private static RecurringTaskDto recurringTask(long id) {
+        return new RecurringTaskDto(id, "Person " + id, 7, 14, null);
+    }
+
+}
@@ -0,0 +1,133 @@
+package be.stijnhooft.portal.social.benchmark;
+
+import be.stijnhooft.portal.social.HttpClientConfiguration;
+import be.stijnhooft.portal.social.HttpClientProperties;
+import be.stijnhooft.portal.social.ModuleConfiguration;
+import be.stijnhooft.portal.social.RecurringTasksProperties;
+import be.stijnhooft.portal.social.ServiceDiscoveryProperties;
+import be.stijnhooft.portal.social.services.ReactiveRecurringTasksService;
+import be.stijnhooft.portal.social.services.RecurringTasksService;
+import be.stijnhooft.portal.social.services.ServiceInstanceResolver;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares the throughput of the blocking and the non-blocking client, when a lot of requests
+ * arrive at the same time and the recurring tasks module is slow.
+ *
+ * The web server is simulated with a small pool of threads. The blocking client keeps such a thread
+ * waiting for every request to the recurring tasks module, the non-blocking client does not.
+ * Run with {@code mvn test -Pbenchmark}.
+ */
+@Tag("benchmark")
+class BlockingVersusReactiveBenchmarkTest {
+
+    private static final Duration LATENCY = Duration.ofMillis(100);
+    private static final int SERVER_THREADS = 20;
+    private static final int CONCURRENT_REQUESTS = 200;
+    private static final int REQUESTS = 2000;
+
+    private final ObjectMapper objectMapper = new ModuleConfiguration().objectMapper();
+
+    @BeforeAll
+    static void quietLogging() {
+        Benchmarks.quietLogging();
+    }
+
+    @Test
+    void throughput() throws Exception {
+        var httpClientProperties = new HttpClientProperties();
+        httpClientProperties.setMaxConnectionsPerRoute(CONCURRENT_REQUESTS);
+        httpClientProperties.setMaxConnectionsTotal(CONCURRENT_REQUESTS);
+        httpClientProperties.setConnectionRequestTimeout(Duration.ofSeconds(30));
+        var recurringTasksProperties = new RecurringTasksProperties();
+        var httpClientConfiguration = new HttpClientConfiguration();
+
+        var serverThreads = Executors.newFixedThreadPool(SERVER_THREADS);
+        var recurringTasksExecutor = Executors.newFixedThreadPool(SERVER_THREADS);
+        var connectionManager = httpClientConfiguration.httpClientConnectionManager(httpClientProperties);
+        var connectionProvider = httpClientConfiguration.webClientConnectionProvider(httpClientProperties);
+        try (var stub = LocalStubServer.start(LATENCY).on("/api/recurring-task/", exchange -> Benchmarks.recurringTasks(exchange, objectMapper))) {
+            var serviceInstanceResolver = new ServiceInstanceResolver(stub.discoveryClientFor(RecurringTasksService.SERVICE_ID), new ServiceDiscoveryProperties(), new SimpleMeterRegistry());
+
+            var httpClient = httpClientConfiguration.httpClient(connectionManager, httpClientProperties);
+            var restTemplate = httpClientConfiguration.restTemplate(httpClient, serviceInstanceResolver);
+            var blocking = new RecurringTasksService(restTemplate, serviceInstanceResolver, recurringTasksProperties, recurringTasksExecutor);
+
+            var webClient = httpClientConfiguration.webClient(WebClient.builder(), connectionProvider, httpClientProperties, serviceInstanceResolver);
+            var reactive = new ReactiveRecurringTasksService(webClient, serviceInstanceResolver, recurringTasksProperties);
+
+            // warm up the connection pools and the JIT
+            measureBlocking(blocking, serverThreads, CONCURRENT_REQUESTS);
+            measureReactive(reactive, CONCURRENT_REQUESTS);
+
+            long blockingMillis = measureBlocking(blocking, serverThreads, REQUESTS);
+            long reactiveMillis = measureReactive(reactive, REQUESTS);
+
+            System.out.printf("%n%d requests, %d at the same time, %d server threads, %d ms latency%n", REQUESTS, CONCURRENT_REQUESTS, SERVER_THREADS, LATENCY.toMillis());
+            System.out.printf("%-15s %15s %20s%n", "client", "duration (ms)", "throughput (req/s)");
+            System.out.printf("%-15s %15d %20d%n", "blocking", blockingMillis, REQUESTS * 1000L / blockingMillis);
+            System.out.printf("%-15s %15d %20d%n", "reactive", reactiveMillis, REQUESTS * 1000L / reactiveMillis);
+        } finally {
+            serverThreads.shutdown();
+            recurringTasksExecutor.shutdown();
+            connectionManager.close();
+            connectionProvider.dispose();
+        }
+    }
+
+    /**
+     * Every request occupies a server thread until the recurring tasks module has answered.
+     */
+    private long measureBlocking(RecurringTasksService recurringTasksService, ExecutorService serverThreads, int requests) throws Exception {
+        var found = new AtomicInteger();
+        List<Callable<Object>> tasks = new ArrayList<>();
+        for (long id = 1; id <= requests; id++) {
+            var recurringTaskId = id;
+            tasks.add(() -> found.addAndGet(recurringTasksService.findByIds(List.of(recurringTaskId)).size()));
+        }
+
+        long start = System.nanoTime();
+        for (Future<Object> future : serverThreads.invokeAll(tasks)) {
+            future.get();
+        }
+        long duration = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(requests, found.get());
+        return duration;
+    }
+
+    /**
+     * Requests only need a thread when there's something to do, not while waiting.
+     */
+    private long measureReactive(ReactiveRecurringTasksService reactiveRecurringTasksService, int requests) {
+        long start = System.nanoTime();
+        var found = Flux.range(1, requests)
+                .flatMap(id -> reactiveRecurringTasksService.findByIds(List.of((long) id)), CONCURRENT_REQUESTS)
+                .map(Map::size)
+                .reduce(0, Integer::sum)
+                .block();
+        long duration = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(requests, found);
+        return duration;
+    }
+
+}
@@ -0,0 +1,92 @@
+package be.stijnhooft.portal.social.benchmark;
+
+import be.stijnhooft.portal.social.HttpClientConfiguration;
+import be.stijnhooft.portal.social.HttpClientProperties;
+import be.stijnhooft.portal.social.ServiceDiscoveryProperties;
+import be.stijnhooft.portal.social.ThumbnailProperties;
+import be.stijnhooft.portal.social.services.Base64ImageResource;
+import be.stijnhooft.portal.social.services.RemoteThumbnailBackend;
+import be.stijnhooft.portal.social.services.ServiceInstanceResolver;
+import be.stijnhooft.portal.social.services.ThumbnailProfiles;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/**
+ * Compares the memory that is allocated to send a base64 encoded image to the image module:
+ * decoding it completely up front, like before, against decoding it while it's being sent.
+ *
+ * Measures the bytes allocated by the calling thread, which is where the image is decoded and written.
+ * Both variants use the same streaming http client. Run with {@code mvn test -Pbenchmark}.
+ */
+@Tag("benchmark")
+class ImageUploadAllocationBenchmarkTest {
+
+    private static final int[] IMAGE_SIZES_IN_MB = {1, 5, 10};
+    private static final int RUNS = 5;
+    private static final byte[] THUMBNAILS = "[{\"name\": \"color.jpg\", \"label\": \"thumbnail\"}, {\"name\": \"sepia.jpg\", \"label\": \"sepia\"}]"
+            .getBytes(StandardCharsets.UTF_8);
+
+    @BeforeAll
+    static void quietLogging() {
+        Benchmarks.quietLogging();
+    }
+
+    @Test
+    void allocatedBytesPerUpload() throws Exception {
+        var httpClientProperties = new HttpClientProperties();
+        var httpClientConfiguration = new HttpClientConfiguration();
+        var connectionManager = httpClientConfiguration.httpClientConnectionManager(httpClientProperties);
+        try (var stub = LocalStubServer.start(Duration.ZERO).on("/api/transform/", exchange -> THUMBNAILS)) {
+            var serviceInstanceResolver = new ServiceInstanceResolver(stub.discoveryClientFor(RemoteThumbnailBackend.SERVICE_ID), new ServiceDiscoveryProperties(), new SimpleMeterRegistry());
+            var restTemplate = httpClientConfiguration.restTemplate(httpClientConfiguration.httpClient(connectionManager, httpClientProperties), serviceInstanceResolver);
+            var thumbnailProperties = new ThumbnailProperties();
+            thumbnailProperties.setProfiles(thumbnailProperties.getProfiles().subList(0, 2)); // only the thumbnails the stub answers with
+            var profiles = new ThumbnailProfiles(thumbnailProperties, new ObjectMapper());
+            var remoteThumbnailBackend = new RemoteThumbnailBackend(serviceInstanceResolver, restTemplate, thumbnailProperties, profiles, ForkJoinPool.commonPool());
+
+            Consumer<String> decodeUpFront = dataUrl -> remoteThumbnailBackend.createThumbnails(
+                    new ByteArrayResource(Base64.getDecoder().decode(dataUrl.substring(dataUrl.indexOf(',') + 1))));
+            Consumer<String> decodeWhileSending = dataUrl -> remoteThumbnailBackend.createThumbnails(new Base64ImageResource(dataUrl));
+
+            System.out.printf("%n%-12s %25s %25s%n", "image (MB)", "decoded up front (MB)", "decoded while sent (MB)");
+            for (int imageSizeInMb : IMAGE_SIZES_IN_MB) {
+                var image = new byte[imageSizeInMb * 1024 * 1024];
+                new Random(imageSizeInMb).nextBytes(image);
+                var dataUrl = "data:image/jpeg;base64," + Base64.getEncoder().encodeToString(image);
+
+                long upFront = minimumAllocatedBytes(() -> decodeUpFront.accept(dataUrl));
+                long whileSending = minimumAllocatedBytes(() -> decodeWhileSending.accept(dataUrl));
+
+                System.out.printf("%-12d %25.1f %25.1f%n", imageSizeInMb, upFront / 1024.0 / 1024.0, whileSending / 1024.0 / 1024.0);
+            }
+        } finally {
+            connectionManager.close();
+        }
+    }
+
+    private long minimumAllocatedBytes(Runnable upload) {
+        var threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        long minimum = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long before = threadMXBean.getThreadAllocatedBytes(threadId);
+            upload.run();
+            minimum = Math.min(minimum, threadMXBean.getThreadAllocatedBytes(threadId) - before);
+        }
+        return minimum;
+    }
+
+}
@@ -0,0 +1,93 @@
+package be.stijnhooft.portal.social.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * A local stand-in for a downstream microservice, answering every request after a fixed latency.
+ * Used by the benchmarks, so that they measure our side of the communication and not the network.
+ */
+class LocalStubServer implements AutoCloseable {
+
+    /**
+     * Produces the JSON body of the response.
+     */
+    @FunctionalInterface
+    interface Handler {
+        byte[] handle(HttpExchange exchange) throws IOException;
+    }
+
+    static {
+        // without this, Nagle's algorithm adds ~40ms to every small response
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Duration latency;
+
+    private LocalStubServer(Duration latency) throws IOException {
+        this.latency = latency;
+        this.executor = Executors.newCachedThreadPool();
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 1024); // room for a burst of concurrent connections
+        this.server.setExecutor(executor);
+        this.server.start();
+    }
+
+    static LocalStubServer start(Duration latency) throws IOException {
+        return new LocalStubServer(latency);
+    }
+
+    LocalStubServer on(String path, Handler handler) {
+        server.createContext(path, exchange -> {
+            try {
+                Thread.sleep(latency.toMillis());
+
+                var body = handler.handle(exchange);
+                exchange.getRequestBody().transferTo(OutputStream.nullOutputStream());
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length == 0 ? -1 : body.length);
+                exchange.getResponseBody().write(body);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        });
+        return this;
+    }
+
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return a discovery client that knows this stub as the only instance of the given service
+     */
+    DiscoveryClient discoveryClientFor(String serviceId) {
+        var discoveryClient = mock(DiscoveryClient.class);
+        when(discoveryClient.getInstances(serviceId))
+                .thenReturn(List.of(new DefaultServiceInstance(serviceId + "-stub", serviceId, "localhost", getPort(), false)));
+        return discoveryClient;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+}
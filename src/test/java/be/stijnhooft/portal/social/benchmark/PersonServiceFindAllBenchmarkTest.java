@@ -0,0 +1,100 @@
+package be.stijnhooft.portal.social.benchmark;
+
+import be.stijnhooft.portal.social.ModuleConfiguration;
+import be.stijnhooft.portal.social.RecurringTasksProperties;
+import be.stijnhooft.portal.social.ServiceDiscoveryProperties;
+import be.stijnhooft.portal.social.ThumbnailProperties;
+import be.stijnhooft.portal.social.mappers.PersonMapper;
+import be.stijnhooft.portal.social.mappers.RecurringTaskDtoMapper;
+import be.stijnhooft.portal.social.mappers.RecurringTaskProjectionMapper;
+import be.stijnhooft.portal.social.model.Person;
+import be.stijnhooft.portal.social.repositories.PersonRepository;
+import be.stijnhooft.portal.social.repositories.RecurringTaskProjectionRepository;
+import be.stijnhooft.portal.social.services.ImageService;
+import be.stijnhooft.portal.social.services.PersonService;
+import be.stijnhooft.portal.social.services.RecurringTaskProjectionService;
+import be.stijnhooft.portal.social.services.RecurringTasksService;
+import be.stijnhooft.portal.social.services.SagaExecutor;
+import be.stijnhooft.portal.social.services.SavePersonHelper;
+import be.stijnhooft.portal.social.services.PlaceholderService;
+import be.stijnhooft.portal.social.services.ServiceInstanceResolver;
+import be.stijnhooft.portal.social.services.ThumbnailProfiles;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Compares listing all persons with one request per person against listing them with batched requests,
+ * for a growing number of persons. Run with {@code mvn test -Pbenchmark}.
+ */
+@Tag("benchmark")
+class PersonServiceFindAllBenchmarkTest {
+
+    private static final Duration LATENCY = Duration.ofMillis(2);
+    private static final int[] NUMBER_OF_PERSONS = {10, 100, 500, 2000};
+
+    private final ObjectMapper objectMapper = new ModuleConfiguration().objectMapper();
+
+    @BeforeAll
+    static void quietLogging() {
+        Benchmarks.quietLogging();
+    }
+
+    @Test
+    void findAll() throws IOException {
+        var executor = Executors.newFixedThreadPool(new RecurringTasksProperties().getConcurrency());
+        try (var stub = LocalStubServer.start(LATENCY).on("/api/recurring-task/", exchange -> Benchmarks.recurringTasks(exchange, objectMapper))) {
+            var recurringTasksProperties = new RecurringTasksProperties();
+            var recurringTasksService = new RecurringTasksService(new RestTemplate(), new ServiceInstanceResolver(stub.discoveryClientFor(RecurringTasksService.SERVICE_ID), new ServiceDiscoveryProperties(), new SimpleMeterRegistry()), recurringTasksProperties, executor);
+            // an empty local projection, so that every recurring task has to be retrieved from the stub
+            var recurringTaskProjectionService = new RecurringTaskProjectionService(mock(RecurringTaskProjectionRepository.class), new RecurringTaskProjectionMapper(), recurringTasksService);
+            var personRepository = mock(PersonRepository.class);
+            var personService = new PersonService(recurringTasksService, recurringTaskProjectionService, mock(ImageService.class), personRepository, new PersonMapper(), new RecurringTaskDtoMapper(), mock(SavePersonHelper.class), recurringTasksProperties, new ThumbnailProperties(), new ThumbnailProfiles(new ThumbnailProperties(), objectMapper), mock(PlaceholderService.class), mock(ApplicationEventPublisher.class), mock(SagaExecutor.class));
+
+            System.out.printf("%n%-10s %20s %20s%n", "persons", "one by one (ms)", "batched (ms)");
+            for (int numberOfPersons : NUMBER_OF_PERSONS) {
+                var persons = createPersons(numberOfPersons);
+                when(personRepository.findAll()).thenReturn(persons);
+
+                long start = System.nanoTime();
+                persons.forEach(person -> recurringTasksService.findById(person.getRecurringTaskId()));
+                long oneByOne = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                var result = personService.findAll();
+                long batched = System.nanoTime() - start;
+
+                assertEquals(numberOfPersons, result.size());
+                System.out.printf("%-10d %20d %20d%n", numberOfPersons, oneByOne / 1_000_000, batched / 1_000_000);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private List<Person> createPersons(int numberOfPersons) {
+        return LongStream.rangeClosed(1, numberOfPersons)
+                .mapToObj(id -> Person.builder()
+                        .id(id)
+                        .name("Person " + id)
+                        .recurringTaskId(id)
+                        .build())
+                .collect(Collectors.toList());
+    }
+
+}
@@ -0,0 +1,91 @@
+package be.stijnhooft.portal.social.benchmark;
+
+import be.stijnhooft.portal.social.PersistenceProperties;
+import be.stijnhooft.portal.social.model.Person;
+import be.stijnhooft.portal.social.repositories.PersonRepository;
+import be.stijnhooft.portal.social.services.Saga;
+import be.stijnhooft.portal.social.services.SavePersonHelper;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares the number of persons that are inserted per second, for a growing JDBC batch size.
+ * A batch size of 1 sends every insert on its own.
+ *
+ * Runs against HSQLDB, in memory, where a round trip costs next to nothing; against Postgres the difference is larger.
+ * To run it against a local Postgres, pass its spring.datasource.url, username and password,
+ * and spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.PostgreSQLDialect.
+ * Run with {@code mvn test -Pbenchmark}.
+ */
+@Tag("benchmark")
+@SpringBootTest(properties = {
+        "spring.jpa.show-sql=false",
+        "logging.level.root=WARN",
+        "logging.level.org.hibernate.engine.jdbc.spi.SqlExceptionHelper=ERROR" // HSQLDB warns about deletes that delete nothing
+})
+@ActiveProfiles("test")
+class SavePersonBatchBenchmarkTest {
+
+    private static final int[] BATCH_SIZES = {1, 50, 500};
+    private static final int NUMBER_OF_PERSONS = 5000;
+    private static final int RUNS = 5;
+
+    @Autowired
+    private SavePersonHelper savePersonHelper;
+
+    @Autowired
+    private PersonRepository personRepository;
+
+    @Autowired
+    private PersistenceProperties persistenceProperties;
+
+    @Test
+    void insertsPerSecond() {
+        var originalBatchSize = persistenceProperties.getBatchSize();
+        try {
+            save(BATCH_SIZES[BATCH_SIZES.length - 1]); // warm up
+
+            System.out.printf("%n%-12s %20s%n", "batch size", "inserts per second");
+            for (int batchSize : BATCH_SIZES) {
+                long fastest = Long.MAX_VALUE;
+                for (int run = 0; run < RUNS; run++) {
+                    fastest = Math.min(fastest, save(batchSize));
+                }
+                System.out.printf("%-12d %20.0f%n", batchSize, NUMBER_OF_PERSONS / (fastest / 1_000_000_000.0));
+            }
+        } finally {
+            persistenceProperties.setBatchSize(originalBatchSize);
+        }
+    }
+
+    /**
+     * @return how long saving took, in nanoseconds
+     */
+    private long save(int batchSize) {
+        persistenceProperties.setBatchSize(batchSize);
+        List<SavePersonHelper.NewPerson> newPersons = IntStream.range(0, NUMBER_OF_PERSONS)
+                .mapToObj(i -> new SavePersonHelper.NewPerson(Person.builder()
+                        .name("Person " + i)
+                        .recurringTaskId((long) i)
+                        .build(), null, new Saga()))
+                .collect(Collectors.toList());
+
+        long start = System.nanoTime();
+        savePersonHelper.saveAllAndCommit(newPersons);
+        long duration = System.nanoTime() - start;
+
+        assertEquals(NUMBER_OF_PERSONS, personRepository.count());
+        personRepository.deleteAllInBatch();
+        return duration;
+    }
+
+}
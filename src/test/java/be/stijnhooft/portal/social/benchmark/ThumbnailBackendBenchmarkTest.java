@@ -0,0 +1,180 @@
+package be.stijnhooft.portal.social.benchmark;
+
+import be.stijnhooft.portal.model.image.ImageDto;
+import be.stijnhooft.portal.social.HttpClientConfiguration;
+import be.stijnhooft.portal.social.HttpClientProperties;
+import be.stijnhooft.portal.social.ModuleConfiguration;
+import be.stijnhooft.portal.social.ServiceDiscoveryProperties;
+import be.stijnhooft.portal.social.ThumbnailProperties;
+import be.stijnhooft.portal.social.services.FileSystemBlobStore;
+import be.stijnhooft.portal.social.services.LocalThumbnailBackend;
+import be.stijnhooft.portal.social.services.RemoteThumbnailBackend;
+import be.stijnhooft.portal.social.services.ServiceInstanceResolver;
+import be.stijnhooft.portal.social.services.ThumbnailBackend;
+import be.stijnhooft.portal.social.services.ThumbnailProfiles;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.ByteArrayResource;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Compares making thumbnails in this module with letting the image module make them.
+ *
+ * The image module is simulated by a local stub that makes the thumbnails with the same code as the local backend,
+ * so the difference is the cost of the round trip: uploading the image, and the http handling on both sides.
+ * The stub runs on the loopback interface, so a real network only makes the remote backend slower.
+ * Run with {@code mvn test -Pbenchmark}.
+ */
+@Tag("benchmark")
+class ThumbnailBackendBenchmarkTest {
+
+    private static final int CALLERS = 4;
+    private static final int WARM_UP_REQUESTS = 20;
+    private static final int REQUESTS = 100;
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+    private final ObjectMapper objectMapper = new ModuleConfiguration().objectMapper();
+    private final ThumbnailProfiles profiles = new ThumbnailProfiles(new ThumbnailProperties(), objectMapper);
+
+    @TempDir
+    Path directory;
+
+    @BeforeAll
+    static void quietLogging() {
+        Benchmarks.quietLogging();
+    }
+
+    @Test
+    void throughputAndLatency() throws Exception {
+        var image = new ByteArrayResource(photo(1600, 1200));
+
+        var httpClientProperties = new HttpClientProperties();
+        var httpClientConfiguration = new HttpClientConfiguration();
+        var connectionManager = httpClientConfiguration.httpClientConnectionManager(httpClientProperties);
+        var callers = Executors.newFixedThreadPool(CALLERS);
+        var localExecutor = Executors.newFixedThreadPool(THREADS);
+        var stubExecutor = Executors.newFixedThreadPool(THREADS);
+
+        var local = new LocalThumbnailBackend(blobStore("local"), profiles, localExecutor);
+        var imageModule = new LocalThumbnailBackend(blobStore("remote"), profiles, stubExecutor);
+        try (var stub = LocalStubServer.start(Duration.ZERO).on("/api/transform/", exchange -> {
+            var thumbnails = imageModule.createThumbnails(new ByteArrayResource(Benchmarks.multipartPart(exchange, "image")));
+            return objectMapper.writeValueAsBytes(thumbnails.entrySet()
+                    .stream()
+                    .map(thumbnail -> new ImageDto(thumbnail.getValue(), thumbnail.getKey()))
+                    .collect(Collectors.toList()));
+        })) {
+            var serviceInstanceResolver = new ServiceInstanceResolver(stub.discoveryClientFor(RemoteThumbnailBackend.SERVICE_ID), new ServiceDiscoveryProperties(), new SimpleMeterRegistry());
+            var restTemplate = httpClientConfiguration.restTemplate(httpClientConfiguration.httpClient(connectionManager, httpClientProperties), serviceInstanceResolver);
+            var remote = new RemoteThumbnailBackend(serviceInstanceResolver, restTemplate, new ThumbnailProperties(), profiles, ForkJoinPool.commonPool());
+
+            // warm up the JIT and the connection pool
+            measure(local, image, callers, WARM_UP_REQUESTS);
+            measure(remote, image, callers, WARM_UP_REQUESTS);
+
+            var localResult = measure(local, image, callers, REQUESTS);
+            var remoteResult = measure(remote, image, callers, REQUESTS);
+
+            System.out.printf("%n%d thumbnails of a %d KB image, %d at the same time, %d threads%n", REQUESTS, image.contentLength() / 1024, CALLERS, THREADS);
+            System.out.printf("%-10s %20s %15s %15s%n", "backend", "throughput (img/s)", "p50 (ms)", "p99 (ms)");
+            localResult.print("local");
+            remoteResult.print("remote");
+        } finally {
+            callers.shutdown();
+            localExecutor.shutdown();
+            stubExecutor.shutdown();
+            connectionManager.close();
+        }
+    }
+
+    private Result measure(ThumbnailBackend backend, ByteArrayResource image, ExecutorService callers, int requests) throws Exception {
+        List<Callable<Long>> tasks = new ArrayList<>();
+        for (int i = 0; i < requests; i++) {
+            tasks.add(() -> {
+                long start = System.nanoTime();
+                var thumbnails = backend.createThumbnails(image);
+                assertEquals(profiles.getProfiles().size(), thumbnails.size());
+                return System.nanoTime() - start;
+            });
+        }
+
+        long start = System.nanoTime();
+        long[] latencies = new long[requests];
+        var futures = callers.invokeAll(tasks);
+        for (int i = 0; i < requests; i++) {
+            Future<Long> future = futures.get(i);
+            latencies[i] = future.get();
+        }
+        return new Result(requests, System.nanoTime() - start, latencies);
+    }
+
+    private FileSystemBlobStore blobStore(String subdirectory) {
+        var thumbnailProperties = new ThumbnailProperties();
+        thumbnailProperties.setDirectory(directory.resolve(subdirectory));
+        return new FileSystemBlobStore(thumbnailProperties);
+    }
+
+    /**
+     * Noise does not compress well, so the image is about as big as a photo of the same size.
+     */
+    private static byte[] photo(int width, int height) throws Exception {
+        var random = new Random(42);
+        var image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, (x * 255 / width) << 16 | (y * 255 / height) << 8 | random.nextInt(256));
+            }
+        }
+        var content = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", content);
+        return content.toByteArray();
+    }
+
+    private static class Result {
+
+        private final int requests;
+        private final long durationNanos;
+        private final long[] latencies;
+
+        Result(int requests, long durationNanos, long[] latencies) {
+            this.requests = requests;
+            this.durationNanos = durationNanos;
+            this.latencies = latencies.clone();
+            Arrays.sort(this.latencies);
+        }
+
+        void print(String backend) {
+            System.out.printf("%-10s %20.1f %15.1f %15.1f%n", backend,
+                    requests * 1e9 / durationNanos,
+                    percentile(0.50) / 1e6,
+                    percentile(0.99) / 1e6);
+        }
+
+        private long percentile(double percentile) {
+            return latencies[Math.min(latencies.length - 1, (int) Math.ceil(percentile * latencies.length) - 1)];
+        }
+
+    }
+
+}
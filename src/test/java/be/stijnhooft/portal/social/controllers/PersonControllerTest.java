@@ -0,0 +1,226 @@
+package be.stijnhooft.portal.social.controllers;
+
+import be.stijnhooft.portal.social.HttpClientProperties;
+import be.stijnhooft.portal.social.dtos.PersonDto;
+import be.stijnhooft.portal.social.services.ContactSheetService;
+import be.stijnhooft.portal.social.services.IdempotencyService;
+import be.stijnhooft.portal.social.services.PersonImportService;
+import be.stijnhooft.portal.social.services.PersonService;
+import be.stijnhooft.portal.social.services.ReactivePersonService;
+import be.stijnhooft.portal.social.services.ThumbnailCache;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.ResourceHttpMessageConverter;
+import org.springframework.http.converter.ResourceRegionHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@ExtendWith(MockitoExtension.class)
+class PersonControllerTest {
+
+    @Mock
+    private PersonService personService;
+
+    @Mock
+    private ReactivePersonService reactivePersonService;
+
+    @Mock
+    private ThumbnailCache thumbnailCache;
+
+    @Mock
+    private ContactSheetService contactSheetService;
+
+    @Mock
+    private PersonImportService personImportService;
+
+    @Mock
+    private IdempotencyService idempotencyService;
+
+    @TempDir
+    Path directory;
+
+    private ObjectMapper objectMapper;
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        objectMapper = Jackson2ObjectMapperBuilder.json()
+                .modulesToInstall(new ParameterNamesModule(JsonCreator.Mode.DEFAULT)) // like Spring Boot does
+                .build();
+        mockMvc = MockMvcBuilders.standaloneSetup(new PersonController(personService, reactivePersonService, new HttpClientProperties(),
+                        objectMapper, thumbnailCache, contactSheetService, personImportService, idempotencyService))
+                .setMessageConverters(new ResourceHttpMessageConverter(), new ResourceRegionHttpMessageConverter(), new MappingJackson2HttpMessageConverter(objectMapper))
+                .build();
+    }
+
+    @Test
+    void createWithImageFingerprintsThePersonAndTheHashOfTheImage() throws Exception {
+        // arrange
+        var person = PersonDto.builder()
+                .name("Stijn")
+                .minNumberOfDaysBetweenContacts(1)
+                .maxNumberOfDaysBetweenContacts(5)
+                .build();
+        var image = "image".getBytes(StandardCharsets.UTF_8);
+        when(idempotencyService.execute(eq("key"), eq("create person with image"), any(), eq(PersonDto.class), any()))
+                .thenAnswer(invocation -> invocation.<Supplier<PersonDto>>getArgument(4).get());
+        when(personService.create(eq(person), any())).thenReturn(PersonDto.builder().id(1L).name("Stijn").build());
+
+        // act
+        mockMvc.perform(multipart("/api/person/")
+                        .file(new MockMultipartFile("person", "", MediaType.APPLICATION_JSON_VALUE, objectMapper.writeValueAsBytes(person)))
+                        .file(new MockMultipartFile("image", "stijn.jpg", MediaType.IMAGE_JPEG_VALUE, image))
+                        .header(PersonController.IDEMPOTENCY_KEY, "key"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id").value(1));
+
+        // assert
+        var request = ArgumentCaptor.forClass(Object.class);
+        verify(idempotencyService).execute(eq("key"), eq("create person with image"), request.capture(), eq(PersonDto.class), any());
+        assertEquals(new PersonController.PersonWithImage(person, DigestUtils.sha256Hex(image)), request.getValue());
+        verify(personService).create(eq(person), any());
+    }
+
+    @Test
+    void createWithImageWhenAnotherImageIsSentWithTheSameKey() throws Exception {
+        // arrange
+        var person = PersonDto.builder()
+                .name("Stijn")
+                .minNumberOfDaysBetweenContacts(1)
+                .maxNumberOfDaysBetweenContacts(5)
+                .build();
+        var personPart = new MockMultipartFile("person", "", MediaType.APPLICATION_JSON_VALUE, objectMapper.writeValueAsBytes(person));
+        when(idempotencyService.execute(eq("key"), eq("create person with image"), any(), eq(PersonDto.class), any()))
+                .thenReturn(PersonDto.builder().id(1L).name("Stijn").build());
+
+        // act
+        mockMvc.perform(multipart("/api/person/")
+                        .file(personPart)
+                        .file(new MockMultipartFile("image", "stijn.jpg", MediaType.IMAGE_JPEG_VALUE, new byte[]{1}))
+                        .header(PersonController.IDEMPOTENCY_KEY, "key"))
+                .andExpect(status().isOk());
+        mockMvc.perform(multipart("/api/person/")
+                        .file(personPart)
+                        .file(new MockMultipartFile("image", "stijn.jpg", MediaType.IMAGE_JPEG_VALUE, new byte[]{2}))
+                        .header(PersonController.IDEMPOTENCY_KEY, "key"))
+                .andExpect(status().isOk());
+
+        // assert
+        var request = ArgumentCaptor.forClass(Object.class);
+        verify(idempotencyService, times(2)).execute(eq("key"), eq("create person with image"), request.capture(), eq(PersonDto.class), any());
+        assertNotEquals(request.getAllValues().get(0), request.getAllValues().get(1));
+        verifyNoInteractions(personService);
+    }
+
+    @Test
+    void findThumbnailWithTheCurrentName() throws Exception {
+        // arrange
+        Files.writeString(directory.resolve("color.jpg"), "thumbnail");
+        when(personService.findThumbnailName(1L, "thumbnail")).thenReturn(Optional.of("color.jpg"));
+        when(thumbnailCache.find("color.jpg")).thenReturn(Optional.of(directory.resolve("color.jpg")));
+
+        // act and assert
+        mockMvc.perform(get("/api/person/1/thumbnail/thumbnail").param("name", "color.jpg"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.IMAGE_JPEG))
+                .andExpect(content().string("thumbnail"))
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, 9))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"color.jpg\""))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "max-age=31536000, public, immutable"));
+    }
+
+    @Test
+    void findThumbnailWithoutName() throws Exception {
+        // arrange
+        Files.writeString(directory.resolve("color.jpg"), "thumbnail");
+        when(personService.findThumbnailName(1L, "thumbnail")).thenReturn(Optional.of("color.jpg"));
+        when(thumbnailCache.find("color.jpg")).thenReturn(Optional.of(directory.resolve("color.jpg")));
+
+        // act and assert
+        mockMvc.perform(get("/api/person/1/thumbnail/thumbnail"))
+                .andExpect(status().isOk())
+                .andExpect(content().string("thumbnail"))
+                .andExpect(header().string(HttpHeaders.ETAG, "\"color.jpg\""))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "no-cache"));
+    }
+
+    @Test
+    void findThumbnailWithARange() throws Exception {
+        // arrange
+        Files.writeString(directory.resolve("color.jpg"), "thumbnail");
+        when(personService.findThumbnailName(1L, "thumbnail")).thenReturn(Optional.of("color.jpg"));
+        when(thumbnailCache.find("color.jpg")).thenReturn(Optional.of(directory.resolve("color.jpg")));
+
+        // act and assert
+        mockMvc.perform(get("/api/person/1/thumbnail/thumbnail").header(HttpHeaders.RANGE, "bytes=0-4"))
+                .andExpect(status().isPartialContent())
+                .andExpect(content().string("thumb"));
+    }
+
+    @Test
+    void findThumbnailWhenNotModified() throws Exception {
+        // arrange
+        when(personService.findThumbnailName(1L, "thumbnail")).thenReturn(Optional.of("color.jpg"));
+
+        // act and assert
+        mockMvc.perform(get("/api/person/1/thumbnail/thumbnail").header(HttpHeaders.IF_NONE_MATCH, "\"color.jpg\""))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"color.jpg\""))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "no-cache"))
+                .andExpect(content().bytes(new byte[0]));
+        verifyNoInteractions(thumbnailCache);
+    }
+
+    @Test
+    void findThumbnailWhenTheNameIsNotTheCurrentOne() throws Exception {
+        // arrange
+        when(personService.findThumbnailName(1L, "thumbnail")).thenReturn(Optional.of("color.jpg"));
+
+        // act and assert
+        mockMvc.perform(get("/api/person/1/thumbnail/thumbnail").param("name", "previous.jpg"))
+                .andExpect(status().isNotFound());
+        verifyNoInteractions(thumbnailCache);
+    }
+
+    @Test
+    void findThumbnailWhenNotInTheCache() throws Exception {
+        // arrange
+        when(personService.findThumbnailName(1L, "thumbnail")).thenReturn(Optional.of("color.jpg"));
+        when(thumbnailCache.find("color.jpg")).thenReturn(Optional.empty());
+
+        // act and assert
+        mockMvc.perform(get("/api/person/1/thumbnail/thumbnail"))
+                .andExpect(status().isNotFound());
+    }
+
+}
@@ -11,6 +11,7 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import java.time.LocalDate;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 @ExtendWith(MockitoExtension.class)
@@ -59,6 +60,29 @@ class PersonMapperTest {
         assertEquals(latestUpdates, result.getLatestUpdates());
     }
 
+    @Test
+    public void mapToDtoWithoutRecurringTask() {
+        var person = Person.builder()
+                .id(1L)
+                .name("Stijn")
+                .colorThumbnail("my_image.png")
+                .sepiaThumbnail("sepia.png")
+                .recurringTaskId(2L)
+                .latestUpdates("hallo")
+                .build();
+
+        var result = personMapper.mapToDto(person);
+
+        assertEquals(1L, result.getId());
+        assertEquals("Stijn", result.getName());
+        assertEquals("my_image.png", result.getColorThumbnail());
+        assertEquals("sepia.png", result.getSepiaThumbnail());
+        assertEquals("hallo", result.getLatestUpdates());
+        assertNull(result.getMinNumberOfDaysBetweenContacts());
+        assertNull(result.getMaxNumberOfDaysBetweenContacts());
+        assertNull(result.getLastContact());
+    }
+
     @Test
     public void mapToDtoWhenPersonIsNull() {
         var recurringTask = RecurringTaskDto.builder()
@@ -0,0 +1,105 @@
+package be.stijnhooft.portal.social.services;
+
+import be.stijnhooft.portal.social.dtos.ImageLabel;
+import be.stijnhooft.portal.social.dtos.PersonDto;
+import be.stijnhooft.portal.social.dtos.RecurringTaskDto;
+import be.stijnhooft.portal.social.dtos.ThumbnailStatus;
+import be.stijnhooft.portal.social.repositories.PersonRepository;
+import be.stijnhooft.portal.social.repositories.ThumbnailJobRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Verifies that a person is created before its thumbnails are made,
+ * and that the queued image survives in the database until the worker has made the thumbnails.
+ */
+@SpringBootTest(properties = {
+        "social.thumbnails.mode=ASYNCHRONOUS",
+        "social.thumbnails.poll-interval=PT1H", // the test calls the worker itself
+        "social.thumbnails.retry-delay=0s"
+})
+@ActiveProfiles("test")
+class AsynchronousThumbnailsTest {
+
+    @Autowired
+    private PersonService personService;
+
+    @Autowired
+    private ThumbnailWorker thumbnailWorker;
+
+    @Autowired
+    private PersonRepository personRepository;
+
+    @Autowired
+    private ThumbnailJobRepository thumbnailJobRepository;
+
+    @MockBean
+    private ImageService imageService;
+
+    @MockBean
+    private RecurringTasksService recurringTasksService;
+
+    @BeforeEach
+    void mockRecurringTasksModule() {
+        when(recurringTasksService.create(any())).thenAnswer(invocation -> {
+            RecurringTaskDto recurringTask = invocation.getArgument(0);
+            return recurringTask.toBuilder().id(recurringTask.getName().hashCode() & 0xffffL).build();
+        });
+    }
+
+    @Test
+    void createDoesNotWaitForTheThumbnails() throws Exception {
+        // arrange
+        HashMap<String, String> thumbnails = new HashMap<>(Map.of(ImageLabel.COLOR_THUMBNAIL.getValue(), "color.jpg", ImageLabel.SEPIA_THUMBNAIL.getValue(), "sepia.jpg"));
+        when(imageService.createThumbnails(any(Resource.class)))
+                .thenThrow(new RuntimeException("image module is down"))
+                .thenAnswer(invocation -> {
+                    Resource image = invocation.getArgument(0);
+                    assertArrayEquals(new byte[] {1, 2, 3}, image.getInputStream().readAllBytes());
+                    return thumbnails;
+                });
+
+        // act: create
+        var createdPerson = personService.create(personDto("Asynchronous thumbnails"), new ByteArrayResource(new byte[] {1, 2, 3}));
+
+        // assert: created without thumbnails
+        assertEquals(ThumbnailStatus.PENDING, createdPerson.getThumbnailStatus());
+        assertNull(createdPerson.getColorThumbnail());
+        verify(imageService, never()).createThumbnails(any(Resource.class));
+
+        // act: the first attempt fails, the second succeeds
+        thumbnailWorker.processDueJobs();
+        assertEquals(ThumbnailStatus.PENDING, personRepository.findById(createdPerson.getId()).orElseThrow().getThumbnailStatus());
+        thumbnailWorker.processDueJobs();
+
+        // assert: the thumbnails are filled in and the job is gone
+        var person = personRepository.findById(createdPerson.getId()).orElseThrow();
+        assertEquals(ThumbnailStatus.READY, person.getThumbnailStatus());
+        assertEquals("color.jpg", person.getColorThumbnail());
+        assertEquals("sepia.jpg", person.getSepiaThumbnail());
+        assertEquals(0, thumbnailJobRepository.count());
+        verify(imageService, times(2)).createThumbnails(any(Resource.class));
+    }
+
+    private PersonDto personDto(String name) {
+        return PersonDto.builder()
+                .name(name)
+                .minNumberOfDaysBetweenContacts(10)
+                .maxNumberOfDaysBetweenContacts(20)
+                .build();
+    }
+
+}
@@ -0,0 +1,77 @@
+package be.stijnhooft.portal.social.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Base64ImageResourceTest {
+
+    @Test
+    void decodesDataUrl() throws IOException {
+        for (int size = 0; size < 20; size++) {
+            // arrange
+            var image = randomBytes(size);
+            var dataUrl = "data:image/jpeg;base64," + Base64.getEncoder().encodeToString(image);
+
+            // act
+            var resource = new Base64ImageResource(dataUrl);
+
+            // assert
+            assertArrayEquals(image, resource.getInputStream().readAllBytes());
+            assertEquals(size, resource.contentLength());
+        }
+    }
+
+    @Test
+    void decodesWithoutDataUrlPrefixAndWithoutPadding() throws IOException {
+        for (int size = 0; size < 20; size++) {
+            // arrange
+            var image = randomBytes(size);
+            var content = Base64.getEncoder().withoutPadding().encodeToString(image);
+
+            // act
+            var resource = new Base64ImageResource(content);
+
+            // assert
+            assertArrayEquals(image, resource.getInputStream().readAllBytes());
+            assertEquals(size, resource.contentLength());
+        }
+    }
+
+    @Test
+    void decodesLargeImage() throws IOException {
+        // arrange
+        var image = randomBytes(1_000_003);
+        var dataUrl = "data:image/png;base64," + Base64.getEncoder().encodeToString(image);
+
+        // act
+        var resource = new Base64ImageResource(dataUrl);
+
+        // assert
+        assertArrayEquals(image, resource.getInputStream().readAllBytes());
+        assertArrayEquals(image, resource.getInputStream().readAllBytes()); // can be read more than once
+        assertEquals(image.length, resource.contentLength());
+    }
+
+    @Test
+    void rejectsIllegalCharacters() {
+        assertThrows(IllegalArgumentException.class, () -> new Base64ImageResource("data:image/jpeg;base64,ab$d"));
+    }
+
+    @Test
+    void rejectsIllegalLength() {
+        assertThrows(IllegalArgumentException.class, () -> new Base64ImageResource("data:image/jpeg;base64,abcde"));
+        assertThrows(IllegalArgumentException.class, () -> new Base64ImageResource("data:image/jpeg;base64,abc=="));
+    }
+
+    private byte[] randomBytes(int size) {
+        var bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+}
@@ -0,0 +1,237 @@
+package be.stijnhooft.portal.social.services;
+
+import be.stijnhooft.portal.social.ThumbnailProperties;
+import be.stijnhooft.portal.social.dtos.ContactSheetDto;
+import be.stijnhooft.portal.social.model.Person;
+import be.stijnhooft.portal.social.repositories.PersonRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ContactSheetServiceTest {
+
+    @Mock
+    private PersonRepository personRepository;
+
+    @Mock
+    private ThumbnailBackend thumbnailBackend;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    private ContactSheetService contactSheetService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        var thumbnailProperties = new ThumbnailProperties();
+        thumbnailProperties.setContactSheetTileSize(16);
+        thumbnailProperties.setContactSheetColumns(2);
+        contactSheetService = new ContactSheetService(personRepository, thumbnailBackend, new ThumbnailProfiles(thumbnailProperties, new ObjectMapper()), thumbnailProperties, executor);
+
+        thumbnailExists("red.jpg", Color.RED);
+        thumbnailExists("green.jpg", Color.GREEN);
+        thumbnailExists("blue.jpg", Color.BLUE);
+        thumbnailExists("gray.jpg", Color.GRAY);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void getDrawsTheThumbnailsOfEveryPerson() throws IOException {
+        // arrange
+        var pending = Person.builder().id(3L).name("Pending").build();
+        when(personRepository.findAll()).thenReturn(List.of(person(1L, "red.jpg"), person(2L, "green.jpg"), pending));
+
+        // act
+        var contactSheet = contactSheetService.get();
+
+        // assert
+        var description = contactSheet.getDescription();
+        assertEquals(16, description.getTileSize());
+        assertEquals(64, description.getWidth());
+        assertEquals(16, description.getHeight());
+        assertEquals(Map.of(
+                1L, new ContactSheetDto.Tiles(0, 0, 16, 0),
+                2L, new ContactSheetDto.Tiles(32, 0, 48, 0)), description.getTiles());
+
+        var image = ImageIO.read(new ByteArrayInputStream(contactSheet.getImage()));
+        assertEquals(64, image.getWidth());
+        assertEquals(16, image.getHeight());
+        assertColor(Color.RED, image, 8, 8);
+        assertColor(Color.GRAY, image, 24, 8);
+        assertColor(Color.GREEN, image, 40, 8);
+        assertColor(Color.GRAY, image, 56, 8);
+    }
+
+    @Test
+    void getOnlyDrawsThePersonsOfWhichTheThumbnailsChanged() throws IOException {
+        // arrange
+        when(personRepository.findAll()).thenReturn(List.of(person(1L, "red.jpg"), person(2L, "green.jpg")));
+        var original = contactSheetService.get();
+
+        when(personRepository.findById(1L)).thenReturn(Optional.of(person(1L, "red.jpg")));
+        when(personRepository.findById(2L)).thenReturn(Optional.of(person(2L, "blue.jpg")));
+
+        // act
+        contactSheetService.onThumbnailsChanged(new ThumbnailsChangedEvent(1L)); // nothing changed after all
+        contactSheetService.onThumbnailsChanged(new ThumbnailsChangedEvent(2L));
+        var updated = contactSheetService.get();
+
+        // assert
+        assertNotEquals(original.getDescription().getVersion(), updated.getDescription().getVersion());
+        assertEquals(original.getDescription().getTiles(), updated.getDescription().getTiles());
+        var image = ImageIO.read(new ByteArrayInputStream(updated.getImage()));
+        assertColor(Color.RED, image, 8, 8);
+        assertColor(Color.BLUE, image, 40, 8);
+
+        verify(thumbnailBackend, times(1)).read(eq("red.jpg"), any());
+        verify(thumbnailBackend, times(1)).read(eq("green.jpg"), any());
+        verify(thumbnailBackend, times(1)).read(eq("blue.jpg"), any());
+        verify(thumbnailBackend, times(3)).read(eq("gray.jpg"), any());
+        verifyNoMoreInteractions(thumbnailBackend);
+    }
+
+    @Test
+    void getReturnsTheLastSheetWhileANewOneIsBeingDrawn() throws Exception {
+        // arrange
+        when(personRepository.findAll()).thenReturn(List.of(person(1L, "red.jpg")));
+        var original = contactSheetService.get();
+
+        when(personRepository.findById(1L)).thenReturn(Optional.of(person(1L, "slow.jpg")));
+        var reading = new CountDownLatch(1);
+        var read = new CountDownLatch(1);
+        when(thumbnailBackend.read(eq("slow.jpg"), any())).thenAnswer(invocation -> {
+            reading.countDown();
+            assertTrue(read.await(10, TimeUnit.SECONDS));
+            return false;
+        });
+        contactSheetService.onThumbnailsChanged(new ThumbnailsChangedEvent(1L));
+        var drawing = CompletableFuture.supplyAsync(contactSheetService::get);
+        assertTrue(reading.await(10, TimeUnit.SECONDS));
+
+        // act
+        var whileDrawing = contactSheetService.get();
+        read.countDown();
+        var drawn = drawing.get(10, TimeUnit.SECONDS);
+
+        // assert
+        assertSame(original, whileDrawing);
+        assertNotEquals(original.getDescription().getVersion(), drawn.getDescription().getVersion());
+        assertSame(drawn, contactSheetService.get());
+    }
+
+    @Test
+    void getWhenNothingChangedReturnsTheSameVersion() {
+        // arrange
+        when(personRepository.findAll()).thenReturn(List.of(person(1L, "red.jpg")));
+        var original = contactSheetService.get();
+
+        // act
+        var result = contactSheetService.get();
+
+        // assert
+        assertSame(original, result);
+        verify(personRepository, times(1)).findAll();
+    }
+
+    @Test
+    void getReusesThePlaceOfADeletedPerson() {
+        // arrange
+        when(personRepository.findAll()).thenReturn(List.of(person(1L, "red.jpg"), person(2L, "green.jpg")));
+        contactSheetService.get();
+
+        when(personRepository.findById(1L)).thenReturn(Optional.empty());
+        when(personRepository.findById(3L)).thenReturn(Optional.of(person(3L, "blue.jpg")));
+
+        // act
+        contactSheetService.onThumbnailsChanged(new ThumbnailsChangedEvent(1L));
+        contactSheetService.onThumbnailsChanged(new ThumbnailsChangedEvent(3L));
+        var result = contactSheetService.get();
+
+        // assert
+        assertEquals(Map.of(
+                2L, new ContactSheetDto.Tiles(32, 0, 48, 0),
+                3L, new ContactSheetDto.Tiles(0, 0, 16, 0)), result.getDescription().getTiles());
+    }
+
+    @Test
+    void refreshPicksUpChangesMadeByOtherInstances() throws IOException {
+        // arrange
+        when(personRepository.findAll()).thenReturn(List.of(person(1L, "red.jpg")));
+        contactSheetService.get();
+        when(personRepository.findAll()).thenReturn(List.of(person(1L, "red.jpg"), person(2L, "green.jpg"), person(3L, "blue.jpg")));
+
+        // act
+        contactSheetService.refresh();
+        var result = contactSheetService.get();
+
+        // assert
+        assertEquals(3, result.getDescription().getTiles().size());
+        assertEquals(new ContactSheetDto.Tiles(0, 16, 16, 16), result.getDescription().getTiles().get(3L));
+        assertEquals(32, result.getDescription().getHeight());
+        var image = ImageIO.read(new ByteArrayInputStream(result.getImage()));
+        assertColor(Color.BLUE, image, 8, 24);
+    }
+
+    private Person person(long id, String colorThumbnail) {
+        return Person.builder()
+                .id(id)
+                .name("Person " + id)
+                .colorThumbnail(colorThumbnail)
+                .sepiaThumbnail("gray.jpg")
+                .build();
+    }
+
+    private void thumbnailExists(String name, Color color) throws IOException {
+        var image = new BufferedImage(32, 32, BufferedImage.TYPE_INT_RGB);
+        var graphics = image.createGraphics();
+        graphics.setColor(color);
+        graphics.fillRect(0, 0, 32, 32);
+        graphics.dispose();
+        var content = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", content);
+
+        lenient().when(thumbnailBackend.read(eq(name), any())).thenAnswer(invocation -> {
+            OutputStream target = invocation.getArgument(1);
+            target.write(content.toByteArray());
+            return true;
+        });
+    }
+
+    private static void assertColor(Color expected, BufferedImage image, int x, int y) {
+        var actual = new Color(image.getRGB(x, y));
+        var close = Math.abs(expected.getRed() - actual.getRed()) < 40
+                && Math.abs(expected.getGreen() - actual.getGreen()) < 40
+                && Math.abs(expected.getBlue() - actual.getBlue()) < 40;
+        assertTrue(close, "expected " + expected + " at " + x + "," + y + " but was " + actual);
+    }
+
+}
@@ -0,0 +1,204 @@
+package be.stijnhooft.portal.social.services;
+
+import be.stijnhooft.portal.social.IdempotencyProperties;
+import be.stijnhooft.portal.social.dtos.ContactDto;
+import be.stijnhooft.portal.social.dtos.ImageLabel;
+import be.stijnhooft.portal.social.dtos.PersonDto;
+import be.stijnhooft.portal.social.dtos.RecurringTaskDto;
+import be.stijnhooft.portal.social.repositories.IdempotentRequestRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Verifies that a request that is sent again with the same Idempotency-Key returns the first response,
+ * without calling the other modules again.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+class IdempotencyServiceTest {
+
+    private static final Instant NOW = Instant.parse("2026-01-01T12:00:00Z");
+
+    @Autowired
+    private IdempotencyService idempotencyService;
+
+    @Autowired
+    private PersonService personService;
+
+    @Autowired
+    private IdempotentRequestRepository idempotentRequestRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private IdempotencyProperties idempotencyProperties;
+
+    @MockBean
+    private ImageService imageService;
+
+    @MockBean
+    private RecurringTasksService recurringTasksService;
+
+    @BeforeEach
+    void mockOtherModules() {
+        when(imageService.createThumbnails(any(String.class))).thenAnswer(invocation -> new HashMap<>(Map.of(
+                ImageLabel.COLOR_THUMBNAIL.getValue(), "color.jpg",
+                ImageLabel.SEPIA_THUMBNAIL.getValue(), "sepia.jpg")));
+        when(recurringTasksService.create(any())).thenAnswer(invocation -> {
+            RecurringTaskDto recurringTask = invocation.getArgument(0);
+            return recurringTask.toBuilder().id(recurringTask.getName().hashCode() & 0xffffL).build();
+        });
+    }
+
+    @AfterEach
+    void cleanUp() {
+        idempotentRequestRepository.deleteAll();
+    }
+
+    @Test
+    void executeWithTheSameKeyReturnsTheFirstResponseWithoutCallingTheOtherModules() {
+        // arrange
+        var personDto = personDto("Idempotent create");
+        var created = idempotencyService.execute("create-1", "create person", personDto, PersonDto.class, () -> personService.create(personDto));
+
+        // act
+        var replayed = idempotencyService.execute("create-1", "create person", personDto, PersonDto.class, () -> personService.create(personDto));
+        var replayedFromDatabase = otherInstance(Clock.systemUTC()).execute("create-1", "create person", personDto, PersonDto.class, () -> personService.create(personDto));
+
+        // assert
+        assertEquals(created, replayed);
+        assertEquals(created, replayedFromDatabase);
+        verify(imageService, times(1)).createThumbnails(any(String.class));
+        verify(recurringTasksService, times(1)).create(any());
+    }
+
+    @Test
+    void executeWithoutKeyDoesTheRequestEveryTime() {
+        // arrange
+        var executions = new AtomicInteger();
+
+        // act
+        idempotencyService.execute(null, "count", "request", Integer.class, executions::incrementAndGet);
+        idempotencyService.execute(null, "count", "request", Integer.class, executions::incrementAndGet);
+
+        // assert
+        assertEquals(2, executions.get());
+        assertEquals(0, idempotentRequestRepository.count());
+    }
+
+    @Test
+    void executeWithTheSameKeyForAnotherRequestIsRefused() {
+        // arrange
+        var contact = ContactDto.builder().lastContact(LocalDate.of(2026, 1, 1)).build();
+        var otherContact = ContactDto.builder().lastContact(LocalDate.of(2026, 1, 2)).build();
+        idempotencyService.execute("contact-1", "add contact to person 1", contact, String.class, () -> "added");
+
+        // act and assert
+        assertThrows(IdempotencyKeyReusedException.class,
+                () -> idempotencyService.execute("contact-1", "add contact to person 1", otherContact, String.class, () -> "added again"));
+        assertThrows(IdempotencyKeyReusedException.class,
+                () -> otherInstance(Clock.systemUTC()).execute("contact-1", "add contact to person 2", contact, String.class, () -> "added again"));
+    }
+
+    @Test
+    void executeWhileTheRequestWithTheSameKeyIsBeingDoneIsRefused() {
+        // act
+        var response = idempotencyService.execute("slow-1", "slow", "request", String.class, () -> {
+            assertThrows(IdempotencyKeyInUseException.class,
+                    () -> otherInstance(Clock.systemUTC()).execute("slow-1", "slow", "request", String.class, () -> "concurrent"));
+            return "first";
+        });
+
+        // assert
+        assertEquals("first", response);
+        assertEquals("first", idempotencyService.execute("slow-1", "slow", "request", String.class, () -> "again"));
+    }
+
+    @Test
+    void executeAfterTheRequestFailedDoesTheRequestAgain() {
+        // arrange
+        assertThrows(IllegalStateException.class, () -> idempotencyService.execute("failing-1", "failing", "request", String.class, () -> {
+            throw new IllegalStateException("other module is down");
+        }));
+
+        // act
+        var response = idempotencyService.execute("failing-1", "failing", "request", String.class, () -> "second attempt");
+
+        // assert
+        assertEquals("second attempt", response);
+    }
+
+    @Test
+    void executeTakesOverARequestThatDidNotComplete() {
+        // arrange: the application stopped while doing the request
+        idempotentRequestRepository.reserve("stopped-1", fingerprintOf("stopped-1"), NOW);
+        var stillLocked = otherInstance(Clock.fixed(NOW.plus(idempotencyProperties.getLockDuration()).minusSeconds(1), ZoneOffset.UTC));
+        var lockExpired = otherInstance(Clock.fixed(NOW.plus(idempotencyProperties.getLockDuration()).plusSeconds(1), ZoneOffset.UTC));
+
+        // act and assert
+        assertThrows(IdempotencyKeyInUseException.class, () -> stillLocked.execute("stopped-1", "stop", "request", String.class, () -> "too early"));
+        assertEquals("taken over", lockExpired.execute("stopped-1", "stop", "request", String.class, () -> "taken over"));
+    }
+
+    @Test
+    void deleteExpiredRemovesTheRequestsOlderThanTheRetention() {
+        // arrange
+        otherInstance(Clock.fixed(NOW, ZoneOffset.UTC)).execute("old-1", "old", "request", String.class, () -> "old");
+        otherInstance(Clock.fixed(NOW.plus(Duration.ofHours(2)), ZoneOffset.UTC)).execute("recent-1", "recent", "request", String.class, () -> "recent");
+
+        // act
+        otherInstance(Clock.fixed(NOW.plus(idempotencyProperties.getRetention()).plus(Duration.ofHours(1)), ZoneOffset.UTC)).deleteExpired();
+
+        // assert
+        assertFalse(idempotentRequestRepository.existsById("old-1"));
+        assertTrue(idempotentRequestRepository.existsById("recent-1"));
+    }
+
+    /**
+     * Another instance of this module, which has nothing in memory yet.
+     */
+    private IdempotencyService otherInstance(Clock clock) {
+        return new IdempotencyService(idempotentRequestRepository, objectMapper, idempotencyProperties, new SimpleMeterRegistry(), clock);
+    }
+
+    /**
+     * Lets a request with that key through, to find out its fingerprint.
+     */
+    private String fingerprintOf(String key) {
+        otherInstance(Clock.systemUTC()).execute(key, "stop", "request", String.class, () -> "fingerprinted");
+        var fingerprint = idempotentRequestRepository.findById(key).orElseThrow().getFingerprint();
+        idempotentRequestRepository.deleteById(key);
+        return fingerprint;
+    }
+
+    private PersonDto personDto(String name) {
+        return PersonDto.builder()
+                .name(name)
+                .newImageContent("new-data")
+                .minNumberOfDaysBetweenContacts(10)
+                .maxNumberOfDaysBetweenContacts(20)
+                .build();
+    }
+
+}
@@ -0,0 +1,185 @@
+package be.stijnhooft.portal.social.services;
+
+import be.stijnhooft.portal.social.ImageProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.util.unit.DataSize;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImagePreprocessorTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private ImageProperties imageProperties;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        imageProperties = new ImageProperties();
+        imageProperties.setMaxDimension(400);
+    }
+
+    @Test
+    void prepareScalesDownImagesThatAreTooWide() throws IOException {
+        // arrange
+        var image = new ByteArrayResource(png(1300, 500));
+        var imagePreprocessor = new ImagePreprocessor(imageProperties, meterRegistry);
+
+        // act
+        var result = imagePreprocessor.prepare(image);
+
+        // assert
+        var scaledDown = ImageIO.read(result.getInputStream());
+        assertEquals(400, scaledDown.getWidth());
+        assertEquals(154, scaledDown.getHeight());
+        assertEquals(image.contentLength(), counter("social.images.received"));
+        assertEquals(result.contentLength(), counter("social.images.forwarded"));
+        assertEquals(1, counter("social.images.downscaled"));
+    }
+
+    @Test
+    void decodeSkipsPixelsOfACameraOriginal() throws IOException {
+        // arrange: a 12 MP camera original, with the default max dimension
+        imageProperties.setMaxDimension(2048);
+        var image = new ByteArrayResource(png(4000, 3000));
+        var imagePreprocessor = new ImagePreprocessor(imageProperties, meterRegistry);
+
+        // act
+        var decoded = imagePreprocessor.decode(image);
+
+        // assert: every second pixel
+        assertEquals(2000, decoded.getWidth());
+        assertEquals(1500, decoded.getHeight());
+        var prepared = ImageIO.read(imagePreprocessor.prepare(image).getInputStream());
+        assertEquals(2048, prepared.getWidth());
+        assertEquals(1536, prepared.getHeight());
+    }
+
+    @Test
+    void preparePassesSmallImagesOnAsTheyAre() throws IOException {
+        // arrange
+        var image = new ByteArrayResource(png(400, 300));
+        var imagePreprocessor = new ImagePreprocessor(imageProperties, meterRegistry);
+
+        // act
+        var result = imagePreprocessor.prepare(image);
+
+        // assert
+        assertSame(image, result);
+        assertEquals(image.contentLength(), counter("social.images.received"));
+        assertEquals(image.contentLength(), counter("social.images.forwarded"));
+        assertEquals(0, counter("social.images.downscaled"));
+    }
+
+    @Test
+    void preparePassesUnknownFormatsOnAsTheyAre() {
+        // arrange
+        var image = new ByteArrayResource(new byte[] {1, 2, 3});
+        var imagePreprocessor = new ImagePreprocessor(imageProperties, meterRegistry);
+
+        // act
+        var result = imagePreprocessor.prepare(image);
+
+        // assert
+        assertSame(image, result);
+    }
+
+    @Test
+    void prepareDoesNotReadImagesThatCanBeReadOnlyOnce() {
+        // arrange
+        var image = new InputStreamResource(new ByteArrayInputStream(new byte[] {1, 2, 3}));
+        var imagePreprocessor = new ImagePreprocessor(imageProperties, meterRegistry);
+
+        // act
+        var result = imagePreprocessor.prepare(image);
+
+        // assert
+        assertSame(image, result);
+        assertTrue(result.isReadable());
+    }
+
+    @Test
+    void prepareScalesDownUploadedImages() throws IOException {
+        // arrange
+        var upload = new MockMultipartFile("image", "wide.png", "image/png", png(1300, 500));
+        var imagePreprocessor = new ImagePreprocessor(imageProperties, meterRegistry);
+
+        // act
+        var result = imagePreprocessor.prepare(new MultipartImageResource(upload));
+
+        // assert
+        assertEquals(400, ImageIO.read(result.getInputStream()).getWidth());
+        assertEquals(upload.getSize(), counter("social.images.received"));
+        assertEquals(result.contentLength(), counter("social.images.forwarded"));
+        assertEquals(1, counter("social.images.downscaled"));
+    }
+
+    @Test
+    void prepareRefusesUploadedImagesThatAreTooLargeWithoutReadingThem() throws IOException {
+        // arrange
+        imageProperties.setMaxUploadSize(DataSize.ofBytes(100));
+        var upload = new MockMultipartFile("image", "large.png", "image/png", png(400, 300));
+        var imagePreprocessor = new ImagePreprocessor(imageProperties, meterRegistry);
+
+        // act and assert
+        assertThrows(ImageTooLargeException.class, () -> imagePreprocessor.prepare(upload.getResource()));
+        assertEquals(1, counter("social.images.rejected"));
+    }
+
+    @Test
+    void prepareCountsUploadedImagesThatCanBeReadOnlyOnce() throws IOException {
+        // arrange
+        var upload = new MockMultipartFile("image", "small.png", "image/png", png(400, 300));
+        var image = upload.getResource();
+        var imagePreprocessor = new ImagePreprocessor(imageProperties, meterRegistry);
+
+        // act
+        var result = imagePreprocessor.prepare(image);
+
+        // assert
+        assertSame(image, result);
+        assertEquals(upload.getSize(), counter("social.images.received"));
+        assertEquals(upload.getSize(), counter("social.images.forwarded"));
+    }
+
+    @Test
+    void prepareRefusesImagesThatAreTooLarge() throws IOException {
+        // arrange
+        imageProperties.setMaxUploadSize(DataSize.ofBytes(100));
+        var image = new ByteArrayResource(png(400, 300));
+        var imagePreprocessor = new ImagePreprocessor(imageProperties, meterRegistry);
+
+        // act and assert
+        assertThrows(ImageTooLargeException.class, () -> imagePreprocessor.prepare(image));
+        assertEquals(1, counter("social.images.rejected"));
+        assertEquals(0, counter("social.images.received"));
+    }
+
+    private double counter(String name) {
+        return meterRegistry.get(name).counter().count();
+    }
+
+    private static byte[] png(int width, int height) throws IOException {
+        var image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        var graphics = image.createGraphics();
+        graphics.setColor(Color.ORANGE);
+        graphics.fillRect(0, 0, width, height);
+        graphics.dispose();
+
+        var content = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", content);
+        return content.toByteArray();
+    }
+
+}
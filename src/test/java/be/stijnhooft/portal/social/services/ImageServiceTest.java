@@ -0,0 +1,182 @@
+package be.stijnhooft.portal.social.services;
+
+import be.stijnhooft.portal.social.dtos.ImageDeleteResult;
+import be.stijnhooft.portal.social.dtos.ImageLabel;
+import be.stijnhooft.portal.social.repositories.ImageReferenceRepository;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+
+/**
+ * Verifies the deduplication of images, against a real database.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+class ImageServiceTest {
+
+    @Autowired
+    private ImageService imageService;
+
+    @Autowired
+    private ImageReferenceRepository imageReferenceRepository;
+
+    @MockBean
+    private ThumbnailBackend thumbnailBackend;
+
+    @Test
+    void createThumbnailsOfTheSameImageTwice() {
+        // arrange
+        when(thumbnailBackend.createThumbnails(any(Resource.class))).thenReturn(thumbnails("twice"));
+
+        // act
+        var first = imageService.createThumbnails(image("twice"));
+        var second = imageService.createThumbnails(image("twice"));
+
+        // assert
+        assertEquals(thumbnails("twice"), first);
+        assertEquals(thumbnails("twice"), second);
+        verify(thumbnailBackend, times(1)).createThumbnails(any(Resource.class));
+        assertEquals(2, imageReferenceRepository.findById(hash("twice")).orElseThrow().getReferenceCount());
+    }
+
+    @Test
+    void createThumbnailsOfAnImageThatCanOnlyBeReadOnce() {
+        // arrange
+        when(thumbnailBackend.createThumbnails(any(Resource.class))).thenReturn(thumbnails("once"));
+
+        // act
+        imageService.createThumbnails(new InputStreamResource(new ByteArrayInputStream(bytes("once"))));
+
+        // assert
+        verify(thumbnailBackend).createThumbnails(any(Resource.class));
+        assertTrue(imageReferenceRepository.findById(hash("once")).isEmpty());
+    }
+
+    @Test
+    void createThumbnailsWhenTheSameImageIsUploadedAtTheSameTime() {
+        // arrange: while our thumbnails are being made, another upload registers its thumbnails
+        when(thumbnailBackend.createThumbnails(any(Resource.class))).thenAnswer(invocation -> {
+            imageReferenceRepository.insert(hash("simultaneous"), "other-color.jpg", "other-sepia.jpg", null);
+            return thumbnails("simultaneous");
+        });
+
+        // act
+        var result = imageService.createThumbnails(image("simultaneous"));
+
+        // assert
+        assertEquals(Map.of(ImageLabel.COLOR_THUMBNAIL.getValue(), "other-color.jpg", ImageLabel.SEPIA_THUMBNAIL.getValue(), "other-sepia.jpg"), result);
+        verify(thumbnailBackend).delete(argThat(names -> Set.copyOf(names).equals(Set.of("simultaneous-color.jpg", "simultaneous-sepia.jpg", "simultaneous-small.jpg"))));
+        assertEquals(2, imageReferenceRepository.findById(hash("simultaneous")).orElseThrow().getReferenceCount());
+    }
+
+    @Test
+    void deleteKeepsThumbnailsUntilTheyAreNotUsedAnymore() {
+        // arrange
+        when(thumbnailBackend.createThumbnails(any(Resource.class))).thenReturn(thumbnails("shared"));
+        imageService.createThumbnails(image("shared"));
+        imageService.createThumbnails(image("shared"));
+
+        // act, assert: still used once
+        var result = imageService.delete("shared-color.jpg", "shared-sepia.jpg", "shared-small.jpg");
+        assertEquals(Map.of("shared-color.jpg", ImageDeleteResult.STILL_IN_USE, "shared-sepia.jpg", ImageDeleteResult.STILL_IN_USE, "shared-small.jpg", ImageDeleteResult.STILL_IN_USE), result);
+        verify(thumbnailBackend, never()).delete(anyCollection());
+        assertEquals(1, imageReferenceRepository.findById(hash("shared")).orElseThrow().getReferenceCount());
+
+        // act, assert: not used anymore
+        imageService.delete("shared-color.jpg", "shared-sepia.jpg", "shared-small.jpg");
+        verify(thumbnailBackend).delete(argThat(names -> Set.copyOf(names).equals(Set.of("shared-color.jpg", "shared-sepia.jpg", "shared-small.jpg"))));
+        assertTrue(imageReferenceRepository.findById(hash("shared")).isEmpty());
+    }
+
+    @Test
+    void deleteAllGivesUpOneUsePerPerson() {
+        // arrange: two persons with the same image, and one with an image that is not in the index
+        when(thumbnailBackend.createThumbnails(any(Resource.class))).thenReturn(thumbnails("batch"));
+        imageService.createThumbnails(image("batch"));
+        imageService.createThumbnails(image("batch"));
+        var sharedImage = List.of("batch-color.jpg", "batch-sepia.jpg", "batch-small.jpg");
+
+        // act
+        imageService.deleteAll(List.of(sharedImage, sharedImage, List.of("batch-made-before-the-index.jpg")));
+
+        // assert: one call to delete all of them
+        verify(thumbnailBackend).delete(argThat(names -> Set.copyOf(names).equals(Set.of("batch-color.jpg", "batch-sepia.jpg", "batch-small.jpg", "batch-made-before-the-index.jpg"))));
+        verify(thumbnailBackend).createThumbnails(any(Resource.class));
+        verifyNoMoreInteractions(thumbnailBackend);
+        assertTrue(imageReferenceRepository.findById(hash("batch")).isEmpty());
+    }
+
+    @Test
+    void releaseIsUndoneWhenTheUnusedImagesCannotBeRecorded() {
+        // arrange
+        when(thumbnailBackend.createThumbnails(any(Resource.class))).thenReturn(thumbnails("recorded"));
+        imageService.createThumbnails(image("recorded"));
+        var images = List.of("recorded-color.jpg", "recorded-sepia.jpg", "recorded-small.jpg");
+
+        // act
+        assertThrows(IllegalStateException.class, () -> imageService.release(images, unused -> {
+            throw new IllegalStateException("outbox is not available");
+        }));
+
+        // assert: still used, so a retry gives up the use once
+        assertEquals(1, imageReferenceRepository.findById(hash("recorded")).orElseThrow().getReferenceCount());
+        assertEquals(Set.copyOf(images), Set.copyOf(imageService.release(images, unused -> {
+        })));
+        assertTrue(imageReferenceRepository.findById(hash("recorded")).isEmpty());
+        assertEquals(Set.copyOf(images), Set.copyOf(imageService.release(images, unused -> {
+        }))); // released before, nothing is given up anymore
+        verify(thumbnailBackend, never()).delete(anyCollection());
+    }
+
+    @Test
+    void deleteImagesThatAreNotInTheIndex() {
+        // act
+        imageService.delete("made-before-the-index.jpg", null);
+
+        // assert
+        verify(thumbnailBackend).delete(List.of("made-before-the-index.jpg"));
+        verifyNoMoreInteractions(thumbnailBackend);
+    }
+
+    private static ByteArrayResource image(String content) {
+        return new ByteArrayResource(bytes(content));
+    }
+
+    private static byte[] bytes(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String hash(String content) {
+        return DigestUtils.sha256Hex(bytes(content));
+    }
+
+    private static HashMap<String, String> thumbnails(String content) {
+        HashMap<String, String> thumbnails = new HashMap<>();
+        thumbnails.put(ImageLabel.COLOR_THUMBNAIL.getValue(), content + "-color.jpg");
+        thumbnails.put(ImageLabel.SEPIA_THUMBNAIL.getValue(), content + "-sepia.jpg");
+        thumbnails.put("thumbnail-small", content + "-small.jpg");
+        return thumbnails;
+    }
+
+}
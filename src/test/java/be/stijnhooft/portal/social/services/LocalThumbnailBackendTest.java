@@ -0,0 +1,160 @@
+package be.stijnhooft.portal.social.services;
+
+import be.stijnhooft.portal.social.ThumbnailProperties;
+import be.stijnhooft.portal.social.dtos.ImageDeleteResult;
+import be.stijnhooft.portal.social.dtos.ImageLabel;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.ByteArrayResource;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalThumbnailBackendTest {
+
+    @TempDir
+    Path directory;
+
+    private ExecutorService executor;
+    private FileSystemBlobStore blobStore;
+    private LocalThumbnailBackend localThumbnailBackend;
+
+    @BeforeEach
+    void setUp() {
+        var thumbnailProperties = new ThumbnailProperties();
+        thumbnailProperties.setDirectory(directory);
+        executor = Executors.newFixedThreadPool(2);
+        blobStore = new FileSystemBlobStore(thumbnailProperties);
+        localThumbnailBackend = new LocalThumbnailBackend(blobStore, new ThumbnailProfiles(thumbnailProperties, new ObjectMapper()), executor);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void createThumbnails() throws IOException {
+        // arrange: a landscape image, red on the left, blue in the middle, green on the right
+        var image = new BufferedImage(1200, 800, BufferedImage.TYPE_INT_RGB);
+        var graphics = image.createGraphics();
+        graphics.setColor(Color.RED);
+        graphics.fillRect(0, 0, 200, 800);
+        graphics.setColor(Color.BLUE);
+        graphics.fillRect(200, 0, 800, 800);
+        graphics.setColor(Color.GREEN);
+        graphics.fillRect(1000, 0, 200, 800);
+        graphics.dispose();
+
+        // act
+        var thumbnails = localThumbnailBackend.createThumbnails(new ByteArrayResource(png(image)));
+
+        // assert
+        var color = read(thumbnails.get(ImageLabel.COLOR_THUMBNAIL.getValue()));
+        assertEquals(300, color.getWidth());
+        assertEquals(300, color.getHeight());
+        assertBlue(color.getRGB(5, 150)); // the red and green sides have been cropped off
+        assertBlue(color.getRGB(294, 150));
+
+        var sepia = read(thumbnails.get(ImageLabel.SEPIA_THUMBNAIL.getValue()));
+        assertEquals(300, sepia.getWidth());
+        assertEquals(300, sepia.getHeight());
+        var pixel = new Color(sepia.getRGB(150, 150));
+        assertTrue(pixel.getRed() >= pixel.getGreen() && pixel.getGreen() >= pixel.getBlue(), "not sepia: " + pixel);
+
+        assertEquals(6, thumbnails.size()); // one for every profile
+        assertEquals(64, read(thumbnails.get("thumbnail-small")).getWidth());
+        assertEquals(64, read(thumbnails.get("sepia-small")).getHeight());
+        assertEquals(600, read(thumbnails.get("thumbnail-large")).getWidth());
+        assertBlue(read(thumbnails.get("thumbnail-large")).getRGB(10, 300));
+    }
+
+    @Test
+    void resizeWithoutCropKeepsTheAspectRatio() {
+        // act
+        var resized = LocalThumbnailBackend.resize(new BufferedImage(1200, 800, BufferedImage.TYPE_INT_RGB), 300, false);
+
+        // assert
+        assertEquals(300, resized.getWidth());
+        assertEquals(200, resized.getHeight());
+    }
+
+    @Test
+    void createThumbnailsOfASmallImage() throws IOException {
+        // act
+        var thumbnails = localThumbnailBackend.createThumbnails(new ByteArrayResource(png(new BufferedImage(40, 60, BufferedImage.TYPE_INT_ARGB))));
+
+        // assert
+        assertEquals(300, read(thumbnails.get(ImageLabel.COLOR_THUMBNAIL.getValue())).getWidth());
+        assertEquals(300, read(thumbnails.get(ImageLabel.SEPIA_THUMBNAIL.getValue())).getHeight());
+    }
+
+    @Test
+    void createThumbnailsWhenImageIsNotAnImage() throws IOException {
+        // act
+        assertThrows(IllegalArgumentException.class, () -> localThumbnailBackend.createThumbnails(new ByteArrayResource(new byte[] {1, 2, 3})));
+
+        // assert
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void delete() {
+        // arrange
+        var thumbnails = localThumbnailBackend.createThumbnails(new ByteArrayResource(png(new BufferedImage(400, 400, BufferedImage.TYPE_INT_RGB))));
+
+        // act
+        var result = localThumbnailBackend.delete(List.of(thumbnails.get(ImageLabel.COLOR_THUMBNAIL.getValue()), "does-not-exist.jpg"));
+
+        // assert
+        assertEquals(Map.of(thumbnails.get(ImageLabel.COLOR_THUMBNAIL.getValue()), ImageDeleteResult.DELETED, "does-not-exist.jpg", ImageDeleteResult.DOES_NOT_EXIST), result);
+        assertTrue(blobStore.get(thumbnails.get(ImageLabel.COLOR_THUMBNAIL.getValue())).isEmpty());
+        assertTrue(blobStore.get(thumbnails.get(ImageLabel.SEPIA_THUMBNAIL.getValue())).isPresent());
+    }
+
+    @Test
+    void blobNamesCannotPointOutsideTheDirectory() {
+        assertThrows(IllegalArgumentException.class, () -> blobStore.put("../escaped.jpg", new byte[] {1}));
+        assertThrows(IllegalArgumentException.class, () -> blobStore.delete("../escaped.jpg"));
+        assertTrue(blobStore.get("../escaped.jpg").isEmpty());
+    }
+
+    private static byte[] png(BufferedImage image) {
+        var content = new ByteArrayOutputStream();
+        try {
+            ImageIO.write(image, "png", content);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return content.toByteArray();
+    }
+
+    private BufferedImage read(String name) throws IOException {
+        try (var inputStream = blobStore.get(name).orElseThrow().getInputStream()) {
+            return ImageIO.read(inputStream);
+        }
+    }
+
+    private static void assertBlue(int rgb) {
+        var pixel = new Color(rgb);
+        assertTrue(pixel.getBlue() > 200 && pixel.getRed() < 50 && pixel.getGreen() < 50, "not blue: " + pixel);
+    }
+
+}
@@ -0,0 +1,317 @@
+package be.stijnhooft.portal.social.services;
+
+import be.stijnhooft.portal.social.ImportProperties;
+import be.stijnhooft.portal.social.ThumbnailProperties;
+import be.stijnhooft.portal.social.dtos.ImportStatus;
+import be.stijnhooft.portal.social.dtos.PersonDto;
+import be.stijnhooft.portal.social.dtos.PersonImportResultDto;
+import be.stijnhooft.portal.social.dtos.RecurringTaskDto;
+import be.stijnhooft.portal.social.mappers.RecurringTaskDtoMapper;
+import be.stijnhooft.portal.social.model.OutboxEntry;
+import be.stijnhooft.portal.social.model.Person;
+import be.stijnhooft.portal.social.repositories.PersonRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class PersonImportServiceTest {
+
+    @Mock
+    private PersonRepository personRepository;
+
+    @Mock
+    private ImageService imageService;
+
+    @Mock
+    private RecurringTasksService recurringTasksService;
+
+    @Mock
+    private PlaceholderService placeholderService;
+
+    @Mock
+    private SavePersonHelper savePersonHelper;
+
+    @Mock
+    private SagaExecutor sagaExecutor;
+
+    @Mock
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    private final ThumbnailProperties thumbnailProperties = new ThumbnailProperties();
+    private final ImportProperties importProperties = new ImportProperties();
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final AtomicLong ids = new AtomicLong();
+
+    private PersonImportService personImportService;
+
+    @BeforeEach
+    void setUp() {
+        personImportService = new PersonImportService(personRepository, imageService, recurringTasksService, new RecurringTaskDtoMapper(), placeholderService, savePersonHelper, sagaExecutor, thumbnailProperties, importProperties, applicationEventPublisher, executor);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void importAllSavesThePersonsInBatchesOfTheIdAllocationSize() {
+        // arrange
+        var personDtos = IntStream.range(0, 60)
+                .mapToObj(i -> personDto("Person " + i))
+                .collect(Collectors.toList());
+        otherModulesWork();
+        savingWorks();
+
+        // act
+        var results = personImportService.importAll(personDtos.iterator());
+
+        // assert
+        assertEquals(60, results.size());
+        for (int i = 0; i < 60; i++) {
+            var result = results.get(i);
+            assertEquals(i, result.getIndex());
+            assertEquals("Person " + i, result.getName());
+            assertEquals(ImportStatus.CREATED, result.getStatus());
+            assertNotNull(result.getId());
+        }
+
+        verify(personRepository, times(2)).findExistingNames(anyCollection());
+        verify(savePersonHelper).saveAllAndCommit(argThat(newPersons -> newPersons.size() == Person.ID_ALLOCATION_SIZE));
+        verify(savePersonHelper).saveAllAndCommit(argThat(newPersons -> newPersons.size() == 10));
+        verify(imageService, times(60)).createThumbnails(any(String.class));
+        verify(recurringTasksService, times(60)).create(any());
+        verify(sagaExecutor, times(60)).registerCompensation(any(Saga.class), eq(OutboxEntry.Type.DELETE_IMAGES), any());
+        verify(sagaExecutor, times(60)).registerCompensation(any(Saga.class), eq(OutboxEntry.Type.DELETE_RECURRING_TASK), any());
+        verify(applicationEventPublisher, times(60)).publishEvent(any(ThumbnailsChangedEvent.class));
+        verify(sagaExecutor, never()).compensate(any());
+    }
+
+    @Test
+    void importAllReadsAheadNoFurtherThanTheConcurrency() throws InterruptedException {
+        // arrange
+        importProperties.setConcurrency(2);
+        var read = new AtomicInteger();
+        var personDtos = IntStream.range(0, 10)
+                .mapToObj(i -> personDto("Person " + i))
+                .peek(personDto -> read.incrementAndGet())
+                .iterator();
+        var creating = new CountDownLatch(2);
+        var created = new CountDownLatch(1);
+        otherModulesWork();
+        when(imageService.createThumbnails(any(String.class))).thenAnswer(invocation -> {
+            creating.countDown();
+            assertTrue(created.await(10, TimeUnit.SECONDS));
+            return new HashMap<>(Map.of("thumbnail", "color.jpg", "sepia", "sepia.jpg"));
+        });
+        savingWorks();
+
+        // act
+        var results = CompletableFuture.supplyAsync(() -> personImportService.importAll(personDtos));
+        assertTrue(creating.await(10, TimeUnit.SECONDS));
+        Thread.sleep(100); // give the import the time to read too far, if it would
+
+        // assert
+        assertEquals(2, read.get());
+        created.countDown();
+        assertEquals(10, results.join().size());
+        assertEquals(10, read.get());
+    }
+
+    @Test
+    void importAllSkipsExistingDuplicateAndInvalidRows() {
+        // arrange
+        var personDtos = List.of(
+                personDto("New"),
+                personDto("Existing"),
+                personDto("New"),
+                PersonDto.builder().name("Without image").build(),
+                personDto(null));
+        when(personRepository.findExistingNames(anyCollection())).thenAnswer(invocation -> {
+            Collection<String> names = invocation.getArgument(0);
+            return names.contains("Existing") ? List.of("Existing") : List.of();
+        });
+        otherModulesWork();
+        savingWorks();
+
+        // act
+        var results = personImportService.importAll(personDtos.iterator());
+
+        // assert
+        assertEquals(List.of(ImportStatus.CREATED, ImportStatus.ALREADY_EXISTS, ImportStatus.ALREADY_EXISTS, ImportStatus.INVALID, ImportStatus.INVALID), statuses(results));
+        assertEquals("Person with name Existing already exists", results.get(1).getMessage());
+        assertEquals("Person with name New comes earlier in the import", results.get(2).getMessage());
+        assertEquals("Image is missing", results.get(3).getMessage());
+        assertEquals("Name is missing", results.get(4).getMessage());
+
+        verify(personRepository).findExistingNames(argThat(names -> Set.copyOf(names).equals(Set.of("New", "Existing"))));
+        verifyNoMoreInteractions(personRepository);
+        verify(imageService, times(2)).createThumbnails(any(String.class));
+        verify(recurringTasksService).create(argThat(recurringTask -> recurringTask.getName().equals("New")));
+        verify(recurringTasksService).create(argThat(recurringTask -> recurringTask.getName().equals("Existing")));
+        verifyNoMoreInteractions(imageService, recurringTasksService);
+        verify(sagaExecutor, times(1)).compensate(any(Saga.class));
+        verify(savePersonHelper).saveAllAndCommit(argThat(newPersons -> newPersons.size() == 1
+                && newPersons.get(0).getPerson().getName().equals("New")));
+    }
+
+    @Test
+    void importAllUndoesARowOfWhichAnotherModuleFails() {
+        // arrange
+        otherModulesWork();
+        doThrow(new RuntimeException("recurring tasks module is down"))
+                .when(recurringTasksService).create(argThat(recurringTask -> recurringTask.getName().equals("Failing")));
+        savingWorks();
+
+        // act
+        var results = personImportService.importAll(List.of(personDto("Failing"), personDto("Working")).iterator());
+
+        // assert
+        assertEquals(List.of(ImportStatus.FAILED, ImportStatus.CREATED), statuses(results));
+        assertEquals("recurring tasks module is down", results.get(0).getMessage());
+        verify(sagaExecutor, times(1)).compensate(any(Saga.class));
+        verify(savePersonHelper).saveAllAndCommit(argThat(newPersons -> newPersons.size() == 1
+                && newPersons.get(0).getPerson().getName().equals("Working")));
+    }
+
+    @Test
+    void importAllSavesOneByOneWhenTheBatchCannotBeSaved() {
+        // arrange
+        otherModulesWork();
+        when(savePersonHelper.saveAllAndCommit(anyList())).thenAnswer(invocation -> {
+            List<SavePersonHelper.NewPerson> newPersons = invocation.getArgument(0);
+            if (newPersons.stream().anyMatch(newPerson -> newPerson.getPerson().getName().equals("Timed out"))) {
+                newPersons.forEach(newPerson -> newPerson.getPerson().setId(ids.incrementAndGet()));
+                throw new IllegalStateException("Saga has timed out, and is being undone");
+            }
+            return save(newPersons);
+        });
+
+        // act
+        var results = personImportService.importAll(List.of(personDto("In time"), personDto("Timed out")).iterator());
+
+        // assert
+        assertEquals(List.of(ImportStatus.CREATED, ImportStatus.FAILED), statuses(results));
+        assertEquals("Saga has timed out, and is being undone", results.get(1).getMessage());
+        verify(savePersonHelper, times(3)).saveAllAndCommit(anyList());
+        verify(sagaExecutor, times(1)).compensate(any(Saga.class));
+        verify(applicationEventPublisher, times(1)).publishEvent(any(ThumbnailsChangedEvent.class));
+    }
+
+    @Test
+    void importAllQueuesTheImagesWhenThumbnailsAreMadeAsynchronously() {
+        // arrange
+        thumbnailProperties.setMode(ThumbnailProperties.Mode.ASYNCHRONOUS);
+        otherModulesWork();
+        savingWorks();
+
+        // act
+        var results = personImportService.importAll(List.of(personDto("Pending")).iterator());
+
+        // assert
+        assertEquals(List.of(ImportStatus.CREATED), statuses(results));
+        verify(imageService).verifySize(any(Base64ImageResource.class));
+        verify(imageService, never()).createThumbnails(any(String.class));
+        verify(savePersonHelper).saveAllAndCommit(argThat(newPersons -> newPersons.get(0).getImage() != null));
+        verify(applicationEventPublisher, never()).publishEvent(any());
+    }
+
+    @Test
+    void importAllStopsAtARowThatCannotBeRead() {
+        // arrange
+        var rows = new Iterator<PersonDto>() {
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public PersonDto next() {
+                if (index++ == 1) {
+                    throw new IllegalArgumentException("Unexpected character");
+                }
+                return personDto("Readable");
+            }
+        };
+        otherModulesWork();
+        savingWorks();
+
+        // act
+        var results = personImportService.importAll(rows);
+
+        // assert
+        assertEquals(List.of(ImportStatus.CREATED, ImportStatus.INVALID), statuses(results));
+        assertEquals(1, results.get(1).getIndex());
+        assertTrue(results.get(1).getMessage().contains("Unexpected character"));
+    }
+
+    private void otherModulesWork() {
+        lenient().when(imageService.createThumbnails(any(String.class))).thenAnswer(invocation -> new HashMap<>(Map.of("thumbnail", "color.jpg", "sepia", "sepia.jpg")));
+        lenient().when(recurringTasksService.create(any())).thenAnswer(invocation -> {
+            RecurringTaskDto recurringTask = invocation.getArgument(0);
+            return recurringTask.toBuilder().id(ids.incrementAndGet()).build();
+        });
+    }
+
+    private void savingWorks() {
+        when(savePersonHelper.saveAllAndCommit(anyList())).thenAnswer(invocation -> save(invocation.getArgument(0)));
+    }
+
+    private List<Person> save(List<SavePersonHelper.NewPerson> newPersons) {
+        var savedPersons = new ArrayList<Person>();
+        for (SavePersonHelper.NewPerson newPerson : newPersons) {
+            assertNull(newPerson.getPerson().getId());
+            newPerson.getPerson().setId(ids.incrementAndGet());
+            savedPersons.add(newPerson.getPerson());
+        }
+        return savedPersons;
+    }
+
+    private static List<ImportStatus> statuses(List<PersonImportResultDto> results) {
+        return results.stream()
+                .map(PersonImportResultDto::getStatus)
+                .collect(Collectors.toList());
+    }
+
+    private static PersonDto personDto(String name) {
+        return PersonDto.builder()
+                .name(name)
+                .newImageContent("data:image/png;base64,AQID")
+                .minNumberOfDaysBetweenContacts(10)
+                .maxNumberOfDaysBetweenContacts(20)
+                .build();
+    }
+
+}
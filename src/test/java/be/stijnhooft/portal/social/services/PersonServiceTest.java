@@ -1,23 +1,33 @@
 package be.stijnhooft.portal.social.services;
 
+import be.stijnhooft.portal.social.RecurringTasksProperties;
+import be.stijnhooft.portal.social.ThumbnailProperties;
 import be.stijnhooft.portal.social.dtos.*;
 import be.stijnhooft.portal.social.mappers.PersonMapper;
 import be.stijnhooft.portal.social.mappers.RecurringTaskDtoMapper;
+import be.stijnhooft.portal.social.model.OutboxEntry;
 import be.stijnhooft.portal.social.model.Person;
 import be.stijnhooft.portal.social.repositories.PersonRepository;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.data.domain.PageRequest;
 
 import java.time.LocalDate;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.AdditionalMatchers.aryEq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -29,6 +39,9 @@ class PersonServiceTest {
     @Mock
     private RecurringTasksService recurringTasksService;
 
+    @Mock
+    private RecurringTaskProjectionService recurringTaskProjectionService;
+
     @Mock
     private ImageService imageService;
 
@@ -44,6 +57,24 @@ class PersonServiceTest {
     @Mock
     private SavePersonHelper savePersonHelper;
 
+    @Spy
+    private RecurringTasksProperties recurringTasksProperties = new RecurringTasksProperties();
+
+    @Spy
+    private ThumbnailProperties thumbnailProperties = new ThumbnailProperties();
+
+    @Mock
+    private ThumbnailProfiles thumbnailProfiles;
+
+    @Mock
+    private PlaceholderService placeholderService;
+
+    @Mock
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    @Mock
+    private SagaExecutor sagaExecutor;
+
     @Test
     void findAll() {
         // arrange
@@ -93,9 +124,8 @@ class PersonServiceTest {
                 .build();
 
         when(personRepository.findAll()).thenReturn(List.of(person1, person2));
-        when(recurringTasksService.findById(888L)).thenReturn(Optional.of(recurringTaskForPerson1));
+        when(recurringTaskProjectionService.findByIds(List.of(888L, 999L))).thenReturn(Map.of(888L, recurringTaskForPerson1, 999L, recurringTaskForPerson2));
         when(personMapper.mapToDto(person1, recurringTaskForPerson1)).thenReturn(personDto1);
-        when(recurringTasksService.findById(999L)).thenReturn(Optional.of(recurringTaskForPerson2));
         when(personMapper.mapToDto(person2, recurringTaskForPerson2)).thenReturn(personDto2);
 
         // act
@@ -105,6 +135,121 @@ class PersonServiceTest {
         assertEquals(2, result.size());
         assertEquals(personDto1, result.get(0));
         assertEquals(personDto2, result.get(1));
+
+        verify(recurringTaskProjectionService).findByIds(List.of(888L, 999L));
+        verifyNoMoreInteractions(recurringTasksService, recurringTaskProjectionService);
+    }
+
+    @Test
+    void findAllWhenRecurringTaskIsNotFound() {
+        // arrange
+        var person = Person.builder()
+                .id(100L)
+                .name("Slim Shady")
+                .recurringTaskId(888L)
+                .build();
+
+        when(personRepository.findAll()).thenReturn(List.of(person));
+        when(recurringTaskProjectionService.findByIds(List.of(888L))).thenReturn(Map.of());
+
+        // act, assert
+        assertThrows(RuntimeException.class,
+                () -> personService.findAll(),
+                "Recurring task with id 888 not found!");
+    }
+
+    @Test
+    void findAllWhenRecurringTaskIsNotFoundAndPartialResultsAreAllowed() {
+        // arrange
+        recurringTasksProperties.setFailurePolicy(RecurringTasksProperties.FailurePolicy.PARTIAL_RESULTS);
+
+        var person = Person.builder()
+                .id(100L)
+                .name("Slim Shady")
+                .recurringTaskId(888L)
+                .build();
+
+        var personDto = PersonDto.builder()
+                .id(100L)
+                .name("Slim Shady")
+                .build();
+
+        when(personRepository.findAll()).thenReturn(List.of(person));
+        when(recurringTaskProjectionService.findByIds(List.of(888L))).thenReturn(Map.of());
+        when(personMapper.mapToDto(person)).thenReturn(personDto);
+
+        // act
+        var result = personService.findAll();
+
+        // assert
+        assertEquals(List.of(personDto), result);
+    }
+
+    @Test
+    void findFirstPage() {
+        // arrange
+        var person1 = Person.builder()
+                .id(100L)
+                .recurringTaskId(888L)
+                .build();
+        var person2 = Person.builder()
+                .id(200L)
+                .recurringTaskId(999L)
+                .build();
+
+        var recurringTask1 = RecurringTaskDto.builder().id(888L).build();
+        var recurringTask2 = RecurringTaskDto.builder().id(999L).build();
+        var personDto1 = PersonDto.builder().id(100L).build();
+        var personDto2 = PersonDto.builder().id(200L).build();
+
+        when(personRepository.findByIdGreaterThanOrderByIdAsc(Long.MIN_VALUE, PageRequest.of(0, 2))).thenReturn(List.of(person1, person2));
+        when(recurringTaskProjectionService.findByIds(List.of(888L, 999L))).thenReturn(Map.of(888L, recurringTask1, 999L, recurringTask2));
+        when(personMapper.mapToDto(person1, recurringTask1)).thenReturn(personDto1);
+        when(personMapper.mapToDto(person2, recurringTask2)).thenReturn(personDto2);
+
+        // act
+        var result = personService.findPage(null, 2);
+
+        // assert
+        assertEquals(List.of(personDto1, personDto2), result.getPersons());
+        assertEquals(200L, result.getNextCursor());
+    }
+
+    @Test
+    void findLastPage() {
+        // arrange
+        var person = Person.builder()
+                .id(300L)
+                .recurringTaskId(777L)
+                .build();
+
+        var recurringTask = RecurringTaskDto.builder().id(777L).build();
+        var personDto = PersonDto.builder().id(300L).build();
+
+        when(personRepository.findByIdGreaterThanOrderByIdAsc(200L, PageRequest.of(0, 2))).thenReturn(List.of(person));
+        when(recurringTaskProjectionService.findByIds(List.of(777L))).thenReturn(Map.of(777L, recurringTask));
+        when(personMapper.mapToDto(person, recurringTask)).thenReturn(personDto);
+
+        // act
+        var result = personService.findPage(200L, 2);
+
+        // assert
+        assertEquals(List.of(personDto), result.getPersons());
+        assertNull(result.getNextCursor());
+    }
+
+    @Test
+    void findPageCapsThePageSize() {
+        // arrange
+        when(personRepository.findByIdGreaterThanOrderByIdAsc(Long.MIN_VALUE, PageRequest.of(0, PersonService.MAX_PAGE_SIZE))).thenReturn(List.of());
+        when(recurringTaskProjectionService.findByIds(List.of())).thenReturn(Map.of());
+
+        // act
+        var result = personService.findPage(null, 100_000);
+
+        // assert
+        assertTrue(result.getPersons().isEmpty());
+        assertNull(result.getNextCursor());
     }
 
     @Test
@@ -133,7 +278,7 @@ class PersonServiceTest {
                 .build();
 
         when(personRepository.findById(100L)).thenReturn(Optional.of(person));
-        when(recurringTasksService.findById(888L)).thenReturn(Optional.of(recurringTaskDto));
+        when(recurringTaskProjectionService.findById(888L)).thenReturn(Optional.of(recurringTaskDto));
         when(personMapper.mapToDto(person, recurringTaskDto)).thenReturn(personDto);
 
         // act
@@ -171,9 +316,9 @@ class PersonServiceTest {
 
         var colorThumbnail = "colorThumbnail.jpg";
         var sepiaThumbnail = "sepiaThumbnail.jpg";
-        HashMap<ImageLabel, String> thumbnails = new HashMap<>();
-        thumbnails.put(ImageLabel.COLOR_THUMBNAIL, colorThumbnail);
-        thumbnails.put(ImageLabel.SEPIA_THUMBNAIL, sepiaThumbnail);
+        HashMap<String, String> thumbnails = new HashMap<>();
+        thumbnails.put(ImageLabel.COLOR_THUMBNAIL.getValue(), colorThumbnail);
+        thumbnails.put(ImageLabel.SEPIA_THUMBNAIL.getValue(), sepiaThumbnail);
 
         var recurringTaskId = 999L;
 
@@ -188,6 +333,11 @@ class PersonServiceTest {
                 .colorThumbnail(colorThumbnail)
                 .sepiaThumbnail(sepiaThumbnail)
                 .recurringTaskId(recurringTaskId)
+                .placeholder("LEHV6nWB2yk8pyo0adR*.7kCMdnj")
+                .build();
+
+        var createdPerson = expectedPersonToBeCreated.toBuilder()
+                .id(1L)
                 .build();
 
         var createdPersonDto = PersonDto.builder()
@@ -207,10 +357,11 @@ class PersonServiceTest {
 
         when(personRepository.findByName("Stijn")).thenReturn(Optional.empty());
         when(imageService.createThumbnails("new-data")).thenReturn(thumbnails);
+        when(placeholderService.createPlaceholder(thumbnails)).thenReturn("LEHV6nWB2yk8pyo0adR*.7kCMdnj");
         when(recurringTaskDtoMapper.map(personDto)).thenReturn(recurringTaskDto);
         when(recurringTasksService.create(recurringTaskDto)).thenReturn(createdRecurringTaskDto);
-        when(savePersonHelper.saveAndFlushAndCommit(expectedPersonToBeCreated)).thenReturn(expectedPersonToBeCreated);
-        when(personMapper.mapToDto(expectedPersonToBeCreated, createdRecurringTaskDto)).thenReturn(createdPersonDto);
+        when(savePersonHelper.saveAndFlushAndCommit(eq(expectedPersonToBeCreated), any(Saga.class))).thenReturn(createdPerson);
+        when(personMapper.mapToDto(createdPerson, createdRecurringTaskDto)).thenReturn(createdPersonDto);
 
         // act
         var result = personService.create(personDto);
@@ -218,10 +369,75 @@ class PersonServiceTest {
         // assert
         verify(personRepository).findByName("Stijn");
         verify(imageService).createThumbnails("new-data");
+        verify(placeholderService).createPlaceholder(thumbnails);
         verify(recurringTaskDtoMapper).map(personDto);
         verify(recurringTasksService).create(recurringTaskDto);
-        verify(savePersonHelper).saveAndFlushAndCommit(expectedPersonToBeCreated);
-        verify(personMapper).mapToDto(expectedPersonToBeCreated, createdRecurringTaskDto);
+        verify(savePersonHelper).saveAndFlushAndCommit(eq(expectedPersonToBeCreated), any(Saga.class));
+        verify(applicationEventPublisher).publishEvent(new ThumbnailsChangedEvent(1L));
+        verify(personMapper).mapToDto(createdPerson, createdRecurringTaskDto);
+        verifyNoMoreInteractions(personRepository, personMapper, imageService, recurringTasksService, recurringTaskDtoMapper, placeholderService);
+
+        assertEquals(createdPersonDto, result);
+    }
+
+    @Test
+    void createWithUploadedImageWhenSuccess() {
+        // arrange
+        var image = new ByteArrayResource(new byte[] {1, 2, 3});
+        var personDto = PersonDto.builder()
+                .name("Stijn")
+                .minNumberOfDaysBetweenContacts(10)
+                .maxNumberOfDaysBetweenContacts(20)
+                .build();
+
+        HashMap<String, String> thumbnails = new HashMap<>();
+        thumbnails.put(ImageLabel.COLOR_THUMBNAIL.getValue(), "colorThumbnail.jpg");
+        thumbnails.put(ImageLabel.SEPIA_THUMBNAIL.getValue(), "sepiaThumbnail.jpg");
+
+        var recurringTaskDto = RecurringTaskDto.builder()
+                .name("Stijn")
+                .minNumberOfDaysBetweenExecutions(10)
+                .maxNumberOfDaysBetweenExecutions(20)
+                .build();
+
+        var createdRecurringTaskDto = recurringTaskDto.toBuilder()
+                .id(999L)
+                .build();
+
+        var expectedPersonToBeCreated = Person.builder()
+                .name("Stijn")
+                .colorThumbnail("colorThumbnail.jpg")
+                .sepiaThumbnail("sepiaThumbnail.jpg")
+                .recurringTaskId(999L)
+                .build();
+
+        var createdPerson = expectedPersonToBeCreated.toBuilder()
+                .id(1L)
+                .build();
+
+        var createdPersonDto = PersonDto.builder()
+                .name("Stijn")
+                .colorThumbnail("colorThumbnail.jpg")
+                .sepiaThumbnail("sepiaThumbnail.jpg")
+                .build();
+
+        when(personRepository.findByName("Stijn")).thenReturn(Optional.empty());
+        when(imageService.createThumbnails(image)).thenReturn(thumbnails);
+        when(recurringTaskDtoMapper.map(personDto)).thenReturn(recurringTaskDto);
+        when(recurringTasksService.create(recurringTaskDto)).thenReturn(createdRecurringTaskDto);
+        when(savePersonHelper.saveAndFlushAndCommit(eq(expectedPersonToBeCreated), any(Saga.class))).thenReturn(createdPerson);
+        when(personMapper.mapToDto(createdPerson, createdRecurringTaskDto)).thenReturn(createdPersonDto);
+
+        // act
+        var result = personService.create(personDto, image);
+
+        // assert
+        verify(personRepository).findByName("Stijn");
+        verify(imageService).createThumbnails(image);
+        verify(recurringTaskDtoMapper).map(personDto);
+        verify(recurringTasksService).create(recurringTaskDto);
+        verify(savePersonHelper).saveAndFlushAndCommit(eq(expectedPersonToBeCreated), any(Saga.class));
+        verify(personMapper).mapToDto(createdPerson, createdRecurringTaskDto);
         verifyNoMoreInteractions(personRepository, personMapper, imageService, recurringTasksService, recurringTaskDtoMapper);
 
         assertEquals(createdPersonDto, result);
@@ -285,9 +501,9 @@ class PersonServiceTest {
 
         var colorThumbnail = "colorThumbnail.jpg";
         var sepiaThumbnail = "sepiaThumbnail.jpg";
-        HashMap<ImageLabel, String> thumbnails = new HashMap<>();
-        thumbnails.put(ImageLabel.COLOR_THUMBNAIL, colorThumbnail);
-        thumbnails.put(ImageLabel.SEPIA_THUMBNAIL, sepiaThumbnail);
+        HashMap<String, String> thumbnails = new HashMap<>();
+        thumbnails.put(ImageLabel.COLOR_THUMBNAIL.getValue(), colorThumbnail);
+        thumbnails.put(ImageLabel.SEPIA_THUMBNAIL.getValue(), sepiaThumbnail);
 
         var recurringTaskDto = RecurringTaskDto.builder()
                 .name("Stijn")
@@ -308,8 +524,9 @@ class PersonServiceTest {
         verify(imageService).createThumbnails("new-data");
         verify(recurringTaskDtoMapper).map(personDto);
         verify(recurringTasksService).create(recurringTaskDto);
-        verify(imageService).rollbackCreateImages(thumbnails.values()); // the most important check of this test!
-        verifyNoMoreInteractions(personRepository, personMapper, imageService, recurringTasksService, recurringTaskDtoMapper);
+        verify(sagaExecutor).registerCompensation(any(Saga.class), eq(OutboxEntry.Type.DELETE_IMAGES), eq(thumbnails.values()));
+        verify(sagaExecutor).compensate(any(Saga.class)); // the most important check of this test!
+        verifyNoMoreInteractions(personRepository, personMapper, imageService, recurringTasksService, recurringTaskDtoMapper, sagaExecutor);
     }
 
     @Test
@@ -324,9 +541,9 @@ class PersonServiceTest {
 
         var colorThumbnail = "colorThumbnail.jpg";
         var sepiaThumbnail = "sepiaThumbnail.jpg";
-        HashMap<ImageLabel, String> thumbnails = new HashMap<>();
-        thumbnails.put(ImageLabel.COLOR_THUMBNAIL, colorThumbnail);
-        thumbnails.put(ImageLabel.SEPIA_THUMBNAIL, sepiaThumbnail);
+        HashMap<String, String> thumbnails = new HashMap<>();
+        thumbnails.put(ImageLabel.COLOR_THUMBNAIL.getValue(), colorThumbnail);
+        thumbnails.put(ImageLabel.SEPIA_THUMBNAIL.getValue(), sepiaThumbnail);
 
         var recurringTaskId = 999L;
 
@@ -354,7 +571,7 @@ class PersonServiceTest {
         when(imageService.createThumbnails("new-data")).thenReturn(thumbnails);
         when(recurringTaskDtoMapper.map(personDto)).thenReturn(recurringTaskDto);
         when(recurringTasksService.create(recurringTaskDto)).thenReturn(createdRecurringTaskDto);
-        when(savePersonHelper.saveAndFlushAndCommit(expectedPersonToBeCreated)).thenThrow(new RuntimeException());
+        when(savePersonHelper.saveAndFlushAndCommit(eq(expectedPersonToBeCreated), any(Saga.class))).thenThrow(new RuntimeException());
 
         // act
         assertThrows(RuntimeException.class, () -> personService.create(personDto));
@@ -364,10 +581,128 @@ class PersonServiceTest {
         verify(imageService).createThumbnails("new-data");
         verify(recurringTaskDtoMapper).map(personDto);
         verify(recurringTasksService).create(recurringTaskDto);
-        verify(savePersonHelper).saveAndFlushAndCommit(expectedPersonToBeCreated);
-        verify(imageService).rollbackCreateImages(thumbnails.values()); // very important check of this test!
-        verify(recurringTasksService).rollbackCreateRecurringTask(recurringTaskId); // very important check of this test!
-        verifyNoMoreInteractions(personRepository, personMapper, imageService, recurringTasksService, recurringTaskDtoMapper);
+        verify(savePersonHelper).saveAndFlushAndCommit(eq(expectedPersonToBeCreated), any(Saga.class));
+        verify(sagaExecutor).registerCompensation(any(Saga.class), eq(OutboxEntry.Type.DELETE_IMAGES), eq(thumbnails.values()));
+        verify(sagaExecutor).registerCompensation(any(Saga.class), eq(OutboxEntry.Type.DELETE_RECURRING_TASK), eq(recurringTaskId));
+        verify(sagaExecutor).compensate(any(Saga.class)); // very important check of this test!
+        verifyNoMoreInteractions(personRepository, personMapper, imageService, recurringTasksService, recurringTaskDtoMapper, sagaExecutor);
+    }
+
+    @Test
+    void createWhenThumbnailsAreMadeAsynchronously() {
+        // arrange
+        thumbnailProperties.setMode(ThumbnailProperties.Mode.ASYNCHRONOUS);
+
+        var personDto = PersonDto.builder()
+                .name("Stijn")
+                .newImageContent("AQID")
+                .minNumberOfDaysBetweenContacts(10)
+                .maxNumberOfDaysBetweenContacts(20)
+                .build();
+
+        var recurringTaskDto = RecurringTaskDto.builder()
+                .name("Stijn")
+                .minNumberOfDaysBetweenExecutions(10)
+                .maxNumberOfDaysBetweenExecutions(20)
+                .build();
+
+        var createdRecurringTaskDto = recurringTaskDto.toBuilder()
+                .id(999L)
+                .build();
+
+        var expectedPersonToBeCreated = Person.builder()
+                .name("Stijn")
+                .recurringTaskId(999L)
+                .thumbnailStatus(ThumbnailStatus.PENDING)
+                .build();
+
+        var createdPersonDto = PersonDto.builder()
+                .name("Stijn")
+                .thumbnailStatus(ThumbnailStatus.PENDING)
+                .build();
+
+        when(personRepository.findByName("Stijn")).thenReturn(Optional.empty());
+        when(recurringTaskDtoMapper.map(personDto)).thenReturn(recurringTaskDto);
+        when(recurringTasksService.create(recurringTaskDto)).thenReturn(createdRecurringTaskDto);
+        when(savePersonHelper.saveAndFlushAndCommit(eq(expectedPersonToBeCreated), aryEq(new byte[] {1, 2, 3}), any(Saga.class))).thenReturn(expectedPersonToBeCreated);
+        when(personMapper.mapToDto(expectedPersonToBeCreated, createdRecurringTaskDto)).thenReturn(createdPersonDto);
+
+        // act
+        var result = personService.create(personDto);
+
+        // assert
+        verify(personRepository).findByName("Stijn");
+        verify(imageService).verifySize(any(Base64ImageResource.class));
+        verify(recurringTaskDtoMapper).map(personDto);
+        verify(recurringTasksService).create(recurringTaskDto);
+        verify(savePersonHelper).saveAndFlushAndCommit(eq(expectedPersonToBeCreated), aryEq(new byte[] {1, 2, 3}), any(Saga.class));
+        verify(personMapper).mapToDto(expectedPersonToBeCreated, createdRecurringTaskDto);
+        verifyNoMoreInteractions(personRepository, personMapper, imageService, recurringTasksService, recurringTaskDtoMapper, savePersonHelper);
+
+        assertEquals(createdPersonDto, result);
+    }
+
+    @Test
+    void createWhenThumbnailsAreMadeAsynchronouslyAndSavingToDatabaseGivesError() {
+        // arrange
+        thumbnailProperties.setMode(ThumbnailProperties.Mode.ASYNCHRONOUS);
+
+        var image = new ByteArrayResource(new byte[] {1, 2, 3});
+        var personDto = PersonDto.builder()
+                .name("Stijn")
+                .minNumberOfDaysBetweenContacts(10)
+                .maxNumberOfDaysBetweenContacts(20)
+                .build();
+
+        var recurringTaskDto = RecurringTaskDto.builder()
+                .name("Stijn")
+                .minNumberOfDaysBetweenExecutions(10)
+                .maxNumberOfDaysBetweenExecutions(20)
+                .build();
+
+        var createdRecurringTaskDto = recurringTaskDto.toBuilder()
+                .id(999L)
+                .build();
+
+        when(personRepository.findByName("Stijn")).thenReturn(Optional.empty());
+        when(recurringTaskDtoMapper.map(personDto)).thenReturn(recurringTaskDto);
+        when(recurringTasksService.create(recurringTaskDto)).thenReturn(createdRecurringTaskDto);
+        when(savePersonHelper.saveAndFlushAndCommit(any(Person.class), any(byte[].class), any(Saga.class))).thenThrow(new RuntimeException());
+
+        // act
+        assertThrows(RuntimeException.class, () -> personService.create(personDto, image));
+
+        // assert
+        verify(personRepository).findByName("Stijn");
+        verify(imageService).verifySize(image);
+        verify(recurringTaskDtoMapper).map(personDto);
+        verify(recurringTasksService).create(recurringTaskDto);
+        verify(savePersonHelper).saveAndFlushAndCommit(any(Person.class), any(byte[].class), any(Saga.class));
+        verify(sagaExecutor).registerCompensation(any(Saga.class), eq(OutboxEntry.Type.DELETE_RECURRING_TASK), eq(999L));
+        verify(sagaExecutor).compensate(any(Saga.class)); // very important check of this test!
+        verifyNoMoreInteractions(personRepository, personMapper, imageService, recurringTasksService, recurringTaskDtoMapper, sagaExecutor);
+    }
+
+    @Test
+    void createWhenThumbnailsAreMadeAsynchronouslyAndImageIsInvalid() {
+        // arrange
+        thumbnailProperties.setMode(ThumbnailProperties.Mode.ASYNCHRONOUS);
+
+        var personDto = PersonDto.builder()
+                .name("Stijn")
+                .newImageContent("not base64!")
+                .minNumberOfDaysBetweenContacts(10)
+                .maxNumberOfDaysBetweenContacts(20)
+                .build();
+
+        when(personRepository.findByName("Stijn")).thenReturn(Optional.empty());
+
+        // act
+        assertThrows(IllegalArgumentException.class, () -> personService.create(personDto));
+
+        // assert
+        verify(personRepository).findByName("Stijn");
+        verifyNoMoreInteractions(personRepository, personMapper, imageService, recurringTasksService, recurringTaskDtoMapper, savePersonHelper);
     }
 
     @Test
@@ -378,9 +713,9 @@ class PersonServiceTest {
         var updatedColorThumbnail = "updatedColorThumbnail.jpg";
         var updatedSepiaThumbnail = "updatedSepiaThumbnail.jpg";
 
-        HashMap<ImageLabel, String> updatedThumbnails = new HashMap<>();
-        updatedThumbnails.put(ImageLabel.COLOR_THUMBNAIL, updatedColorThumbnail);
-        updatedThumbnails.put(ImageLabel.SEPIA_THUMBNAIL, updatedSepiaThumbnail);
+        HashMap<String, String> updatedThumbnails = new HashMap<>();
+        updatedThumbnails.put(ImageLabel.COLOR_THUMBNAIL.getValue(), updatedColorThumbnail);
+        updatedThumbnails.put(ImageLabel.SEPIA_THUMBNAIL.getValue(), updatedSepiaThumbnail);
 
         var personId = 1L;
         var recurringTaskId = 999L;
@@ -428,11 +763,11 @@ class PersonServiceTest {
                 .build();
 
         when(personRepository.findById(personId)).thenReturn(Optional.of(originalPerson));
-        when(recurringTasksService.findById(recurringTaskId)).thenReturn(Optional.of(originalRecurringTaskDto));
+        when(recurringTasksService.findCurrentById(recurringTaskId)).thenReturn(Optional.of(originalRecurringTaskDto));
         when(personMapper.mapToModel(updatedPersonDto, recurringTaskId, originalColorThumbnail, originalSepiaThumbnail)).thenReturn(updatedPerson);
         when(recurringTaskDtoMapper.map(updatedPersonDto)).thenReturn(updatedRecurringTaskDtoWithoutId);
         when(imageService.createThumbnails("new-data")).thenReturn(updatedThumbnails);
-        when(savePersonHelper.saveAndFlushAndCommit(updatedPerson)).thenReturn(updatedPerson);
+        when(savePersonHelper.saveAndFlushAndCommit(eq(updatedPerson), any(Saga.class))).thenReturn(updatedPerson);
         when(personMapper.mapToDto(updatedPerson, updatedRecurringTaskDtoWithId)).thenReturn(updatedPersonDto);
 
         // act
@@ -440,14 +775,15 @@ class PersonServiceTest {
 
         // assert
         verify(personRepository).findById(personId);
-        verify(recurringTasksService).findById(recurringTaskId);
+        verify(recurringTasksService).findCurrentById(recurringTaskId);
         verify(personMapper).mapToModel(updatedPersonDto, recurringTaskId, originalColorThumbnail, originalSepiaThumbnail);
         verify(recurringTaskDtoMapper).map(updatedPersonDto);
         verify(imageService).createThumbnails("new-data");
         verify(recurringTasksService).update(updatedRecurringTaskDtoWithId);
-        verify(savePersonHelper).saveAndFlushAndCommit(updatedPerson);
+        verify(recurringTaskProjectionService).evict(recurringTaskId);
+        verify(savePersonHelper).saveAndFlushAndCommit(eq(updatedPerson), any(Saga.class));
         verify(personMapper).mapToDto(updatedPerson, updatedRecurringTaskDtoWithId);
-        verify(imageService).delete(originalColorThumbnail, originalSepiaThumbnail);
+        verify(sagaExecutor).followUp(any(Saga.class), eq(OutboxEntry.Type.DELETE_IMAGES), images(originalColorThumbnail, originalSepiaThumbnail));
         verifyNoMoreInteractions(personRepository, personMapper, imageService, recurringTasksService, recurringTaskDtoMapper);
 
         assertEquals(updatedPersonDto, result);
@@ -461,9 +797,9 @@ class PersonServiceTest {
         var updatedColorThumbnail = "updatedColorThumbnail.jpg";
         var updatedSepiaThumbnail = "updatedSepiaThumbnail.jpg";
 
-        HashMap<ImageLabel, String> updatedThumbnails = new HashMap<>();
-        updatedThumbnails.put(ImageLabel.COLOR_THUMBNAIL, updatedColorThumbnail);
-        updatedThumbnails.put(ImageLabel.SEPIA_THUMBNAIL, updatedSepiaThumbnail);
+        HashMap<String, String> updatedThumbnails = new HashMap<>();
+        updatedThumbnails.put(ImageLabel.COLOR_THUMBNAIL.getValue(), updatedColorThumbnail);
+        updatedThumbnails.put(ImageLabel.SEPIA_THUMBNAIL.getValue(), updatedSepiaThumbnail);
 
         var personId = 1L;
         var recurringTaskId = 999L;
@@ -511,11 +847,11 @@ class PersonServiceTest {
                 .build();
 
         when(personRepository.findById(personId)).thenReturn(Optional.of(originalPerson));
-        when(recurringTasksService.findById(recurringTaskId)).thenReturn(Optional.of(originalRecurringTaskDto));
+        when(recurringTasksService.findCurrentById(recurringTaskId)).thenReturn(Optional.of(originalRecurringTaskDto));
         when(personMapper.mapToModel(updatedPersonDto, recurringTaskId, originalColorThumbnail, originalSepiaThumbnail)).thenReturn(updatedPerson);
         when(recurringTaskDtoMapper.map(updatedPersonDto)).thenReturn(updatedRecurringTaskDtoWithoutId);
         when(imageService.createThumbnails("new-data")).thenReturn(updatedThumbnails);
-        when(savePersonHelper.saveAndFlushAndCommit(updatedPerson)).thenReturn(updatedPerson);
+        when(savePersonHelper.saveAndFlushAndCommit(eq(updatedPerson), any(Saga.class))).thenReturn(updatedPerson);
         when(personMapper.mapToDto(updatedPerson, updatedRecurringTaskDtoWithId)).thenReturn(updatedPersonDto);
 
         // act
@@ -523,13 +859,82 @@ class PersonServiceTest {
 
         // assert
         verify(personRepository).findById(personId);
-        verify(recurringTasksService).findById(recurringTaskId);
+        verify(recurringTasksService).findCurrentById(recurringTaskId);
         verify(personMapper).mapToModel(updatedPersonDto, recurringTaskId, originalColorThumbnail, originalSepiaThumbnail);
         verify(recurringTaskDtoMapper).map(updatedPersonDto);
         verify(imageService).createThumbnails("new-data");
-        verify(savePersonHelper).saveAndFlushAndCommit(updatedPerson);
+        verify(savePersonHelper).saveAndFlushAndCommit(eq(updatedPerson), any(Saga.class));
+        verify(applicationEventPublisher).publishEvent(new ThumbnailsChangedEvent(personId));
         verify(personMapper).mapToDto(updatedPerson, updatedRecurringTaskDtoWithId);
-        verify(imageService).delete(originalColorThumbnail, originalSepiaThumbnail);
+        verify(sagaExecutor).followUp(any(Saga.class), eq(OutboxEntry.Type.DELETE_IMAGES), images(originalColorThumbnail, originalSepiaThumbnail));
+        verifyNoMoreInteractions(personRepository, personMapper, imageService, recurringTasksService, recurringTaskDtoMapper);
+
+        assertEquals(updatedPersonDto, result);
+    }
+
+    @Test
+    void updateWithUploadedImageWhenSuccess() {
+        // arrange
+        var image = new ByteArrayResource(new byte[] {1, 2, 3});
+
+        HashMap<String, String> updatedThumbnails = new HashMap<>();
+        updatedThumbnails.put(ImageLabel.COLOR_THUMBNAIL.getValue(), "updatedColorThumbnail.jpg");
+        updatedThumbnails.put(ImageLabel.SEPIA_THUMBNAIL.getValue(), "updatedSepiaThumbnail.jpg");
+
+        var originalPerson = Person.builder()
+                .id(1L)
+                .name("Stijn")
+                .colorThumbnail("originalColorThumbnail.jpg")
+                .sepiaThumbnail("originalSepiaThumbnail.jpg")
+                .recurringTaskId(999L)
+                .build();
+
+        var originalRecurringTaskDto = RecurringTaskDto.builder()
+                .id(999L)
+                .name("Stijn")
+                .minNumberOfDaysBetweenExecutions(10)
+                .maxNumberOfDaysBetweenExecutions(20)
+                .build();
+
+        var updatedPersonDto = PersonDto.builder()
+                .id(1L)
+                .name("Stijn")
+                .minNumberOfDaysBetweenContacts(10)
+                .maxNumberOfDaysBetweenContacts(20)
+                .build();
+
+        var updatedPerson = originalPerson.toBuilder()
+                .build();
+
+        var expectedUpdatedPerson = originalPerson.toBuilder()
+                .colorThumbnail("updatedColorThumbnail.jpg")
+                .sepiaThumbnail("updatedSepiaThumbnail.jpg")
+                .build();
+
+        var updatedRecurringTaskDtoWithoutId = originalRecurringTaskDto.toBuilder()
+                .id(null)
+                .build();
+
+        when(personRepository.findById(1L)).thenReturn(Optional.of(originalPerson));
+        when(recurringTasksService.findCurrentById(999L)).thenReturn(Optional.of(originalRecurringTaskDto));
+        when(personMapper.mapToModel(updatedPersonDto, 999L, "originalColorThumbnail.jpg", "originalSepiaThumbnail.jpg")).thenReturn(updatedPerson);
+        when(recurringTaskDtoMapper.map(updatedPersonDto)).thenReturn(updatedRecurringTaskDtoWithoutId);
+        when(imageService.createThumbnails(image)).thenReturn(updatedThumbnails);
+        when(savePersonHelper.saveAndFlushAndCommit(eq(expectedUpdatedPerson), any(Saga.class))).thenReturn(expectedUpdatedPerson);
+        when(personMapper.mapToDto(expectedUpdatedPerson, originalRecurringTaskDto)).thenReturn(updatedPersonDto);
+
+        // act
+        var result = personService.update(updatedPersonDto, image);
+
+        // assert
+        verify(personRepository).findById(1L);
+        verify(recurringTasksService).findCurrentById(999L);
+        verify(personMapper).mapToModel(updatedPersonDto, 999L, "originalColorThumbnail.jpg", "originalSepiaThumbnail.jpg");
+        verify(recurringTaskDtoMapper).map(updatedPersonDto);
+        verify(imageService).createThumbnails(image);
+        verify(savePersonHelper).saveAndFlushAndCommit(eq(expectedUpdatedPerson), any(Saga.class));
+        verify(personMapper).mapToDto(expectedUpdatedPerson, originalRecurringTaskDto);
+        verify(sagaExecutor).followUp(any(Saga.class), eq(OutboxEntry.Type.DELETE_IMAGES), images("originalColorThumbnail.jpg", "originalSepiaThumbnail.jpg"));
         verifyNoMoreInteractions(personRepository, personMapper, imageService, recurringTasksService, recurringTaskDtoMapper);
 
         assertEquals(updatedPersonDto, result);
@@ -587,10 +992,10 @@ class PersonServiceTest {
                 .build();
 
         when(personRepository.findById(personId)).thenReturn(Optional.of(originalPerson));
-        when(recurringTasksService.findById(recurringTaskId)).thenReturn(Optional.of(originalRecurringTaskDto));
+        when(recurringTasksService.findCurrentById(recurringTaskId)).thenReturn(Optional.of(originalRecurringTaskDto));
         when(personMapper.mapToModel(updatedPersonDto, recurringTaskId, originalColorThumbnail, originalSepiaThumbnail)).thenReturn(updatedPerson);
         when(recurringTaskDtoMapper.map(updatedPersonDto)).thenReturn(updatedRecurringTaskDtoWithoutId);
-        when(savePersonHelper.saveAndFlushAndCommit(updatedPerson)).thenReturn(updatedPerson);
+        when(savePersonHelper.saveAndFlushAndCommit(eq(updatedPerson), any(Saga.class))).thenReturn(updatedPerson);
         when(personMapper.mapToDto(updatedPerson, updatedRecurringTaskDtoWithId)).thenReturn(updatedPersonDto);
 
         // act
@@ -598,12 +1003,13 @@ class PersonServiceTest {
 
         // assert
         verify(personRepository).findById(personId);
-        verify(recurringTasksService).findById(recurringTaskId);
+        verify(recurringTasksService).findCurrentById(recurringTaskId);
         verify(personMapper).mapToModel(updatedPersonDto, recurringTaskId, originalColorThumbnail, originalSepiaThumbnail);
         verify(recurringTaskDtoMapper).map(updatedPersonDto);
         verify(recurringTasksService).update(updatedRecurringTaskDtoWithId);
-        verify(savePersonHelper).saveAndFlushAndCommit(updatedPerson);
+        verify(savePersonHelper).saveAndFlushAndCommit(eq(updatedPerson), any(Saga.class));
         verify(personMapper).mapToDto(updatedPerson, updatedRecurringTaskDtoWithId);
+        verifyNoInteractions(applicationEventPublisher);
         verifyNoMoreInteractions(personRepository, personMapper, imageService, recurringTasksService, recurringTaskDtoMapper);
 
         assertEquals(updatedPersonDto, result);
@@ -661,7 +1067,7 @@ class PersonServiceTest {
                 .build();
 
         when(personRepository.findById(personId)).thenReturn(Optional.of(originalPerson));
-        when(recurringTasksService.findById(recurringTaskId)).thenReturn(Optional.of(originalRecurringTaskDto));
+        when(recurringTasksService.findCurrentById(recurringTaskId)).thenReturn(Optional.of(originalRecurringTaskDto));
         when(personMapper.mapToModel(updatedPersonDto, recurringTaskId, originalColorThumbnail, originalSepiaThumbnail)).thenReturn(updatedPerson);
         when(recurringTaskDtoMapper.map(updatedPersonDto)).thenReturn(updatedRecurringTaskDtoWithoutId);
         when(personMapper.mapToDto(updatedPerson, updatedRecurringTaskDtoWithId)).thenReturn(updatedPersonDto);
@@ -671,7 +1077,7 @@ class PersonServiceTest {
 
         // assert
         verify(personRepository).findById(personId);
-        verify(recurringTasksService).findById(recurringTaskId);
+        verify(recurringTasksService).findCurrentById(recurringTaskId);
         verify(personMapper).mapToModel(updatedPersonDto, recurringTaskId, originalColorThumbnail, originalSepiaThumbnail);
         verify(recurringTaskDtoMapper).map(updatedPersonDto);
         verify(recurringTasksService).update(updatedRecurringTaskDtoWithId);
@@ -727,7 +1133,7 @@ class PersonServiceTest {
                 .build();
 
         when(personRepository.findById(personId)).thenReturn(Optional.of(originalPerson));
-        when(recurringTasksService.findById(recurringTaskId)).thenReturn(Optional.of(originalRecurringTaskDto));
+        when(recurringTasksService.findCurrentById(recurringTaskId)).thenReturn(Optional.of(originalRecurringTaskDto));
         when(personMapper.mapToModel(updatedPersonDto, recurringTaskId, originalColorThumbnail, originalSepiaThumbnail)).thenReturn(updatedPerson);
         when(recurringTaskDtoMapper.map(updatedPersonDto)).thenReturn(updatedRecurringTaskDtoWithoutId);
         when(imageService.createThumbnails("new-data")).thenThrow(new RuntimeException());
@@ -737,7 +1143,7 @@ class PersonServiceTest {
 
         // assert
         verify(personRepository).findById(personId);
-        verify(recurringTasksService).findById(recurringTaskId);
+        verify(recurringTasksService).findCurrentById(recurringTaskId);
         verify(personMapper).mapToModel(updatedPersonDto, recurringTaskId, originalColorThumbnail, originalSepiaThumbnail);
         verify(recurringTaskDtoMapper).map(updatedPersonDto);
         verify(imageService).createThumbnails("new-data");
@@ -752,9 +1158,9 @@ class PersonServiceTest {
         var updatedColorThumbnail = "updatedColorThumbnail.jpg";
         var updatedSepiaThumbnail = "updatedSepiaThumbnail.jpg";
 
-        HashMap<ImageLabel, String> updatedThumbnails = new HashMap<>();
-        updatedThumbnails.put(ImageLabel.COLOR_THUMBNAIL, updatedColorThumbnail);
-        updatedThumbnails.put(ImageLabel.SEPIA_THUMBNAIL, updatedSepiaThumbnail);
+        HashMap<String, String> updatedThumbnails = new HashMap<>();
+        updatedThumbnails.put(ImageLabel.COLOR_THUMBNAIL.getValue(), updatedColorThumbnail);
+        updatedThumbnails.put(ImageLabel.SEPIA_THUMBNAIL.getValue(), updatedSepiaThumbnail);
 
         var personId = 1L;
         var recurringTaskId = 999L;
@@ -802,7 +1208,7 @@ class PersonServiceTest {
                 .build();
 
         when(personRepository.findById(personId)).thenReturn(Optional.of(originalPerson));
-        when(recurringTasksService.findById(recurringTaskId)).thenReturn(Optional.of(originalRecurringTaskDto));
+        when(recurringTasksService.findCurrentById(recurringTaskId)).thenReturn(Optional.of(originalRecurringTaskDto));
         when(personMapper.mapToModel(updatedPersonDto, recurringTaskId, originalColorThumbnail, originalSepiaThumbnail)).thenReturn(updatedPerson);
         when(recurringTaskDtoMapper.map(updatedPersonDto)).thenReturn(updatedRecurringTaskDtoWithoutId);
         when(imageService.createThumbnails("new-data")).thenReturn(updatedThumbnails);
@@ -813,13 +1219,16 @@ class PersonServiceTest {
 
         // assert
         verify(personRepository).findById(personId);
-        verify(recurringTasksService).findById(recurringTaskId);
+        verify(recurringTasksService).findCurrentById(recurringTaskId);
         verify(personMapper).mapToModel(updatedPersonDto, recurringTaskId, originalColorThumbnail, originalSepiaThumbnail);
         verify(recurringTaskDtoMapper).map(updatedPersonDto);
         verify(imageService).createThumbnails("new-data");
         verify(recurringTasksService).update(updatedRecurringTaskDtoWithId);
-        verify(imageService).rollbackCreateImages(updatedThumbnails.values()); // assert that rollback of image happens
-        verifyNoMoreInteractions(personRepository, personMapper, imageService, recurringTasksService, recurringTaskDtoMapper);
+        verify(sagaExecutor).registerCompensation(any(Saga.class), eq(OutboxEntry.Type.DELETE_IMAGES), eq(updatedThumbnails.values()));
+        verify(sagaExecutor).followUp(any(Saga.class), eq(OutboxEntry.Type.DELETE_IMAGES), images(originalColorThumbnail, originalSepiaThumbnail));
+        verify(sagaExecutor).registerCompensation(any(Saga.class), eq(OutboxEntry.Type.RESTORE_RECURRING_TASK), eq(originalRecurringTaskDto));
+        verify(sagaExecutor).compensate(any(Saga.class)); // assert that the new image and the recurring task are reverted
+        verifyNoMoreInteractions(personRepository, personMapper, imageService, recurringTasksService, recurringTaskDtoMapper, sagaExecutor);
     }
 
     @Test
@@ -874,7 +1283,7 @@ class PersonServiceTest {
                 .build();
 
         when(personRepository.findById(personId)).thenReturn(Optional.of(originalPerson));
-        when(recurringTasksService.findById(recurringTaskId)).thenReturn(Optional.of(originalRecurringTaskDto));
+        when(recurringTasksService.findCurrentById(recurringTaskId)).thenReturn(Optional.of(originalRecurringTaskDto));
         when(personMapper.mapToModel(updatedPersonDto, recurringTaskId, originalColorThumbnail, originalSepiaThumbnail)).thenReturn(updatedPerson);
         when(recurringTaskDtoMapper.map(updatedPersonDto)).thenReturn(updatedRecurringTaskDtoWithoutId);
         doThrow(new RuntimeException()).when(recurringTasksService).update(updatedRecurringTaskDtoWithId);
@@ -884,11 +1293,13 @@ class PersonServiceTest {
 
         // assert
         verify(personRepository).findById(personId);
-        verify(recurringTasksService).findById(recurringTaskId);
+        verify(recurringTasksService).findCurrentById(recurringTaskId);
         verify(personMapper).mapToModel(updatedPersonDto, recurringTaskId, originalColorThumbnail, originalSepiaThumbnail);
         verify(recurringTaskDtoMapper).map(updatedPersonDto);
         verify(recurringTasksService).update(updatedRecurringTaskDtoWithId);
-        verifyNoMoreInteractions(personRepository, personMapper, imageService, recurringTasksService, recurringTaskDtoMapper);
+        verify(sagaExecutor).registerCompensation(any(Saga.class), eq(OutboxEntry.Type.RESTORE_RECURRING_TASK), eq(originalRecurringTaskDto));
+        verify(sagaExecutor).compensate(any(Saga.class));
+        verifyNoMoreInteractions(personRepository, personMapper, imageService, recurringTasksService, recurringTaskDtoMapper, sagaExecutor);
     }
 
     @Test
@@ -899,9 +1310,9 @@ class PersonServiceTest {
         var updatedColorThumbnail = "updatedColorThumbnail.jpg";
         var updatedSepiaThumbnail = "updatedSepiaThumbnail.jpg";
 
-        HashMap<ImageLabel, String> updatedThumbnails = new HashMap<>();
-        updatedThumbnails.put(ImageLabel.COLOR_THUMBNAIL, updatedColorThumbnail);
-        updatedThumbnails.put(ImageLabel.SEPIA_THUMBNAIL, updatedSepiaThumbnail);
+        HashMap<String, String> updatedThumbnails = new HashMap<>();
+        updatedThumbnails.put(ImageLabel.COLOR_THUMBNAIL.getValue(), updatedColorThumbnail);
+        updatedThumbnails.put(ImageLabel.SEPIA_THUMBNAIL.getValue(), updatedSepiaThumbnail);
 
         var personId = 1L;
         var recurringTaskId = 999L;
@@ -949,39 +1360,41 @@ class PersonServiceTest {
                 .build();
 
         when(personRepository.findById(personId)).thenReturn(Optional.of(originalPerson));
-        when(recurringTasksService.findById(recurringTaskId)).thenReturn(Optional.of(originalRecurringTaskDto));
+        when(recurringTasksService.findCurrentById(recurringTaskId)).thenReturn(Optional.of(originalRecurringTaskDto));
         when(personMapper.mapToModel(updatedPersonDto, recurringTaskId, originalColorThumbnail, originalSepiaThumbnail)).thenReturn(updatedPerson);
         when(recurringTaskDtoMapper.map(updatedPersonDto)).thenReturn(updatedRecurringTaskDtoWithoutId);
         when(imageService.createThumbnails("new-data")).thenReturn(updatedThumbnails);
-        when(savePersonHelper.saveAndFlushAndCommit(updatedPerson)).thenThrow(new RuntimeException());
+        when(savePersonHelper.saveAndFlushAndCommit(eq(updatedPerson), any(Saga.class))).thenThrow(new RuntimeException());
 
         // act
         assertThrows(RuntimeException.class, () -> personService.update(updatedPersonDto));
 
         // assert
         verify(personRepository).findById(personId);
-        verify(recurringTasksService).findById(recurringTaskId);
+        verify(recurringTasksService).findCurrentById(recurringTaskId);
         verify(personMapper).mapToModel(updatedPersonDto, recurringTaskId, originalColorThumbnail, originalSepiaThumbnail);
         verify(recurringTaskDtoMapper).map(updatedPersonDto);
         verify(imageService).createThumbnails("new-data");
         verify(recurringTasksService).update(updatedRecurringTaskDtoWithId);
-        verify(savePersonHelper).saveAndFlushAndCommit(updatedPerson);
-        verify(imageService).rollbackCreateImages(updatedThumbnails.values());
-        verify(recurringTasksService).rollbackUpdateRecurringTask(originalRecurringTaskDto);
-        verifyNoMoreInteractions(personRepository, personMapper, imageService, recurringTasksService, recurringTaskDtoMapper);
+        verify(savePersonHelper).saveAndFlushAndCommit(eq(updatedPerson), any(Saga.class));
+        verify(sagaExecutor).registerCompensation(any(Saga.class), eq(OutboxEntry.Type.DELETE_IMAGES), eq(updatedThumbnails.values()));
+        verify(sagaExecutor).followUp(any(Saga.class), eq(OutboxEntry.Type.DELETE_IMAGES), images(originalColorThumbnail, originalSepiaThumbnail));
+        verify(sagaExecutor).registerCompensation(any(Saga.class), eq(OutboxEntry.Type.RESTORE_RECURRING_TASK), eq(originalRecurringTaskDto));
+        verify(sagaExecutor).compensate(any(Saga.class));
+        verifyNoMoreInteractions(personRepository, personMapper, imageService, recurringTasksService, recurringTaskDtoMapper, sagaExecutor);
     }
 
     @Test
-    void updateWhenCleaningUpOldImageGivesError() {
+    void updateWhenSuccessCleansUpTheOldImageLater() {
         // arrange
         var originalColorThumbnail = "originalColorThumbnail.jpg";
         var originalSepiaThumbnail = "originalSepiaThumbnail.jpg";
         var updatedColorThumbnail = "updatedColorThumbnail.jpg";
         var updatedSepiaThumbnail = "updatedSepiaThumbnail.jpg";
 
-        HashMap<ImageLabel, String> updatedThumbnails = new HashMap<>();
-        updatedThumbnails.put(ImageLabel.COLOR_THUMBNAIL, updatedColorThumbnail);
-        updatedThumbnails.put(ImageLabel.SEPIA_THUMBNAIL, updatedSepiaThumbnail);
+        HashMap<String, String> updatedThumbnails = new HashMap<>();
+        updatedThumbnails.put(ImageLabel.COLOR_THUMBNAIL.getValue(), updatedColorThumbnail);
+        updatedThumbnails.put(ImageLabel.SEPIA_THUMBNAIL.getValue(), updatedSepiaThumbnail);
 
         var personId = 1L;
         var recurringTaskId = 999L;
@@ -1029,32 +1442,71 @@ class PersonServiceTest {
                 .build();
 
         when(personRepository.findById(personId)).thenReturn(Optional.of(originalPerson));
-        when(recurringTasksService.findById(recurringTaskId)).thenReturn(Optional.of(originalRecurringTaskDto));
+        when(recurringTasksService.findCurrentById(recurringTaskId)).thenReturn(Optional.of(originalRecurringTaskDto));
         when(personMapper.mapToModel(updatedPersonDto, recurringTaskId, originalColorThumbnail, originalSepiaThumbnail)).thenReturn(updatedPerson);
         when(recurringTaskDtoMapper.map(updatedPersonDto)).thenReturn(updatedRecurringTaskDtoWithoutId);
         when(imageService.createThumbnails("new-data")).thenReturn(updatedThumbnails);
-        when(savePersonHelper.saveAndFlushAndCommit(updatedPerson)).thenReturn(updatedPerson);
+        when(savePersonHelper.saveAndFlushAndCommit(eq(updatedPerson), any(Saga.class))).thenReturn(updatedPerson);
         when(personMapper.mapToDto(updatedPerson, updatedRecurringTaskDtoWithId)).thenReturn(updatedPersonDto);
-        doThrow(new RuntimeException()).when(imageService).delete(originalColorThumbnail); // an exception is thrown, but this should not halt the flow!
 
         // act
         var result = personService.update(updatedPersonDto);
 
         // assert
         verify(personRepository).findById(personId);
-        verify(recurringTasksService).findById(recurringTaskId);
+        verify(recurringTasksService).findCurrentById(recurringTaskId);
         verify(personMapper).mapToModel(updatedPersonDto, recurringTaskId, originalColorThumbnail, originalSepiaThumbnail);
         verify(recurringTaskDtoMapper).map(updatedPersonDto);
         verify(imageService).createThumbnails("new-data");
         verify(recurringTasksService).update(updatedRecurringTaskDtoWithId);
-        verify(savePersonHelper).saveAndFlushAndCommit(updatedPerson);
+        verify(savePersonHelper).saveAndFlushAndCommit(eq(updatedPerson), any(Saga.class));
         verify(personMapper).mapToDto(updatedPerson, updatedRecurringTaskDtoWithId);
-        verify(imageService).delete(originalColorThumbnail, originalSepiaThumbnail);
-        verifyNoMoreInteractions(personRepository, personMapper, imageService, recurringTasksService, recurringTaskDtoMapper);
+        verify(sagaExecutor).registerCompensation(any(Saga.class), eq(OutboxEntry.Type.DELETE_IMAGES), eq(updatedThumbnails.values()));
+        verify(sagaExecutor).registerCompensation(any(Saga.class), eq(OutboxEntry.Type.RESTORE_RECURRING_TASK), eq(originalRecurringTaskDto));
+        verify(sagaExecutor).followUp(any(Saga.class), eq(OutboxEntry.Type.DELETE_IMAGES), images(originalColorThumbnail, originalSepiaThumbnail)); // the old image is not deleted right away
+        verifyNoMoreInteractions(personRepository, personMapper, imageService, recurringTasksService, recurringTaskDtoMapper, sagaExecutor);
 
         assertEquals(updatedPersonDto, result);
     }
 
+    @Test
+    void findThumbnail() {
+        // arrange
+        var person = Person.builder()
+                .id(100L)
+                .colorThumbnail("color.jpg")
+                .sepiaThumbnail("sepia.jpg")
+                .thumbnailVariants(new HashMap<>(Map.of("thumbnail-small", "small.jpg")))
+                .build();
+        var thumbnails = Map.of("thumbnail", "color.jpg", "sepia", "sepia.jpg", "thumbnail-small", "small.jpg");
+
+        when(personRepository.findById(100L)).thenReturn(Optional.of(person));
+        when(thumbnailProfiles.findSmallestThatFits(thumbnails, 48, false)).thenReturn(Optional.of(new ThumbnailProperties.Profile("thumbnail-small", 64)));
+
+        // act
+        var result = personService.findThumbnail(100L, 48, false);
+
+        // assert
+        assertEquals(Optional.of(ThumbnailDto.builder().profile("thumbnail-small").size(64).name("small.jpg").build()), result);
+
+        verify(personRepository).findById(100L);
+        verify(thumbnailProfiles).findSmallestThatFits(thumbnails, 48, false);
+        verifyNoMoreInteractions(recurringTasksService, recurringTaskProjectionService, imageService, personRepository, personMapper, recurringTaskDtoMapper, savePersonHelper, thumbnailProfiles);
+    }
+
+    @Test
+    void findThumbnailWhenPersonDoesNotExist() {
+        // arrange
+        when(personRepository.findById(100L)).thenReturn(Optional.empty());
+
+        // act
+        var result = personService.findThumbnail(100L, 48, false);
+
+        // assert
+        assertTrue(result.isEmpty());
+        verifyNoInteractions(thumbnailProfiles);
+    }
+
     @Test
     void deleteWhenSuccess() {
         // arrange
@@ -1072,9 +1524,11 @@ class PersonServiceTest {
 
         // assert
         verify(personRepository).findById(10L);
-        verify(imageService).delete("imageName.png", "sepia-imageName.png");
-        verify(recurringTasksService).deleteById(20L);
-        verify(personRepository).deleteById(10L);
+        verify(sagaExecutor).followUp(any(Saga.class), eq(OutboxEntry.Type.DELETE_RECURRING_TASK), eq(20L));
+        verify(sagaExecutor).followUp(any(Saga.class), eq(OutboxEntry.Type.DELETE_IMAGES), images("imageName.png", "sepia-imageName.png"));
+        verify(savePersonHelper).deleteAndCommit(eq(10L), any(Saga.class));
+        verify(applicationEventPublisher).publishEvent(new ThumbnailsChangedEvent(10L));
+        verifyNoMoreInteractions(personRepository, imageService, recurringTasksService, recurringTaskProjectionService, savePersonHelper, sagaExecutor); // the other modules are called in the background
 
         assertEquals(DeleteResult.DELETED, deleteResult);
     }
@@ -1124,6 +1578,8 @@ class PersonServiceTest {
         assertEquals(latestUpdates, person.getLatestUpdates());
         verify(personRepository).findById(100L);
         verify(recurringTasksService).addExecution(executionDto, 888L);
+        verify(recurringTaskProjectionService).evict(888L);
+        verify(savePersonHelper).saveAndFlushAndCommit(person);
         verifyNoMoreInteractions(personRepository, personMapper, imageService, recurringTasksService, recurringTaskDtoMapper);
     }
 
@@ -1157,6 +1613,8 @@ class PersonServiceTest {
         assertNull(person.getLatestUpdates());
         verify(personRepository).findById(100L);
         verify(recurringTasksService).addExecution(executionDto, 888L);
+        verify(recurringTaskProjectionService).evict(888L);
+        verify(savePersonHelper).saveAndFlushAndCommit(person);
         verifyNoMoreInteractions(personRepository, personMapper, imageService, recurringTasksService, recurringTaskDtoMapper);
     }
 
@@ -1181,4 +1639,11 @@ class PersonServiceTest {
         verifyNoMoreInteractions(personRepository, personMapper, imageService, recurringTasksService, recurringTaskDtoMapper);
     }
 
-}
\ No newline at end of file
+    /**
+     * Matches the images in any order.
+     */
+    private static Collection<String> images(String... names) {
+        return argThat(images -> Set.copyOf(images).equals(Set.of(names)));
+    }
+
+}
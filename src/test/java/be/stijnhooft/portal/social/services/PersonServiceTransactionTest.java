@@ -0,0 +1,123 @@
+package be.stijnhooft.portal.social.services;
+
+import be.stijnhooft.portal.social.dtos.ImageLabel;
+import be.stijnhooft.portal.social.dtos.PersonDto;
+import be.stijnhooft.portal.social.dtos.RecurringTaskDto;
+import be.stijnhooft.portal.social.repositories.PersonRepository;
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.when;
+
+/**
+ * Verifies that the person service only holds a database connection while it works with the database,
+ * and not while it waits for the image and recurring tasks modules.
+ * The pool has only one connection, so another request can only use the database if that connection is free.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.hikari.maximum-pool-size=1",
+        "spring.datasource.hikari.connection-timeout=250"
+})
+@ActiveProfiles("test")
+class PersonServiceTransactionTest {
+
+    @Autowired
+    private PersonService personService;
+
+    @Autowired
+    private PersonRepository personRepository;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @MockBean
+    private ImageService imageService;
+
+    @MockBean
+    private RecurringTasksService recurringTasksService;
+
+    private final List<Integer> activeConnectionsWhileCallingOtherModules = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void mockOtherModules() {
+        when(imageService.createThumbnails(any(String.class))).thenAnswer(invocation -> {
+            whileCallingOtherModule();
+            HashMap<String, String> thumbnails = new HashMap<>();
+            thumbnails.put(ImageLabel.COLOR_THUMBNAIL.getValue(), "color.jpg");
+            thumbnails.put(ImageLabel.SEPIA_THUMBNAIL.getValue(), "sepia.jpg");
+            return thumbnails;
+        });
+        when(recurringTasksService.create(any())).thenAnswer(invocation -> {
+            whileCallingOtherModule();
+            RecurringTaskDto recurringTask = invocation.getArgument(0);
+            return recurringTask.toBuilder().id(recurringTask.getName().hashCode() & 0xffffL).build();
+        });
+        when(recurringTasksService.findByIds(anyCollection())).thenAnswer(invocation -> {
+            whileCallingOtherModule();
+            return Map.of();
+        });
+    }
+
+    @Test
+    void createHoldsNoConnectionWhileCallingOtherModules() {
+        // act
+        var createdPerson = personService.create(personDto("Transaction test create"));
+
+        // assert
+        assertEquals(List.of(0, 0), activeConnectionsWhileCallingOtherModules);
+        assertEquals(0, activeConnections());
+        assertTrue(personRepository.findById(createdPerson.getId()).isPresent());
+    }
+
+    @Test
+    void findPageHoldsNoConnectionWhileCallingOtherModules() {
+        // arrange
+        personService.create(personDto("Transaction test find"));
+        activeConnectionsWhileCallingOtherModules.clear();
+
+        // act
+        assertThrows(RuntimeException.class, () -> personService.findPage(null, 50)); // the recurring task cannot be found
+
+        // assert
+        assertEquals(List.of(0), activeConnectionsWhileCallingOtherModules);
+        assertEquals(0, activeConnections());
+    }
+
+    private void whileCallingOtherModule() throws Exception {
+        activeConnectionsWhileCallingOtherModules.add(activeConnections());
+
+        // meanwhile, another request should be able to use the only connection of the pool
+        var otherRequest = CompletableFuture.supplyAsync(personRepository::count);
+        assertDoesNotThrow(() -> otherRequest.get(5, TimeUnit.SECONDS));
+    }
+
+    private int activeConnections() {
+        return ((HikariDataSource) dataSource).getHikariPoolMXBean().getActiveConnections();
+    }
+
+    private PersonDto personDto(String name) {
+        return PersonDto.builder()
+                .name(name)
+                .newImageContent("new-data")
+                .minNumberOfDaysBetweenContacts(10)
+                .maxNumberOfDaysBetweenContacts(20)
+                .build();
+    }
+
+}
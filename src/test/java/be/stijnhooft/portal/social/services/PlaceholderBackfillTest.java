@@ -0,0 +1,74 @@
+package be.stijnhooft.portal.social.services;
+
+import be.stijnhooft.portal.social.ThumbnailProperties;
+import be.stijnhooft.portal.social.model.Person;
+import be.stijnhooft.portal.social.repositories.PersonRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.PageRequest;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class PlaceholderBackfillTest {
+
+    @Mock
+    private PersonRepository personRepository;
+
+    @Mock
+    private PlaceholderService placeholderService;
+
+    private PlaceholderBackfill placeholderBackfill;
+
+    @BeforeEach
+    void setUp() {
+        var thumbnailProperties = new ThumbnailProperties();
+        thumbnailProperties.setPlaceholderBatchSize(2);
+        placeholderBackfill = new PlaceholderBackfill(personRepository, placeholderService, thumbnailProperties);
+    }
+
+    @Test
+    void backfillGoesThroughAllBatchesAndSkipsFailures() {
+        // arrange
+        var person1 = person(1L);
+        var person2 = person(2L);
+        var person3 = person(3L);
+
+        when(personRepository.findWithoutPlaceholder(0L, PageRequest.of(0, 2))).thenReturn(List.of(person1, person2));
+        when(personRepository.findWithoutPlaceholder(2L, PageRequest.of(0, 2))).thenReturn(List.of(person3));
+        when(personRepository.findWithoutPlaceholder(3L, PageRequest.of(0, 2))).thenReturn(List.of());
+        when(placeholderService.createPlaceholder(person1.getThumbnails())).thenReturn("placeholder1");
+        when(placeholderService.createPlaceholder(person2.getThumbnails())).thenReturn(null); // could not be made, tried again next time
+        when(placeholderService.createPlaceholder(person3.getThumbnails())).thenReturn("placeholder3");
+
+        // act
+        placeholderBackfill.backfill();
+
+        // assert
+        verify(personRepository).findWithoutPlaceholder(0L, PageRequest.of(0, 2));
+        verify(personRepository).findWithoutPlaceholder(2L, PageRequest.of(0, 2));
+        verify(personRepository).findWithoutPlaceholder(3L, PageRequest.of(0, 2));
+        verify(placeholderService).createPlaceholder(person1.getThumbnails());
+        verify(placeholderService).createPlaceholder(person2.getThumbnails());
+        verify(placeholderService).createPlaceholder(person3.getThumbnails());
+        verify(personRepository).updatePlaceholder(1L, "color1.jpg", "placeholder1");
+        verify(personRepository).updatePlaceholder(3L, "color3.jpg", "placeholder3");
+        verifyNoMoreInteractions(personRepository, placeholderService);
+    }
+
+    private Person person(long id) {
+        var person = Person.builder()
+                .id(id)
+                .name("Person " + id)
+                .build();
+        person.setThumbnails(Map.of("thumbnail", "color" + id + ".jpg", "sepia", "sepia" + id + ".jpg"));
+        return person;
+    }
+
+}
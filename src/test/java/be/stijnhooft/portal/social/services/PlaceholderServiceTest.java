@@ -0,0 +1,118 @@
+package be.stijnhooft.portal.social.services;
+
+import be.stijnhooft.portal.social.ThumbnailProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class PlaceholderServiceTest {
+
+    @Mock
+    private ThumbnailBackend thumbnailBackend;
+
+    private PlaceholderService placeholderService;
+
+    @BeforeEach
+    void setUp() {
+        placeholderService = new PlaceholderService(thumbnailBackend, new ThumbnailProfiles(new ThumbnailProperties(), new ObjectMapper()));
+    }
+
+    @Test
+    void createPlaceholderOfTheSmallestColorThumbnail() throws IOException {
+        // arrange: a gray image
+        var thumbnails = Map.of("thumbnail", "color.jpg", "sepia", "sepia.jpg", "thumbnail-small", "color-small.jpg", "sepia-small", "sepia-small.jpg");
+        var image = new BufferedImage(64, 64, BufferedImage.TYPE_INT_RGB);
+        var graphics = image.createGraphics();
+        graphics.setColor(Color.GRAY);
+        graphics.fillRect(0, 0, 64, 64);
+        graphics.dispose();
+        var content = png(image);
+
+        when(thumbnailBackend.read(eq("color-small.jpg"), any())).thenAnswer(invocation -> {
+            OutputStream target = invocation.getArgument(1);
+            target.write(content);
+            return true;
+        });
+
+        // act
+        var placeholder = placeholderService.createPlaceholder(thumbnails);
+
+        // assert
+        assertEquals(28, placeholder.length());
+        assertEquals('L', placeholder.charAt(0)); // 4x3 components
+        assertEquals(0x808080, decode83(placeholder.substring(2, 6))); // the average color
+        verify(thumbnailBackend).read(eq("color-small.jpg"), any());
+        verifyNoMoreInteractions(thumbnailBackend);
+    }
+
+    @Test
+    void createPlaceholderWhenThumbnailDoesNotExist() {
+        // arrange
+        when(thumbnailBackend.read(eq("color.jpg"), any())).thenReturn(false);
+
+        // act
+        var placeholder = placeholderService.createPlaceholder(Map.of("thumbnail", "color.jpg"));
+
+        // assert
+        assertNull(placeholder);
+    }
+
+    @Test
+    void createPlaceholderWhenThumbnailIsNotAnImage() {
+        // arrange
+        when(thumbnailBackend.read(eq("color.jpg"), any())).thenAnswer(invocation -> {
+            OutputStream target = invocation.getArgument(1);
+            target.write(new byte[] {1, 2, 3});
+            return true;
+        });
+
+        // act
+        var placeholder = placeholderService.createPlaceholder(Map.of("thumbnail", "color.jpg"));
+
+        // assert
+        assertNull(placeholder);
+    }
+
+    @Test
+    void createPlaceholderWhenThereIsNoColorThumbnail() {
+        // act
+        var placeholder = placeholderService.createPlaceholder(Map.of("sepia", "sepia.jpg"));
+
+        // assert
+        assertNull(placeholder);
+        verifyNoInteractions(thumbnailBackend);
+    }
+
+    private static int decode83(String value) {
+        var characters = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz#$%*+,-.:;=?@[]^_{|}~";
+        int decoded = 0;
+        for (char character : value.toCharArray()) {
+            decoded = decoded * 83 + characters.indexOf(character);
+        }
+        return decoded;
+    }
+
+    private static byte[] png(BufferedImage image) throws IOException {
+        var outputStream = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", outputStream);
+        return outputStream.toByteArray();
+    }
+
+}
@@ -0,0 +1,135 @@
+package be.stijnhooft.portal.social.services;
+
+import be.stijnhooft.portal.social.dtos.DeleteResult;
+import be.stijnhooft.portal.social.dtos.PersonDto;
+import be.stijnhooft.portal.social.dtos.RecurringTaskDto;
+import be.stijnhooft.portal.social.model.Person;
+import be.stijnhooft.portal.social.repositories.PersonRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ReactivePersonServiceTest {
+
+    @InjectMocks
+    private ReactivePersonService reactivePersonService;
+
+    @Mock
+    private PersonService personService;
+
+    @Mock
+    private PersonRepository personRepository;
+
+    @Mock
+    private RecurringTaskProjectionService recurringTaskProjectionService;
+
+    @Mock
+    private ReactiveRecurringTasksService reactiveRecurringTasksService;
+
+    @Test
+    void findAll() {
+        // arrange
+        var person1 = person(100L, 888L);
+        var person2 = person(200L, 999L);
+        var recurringTask1 = recurringTask(888L);
+        var recurringTask2 = recurringTask(999L);
+        var personDto1 = PersonDto.builder().id(100L).build();
+        var personDto2 = PersonDto.builder().id(200L).build();
+        var allRecurringTasks = Map.of(888L, recurringTask1, 999L, recurringTask2);
+
+        when(personRepository.findAll()).thenReturn(List.of(person1, person2));
+        when(recurringTaskProjectionService.findKnownByIds(Set.of(888L, 999L))).thenReturn(Map.of(888L, recurringTask1));
+        when(reactiveRecurringTasksService.findByIds(List.of(999L))).thenReturn(Mono.just(Map.of(999L, recurringTask2)));
+        when(personService.enrichAndMap(person1, allRecurringTasks)).thenReturn(personDto1);
+        when(personService.enrichAndMap(person2, allRecurringTasks)).thenReturn(personDto2);
+
+        // act
+        var result = reactivePersonService.findAll().block();
+
+        // assert
+        assertEquals(List.of(personDto1, personDto2), result);
+        verify(personRepository).findAll();
+        verify(recurringTaskProjectionService).findKnownByIds(Set.of(888L, 999L));
+        verify(reactiveRecurringTasksService).findByIds(List.of(999L));
+        verify(recurringTaskProjectionService).saveAll(argThat(recurringTasks -> List.copyOf(recurringTasks).equals(List.of(recurringTask2))));
+        verify(personService).enrichAndMap(person1, allRecurringTasks);
+        verify(personService).enrichAndMap(person2, allRecurringTasks);
+        verifyNoMoreInteractions(personRepository, recurringTaskProjectionService, reactiveRecurringTasksService, personService);
+    }
+
+    @Test
+    void findByIdWhenAllRecurringTasksAreKnownLocally() {
+        // arrange
+        var person = person(100L, 888L);
+        var recurringTask = recurringTask(888L);
+        var personDto = PersonDto.builder().id(100L).build();
+
+        when(personRepository.findById(100L)).thenReturn(Optional.of(person));
+        when(recurringTaskProjectionService.findKnownByIds(Set.of(888L))).thenReturn(Map.of(888L, recurringTask));
+        when(personService.enrichAndMap(person, Map.of(888L, recurringTask))).thenReturn(personDto);
+
+        // act
+        var result = reactivePersonService.findById(100L).block();
+
+        // assert
+        assertEquals(personDto, result);
+        verifyNoInteractions(reactiveRecurringTasksService);
+    }
+
+    @Test
+    void findByIdWhenPersonDoesNotExist() {
+        // arrange
+        when(personRepository.findById(100L)).thenReturn(Optional.empty());
+
+        // act
+        var result = reactivePersonService.findById(100L).blockOptional();
+
+        // assert
+        assertTrue(result.isEmpty());
+        verifyNoInteractions(recurringTaskProjectionService, reactiveRecurringTasksService, personService);
+    }
+
+    @Test
+    void delete() {
+        // arrange
+        when(personService.delete(100L)).thenReturn(DeleteResult.DELETED);
+
+        // act
+        var result = reactivePersonService.delete(100L).block();
+
+        // assert
+        assertEquals(DeleteResult.DELETED, result);
+        verify(personService).delete(100L);
+        verifyNoMoreInteractions(personService);
+        verifyNoInteractions(personRepository, reactiveRecurringTasksService, recurringTaskProjectionService);
+    }
+
+    private Person person(long id, long recurringTaskId) {
+        return Person.builder()
+                .id(id)
+                .recurringTaskId(recurringTaskId)
+                .colorThumbnail("color.jpg")
+                .sepiaThumbnail("sepia.jpg")
+                .build();
+    }
+
+    private RecurringTaskDto recurringTask(long id) {
+        return RecurringTaskDto.builder()
+                .id(id)
+                .build();
+    }
+
+}
@@ -0,0 +1,114 @@
+package be.stijnhooft.portal.social.services;
+
+import be.stijnhooft.portal.social.RecurringTasksProperties;
+import be.stijnhooft.portal.social.dtos.RecurringTaskDto;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ReactiveRecurringTasksServiceTest {
+
+    @Mock
+    private ServiceInstanceResolver serviceInstanceResolver;
+
+    private final RecurringTasksProperties properties = new RecurringTasksProperties();
+    private final List<ClientRequest> requests = new CopyOnWriteArrayList<>();
+    private Function<ClientRequest, ClientResponse> responder;
+    private ReactiveRecurringTasksService reactiveRecurringTasksService;
+
+    @BeforeEach
+    void setUp() {
+        properties.setBatchSize(2);
+        when(serviceInstanceResolver.choose(RecurringTasksService.SERVICE_ID))
+                .thenReturn(new DefaultServiceInstance("recurring-tasks-1", RecurringTasksService.SERVICE_ID, "localhost", 2011, false));
+
+        var webClient = WebClient.builder()
+                .exchangeFunction(request -> {
+                    requests.add(request);
+                    return Mono.just(responder.apply(request));
+                })
+                .build();
+        reactiveRecurringTasksService = new ReactiveRecurringTasksService(webClient, serviceInstanceResolver, properties);
+    }
+
+    @Test
+    void findByIdsInChunks() {
+        // arrange
+        responder = request -> {
+            var ids = request.url().getQuery().replace("ids=", "").split(",");
+            var body = new StringBuilder("[");
+            for (int i = 0; i < ids.length; i++) {
+                body.append(i == 0 ? "" : ",").append("{\"id\": ").append(ids[i]).append("}");
+            }
+            return json(body.append("]").toString());
+        };
+
+        // act
+        var result = reactiveRecurringTasksService.findByIds(List.of(1L, 2L, 3L, 2L)).block();
+
+        // assert
+        assertNotNull(result);
+        assertEquals(Map.of(1L, dto(1L), 2L, dto(2L), 3L, dto(3L)), result);
+        assertEquals(2, requests.size());
+    }
+
+    @Test
+    void findByIdsWhenAChunkFailsAndFailingFast() {
+        // arrange
+        properties.setFailurePolicy(RecurringTasksProperties.FailurePolicy.FAIL_FAST);
+        responder = request -> request.url().getQuery().contains("3")
+                ? ClientResponse.create(HttpStatus.INTERNAL_SERVER_ERROR).build()
+                : json("[{\"id\": 1}, {\"id\": 2}]");
+
+        // act and assert
+        assertThrows(RuntimeException.class, () -> reactiveRecurringTasksService.findByIds(List.of(1L, 2L, 3L)).block());
+    }
+
+    @Test
+    void findByIdsWhenAChunkFailsAndPartialResultsAreAllowed() {
+        // arrange
+        properties.setFailurePolicy(RecurringTasksProperties.FailurePolicy.PARTIAL_RESULTS);
+        responder = request -> request.url().getQuery().contains("3")
+                ? ClientResponse.create(HttpStatus.INTERNAL_SERVER_ERROR).build()
+                : json("[{\"id\": 1}, {\"id\": 2}]");
+
+        // act
+        var result = reactiveRecurringTasksService.findByIds(List.of(1L, 2L, 3L)).block();
+
+        // assert
+        assertEquals(Map.of(1L, dto(1L), 2L, dto(2L)), result);
+    }
+
+    private ClientResponse json(String body) {
+        return ClientResponse.create(HttpStatus.OK)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .body(body)
+                .build();
+    }
+
+    private RecurringTaskDto dto(long id) {
+        return RecurringTaskDto.builder()
+                .id(id)
+                .build();
+    }
+
+}
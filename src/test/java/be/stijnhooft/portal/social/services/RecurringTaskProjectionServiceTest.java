@@ -0,0 +1,145 @@
+package be.stijnhooft.portal.social.services;
+
+import be.stijnhooft.portal.social.dtos.RecurringTaskDto;
+import be.stijnhooft.portal.social.dtos.RecurringTaskEventDto;
+import be.stijnhooft.portal.social.dtos.RecurringTaskEventType;
+import be.stijnhooft.portal.social.mappers.RecurringTaskProjectionMapper;
+import be.stijnhooft.portal.social.model.RecurringTaskProjection;
+import be.stijnhooft.portal.social.repositories.RecurringTaskProjectionRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class RecurringTaskProjectionServiceTest {
+
+    private RecurringTaskProjectionService recurringTaskProjectionService;
+
+    @Mock
+    private RecurringTaskProjectionRepository recurringTaskProjectionRepository;
+
+    @Mock
+    private RecurringTasksService recurringTasksService;
+
+    private final RecurringTaskProjectionMapper recurringTaskProjectionMapper = new RecurringTaskProjectionMapper();
+
+    @BeforeEach
+    void setUp() {
+        recurringTaskProjectionService = new RecurringTaskProjectionService(recurringTaskProjectionRepository, recurringTaskProjectionMapper, recurringTasksService);
+    }
+
+    @Test
+    void findByIdWhenKnownLocally() {
+        // arrange
+        var recurringTask = recurringTask(100L);
+        when(recurringTaskProjectionRepository.findById(100L)).thenReturn(Optional.of(recurringTaskProjectionMapper.mapToModel(recurringTask)));
+
+        // act
+        var result = recurringTaskProjectionService.findById(100L);
+
+        // assert
+        assertEquals(Optional.of(recurringTask), result);
+        verifyNoInteractions(recurringTasksService);
+    }
+
+    @Test
+    void findByIdWhenNotKnownLocally() {
+        // arrange
+        var recurringTask = recurringTask(100L);
+        when(recurringTaskProjectionRepository.findById(100L)).thenReturn(Optional.empty());
+        when(recurringTasksService.findById(100L)).thenReturn(Optional.of(recurringTask));
+
+        // act
+        var result = recurringTaskProjectionService.findById(100L);
+
+        // assert
+        assertEquals(Optional.of(recurringTask), result);
+        verify(recurringTaskProjectionRepository).save(recurringTaskProjectionMapper.mapToModel(recurringTask));
+    }
+
+    @Test
+    void findByIdWhenNotFoundAnywhere() {
+        // arrange
+        when(recurringTaskProjectionRepository.findById(100L)).thenReturn(Optional.empty());
+        when(recurringTasksService.findById(100L)).thenReturn(Optional.empty());
+
+        // act
+        var result = recurringTaskProjectionService.findById(100L);
+
+        // assert
+        assertTrue(result.isEmpty());
+        verify(recurringTaskProjectionRepository, never()).save(any());
+    }
+
+    @Test
+    void findByIdsOnlyRetrievesTheMissingOnes() {
+        // arrange
+        var knownRecurringTask = recurringTask(1L);
+        var missingRecurringTask = recurringTask(2L);
+
+        when(recurringTaskProjectionRepository.findAllById(Set.of(1L, 2L, 3L)))
+                .thenReturn(List.of(recurringTaskProjectionMapper.mapToModel(knownRecurringTask)));
+        when(recurringTasksService.findByIds(List.of(2L, 3L)))
+                .thenReturn(Map.of(2L, missingRecurringTask));
+
+        // act
+        var result = recurringTaskProjectionService.findByIds(List.of(1L, 2L, 3L));
+
+        // assert
+        assertEquals(Map.of(1L, knownRecurringTask, 2L, missingRecurringTask), result);
+        verify(recurringTaskProjectionRepository).saveAll(List.of(recurringTaskProjectionMapper.mapToModel(missingRecurringTask)));
+    }
+
+    @Test
+    void findByIdsWhenAllAreKnownLocally() {
+        // arrange
+        var recurringTask = recurringTask(1L);
+        when(recurringTaskProjectionRepository.findAllById(Set.of(1L)))
+                .thenReturn(List.of(recurringTaskProjectionMapper.mapToModel(recurringTask)));
+
+        // act
+        var result = recurringTaskProjectionService.findByIds(List.of(1L));
+
+        // assert
+        assertEquals(Map.of(1L, recurringTask), result);
+        verifyNoInteractions(recurringTasksService);
+    }
+
+    @Test
+    void applyUpdatedEvent() {
+        // arrange
+        var recurringTask = recurringTask(100L);
+
+        // act
+        recurringTaskProjectionService.apply(new RecurringTaskEventDto(RecurringTaskEventType.UPDATED, recurringTask));
+
+        // assert
+        verify(recurringTaskProjectionRepository).save(recurringTaskProjectionMapper.mapToModel(recurringTask));
+    }
+
+    @Test
+    void applyDeletedEvent() {
+        // act
+        recurringTaskProjectionService.apply(new RecurringTaskEventDto(RecurringTaskEventType.DELETED, RecurringTaskDto.builder().id(100L).build()));
+
+        // assert
+        verify(recurringTaskProjectionRepository).deleteIfExists(100L);
+        verify(recurringTaskProjectionRepository, never()).save(any(RecurringTaskProjection.class));
+    }
+
+    private RecurringTaskDto recurringTask(long id) {
+        return new RecurringTaskDto(id, "Person " + id, 7, 14, LocalDate.of(2020, 1, 1));
+    }
+
+}
@@ -1,5 +1,6 @@
 package be.stijnhooft.portal.social.services;
 
+import be.stijnhooft.portal.social.RecurringTasksProperties;
 import be.stijnhooft.portal.social.dtos.ExecutionDto;
 import be.stijnhooft.portal.social.dtos.RecurringTaskDto;
 import be.stijnhooft.portal.social.dtos.Source;
@@ -10,11 +11,15 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cache.CacheManager;
 import org.springframework.cloud.client.ServiceInstance;
 import org.springframework.cloud.client.discovery.DiscoveryClient;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 
@@ -22,25 +27,49 @@ import java.net.URI;
 import java.time.LocalDate;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @SpringBootTest
 @ActiveProfiles("test")
+@TestPropertySource(properties = "social.recurring-tasks.batch-size=2")
 @ExtendWith(MockitoExtension.class)
 class RecurringTasksServiceTest {
 
     @Autowired
     private RecurringTasksService recurringTasksService;
 
+    @Autowired
+    private RecurringTasksProperties recurringTasksProperties;
+
+    @Autowired
+    private CacheManager cacheManager;
+
+    @Autowired
+    private ServiceInstanceResolver serviceInstanceResolver;
+
     @MockBean
     private RestTemplate restTemplate;
 
     @MockBean
     private DiscoveryClient discoveryClient;
 
+    @BeforeEach
+    public void clearCache() {
+        cacheManager.getCache(RecurringTasksService.CACHE_NAME).clear();
+    }
+
     @BeforeEach
     public void mockDiscoverClient() {
         when(discoveryClient.getInstances(RecurringTasksService.SERVICE_ID))
@@ -108,6 +137,102 @@ class RecurringTasksServiceTest {
         assertFalse(result.isPresent());
     }
 
+    @Test
+    void findByIdIsCached() {
+        // arrange
+        var recurringTaskDto = RecurringTaskDto.builder()
+                .id(100L)
+                .build();
+
+        when(restTemplate.getForEntity("http://localhost:2011/api/recurring-task/100", RecurringTaskDto.class))
+                .thenReturn(ResponseEntity.ok(recurringTaskDto));
+
+        // act
+        recurringTasksService.findById(100);
+        var result = recurringTasksService.findById(100);
+
+        // assert
+        assertEquals(recurringTaskDto, result.orElseThrow());
+        verify(restTemplate, times(1)).getForEntity("http://localhost:2011/api/recurring-task/100", RecurringTaskDto.class);
+    }
+
+    @Test
+    void findCurrentByIdWhenTheCachedCopyIsOutdated() {
+        // arrange
+        var cachedRecurringTaskDto = RecurringTaskDto.builder()
+                .id(100L)
+                .name("Jos")
+                .build();
+        var currentRecurringTaskDto = RecurringTaskDto.builder()
+                .id(100L)
+                .name("Jef")
+                .build();
+
+        when(restTemplate.getForEntity("http://localhost:2011/api/recurring-task/100", RecurringTaskDto.class))
+                .thenReturn(ResponseEntity.ok(cachedRecurringTaskDto), ResponseEntity.ok(currentRecurringTaskDto));
+        recurringTasksService.findById(100);
+
+        // act
+        var result = recurringTasksService.findCurrentById(100);
+
+        // assert
+        assertEquals(currentRecurringTaskDto, result.orElseThrow());
+        assertEquals(currentRecurringTaskDto, recurringTasksService.findById(100).orElseThrow());
+        verify(restTemplate, times(2)).getForEntity("http://localhost:2011/api/recurring-task/100", RecurringTaskDto.class);
+    }
+
+    @Test
+    void findByIdIsNotCachedWhenNotFound() {
+        // arrange
+        when(restTemplate.getForEntity("http://localhost:2011/api/recurring-task/100", RecurringTaskDto.class))
+                .thenThrow(new HttpClientErrorException(HttpStatus.NOT_FOUND));
+
+        // act
+        recurringTasksService.findById(100);
+        recurringTasksService.findById(100);
+
+        // assert
+        verify(restTemplate, times(2)).getForEntity("http://localhost:2011/api/recurring-task/100", RecurringTaskDto.class);
+    }
+
+    @Test
+    void updateEvictsCachedRecurringTask() {
+        // arrange
+        var recurringTaskDto = RecurringTaskDto.builder()
+                .id(100L)
+                .build();
+
+        when(restTemplate.getForEntity("http://localhost:2011/api/recurring-task/100", RecurringTaskDto.class))
+                .thenReturn(ResponseEntity.ok(recurringTaskDto));
+
+        // act
+        recurringTasksService.findById(100);
+        recurringTasksService.update(recurringTaskDto);
+        recurringTasksService.findById(100);
+
+        // assert
+        verify(restTemplate, times(2)).getForEntity("http://localhost:2011/api/recurring-task/100", RecurringTaskDto.class);
+    }
+
+    @Test
+    void addExecutionEvictsCachedRecurringTask() {
+        // arrange
+        var recurringTaskDto = RecurringTaskDto.builder()
+                .id(100L)
+                .build();
+
+        when(restTemplate.getForEntity("http://localhost:2011/api/recurring-task/100", RecurringTaskDto.class))
+                .thenReturn(ResponseEntity.ok(recurringTaskDto));
+
+        // act
+        recurringTasksService.findById(100);
+        recurringTasksService.addExecution(new ExecutionDto(LocalDate.now(), Source.USER), 100);
+        recurringTasksService.findById(100);
+
+        // assert
+        verify(restTemplate, times(2)).getForEntity("http://localhost:2011/api/recurring-task/100", RecurringTaskDto.class);
+    }
+
     @Test
     void findByIdWhenError() {
         // arrange
@@ -118,6 +243,118 @@ class RecurringTasksServiceTest {
         assertThrows(RuntimeException.class, () -> recurringTasksService.findById(100), "Recurring tasks microservice responded with BAD_REQUEST");
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    void findByIdsInChunks() {
+        // arrange
+        var recurringTask1 = RecurringTaskDto.builder().id(1L).build();
+        var recurringTask2 = RecurringTaskDto.builder().id(2L).build();
+        var recurringTask3 = RecurringTaskDto.builder().id(3L).build();
+
+        when(restTemplate.exchange(eq("http://localhost:2011/api/recurring-task/?ids=1,2"), eq(HttpMethod.GET), isNull(), any(ParameterizedTypeReference.class)))
+                .thenReturn(ResponseEntity.ok(List.of(recurringTask1, recurringTask2)));
+        when(restTemplate.exchange(eq("http://localhost:2011/api/recurring-task/?ids=3"), eq(HttpMethod.GET), isNull(), any(ParameterizedTypeReference.class)))
+                .thenReturn(ResponseEntity.ok(List.of(recurringTask3)));
+
+        // act
+        var result = recurringTasksService.findByIds(List.of(1L, 2L, 3L, 1L));
+
+        // assert
+        assertEquals(Map.of(1L, recurringTask1, 2L, recurringTask2, 3L, recurringTask3), result);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void findByIdsWhenSomeAreNotFound() {
+        // arrange
+        var recurringTask1 = RecurringTaskDto.builder().id(1L).build();
+
+        when(restTemplate.exchange(eq("http://localhost:2011/api/recurring-task/?ids=1,2"), eq(HttpMethod.GET), isNull(), any(ParameterizedTypeReference.class)))
+                .thenReturn(ResponseEntity.ok(List.of(recurringTask1)));
+
+        // act
+        var result = recurringTasksService.findByIds(List.of(1L, 2L));
+
+        // assert
+        assertEquals(Map.of(1L, recurringTask1), result);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void findByIdsWhenAChunkFailsAndFailingFast() {
+        // arrange
+        when(restTemplate.exchange(eq("http://localhost:2011/api/recurring-task/?ids=1,2"), eq(HttpMethod.GET), isNull(), any(ParameterizedTypeReference.class)))
+                .thenReturn(ResponseEntity.ok(List.of(RecurringTaskDto.builder().id(1L).build())));
+        when(restTemplate.exchange(eq("http://localhost:2011/api/recurring-task/?ids=3"), eq(HttpMethod.GET), isNull(), any(ParameterizedTypeReference.class)))
+                .thenThrow(new HttpClientErrorException(HttpStatus.BAD_REQUEST));
+
+        // act, assert
+        assertThrows(RuntimeException.class, () -> recurringTasksService.findByIds(List.of(1L, 2L, 3L)));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void findByIdsWhenAChunkFailsAndPartialResultsAreAllowed() {
+        // arrange
+        var recurringTask1 = RecurringTaskDto.builder().id(1L).build();
+        when(restTemplate.exchange(eq("http://localhost:2011/api/recurring-task/?ids=1,2"), eq(HttpMethod.GET), isNull(), any(ParameterizedTypeReference.class)))
+                .thenReturn(ResponseEntity.ok(List.of(recurringTask1)));
+        when(restTemplate.exchange(eq("http://localhost:2011/api/recurring-task/?ids=3"), eq(HttpMethod.GET), isNull(), any(ParameterizedTypeReference.class)))
+                .thenThrow(new HttpClientErrorException(HttpStatus.BAD_REQUEST));
+
+        recurringTasksProperties.setFailurePolicy(RecurringTasksProperties.FailurePolicy.PARTIAL_RESULTS);
+        try {
+            // act
+            var result = recurringTasksService.findByIds(List.of(1L, 2L, 3L));
+
+            // assert
+            assertEquals(Map.of(1L, recurringTask1), result);
+        } finally {
+            recurringTasksProperties.setFailurePolicy(RecurringTasksProperties.FailurePolicy.FAIL_FAST);
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void findByIdsWhenTheExecutorIsFullAndFailingFast() throws InterruptedException {
+        // arrange
+        var busy = new CountDownLatch(1);
+        var executor = fullExecutor(busy);
+        try {
+            var service = new RecurringTasksService(restTemplate, serviceInstanceResolver, recurringTasksProperties, executor);
+
+            // act, assert
+            assertThrows(RuntimeException.class, () -> service.findByIds(List.of(1L, 2L, 3L)));
+            verify(restTemplate, never()).exchange(any(String.class), any(HttpMethod.class), any(), any(ParameterizedTypeReference.class));
+        } finally {
+            busy.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void findByIdsWhenTheExecutorIsFullAndPartialResultsAreAllowed() throws InterruptedException {
+        // arrange
+        var busy = new CountDownLatch(1);
+        var executor = fullExecutor(busy);
+        recurringTasksProperties.setFailurePolicy(RecurringTasksProperties.FailurePolicy.PARTIAL_RESULTS);
+        try {
+            var service = new RecurringTasksService(restTemplate, serviceInstanceResolver, recurringTasksProperties, executor);
+
+            // act
+            var result = service.findByIds(List.of(1L, 2L, 3L));
+
+            // assert
+            assertEquals(Map.of(), result);
+            verify(restTemplate, never()).exchange(any(String.class), any(HttpMethod.class), any(), any(ParameterizedTypeReference.class));
+        } finally {
+            recurringTasksProperties.setFailurePolicy(RecurringTasksProperties.FailurePolicy.FAIL_FAST);
+            busy.countDown();
+            executor.shutdown();
+        }
+    }
+
     @Test
     void deleteById() {
         recurringTasksService.deleteById(100);
@@ -178,4 +415,24 @@ class RecurringTasksServiceTest {
         recurringTasksService.rollbackCreateRecurringTask(100);
         verify(restTemplate).delete("http://localhost:2011/api/recurring-task/100/");
     }
+
+    /**
+     * An executor like the recurring tasks executor, of which the only thread is busy until the latch is counted down,
+     * and which has no room in its queue.
+     */
+    private ThreadPoolExecutor fullExecutor(CountDownLatch busy) throws InterruptedException {
+        var executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), new ThreadPoolExecutor.AbortPolicy());
+        var started = new CountDownLatch(1);
+        executor.execute(() -> {
+            started.countDown();
+            try {
+                busy.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        started.await();
+        return executor;
+    }
+
 }
@@ -0,0 +1,160 @@
+package be.stijnhooft.portal.social.services;
+
+import be.stijnhooft.portal.social.ThumbnailProperties;
+import be.stijnhooft.portal.model.image.ImageDto;
+import be.stijnhooft.portal.social.dtos.ImageDeleteResult;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResponseExtractor;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class RemoteThumbnailBackendTest {
+
+    private static final String URL = "http://image:8080/api/remove/";
+
+    @Mock
+    private ServiceInstanceResolver serviceInstanceResolver;
+
+    @Mock
+    private RestTemplate restTemplate;
+
+    private ThumbnailProperties thumbnailProperties;
+    private ExecutorService executor;
+    private RemoteThumbnailBackend remoteThumbnailBackend;
+
+    @BeforeEach
+    void setUp() {
+        thumbnailProperties = new ThumbnailProperties();
+        executor = Executors.newFixedThreadPool(2);
+        remoteThumbnailBackend = new RemoteThumbnailBackend(serviceInstanceResolver, restTemplate, thumbnailProperties, new ThumbnailProfiles(thumbnailProperties, new ObjectMapper()), executor);
+        when(serviceInstanceResolver.choose(RemoteThumbnailBackend.SERVICE_ID))
+                .thenReturn(new DefaultServiceInstance("image-1", RemoteThumbnailBackend.SERVICE_ID, "image", 8080, false));
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void createThumbnailsOfEveryProfile() {
+        // arrange
+        thumbnailProperties.setProfiles(List.of(
+                new ThumbnailProperties.Profile("thumbnail", 300),
+                new ThumbnailProperties.Profile("sepia", 300, ThumbnailProperties.Filter.SEPIA),
+                new ThumbnailProperties.Profile("thumbnail-small", 64)));
+        remoteThumbnailBackend = new RemoteThumbnailBackend(serviceInstanceResolver, restTemplate, thumbnailProperties, new ThumbnailProfiles(thumbnailProperties, new ObjectMapper()), executor);
+        when(restTemplate.exchange(eq("http://image:8080/api/transform/"), eq(HttpMethod.POST), ArgumentMatchers.<HttpEntity<MultiValueMap<String, Object>>>any(), ArgumentMatchers.<ParameterizedTypeReference<List<ImageDto>>>any()))
+                .thenReturn(ResponseEntity.ok(List.of(
+                        new ImageDto("color.jpg", "thumbnail"),
+                        new ImageDto("sepia.jpg", "sepia"),
+                        new ImageDto("small.jpg", "thumbnail-small"))));
+
+        // act
+        var result = remoteThumbnailBackend.createThumbnails(new ByteArrayResource(new byte[] {1, 2, 3}));
+
+        // assert
+        assertEquals(new HashMap<>(Map.of("thumbnail", "color.jpg", "sepia", "sepia.jpg", "thumbnail-small", "small.jpg")), result);
+        verify(restTemplate).exchange(eq("http://image:8080/api/transform/"), eq(HttpMethod.POST), argThat((HttpEntity<MultiValueMap<String, Object>> request) ->
+                ("[{\"label\":\"thumbnail\",\"transformations\":[{\"name\":\"resize\",\"width\":\"300\",\"height\":\"300\",\"crop\":true}]}," +
+                        "{\"label\":\"sepia\",\"transformations\":[{\"name\":\"resize\",\"width\":\"300\",\"height\":\"300\",\"crop\":true},{\"name\":\"sepia\"}]}," +
+                        "{\"label\":\"thumbnail-small\",\"transformations\":[{\"name\":\"resize\",\"width\":\"64\",\"height\":\"64\",\"crop\":true}]}]")
+                        .equals(request.getBody().getFirst("transformationDefinitions"))), ArgumentMatchers.<ParameterizedTypeReference<List<ImageDto>>>any());
+    }
+
+    @Test
+    void readWhenImageDoesNotExist() {
+        // arrange
+        when(restTemplate.execute(eq("http://image:8080/api/image/gone.jpg"), eq(HttpMethod.GET), isNull(), ArgumentMatchers.<ResponseExtractor<Long>>any()))
+                .thenThrow(HttpClientErrorException.create(HttpStatus.NOT_FOUND, "Not Found", null, null, null));
+
+        // act
+        var result = remoteThumbnailBackend.read("gone.jpg", OutputStream.nullOutputStream());
+
+        // assert
+        assertFalse(result);
+    }
+
+    @Test
+    void deleteOneByOneReportsEveryImage() {
+        // arrange: lenient, because the images are deleted concurrently, in no particular order
+        lenient().doThrow(HttpClientErrorException.create(HttpStatus.NOT_FOUND, "Not Found", null, null, null))
+                .when(restTemplate).delete(URL + "gone.jpg");
+        lenient().doThrow(HttpServerErrorException.create(HttpStatus.INTERNAL_SERVER_ERROR, "Internal Server Error", null, null, null))
+                .when(restTemplate).delete(URL + "broken.jpg");
+
+        // act
+        var result = remoteThumbnailBackend.delete(List.of("color.jpg", "gone.jpg", "broken.jpg", "color.jpg"));
+
+        // assert
+        assertEquals(Map.of("color.jpg", ImageDeleteResult.DELETED, "gone.jpg", ImageDeleteResult.DOES_NOT_EXIST, "broken.jpg", ImageDeleteResult.FAILED), result);
+        verify(restTemplate).delete(URL + "color.jpg");
+        verify(restTemplate).delete(URL + "gone.jpg");
+        verify(restTemplate).delete(URL + "broken.jpg");
+        verifyNoMoreInteractions(restTemplate);
+    }
+
+    @Test
+    void deleteInOneRequest() {
+        // arrange
+        thumbnailProperties.setRemoteBatchDelete(true);
+
+        // act
+        var result = remoteThumbnailBackend.delete(List.of("color.jpg", "sepia.jpg"));
+
+        // assert
+        assertEquals(Map.of("color.jpg", ImageDeleteResult.DELETED, "sepia.jpg", ImageDeleteResult.DELETED), result);
+        verify(restTemplate).postForEntity(URL, List.of("color.jpg", "sepia.jpg"), Void.class);
+        verifyNoMoreInteractions(restTemplate);
+    }
+
+    @Test
+    void deleteInOneRequestFallsBackToOneByOne() {
+        // arrange
+        thumbnailProperties.setRemoteBatchDelete(true);
+        when(restTemplate.postForEntity(eq(URL), any(), eq(Void.class)))
+                .thenThrow(HttpClientErrorException.create(HttpStatus.METHOD_NOT_ALLOWED, "Method Not Allowed", null, null, null));
+
+        // act
+        var result = remoteThumbnailBackend.delete(List.of("color.jpg", "sepia.jpg"));
+
+        // assert
+        assertEquals(Map.of("color.jpg", ImageDeleteResult.DELETED, "sepia.jpg", ImageDeleteResult.DELETED), result);
+        verify(restTemplate).postForEntity(URL, List.of("color.jpg", "sepia.jpg"), Void.class);
+        verify(restTemplate).delete(URL + "color.jpg");
+        verify(restTemplate).delete(URL + "sepia.jpg");
+        verifyNoMoreInteractions(restTemplate);
+    }
+
+}
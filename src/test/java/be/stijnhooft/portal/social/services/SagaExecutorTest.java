@@ -0,0 +1,301 @@
+package be.stijnhooft.portal.social.services;
+
+import be.stijnhooft.portal.social.OutboxProperties;
+import be.stijnhooft.portal.social.dtos.ImageDeleteResult;
+import be.stijnhooft.portal.social.dtos.RecurringTaskDto;
+import be.stijnhooft.portal.social.model.OutboxEntry;
+import be.stijnhooft.portal.social.repositories.OutboxEntryRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class SagaExecutorTest {
+
+    private static final Instant NOW = Instant.parse("2021-05-01T10:00:00Z");
+
+    @Mock
+    private OutboxEntryRepository outboxEntryRepository;
+
+    @Mock
+    private ImageService imageService;
+
+    @Mock
+    private RecurringTasksService recurringTasksService;
+
+    @Mock
+    private RecurringTaskProjectionService recurringTaskProjectionService;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private SagaExecutor sagaExecutor;
+
+    @BeforeEach
+    void setUp() {
+        var outboxProperties = new OutboxProperties();
+        outboxProperties.setBatchSize(2);
+        outboxProperties.setRetryDelay(Duration.ofSeconds(10));
+        outboxProperties.setMaxRetryDelay(Duration.ofMinutes(1));
+        outboxProperties.setMaxAttempts(20);
+        outboxProperties.setClaimDuration(Duration.ofMinutes(5));
+        outboxProperties.setSagaTimeout(Duration.ofMinutes(5));
+        sagaExecutor = new SagaExecutor(outboxEntryRepository, imageService, recurringTasksService, recurringTaskProjectionService, objectMapper, outboxProperties, meterRegistry, Clock.fixed(NOW, ZoneOffset.UTC));
+    }
+
+    @Test
+    void registerCompensationMakesItDueWhenTheSagaTimesOut() {
+        // arrange
+        var saga = new Saga();
+
+        // act
+        sagaExecutor.registerCompensation(saga, OutboxEntry.Type.DELETE_IMAGES, List.of("color.jpg", "sepia.jpg"));
+
+        // assert
+        verify(outboxEntryRepository).save(OutboxEntry.builder()
+                .sagaId(saga.getId())
+                .type(OutboxEntry.Type.DELETE_IMAGES)
+                .payload("[\"color.jpg\",\"sepia.jpg\"]")
+                .nextAttemptAt(NOW.plus(Duration.ofMinutes(5)))
+                .build());
+        verifyNoMoreInteractions(outboxEntryRepository);
+        assertEquals(1, saga.getCompensations());
+    }
+
+    @Test
+    void followUpIsOnlySavedWhenTheSagaCompletes() {
+        // arrange
+        var saga = new Saga();
+
+        // act
+        sagaExecutor.followUp(saga, OutboxEntry.Type.DELETE_IMAGES, List.of("old.jpg"));
+
+        // assert
+        assertEquals(List.of(OutboxEntry.builder()
+                .sagaId(saga.getId())
+                .type(OutboxEntry.Type.DELETE_IMAGES)
+                .payload("[\"old.jpg\"]")
+                .nextAttemptAt(NOW)
+                .build()), saga.getFollowUps());
+        assertEquals(0, saga.getCompensations());
+        verifyNoInteractions(outboxEntryRepository);
+    }
+
+    @Test
+    void compensateMakesTheCompensationsDueRightAway() {
+        // arrange
+        var saga = new Saga();
+        sagaExecutor.registerCompensation(saga, OutboxEntry.Type.DELETE_RECURRING_TASK, 999L);
+        doThrow(new RuntimeException("database is down")).when(outboxEntryRepository).trigger(saga.getId(), NOW);
+
+        // act
+        sagaExecutor.compensate(saga); // does not throw, the compensation happens when the saga times out
+
+        // assert
+        verify(outboxEntryRepository).save(any(OutboxEntry.class));
+        verify(outboxEntryRepository).trigger(saga.getId(), NOW);
+        verifyNoMoreInteractions(outboxEntryRepository);
+    }
+
+    @Test
+    void processDueEntriesOnlyProcessesClaimedEntries() {
+        // arrange
+        when(outboxEntryRepository.findDueIds(NOW, PageRequest.of(0, 2))).thenReturn(List.of(1L, 2L));
+        when(outboxEntryRepository.claim(1L, NOW, NOW.plus(Duration.ofMinutes(5)))).thenReturn(1);
+        when(outboxEntryRepository.claim(2L, NOW, NOW.plus(Duration.ofMinutes(5)))).thenReturn(0); // claimed by another instance
+        when(outboxEntryRepository.findAllById(List.of(1L))).thenReturn(List.of(entry(OutboxEntry.Type.DELETE_RECURRING_TASK, "999", 0)));
+        when(outboxEntryRepository.countPendingByType()).thenReturn(List.of(typeCount(OutboxEntry.Type.DELETE_IMAGES, 7)));
+        when(outboxEntryRepository.countDeadLetteredByType()).thenReturn(List.of(typeCount(OutboxEntry.Type.DELETE_RECURRING_TASK, 2)));
+
+        // act
+        sagaExecutor.processDueEntries();
+
+        // assert
+        verify(outboxEntryRepository).findDueIds(NOW, PageRequest.of(0, 2));
+        verify(outboxEntryRepository).claim(1L, NOW, NOW.plus(Duration.ofMinutes(5)));
+        verify(outboxEntryRepository).claim(2L, NOW, NOW.plus(Duration.ofMinutes(5)));
+        verify(outboxEntryRepository).findAllById(List.of(1L));
+        verify(recurringTasksService).deleteById(999L);
+        verify(recurringTaskProjectionService).evict(999L);
+        verify(outboxEntryRepository).deleteIfExists(1L);
+        verify(outboxEntryRepository).countPendingByType();
+        verify(outboxEntryRepository).countDeadLetteredByType();
+        verifyNoMoreInteractions(outboxEntryRepository, imageService, recurringTasksService, recurringTaskProjectionService);
+
+        assertEquals(7, meterRegistry.get("social.outbox.backlog").tag("type", "DELETE_IMAGES").gauge().value());
+        assertEquals(0, meterRegistry.get("social.outbox.backlog").tag("type", "DELETE_RECURRING_TASK").gauge().value());
+        assertEquals(2, meterRegistry.get("social.outbox.dead.letters").tag("type", "DELETE_RECURRING_TASK").gauge().value());
+    }
+
+    @Test
+    void processDeletesTheImagesOfAllEntriesAtOnceAndRetriesOnlyTheFailures() {
+        // arrange
+        var firstPerson = entry(OutboxEntry.Type.DELETE_IMAGES, "[\"color.jpg\",\"sepia.jpg\"]", 0);
+        var secondPerson = entry(2L, OutboxEntry.Type.DELETE_IMAGES, "[\"other-color.jpg\",\"other-sepia.jpg\"]", 0);
+        var thirdPerson = entry(3L, OutboxEntry.Type.DELETE_IMAGES, "[\"shared-color.jpg\",\"shared-sepia.jpg\"]", 0);
+        releaseGives(List.of("color.jpg", "sepia.jpg"), List.of("color.jpg", "sepia.jpg"));
+        releaseGives(List.of("other-color.jpg", "other-sepia.jpg"), List.of("other-color.jpg", "other-sepia.jpg"));
+        releaseGives(List.of("shared-color.jpg", "shared-sepia.jpg"), List.of()); // still used by another person
+        when(imageService.deleteUnused(List.of("color.jpg", "sepia.jpg", "other-color.jpg", "other-sepia.jpg")))
+                .thenReturn(Map.of("color.jpg", ImageDeleteResult.DELETED, "sepia.jpg", ImageDeleteResult.FAILED,
+                        "other-color.jpg", ImageDeleteResult.DELETED, "other-sepia.jpg", ImageDeleteResult.DOES_NOT_EXIST));
+
+        // act
+        sagaExecutor.process(List.of(firstPerson, secondPerson, thirdPerson));
+
+        // assert
+        verify(imageService).deleteUnused(List.of("color.jpg", "sepia.jpg", "other-color.jpg", "other-sepia.jpg"));
+        verify(outboxEntryRepository).updatePayload(1L, "[\"color.jpg\",\"sepia.jpg\"]");
+        verify(outboxEntryRepository).updatePayload(2L, "[\"other-color.jpg\",\"other-sepia.jpg\"]");
+        verify(outboxEntryRepository).updatePayload(3L, "[]");
+        verify(outboxEntryRepository).reschedule(eq(1L), eq("[\"sepia.jpg\"]"), eq(1), eq(NOW.plusSeconds(10)), anyString());
+        verify(outboxEntryRepository).deleteIfExists(2L);
+        verify(outboxEntryRepository).deleteIfExists(3L);
+        verifyNoMoreInteractions(outboxEntryRepository, recurringTasksService, recurringTaskProjectionService);
+    }
+
+    @Test
+    void processWhenDeletingImagesFailsRetriesOnlyTheImagesThatAreNotUsedAnymore() {
+        // arrange
+        var entry = entry(OutboxEntry.Type.DELETE_IMAGES, "[\"color.jpg\",\"sepia.jpg\",\"shared.jpg\"]", 0);
+        releaseGives(List.of("color.jpg", "sepia.jpg", "shared.jpg"), List.of("color.jpg", "sepia.jpg"));
+        when(imageService.deleteUnused(List.of("color.jpg", "sepia.jpg")))
+                .thenThrow(new ResourceAccessException("image module is down"));
+
+        // act
+        sagaExecutor.process(List.of(entry));
+
+        // assert: the use of the images has been given up, the retry only has to delete them
+        verify(outboxEntryRepository).updatePayload(1L, "[\"color.jpg\",\"sepia.jpg\"]");
+        verify(outboxEntryRepository).reschedule(1L, "[\"color.jpg\",\"sepia.jpg\"]", 1, NOW.plusSeconds(10), "image module is down");
+        verifyNoMoreInteractions(outboxEntryRepository, recurringTasksService, recurringTaskProjectionService);
+    }
+
+    @Test
+    void processDeleteRecurringTaskWhenItHasBeenDeletedAlready() {
+        // arrange
+        doThrow(HttpClientErrorException.create(HttpStatus.NOT_FOUND, "Not Found", null, null, null))
+                .when(recurringTasksService).deleteById(999L);
+
+        // act
+        sagaExecutor.process(List.of(entry(OutboxEntry.Type.DELETE_RECURRING_TASK, "999", 0)));
+
+        // assert
+        verify(recurringTasksService).deleteById(999L);
+        verify(recurringTaskProjectionService).evict(999L);
+        verify(outboxEntryRepository).deleteIfExists(1L);
+        verifyNoMoreInteractions(outboxEntryRepository, imageService, recurringTasksService, recurringTaskProjectionService);
+    }
+
+    @Test
+    void processRestoreRecurringTask() throws Exception {
+        // arrange
+        var originalRecurringTask = new RecurringTaskDto(999L, "Stijn", 10, 20, LocalDate.of(2021, 4, 1));
+
+        // act
+        sagaExecutor.process(List.of(entry(OutboxEntry.Type.RESTORE_RECURRING_TASK, objectMapper.writeValueAsString(originalRecurringTask), 0)));
+
+        // assert
+        verify(recurringTasksService).rollbackUpdateRecurringTask(originalRecurringTask);
+        verify(recurringTaskProjectionService).evict(999L);
+        verify(outboxEntryRepository).deleteIfExists(1L);
+        verifyNoMoreInteractions(outboxEntryRepository, imageService, recurringTasksService, recurringTaskProjectionService);
+    }
+
+    @Test
+    void processWhenCallFailsWaitsLongerAfterEveryFailure() {
+        // arrange
+        doThrow(new ResourceAccessException("recurring tasks module is down"))
+                .when(recurringTasksService).deleteById(999L);
+
+        // act
+        sagaExecutor.process(List.of(entry(OutboxEntry.Type.DELETE_RECURRING_TASK, "999", 2)));
+        sagaExecutor.process(List.of(entry(OutboxEntry.Type.DELETE_RECURRING_TASK, "999", 10)));
+
+        // assert
+        verify(recurringTasksService, times(2)).deleteById(999L);
+        verify(outboxEntryRepository).reschedule(1L, "999", 3, NOW.plusSeconds(40), "recurring tasks module is down");
+        verify(outboxEntryRepository).reschedule(1L, "999", 11, NOW.plus(Duration.ofMinutes(1)), "recurring tasks module is down"); // capped at the max retry delay
+        verifyNoMoreInteractions(outboxEntryRepository, imageService, recurringTasksService, recurringTaskProjectionService);
+    }
+
+    @Test
+    void processGivesUpAfterTheMaximumNumberOfAttempts() {
+        // arrange
+        doThrow(new ResourceAccessException("recurring tasks module is down"))
+                .when(recurringTasksService).deleteById(999L);
+
+        // act
+        sagaExecutor.process(List.of(entry(OutboxEntry.Type.DELETE_RECURRING_TASK, "999", 19)));
+
+        // assert
+        verify(recurringTasksService).deleteById(999L);
+        verify(outboxEntryRepository).deadLetter(1L, 20, NOW, "recurring tasks module is down");
+        verifyNoMoreInteractions(outboxEntryRepository, imageService, recurringTasksService, recurringTaskProjectionService);
+    }
+
+    /**
+     * Lets the image service give up the use of the images, and record the ones that are not used anymore.
+     */
+    private void releaseGives(List<String> imageNames, List<String> unused) {
+        when(imageService.release(eq(imageNames), any())).thenAnswer(invocation -> {
+            Consumer<List<String>> recordUnused = invocation.getArgument(1);
+            recordUnused.accept(unused);
+            return unused;
+        });
+    }
+
+    private OutboxEntry entry(OutboxEntry.Type type, String payload, int attempts) {
+        return entry(1L, type, payload, attempts);
+    }
+
+    private OutboxEntry entry(long id, OutboxEntry.Type type, String payload, int attempts) {
+        return OutboxEntry.builder()
+                .id(id)
+                .sagaId("saga")
+                .type(type)
+                .payload(payload)
+                .attempts(attempts)
+                .nextAttemptAt(NOW)
+                .build();
+    }
+
+    private static OutboxEntryRepository.TypeCount typeCount(OutboxEntry.Type type, long count) {
+        return new OutboxEntryRepository.TypeCount() {
+            @Override
+            public OutboxEntry.Type getType() {
+                return type;
+            }
+
+            @Override
+            public long getCount() {
+                return count;
+            }
+        };
+    }
+
+}
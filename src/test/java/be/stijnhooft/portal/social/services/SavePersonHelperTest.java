@@ -0,0 +1,131 @@
+package be.stijnhooft.portal.social.services;
+
+import be.stijnhooft.portal.social.dtos.ThumbnailStatus;
+import be.stijnhooft.portal.social.model.OutboxEntry;
+import be.stijnhooft.portal.social.model.Person;
+import be.stijnhooft.portal.social.model.ThumbnailJob;
+import be.stijnhooft.portal.social.repositories.OutboxEntryRepository;
+import be.stijnhooft.portal.social.repositories.PersonRepository;
+import be.stijnhooft.portal.social.repositories.ThumbnailJobRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Verifies that saving persons in batches saves all of them, or none of them.
+ */
+@SpringBootTest(properties = "social.persistence.batch-size=3")
+@ActiveProfiles("test")
+class SavePersonHelperTest {
+
+    @Autowired
+    private SavePersonHelper savePersonHelper;
+
+    @Autowired
+    private SagaExecutor sagaExecutor;
+
+    @Autowired
+    private PersonRepository personRepository;
+
+    @Autowired
+    private ThumbnailJobRepository thumbnailJobRepository;
+
+    @Autowired
+    private OutboxEntryRepository outboxEntryRepository;
+
+    @AfterEach
+    void cleanUp() {
+        thumbnailJobRepository.deleteAll();
+        outboxEntryRepository.deleteAll();
+        personRepository.deleteAll();
+    }
+
+    @Test
+    void saveAllAndCommitSavesThePersonsInBatchesAndCompletesTheirSagas() {
+        // arrange
+        var newPersons = IntStream.range(0, 7)
+                .mapToObj(i -> {
+                    var saga = new Saga();
+                    sagaExecutor.registerCompensation(saga, OutboxEntry.Type.DELETE_RECURRING_TASK, i);
+                    sagaExecutor.followUp(saga, OutboxEntry.Type.DELETE_IMAGES, List.of("old-" + i + ".jpg"));
+                    var person = Person.builder()
+                            .name("Batch " + i)
+                            .recurringTaskId((long) i)
+                            .thumbnailStatus(i % 2 == 0 ? ThumbnailStatus.PENDING : ThumbnailStatus.READY)
+                            .build();
+                    return new SavePersonHelper.NewPerson(person, i % 2 == 0 ? new byte[] {(byte) i} : null, saga);
+                })
+                .collect(Collectors.toList());
+
+        // act
+        var savedPersons = savePersonHelper.saveAllAndCommit(newPersons);
+
+        // assert
+        assertEquals(7, savedPersons.size());
+        assertEquals(7, personRepository.count());
+        for (int i = 0; i < 7; i++) {
+            var savedPerson = personRepository.findById(savedPersons.get(i).getId()).orElseThrow();
+            assertEquals("Batch " + i, savedPerson.getName());
+        }
+
+        var thumbnailJobs = thumbnailJobRepository.findAll();
+        assertEquals(4, thumbnailJobs.size());
+        assertEquals(List.of(savedPersons.get(0).getId(), savedPersons.get(2).getId(), savedPersons.get(4).getId(), savedPersons.get(6).getId()),
+                thumbnailJobs.stream().map(ThumbnailJob::getPersonId).sorted().collect(Collectors.toList()));
+
+        // the compensations are dropped, the follow-ups are queued
+        var outboxEntries = outboxEntryRepository.findAll();
+        assertEquals(7, outboxEntries.size());
+        assertTrue(outboxEntries.stream().allMatch(entry -> entry.getType() == OutboxEntry.Type.DELETE_IMAGES));
+    }
+
+    @Test
+    void saveAllAndCommitSavesNothingWhenASagaHasTimedOut() {
+        // arrange
+        var inTime = new Saga();
+        sagaExecutor.registerCompensation(inTime, OutboxEntry.Type.DELETE_RECURRING_TASK, 1L);
+        var timedOut = new Saga();
+        sagaExecutor.registerCompensation(timedOut, OutboxEntry.Type.DELETE_RECURRING_TASK, 2L);
+        outboxEntryRepository.deleteBySagaId(timedOut.getId()); // the executor has undone it already
+
+        var newPersons = List.of(
+                new SavePersonHelper.NewPerson(Person.builder().name("In time").recurringTaskId(1L).build(), null, inTime),
+                new SavePersonHelper.NewPerson(Person.builder().name("Timed out").recurringTaskId(2L).build(), null, timedOut));
+
+        // act
+        assertThrows(IllegalStateException.class, () -> savePersonHelper.saveAllAndCommit(newPersons));
+
+        // assert
+        assertEquals(0, personRepository.count());
+        assertEquals(1, outboxEntryRepository.count()); // the compensation of the saga that was in time is kept
+    }
+
+    @Test
+    void saveAndFlushAndCommitFailsWhenTheCompensationOfTheSagaHasBeenClaimed() {
+        // arrange
+        var saga = new Saga();
+        sagaExecutor.registerCompensation(saga, OutboxEntry.Type.DELETE_RECURRING_TASK, 1L);
+        var compensation = outboxEntryRepository.findAll().get(0);
+        var now = Instant.now();
+        outboxEntryRepository.trigger(saga.getId(), now); // the saga has timed out
+        assertEquals(1, outboxEntryRepository.claim(compensation.getId(), now, now.plusSeconds(300))); // and the executor is undoing it
+
+        // act
+        assertThrows(IllegalStateException.class,
+                () -> savePersonHelper.saveAndFlushAndCommit(Person.builder().name("Claimed").recurringTaskId(1L).build(), saga));
+
+        // assert
+        assertEquals(0, personRepository.count());
+        assertNotNull(outboxEntryRepository.findById(compensation.getId()).orElseThrow().getClaimedAt());
+    }
+
+}
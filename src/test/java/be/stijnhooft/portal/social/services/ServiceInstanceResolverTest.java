@@ -0,0 +1,214 @@
+package be.stijnhooft.portal.social.services;
+
+import be.stijnhooft.portal.social.ServiceDiscoveryProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+
+import java.net.URI;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ServiceInstanceResolverTest {
+
+    private static final ServiceInstance INSTANCE_1 = new DefaultServiceInstance("image-1", "image", "host-1", 2003, false);
+    private static final ServiceInstance INSTANCE_2 = new DefaultServiceInstance("image-2", "image", "host-2", 2003, false);
+
+    @Mock
+    private DiscoveryClient discoveryClient;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final MutableClock clock = new MutableClock();
+    private ServiceInstanceResolver serviceInstanceResolver;
+
+    @BeforeEach
+    void setUp() {
+        var properties = new ServiceDiscoveryProperties();
+        properties.setFailureThreshold(2);
+        properties.setEjectionDuration(Duration.ofSeconds(30));
+        serviceInstanceResolver = new ServiceInstanceResolver(discoveryClient, properties, meterRegistry, clock);
+    }
+
+    @Test
+    void chooseSpreadsRequestsOverInstances() {
+        // arrange
+        when(discoveryClient.getInstances("image")).thenReturn(List.of(INSTANCE_1, INSTANCE_2));
+
+        // act
+        var chosen = List.of(
+                serviceInstanceResolver.choose("image"),
+                serviceInstanceResolver.choose("image"),
+                serviceInstanceResolver.choose("image"));
+
+        // assert
+        assertEquals(List.of(INSTANCE_1, INSTANCE_2, INSTANCE_1), chosen);
+        verify(discoveryClient).getInstances("image");
+        verifyNoMoreInteractions(discoveryClient);
+    }
+
+    @Test
+    void chooseWhenNoInstanceIsRegistered() {
+        // arrange
+        when(discoveryClient.getInstances("image")).thenReturn(List.of());
+
+        // act and assert
+        assertThrows(IllegalStateException.class, () -> serviceInstanceResolver.choose("image"));
+    }
+
+    @Test
+    void chooseLooksUpAgainWhenNoInstanceWasKnown() {
+        // arrange
+        when(discoveryClient.getInstances("image"))
+                .thenReturn(List.of())
+                .thenReturn(List.of(INSTANCE_1));
+        assertThrows(IllegalStateException.class, () -> serviceInstanceResolver.choose("image"));
+
+        // act
+        var chosen = serviceInstanceResolver.choose("image");
+
+        // assert
+        assertEquals(INSTANCE_1, chosen);
+    }
+
+    @Test
+    void refresh() {
+        // arrange
+        when(discoveryClient.getInstances("image"))
+                .thenReturn(List.of(INSTANCE_1))
+                .thenReturn(List.of(INSTANCE_2));
+        serviceInstanceResolver.choose("image");
+
+        // act
+        serviceInstanceResolver.refresh();
+
+        // assert
+        assertEquals(List.of(INSTANCE_2), serviceInstanceResolver.getInstances("image"));
+        verify(discoveryClient, times(2)).getInstances("image");
+        verifyNoMoreInteractions(discoveryClient);
+    }
+
+    @Test
+    void instanceIsEjectedAfterConsecutiveFailures() {
+        // arrange
+        when(discoveryClient.getInstances("image")).thenReturn(List.of(INSTANCE_1, INSTANCE_2));
+        serviceInstanceResolver.getInstances("image");
+
+        // act
+        serviceInstanceResolver.record(URI.create("http://host-1:2003/api/image"), 1_000, false);
+        serviceInstanceResolver.record(URI.create("http://host-1:2003/api/image"), 1_000, false);
+
+        // assert
+        assertEquals(INSTANCE_2, serviceInstanceResolver.choose("image"));
+        assertEquals(INSTANCE_2, serviceInstanceResolver.choose("image"));
+    }
+
+    @Test
+    void ejectedInstanceIsChosenAgainAfterEjectionDuration() {
+        // arrange
+        when(discoveryClient.getInstances("image")).thenReturn(List.of(INSTANCE_1, INSTANCE_2));
+        serviceInstanceResolver.getInstances("image");
+        serviceInstanceResolver.record(URI.create("http://host-1:2003/api/image"), 1_000, false);
+        serviceInstanceResolver.record(URI.create("http://host-1:2003/api/image"), 1_000, false);
+
+        // act
+        clock.advance(Duration.ofSeconds(31));
+        var chosen = List.of(serviceInstanceResolver.choose("image"), serviceInstanceResolver.choose("image"));
+
+        // assert
+        assertEquals(List.of(INSTANCE_1, INSTANCE_2), chosen);
+    }
+
+    @Test
+    void successResetsConsecutiveFailures() {
+        // arrange
+        when(discoveryClient.getInstances("image")).thenReturn(List.of(INSTANCE_1, INSTANCE_2));
+        serviceInstanceResolver.getInstances("image");
+
+        // act
+        serviceInstanceResolver.record(URI.create("http://host-1:2003/api/image"), 1_000, false);
+        serviceInstanceResolver.record(URI.create("http://host-1:2003/api/image"), 1_000, true);
+        serviceInstanceResolver.record(URI.create("http://host-1:2003/api/image"), 1_000, false);
+
+        // assert
+        assertEquals(INSTANCE_1, serviceInstanceResolver.choose("image"));
+    }
+
+    @Test
+    void allInstancesEjected() {
+        // arrange
+        when(discoveryClient.getInstances("image")).thenReturn(List.of(INSTANCE_1));
+        serviceInstanceResolver.getInstances("image");
+        serviceInstanceResolver.record(URI.create("http://host-1:2003/api/image"), 1_000, false);
+        serviceInstanceResolver.record(URI.create("http://host-1:2003/api/image"), 1_000, false);
+
+        // act
+        var chosen = serviceInstanceResolver.choose("image");
+
+        // assert
+        assertEquals(INSTANCE_1, chosen);
+    }
+
+    @Test
+    void recordPublishesLatencyPerInstance() {
+        // arrange
+        when(discoveryClient.getInstances("image")).thenReturn(List.of(INSTANCE_1, INSTANCE_2));
+        serviceInstanceResolver.getInstances("image");
+
+        // act
+        serviceInstanceResolver.record(URI.create("http://host-1:2003/api/image"), 2_000_000, true);
+        serviceInstanceResolver.record(URI.create("http://host-1:2003/api/image"), 4_000_000, true);
+        serviceInstanceResolver.record(URI.create("http://host-2:2003/api/image"), 1_000_000, false);
+        serviceInstanceResolver.record(URI.create("http://unknown:80/api/image"), 1_000_000, true);
+
+        // assert
+        var timer = meterRegistry.get("http.client.instance.requests")
+                .tags("service", "image", "instance", "host-1:2003", "outcome", "SUCCESS")
+                .timer();
+        assertEquals(2, timer.count());
+        assertEquals(6, timer.totalTime(TimeUnit.MILLISECONDS));
+        assertEquals(1, meterRegistry.get("http.client.instance.requests")
+                .tags("service", "image", "instance", "host-2:2003", "outcome", "FAILURE")
+                .timer()
+                .count());
+        assertEquals(2, meterRegistry.get("http.client.instance.requests").timers().size()); // the unknown host is ignored
+    }
+
+    private static class MutableClock extends Clock {
+
+        private Instant now = Instant.parse("2020-01-01T00:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneId.of("UTC");
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+
+}
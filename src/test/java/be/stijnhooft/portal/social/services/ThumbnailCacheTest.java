@@ -0,0 +1,129 @@
+package be.stijnhooft.portal.social.services;
+
+import be.stijnhooft.portal.social.ThumbnailProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ThumbnailCacheTest {
+
+    @TempDir
+    Path directory;
+
+    @Mock
+    private ThumbnailBackend thumbnailBackend;
+
+    private ThumbnailProperties thumbnailProperties;
+
+    @BeforeEach
+    void setUp() {
+        thumbnailProperties = new ThumbnailProperties();
+        thumbnailProperties.setCacheDirectory(directory);
+        thumbnailProperties.setCacheSize(DataSize.ofBytes(10));
+    }
+
+    @Test
+    void findRetrievesAThumbnailOnlyOnce() throws IOException {
+        // arrange
+        thumbnailExists("a.jpg", "abc");
+        var thumbnailCache = new ThumbnailCache(thumbnailBackend, thumbnailProperties);
+
+        // act
+        var first = read(thumbnailCache.find("a.jpg").orElseThrow());
+        var second = read(thumbnailCache.find("a.jpg").orElseThrow());
+
+        // assert
+        assertEquals("abc", first);
+        assertEquals("abc", second);
+        verify(thumbnailBackend, times(1)).read(eq("a.jpg"), any());
+        verifyNoMoreInteractions(thumbnailBackend);
+    }
+
+    @Test
+    void findWhenThumbnailDoesNotExist() {
+        // arrange
+        when(thumbnailBackend.read(eq("missing.jpg"), any())).thenReturn(false);
+        var thumbnailCache = new ThumbnailCache(thumbnailBackend, thumbnailProperties);
+
+        // act
+        var result = thumbnailCache.find("missing.jpg");
+
+        // assert
+        assertTrue(result.isEmpty());
+        assertFalse(Files.exists(directory.resolve("missing.jpg")));
+    }
+
+    @Test
+    void findWhenNamePointsOutsideTheDirectory() {
+        // arrange
+        var thumbnailCache = new ThumbnailCache(thumbnailBackend, thumbnailProperties);
+
+        // act and assert
+        assertTrue(thumbnailCache.find("../escaped.jpg").isEmpty());
+        assertTrue(thumbnailCache.find(".hidden").isEmpty());
+        verifyNoInteractions(thumbnailBackend);
+    }
+
+    @Test
+    void leastRecentlyUsedThumbnailsAreRemovedWhenTheCacheIsFull() throws IOException {
+        // arrange: room for 10 bytes
+        thumbnailExists("a.jpg", "aaaa");
+        thumbnailExists("b.jpg", "bbbb");
+        thumbnailExists("c.jpg", "cccc");
+        var thumbnailCache = new ThumbnailCache(thumbnailBackend, thumbnailProperties);
+        thumbnailCache.find("a.jpg").orElseThrow();
+        thumbnailCache.find("b.jpg").orElseThrow();
+        thumbnailCache.find("a.jpg").orElseThrow(); // b is now the least recently used
+
+        // act
+        thumbnailCache.find("c.jpg").orElseThrow();
+
+        // assert
+        assertTrue(Files.exists(directory.resolve("a.jpg")));
+        assertFalse(Files.exists(directory.resolve("b.jpg")));
+        assertTrue(Files.exists(directory.resolve("c.jpg")));
+    }
+
+    @Test
+    void cacheIsRebuiltAtStartup() throws IOException {
+        // arrange
+        Files.writeString(directory.resolve("cached.jpg"), "abc");
+        Files.writeString(directory.resolve(".interrupted.tmp"), "ab");
+
+        // act
+        var thumbnailCache = new ThumbnailCache(thumbnailBackend, thumbnailProperties);
+
+        // assert
+        assertEquals("abc", read(thumbnailCache.find("cached.jpg").orElseThrow()));
+        assertFalse(Files.exists(directory.resolve(".interrupted.tmp")));
+        verifyNoInteractions(thumbnailBackend);
+    }
+
+    private void thumbnailExists(String name, String content) {
+        lenient().when(thumbnailBackend.read(eq(name), any())).thenAnswer(invocation -> {
+            OutputStream target = invocation.getArgument(1);
+            target.write(content.getBytes());
+            return true;
+        });
+    }
+
+    private static String read(Path thumbnail) throws IOException {
+        return Files.readString(thumbnail);
+    }
+
+}
@@ -0,0 +1,88 @@
+package be.stijnhooft.portal.social.services;
+
+import be.stijnhooft.portal.social.ThumbnailProperties;
+import be.stijnhooft.portal.social.ThumbnailProperties.Filter;
+import be.stijnhooft.portal.social.ThumbnailProperties.Profile;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ThumbnailProfilesTest {
+
+    private static final Map<String, String> THUMBNAILS = Map.of(
+            "thumbnail", "color.jpg",
+            "sepia", "sepia.jpg",
+            "thumbnail-small", "color-small.jpg",
+            "sepia-small", "sepia-small.jpg",
+            "thumbnail-large", "color-large.jpg",
+            "sepia-large", "sepia-large.jpg");
+
+    private ThumbnailProfiles thumbnailProfiles;
+
+    @BeforeEach
+    void setUp() {
+        thumbnailProfiles = new ThumbnailProfiles(new ThumbnailProperties(), new ObjectMapper());
+    }
+
+    @Test
+    void findSmallestThatFits() {
+        assertEquals("thumbnail-small", thumbnailProfiles.findSmallestThatFits(THUMBNAILS, 48, false).orElseThrow().getName());
+        assertEquals("thumbnail-small", thumbnailProfiles.findSmallestThatFits(THUMBNAILS, 64, false).orElseThrow().getName());
+        assertEquals("thumbnail", thumbnailProfiles.findSmallestThatFits(THUMBNAILS, 65, false).orElseThrow().getName());
+        assertEquals("sepia-large", thumbnailProfiles.findSmallestThatFits(THUMBNAILS, 400, true).orElseThrow().getName());
+    }
+
+    @Test
+    void findSmallestThatFitsWhenAllAreTooSmall() {
+        assertEquals("sepia-large", thumbnailProfiles.findSmallestThatFits(THUMBNAILS, 2000, true).orElseThrow().getName());
+    }
+
+    @Test
+    void findSmallestThatFitsSkipsMissingThumbnails() {
+        // arrange: made before the smaller and larger sizes existed
+        var thumbnails = Map.of("thumbnail", "color.jpg", "sepia", "sepia.jpg");
+
+        // act and assert
+        assertEquals("thumbnail", thumbnailProfiles.findSmallestThatFits(thumbnails, 48, false).orElseThrow().getName());
+        assertEquals("sepia", thumbnailProfiles.findSmallestThatFits(thumbnails, 600, true).orElseThrow().getName());
+        assertTrue(thumbnailProfiles.findSmallestThatFits(Map.of(), 48, false).isEmpty());
+    }
+
+    @Test
+    void transformationDefinitions() {
+        // arrange
+        var properties = new ThumbnailProperties();
+        var uncropped = new Profile("sepia", 128, Filter.SEPIA);
+        uncropped.setCrop(false);
+        properties.setProfiles(List.of(new Profile("thumbnail", 300), uncropped));
+
+        // act
+        var result = new ThumbnailProfiles(properties, new ObjectMapper()).getTransformationDefinitions();
+
+        // assert
+        assertEquals("[{\"label\":\"thumbnail\",\"transformations\":[{\"name\":\"resize\",\"width\":\"300\",\"height\":\"300\",\"crop\":true}]}," +
+                "{\"label\":\"sepia\",\"transformations\":[{\"name\":\"resize\",\"width\":\"128\",\"height\":\"128\",\"crop\":false},{\"name\":\"sepia\"}]}]", result);
+    }
+
+    @Test
+    void profilesAreValidatedAtStartup() {
+        assertThrows(IllegalStateException.class, () -> profiles(new Profile("thumbnail", 300)));
+        assertThrows(IllegalStateException.class, () -> profiles(new Profile("thumbnail", 300), new Profile("sepia", 300), new Profile("sepia", 64)));
+        assertThrows(IllegalStateException.class, () -> profiles(new Profile("thumbnail", 300), new Profile("sepia", 300), new Profile("../small", 64)));
+        assertThrows(IllegalStateException.class, () -> profiles(new Profile("thumbnail", 300), new Profile("sepia", 0)));
+    }
+
+    private static ThumbnailProfiles profiles(Profile... profiles) {
+        var properties = new ThumbnailProperties();
+        properties.setProfiles(List.of(profiles));
+        return new ThumbnailProfiles(properties, new ObjectMapper());
+    }
+
+}
@@ -0,0 +1,189 @@
+package be.stijnhooft.portal.social.services;
+
+import be.stijnhooft.portal.social.ThumbnailProperties;
+import be.stijnhooft.portal.social.dtos.ImageLabel;
+import be.stijnhooft.portal.social.dtos.ThumbnailStatus;
+import be.stijnhooft.portal.social.model.Person;
+import be.stijnhooft.portal.social.model.ThumbnailJob;
+import be.stijnhooft.portal.social.repositories.PersonRepository;
+import be.stijnhooft.portal.social.repositories.ThumbnailJobRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.io.Resource;
+import org.springframework.data.domain.PageRequest;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ThumbnailWorkerTest {
+
+    private static final Instant NOW = Instant.parse("2021-05-01T10:00:00Z");
+    private static final String PLACEHOLDER = "LEHV6nWB2yk8pyo0adR*.7kCMdnj";
+
+    @Mock
+    private ThumbnailJobRepository thumbnailJobRepository;
+
+    @Mock
+    private PersonRepository personRepository;
+
+    @Mock
+    private ImageService imageService;
+
+    @Mock
+    private SavePersonHelper savePersonHelper;
+
+    @Mock
+    private PlaceholderService placeholderService;
+
+    @Mock
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    private ThumbnailProperties thumbnailProperties;
+
+    private ThumbnailWorker thumbnailWorker;
+
+    @BeforeEach
+    void setUp() {
+        thumbnailProperties = new ThumbnailProperties();
+        thumbnailProperties.setBatchSize(2);
+        thumbnailProperties.setMaxAttempts(3);
+        thumbnailProperties.setRetryDelay(Duration.ofSeconds(10));
+        thumbnailProperties.setClaimDuration(Duration.ofMinutes(5));
+        thumbnailWorker = new ThumbnailWorker(thumbnailJobRepository, personRepository, imageService, savePersonHelper, placeholderService, applicationEventPublisher, thumbnailProperties, Clock.fixed(NOW, ZoneOffset.UTC));
+    }
+
+    @Test
+    void processDueJobsOnlyProcessesClaimedJobs() {
+        // arrange
+        var job = job(0);
+        var thumbnails = new HashMap<>(Map.of(ImageLabel.COLOR_THUMBNAIL.getValue(), "color.jpg", ImageLabel.SEPIA_THUMBNAIL.getValue(), "sepia.jpg"));
+
+        when(thumbnailJobRepository.findDueIds(NOW, PageRequest.of(0, 2))).thenReturn(List.of(1L, 2L));
+        when(thumbnailJobRepository.claim(1L, NOW, NOW.plus(Duration.ofMinutes(5)))).thenReturn(1);
+        when(thumbnailJobRepository.claim(2L, NOW, NOW.plus(Duration.ofMinutes(5)))).thenReturn(0); // claimed by another instance
+        when(thumbnailJobRepository.findById(1L)).thenReturn(Optional.of(job));
+        when(personRepository.findById(100L)).thenReturn(Optional.of(pendingPerson()));
+        when(imageService.createThumbnails(any(Resource.class))).thenReturn(thumbnails);
+        when(placeholderService.createPlaceholder(thumbnails)).thenReturn(PLACEHOLDER);
+        when(savePersonHelper.completeThumbnailJob(job, thumbnails, PLACEHOLDER)).thenReturn(true);
+
+        // act
+        thumbnailWorker.processDueJobs();
+
+        // assert
+        verify(thumbnailJobRepository).findDueIds(NOW, PageRequest.of(0, 2));
+        verify(thumbnailJobRepository).claim(1L, NOW, NOW.plus(Duration.ofMinutes(5)));
+        verify(thumbnailJobRepository).claim(2L, NOW, NOW.plus(Duration.ofMinutes(5)));
+        verify(thumbnailJobRepository).findById(1L);
+        verify(personRepository).findById(100L);
+        verify(imageService).createThumbnails(any(Resource.class));
+        verify(placeholderService).createPlaceholder(thumbnails);
+        verify(savePersonHelper).completeThumbnailJob(job, thumbnails, PLACEHOLDER);
+        verify(applicationEventPublisher).publishEvent(new ThumbnailsChangedEvent(100L));
+        verifyNoMoreInteractions(thumbnailJobRepository, personRepository, imageService, savePersonHelper, placeholderService, applicationEventPublisher);
+    }
+
+    @Test
+    void processWhenPersonHasBeenDeleted() {
+        // arrange
+        when(personRepository.findById(100L)).thenReturn(Optional.empty());
+
+        // act
+        thumbnailWorker.process(job(0));
+
+        // assert
+        verify(personRepository).findById(100L);
+        verify(thumbnailJobRepository).deleteIfExists(1L);
+        verifyNoMoreInteractions(thumbnailJobRepository, personRepository, imageService, savePersonHelper, placeholderService, applicationEventPublisher);
+    }
+
+    @Test
+    void processWhenPersonGotAnotherImageWhileMakingTheThumbnails() {
+        // arrange
+        var job = job(0);
+        var thumbnails = new HashMap<>(Map.of(ImageLabel.COLOR_THUMBNAIL.getValue(), "color.jpg", ImageLabel.SEPIA_THUMBNAIL.getValue(), "sepia.jpg"));
+
+        when(personRepository.findById(100L)).thenReturn(Optional.of(pendingPerson()));
+        when(imageService.createThumbnails(any(Resource.class))).thenReturn(thumbnails);
+        when(placeholderService.createPlaceholder(thumbnails)).thenReturn(PLACEHOLDER);
+        when(savePersonHelper.completeThumbnailJob(job, thumbnails, PLACEHOLDER)).thenReturn(false);
+
+        // act
+        thumbnailWorker.process(job);
+
+        // assert
+        verify(personRepository).findById(100L);
+        verify(imageService).createThumbnails(any(Resource.class));
+        verify(placeholderService).createPlaceholder(thumbnails);
+        verify(savePersonHelper).completeThumbnailJob(job, thumbnails, PLACEHOLDER);
+        verify(imageService).delete(thumbnails.values());
+        verifyNoMoreInteractions(thumbnailJobRepository, personRepository, imageService, savePersonHelper, placeholderService, applicationEventPublisher);
+    }
+
+    @Test
+    void processWhenImageServiceGivesErrorRetriesWithBackoff() {
+        // arrange
+        when(personRepository.findById(100L)).thenReturn(Optional.of(pendingPerson()));
+        when(imageService.createThumbnails(any(Resource.class))).thenThrow(new RuntimeException("image module is down"));
+
+        // act
+        thumbnailWorker.process(job(1));
+
+        // assert
+        verify(personRepository).findById(100L);
+        verify(imageService).createThumbnails(any(Resource.class));
+        verify(thumbnailJobRepository).reschedule(1L, 2, NOW.plusSeconds(20), "image module is down");
+        verifyNoMoreInteractions(thumbnailJobRepository, personRepository, imageService, savePersonHelper, placeholderService, applicationEventPublisher);
+    }
+
+    @Test
+    void processWhenImageServiceKeepsGivingErrorsGivesUp() {
+        // arrange
+        var job = job(2);
+        when(personRepository.findById(100L)).thenReturn(Optional.of(pendingPerson()));
+        when(imageService.createThumbnails(any(Resource.class))).thenThrow(new RuntimeException("image module is down"));
+
+        // act
+        thumbnailWorker.process(job);
+
+        // assert
+        verify(personRepository).findById(100L);
+        verify(imageService).createThumbnails(any(Resource.class));
+        verify(savePersonHelper).failThumbnailJob(job);
+        verifyNoMoreInteractions(thumbnailJobRepository, personRepository, imageService, savePersonHelper, placeholderService, applicationEventPublisher);
+    }
+
+    private ThumbnailJob job(int attempts) {
+        return ThumbnailJob.builder()
+                .id(1L)
+                .personId(100L)
+                .image(new byte[] {1, 2, 3})
+                .attempts(attempts)
+                .nextAttemptAt(NOW)
+                .build();
+    }
+
+    private Person pendingPerson() {
+        return Person.builder()
+                .id(100L)
+                .name("Stijn")
+                .recurringTaskId(999L)
+                .thumbnailStatus(ThumbnailStatus.PENDING)
+                .build();
+    }
+
+}